@@ -0,0 +1,85 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.model;
+
+import java.io.Serializable;
+
+import org.gluu.persist.annotation.AttributeName;
+import org.gluu.persist.annotation.DataEntry;
+import org.gluu.persist.annotation.ObjectClass;
+import org.gluu.persist.model.base.BaseEntry;
+
+/**
+ * Lease which allows only one oxTrust node to run a background job. Lease is
+ * stored as organizational unit, owner and expiration time are kept in its
+ * description
+ */
+@DataEntry
+@ObjectClass(value = "organizationalUnit")
+public class TimerLease extends BaseEntry implements Serializable {
+
+	private static final long serialVersionUID = -1745836587414209427L;
+
+	private static final String SEPARATOR = ";";
+
+	@AttributeName(name = "ou")
+	private String name;
+
+	@AttributeName(name = "description")
+	private String description;
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public void setDescription(String description) {
+		this.description = description;
+	}
+
+	public String getOwner() {
+		if (description == null) {
+			return null;
+		}
+
+		int index = description.lastIndexOf(SEPARATOR);
+		return index == -1 ? description : description.substring(0, index);
+	}
+
+	/**
+	 * @return Expiration time in milliseconds or 0 if it's not defined
+	 */
+	public long getExpiration() {
+		if (description == null) {
+			return 0;
+		}
+
+		int index = description.lastIndexOf(SEPARATOR);
+		try {
+			return index == -1 ? 0 : Long.parseLong(description.substring(index + 1));
+		} catch (NumberFormatException ex) {
+			return 0;
+		}
+	}
+
+	public void setLease(String owner, long expiration) {
+		this.description = owner + SEPARATOR + expiration;
+	}
+
+	@Override
+	public String toString() {
+		return "TimerLease [name=" + name + ", owner=" + getOwner() + ", expiration=" + getExpiration() + "]";
+	}
+
+}
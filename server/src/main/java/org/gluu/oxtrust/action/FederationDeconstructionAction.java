@@ -20,12 +20,12 @@ import javax.inject.Named;
 import org.gluu.config.oxtrust.AppConfiguration;
 import org.gluu.model.GluuStatus;
 import org.gluu.oxtrust.ldap.service.OrganizationService;
+import org.gluu.oxtrust.ldap.service.MetadataEntityIdService;
 import org.gluu.oxtrust.ldap.service.Shibboleth3ConfService;
 import org.gluu.oxtrust.ldap.service.TrustService;
 import org.gluu.oxtrust.model.GluuMetadataSourceType;
 import org.gluu.oxtrust.model.GluuSAMLTrustRelationship;
 import org.gluu.oxtrust.util.OxTrustConstants;
-import org.gluu.saml.metadata.SAMLMetadataParser;
 import org.gluu.service.security.Secure;
 import org.gluu.util.StringHelper;
 import org.slf4j.Logger;
@@ -43,6 +43,9 @@ public class FederationDeconstructionAction implements Serializable {
 
 	@Inject
 	private Logger log;
+
+	@Inject
+	private MetadataEntityIdService metadataEntityIdService;
 	
 	@Inject
 	private OrganizationService organizationService;
@@ -179,7 +182,7 @@ public class FederationDeconstructionAction implements Serializable {
 			String idpMetadataFolder = appConfiguration.getShibboleth3IdpRootDir() + File.separator
 					+ Shibboleth3ConfService.SHIB3_IDP_METADATA_FOLDER + File.separator;
 			File metadataFile = new File(idpMetadataFolder + trustRelationship.getSpMetaDataFN());
-			for (String entity : SAMLMetadataParser.getEntityIdFromMetadataFile(metadataFile)) {
+			for (String entity : metadataEntityIdService.getEntityIdFromMetadataFile(metadataFile)) {
 				if (entity.toLowerCase().contains(filterString.toLowerCase())) {
 					filteredEntities.add(entity);
 				}
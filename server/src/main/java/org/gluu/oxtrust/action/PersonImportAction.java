@@ -12,11 +12,9 @@ import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import javax.annotation.PreDestroy;
 import javax.enterprise.context.ConversationScoped;
@@ -27,28 +25,22 @@ import javax.inject.Named;
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.lang.RandomStringUtils;
 import org.gluu.config.oxtrust.AppConfiguration;
 import org.gluu.jsf2.message.FacesMessages;
 import org.gluu.jsf2.service.ConversationService;
 import org.gluu.model.GluuAttribute;
-import org.gluu.model.GluuStatus;
 import org.gluu.model.GluuUserRole;
-import org.gluu.model.attribute.AttributeDataType;
 import org.gluu.oxtrust.ldap.load.conf.ImportPersonConfiguration;
 import org.gluu.oxtrust.ldap.service.AttributeService;
 import org.gluu.oxtrust.ldap.service.ExcelService;
 import org.gluu.oxtrust.ldap.service.OrganizationService;
-import org.gluu.oxtrust.ldap.service.OxTrustAuditService;
+import org.gluu.oxtrust.ldap.service.PersonImportService;
+import org.gluu.oxtrust.ldap.service.PersonImportStatus;
 import org.gluu.oxtrust.ldap.service.PersonService;
 import org.gluu.oxtrust.model.GluuCustomAttribute;
 import org.gluu.oxtrust.model.GluuCustomPerson;
-import org.gluu.oxtrust.model.table.Table;
 import org.gluu.oxtrust.security.Identity;
-import org.gluu.oxtrust.service.external.ExternalUpdateUserService;
 import org.gluu.oxtrust.util.OxTrustConstants;
-import org.gluu.persist.exception.EntryPersistenceException;
-import org.gluu.persist.model.AttributeData;
 import org.gluu.service.security.Secure;
 import org.gluu.util.StringHelper;
 import org.richfaces.event.FileUploadEvent;
@@ -65,16 +57,9 @@ import org.slf4j.Logger;
 @Secure("#{permissionService.hasPermission('person', 'import')}")
 public class PersonImportAction implements Serializable {
 
-	private static final String UID = "uid";
-
-	private static final String USER_PASSWORD = "userPassword";
-
-	private static final String SEPARATOR = ";";
-
 	private static final long serialVersionUID = -1270460481895022468L;
 
-	private static final String[] PERSON_IMPORT_PERSON_LOCKUP_RETURN_ATTRIBUTES = { UID, "displayName", "mail" };
-	public static final String PERSON_PASSWORD_ATTRIBUTE = USER_PASSWORD;
+	public static final String PERSON_PASSWORD_ATTRIBUTE = "userPassword";
 
 	@Inject
 	private Logger log;
@@ -92,10 +77,10 @@ public class PersonImportAction implements Serializable {
 	private AppConfiguration appConfiguration;
 
 	@Inject
-	private ExternalUpdateUserService externalUpdateUserService;
+	private ExcelService excelService;
 
 	@Inject
-	private ExcelService excelService;
+	private PersonImportService personImportService;
 
 	@Inject
 	private FacesMessages facesMessages;
@@ -112,14 +97,12 @@ public class PersonImportAction implements Serializable {
 	@Inject
 	private Identity identity;
 
-	@Inject
-	private OxTrustAuditService oxTrustAuditService;
-
 	private UploadedFile uploadedFile;
 	private FileDataToImport fileDataToImport;
 	private List<GluuAttribute> attributes;
 	private Map<String, GluuAttribute> attributesDisplayNameMap;
 	private byte[] fileData;
+	private PersonImportStatus importStatus;
 
 	private boolean isInitialized;
 	private GluuCustomPerson person;
@@ -141,30 +124,29 @@ public class PersonImportAction implements Serializable {
 			facesMessages.add(FacesMessage.SEVERITY_ERROR, "File to import is invalid");
 			return OxTrustConstants.RESULT_FAILURE;
 		}
-		log.debug("Attempting to add {} persons", fileDataToImport.getPersons().size());
-		try {
-			for (GluuCustomPerson person : fileDataToImport.getPersons()) {
-				this.person = person;
-				String result = initializePerson();
-				if (result.equals(OxTrustConstants.RESULT_SUCCESS)) {
-					result = save();
-				}
-				if (result.equals(OxTrustConstants.RESULT_SUCCESS)) {
-					log.debug("Added new person: {}", person.getUid());
-				} else {
-					log.debug("Failed to add new person: {}", person.getUid());
-					facesMessages.add(FacesMessage.SEVERITY_ERROR, "Failed to add new person: '%s'", person.getUid());
-				}
-			}
-		} catch (EntryPersistenceException ex) {
-			log.error("Failed to add new person", ex);
+		if (!organizationService.isAllowPersonModification()) {
 			facesMessages.add(FacesMessage.SEVERITY_ERROR, "Failed to import users");
 			return OxTrustConstants.RESULT_FAILURE;
 		}
-		log.debug("All {} persons added successfully", fileDataToImport.getPersons().size());
-		oxTrustAuditService.audit(fileDataToImport.getPersons().size() + " USERS IMPORTED ", identity.getUser(),
-				(HttpServletRequest) FacesContext.getCurrentInstance().getExternalContext().getRequest());
-		facesMessages.add(FacesMessage.SEVERITY_INFO, "Users successfully imported");
+
+		Map<Integer, GluuAttribute> columns = new HashMap<Integer, GluuAttribute>();
+		for (ImportAttribute importAttribute : fileDataToImport.getImportAttributes()) {
+			if (importAttribute.getCol() != -1) {
+				columns.put(importAttribute.getCol(), importAttribute.getAttribute());
+			}
+		}
+
+		HttpServletRequest request = (HttpServletRequest) FacesContext.getCurrentInstance().getExternalContext()
+				.getRequest();
+		String ipAddress = request.getHeader("X-FORWARDED-FOR") != null ? request.getHeader("X-FORWARDED-FOR")
+				: request.getRemoteAddr();
+		String auditMessage = "BY USER " + identity.getUser().getDisplayName() + " FROM IP ADDRESS " + ipAddress;
+
+		this.importStatus = personImportService.startImport(fileDataToImport.getFileName(), this.fileData, columns,
+				isGeneratePassword(fileDataToImport.getImportAttributes()), auditMessage);
+		log.debug("Started import {} of persons from '{}'", importStatus.getId(), fileDataToImport.getFileName());
+
+		facesMessages.add(FacesMessage.SEVERITY_INFO, "Users import started");
 		removeFileToImport();
 		return OxTrustConstants.RESULT_SUCCESS;
 	}
@@ -175,21 +157,23 @@ public class PersonImportAction implements Serializable {
 			if (uploadedFile == null) {
 				return OxTrustConstants.RESULT_FAILURE;
 			}
-			Table table;
+			// Rows are validated by import, here only header is read
+			Map<Integer, String> header = new HashMap<Integer, String>();
 			try (InputStream is = new ByteArrayInputStream(this.fileData);) {
-				table = excelService.read(is);
+				excelService.read(is, (rowIndex, cells) -> {
+					header.putAll(cells);
+					return false;
+				});
 			} catch (Exception e) {
 				return null;
 			}
-			this.fileDataToImport.setTable(table);
-			if (table != null) {
+			if (!header.isEmpty()) {
 				this.fileDataToImport.setFileName(FilenameUtils.getName(uploadedFile.getName()));
-				this.fileDataToImport.setImportAttributes(getAttributesForImport(table));
+				this.fileDataToImport.setImportAttributes(getAttributesForImport(header));
 				this.fileDataToImport.setReady(true);
 			}
 			if (this.fileDataToImport.isReady()) {
-				boolean valid = prepareAndValidateImportData(this.fileDataToImport.getTable(),
-						this.fileDataToImport.getImportAttributes());
+				boolean valid = validateImportAttributes(this.fileDataToImport.getImportAttributes());
 				this.fileDataToImport.setReady(valid);
 				if (!valid) {
 					removeFileDataToImport();
@@ -231,6 +215,14 @@ public class PersonImportAction implements Serializable {
 		return this.fileDataToImport;
 	}
 
+	/**
+	 * Status of the last import started in this conversation. It is polled by
+	 * import page until import is finished
+	 */
+	public PersonImportStatus getImportStatus() {
+		return importStatus;
+	}
+
 	public void removeFileDataToImport() {
 		this.fileDataToImport.reset();
 	}
@@ -255,9 +247,9 @@ public class PersonImportAction implements Serializable {
 		removeFileDataToImport();
 	}
 
-	private boolean prepareAndValidateImportData(Table table, List<ImportAttribute> importAttributes) throws Exception {
+	private boolean validateImportAttributes(List<ImportAttribute> importAttributes) {
 		String attributesString = getAttributesString(this.attributes);
-		if ((table == null) || (importAttributes == null)) {
+		if (importAttributes == null) {
 			facesMessages.add(FacesMessage.SEVERITY_ERROR, "Import failed. Missing columns: %s", attributesString);
 			return false;
 		}
@@ -269,31 +261,6 @@ public class PersonImportAction implements Serializable {
 			return false;
 		}
 
-		if (table.getCountRows() < 1) {
-			facesMessages.add(FacesMessage.SEVERITY_ERROR, "Import failed. No data found");
-			return false;
-		}
-
-		// Convert Excel table to GluuCustomPersons
-		List<GluuCustomPerson> persons = convertTableToPersons(table, importAttributes);
-		if (persons == null) {
-			return false;
-		}
-
-		// Check if person already exist
-		if (!validatePersons(persons)) {
-			return false;
-		}
-
-		// Fill persons with default values
-		if (!setDefaultPersonAttributes(persons, importAttributes)) {
-			return false;
-		}
-
-		// Store persons
-		log.info("Prepared {} persons for creation", persons.size());
-		this.fileDataToImport.setPersons(persons);
-
 		return true;
 	}
 
@@ -319,156 +286,15 @@ public class PersonImportAction implements Serializable {
 		return result;
 	}
 
-	private boolean setDefaultPersonAttributes(List<GluuCustomPerson> persons, List<ImportAttribute> importAttributes)
-			throws Exception {
-		boolean isGeneratePassword = false;
+	private boolean isGeneratePassword(List<ImportAttribute> importAttributes) {
 		for (ImportAttribute importAttribute : importAttributes) {
 			if (importAttribute.getAttribute().getName().equalsIgnoreCase(PERSON_PASSWORD_ATTRIBUTE)
 					&& !importAttribute.getAttribute().isRequred()) {
-				isGeneratePassword = true;
-				break;
-			}
-		}
-
-		for (GluuCustomPerson person : persons) {
-			if (StringHelper.isEmpty(person.getCommonName())) {
-				person.setCommonName(person.getGivenName() + " " + person.getSurname());
-			} else {
-				person.setCommonName(person.getCommonName() + " " + person.getGivenName() + " " + person.getSurname());
-			}
-			person.setDisplayName(person.getCommonName());
-
-			if (isGeneratePassword && StringHelper.isEmpty(person.getUserPassword())) {
-				person.setUserPassword(RandomStringUtils.randomAlphanumeric(16));
-			}
-
-		}
-
-		return true;
-	}
-
-	private boolean validatePersons(List<GluuCustomPerson> persons) throws Exception {
-		Set<String> uids = new HashSet<String>();
-		Set<String> mails = new HashSet<String>();
-		for (GluuCustomPerson person : persons) {
-			uids.add(person.getUid());
-			mails.add(person.getMail());
-		}
-
-		if (uids.size() != persons.size()) {
-			facesMessages.add(FacesMessage.SEVERITY_ERROR,
-					"Import failed. There are persons with simular uid(s) in input file");
-			return false;
-		}
-
-		if (mails.size() != persons.size()) {
-			facesMessages.add(FacesMessage.SEVERITY_ERROR,
-					"Import failed. There are persons with simular mail(s) in input file");
-			return false;
-		}
-
-		List<GluuCustomPerson> existPersons = personService.findPersonsByUids(new ArrayList<String>(uids),
-				PERSON_IMPORT_PERSON_LOCKUP_RETURN_ATTRIBUTES);
-		if (existPersons.size() > 0) {
-			facesMessages.add(FacesMessage.SEVERITY_ERROR, "Import failed. There are persons with existing uid(s): %s",
-					personService.getPersonUids(existPersons));
-			return false;
-		}
-
-		List<GluuCustomPerson> existEmailPersons = personService.findPersonsByMailids(new ArrayList<String>(mails),
-				PERSON_IMPORT_PERSON_LOCKUP_RETURN_ATTRIBUTES);
-		if (existEmailPersons.size() > 0) {
-			facesMessages.add(FacesMessage.SEVERITY_ERROR,
-					"Import failed. There are persons with existing mailid(s): %s",
-					personService.getPersonMailids(existEmailPersons));
-			return false;
-		}
-
-		return true;
-	}
-
-	protected List<GluuCustomPerson> convertTableToPersons(Table table, List<ImportAttribute> importAttributes)
-			throws Exception {
-		Map<String, List<AttributeData>> entriesAttributes = new HashMap<String, List<AttributeData>>();
-		Map<String, String> uidPAsswords = new HashMap<String, String>();
-		int rows = table.getCountRows();
-		boolean validTable = true;
-		for (int i = 1; i <= rows; i++) {
-			List<AttributeData> attributeDataList = new ArrayList<AttributeData>();
-			String uid = null;
-			String password = null;
-			for (ImportAttribute importAttribute : importAttributes) {
-				if (importAttribute.getCol() == -1) {
-					continue;
-				}
-				GluuAttribute attribute = importAttribute.getAttribute();
-				String cellValue = table.getCellValue(importAttribute.getCol(), i);
-				boolean isMultiValue = attribute.getOxMultiValuedAttribute();
-				if (StringHelper.isEmpty(cellValue)) {
-					if (attribute.isRequred()) {
-						facesMessages.add(FacesMessage.SEVERITY_ERROR, "Import failed. Empty '%s' not allowed",
-								attribute.getDisplayName());
-						validTable = false;
-					}
-					continue;
-				}
-				String ldapValue = getTypedValue(attribute, cellValue);
-				if (StringHelper.isEmpty(ldapValue)) {
-					facesMessages.add(FacesMessage.SEVERITY_ERROR,
-							"Invalid value '%s' in column '%s' at row %s were specified", cellValue,
-							attribute.getDisplayName(), i + 1);
-					validTable = false;
-					continue;
-				}
-				if (attribute.getName().equalsIgnoreCase(UID)) {
-					uid = ldapValue;
-				}
-				if (attribute.getName().equalsIgnoreCase(USER_PASSWORD)) {
-					password = ldapValue;
-				}
-				if (isMultiValue) {
-					AttributeData attributeData = new AttributeData(attribute.getName(), ldapValue.split(SEPARATOR));
-					attributeDataList.add(attributeData);
-				} else {
-					AttributeData attributeData = new AttributeData(attribute.getName(), ldapValue);
-					attributeDataList.add(attributeData);
-				}
-			}
-			entriesAttributes.put(Integer.toString(i), attributeDataList);
-			uidPAsswords.put(uid, password);
-		}
-		if (!validTable) {
-			return null;
-		}
-		List<GluuCustomPerson> persons = personService.createEntities(entriesAttributes);
-		log.trace("Found {} persons in input Excel file", persons.size());
-		for (GluuCustomPerson person : persons) {
-			if (person.getStatus() == null) {
-				person.setStatus(GluuStatus.INACTIVE);
-			}
-			if (uidPAsswords.containsKey(person.getUid())) {
-				String password = uidPAsswords.get(person.getUid());
-				if (password != null) {
-					person.setUserPassword(uidPAsswords.get(person.getUid().trim().toString()));
-				} else {
-					person.setUserPassword(person.getUid());
-				}
+				return true;
 			}
 		}
-		return persons;
-	}
 
-	private String getTypedValue(GluuAttribute attribute, String value) {
-		if (AttributeDataType.STRING.equals(attribute.getDataType())
-				|| attribute.getName().equalsIgnoreCase("gluuStatus")) {
-			return value;
-		} else if (AttributeDataType.BOOLEAN.equals(attribute.getDataType())) {
-			Boolean gluuBoolean = Boolean.valueOf(value);
-			if (gluuBoolean != null) {
-				return gluuBoolean.toString();
-			}
-		}
-		return null;
+		return false;
 	}
 
 	private String getAttributesString(List<GluuAttribute> attributes) {
@@ -489,16 +315,11 @@ public class PersonImportAction implements Serializable {
 		return sb.toString();
 	}
 
-	private List<ImportAttribute> getAttributesForImport(Table table) {
+	private List<ImportAttribute> getAttributesForImport(Map<Integer, String> header) {
 		List<ImportAttribute> importAttributes = new ArrayList<ImportAttribute>();
-		if ((table == null) || (table.getCountCols() < 1) || (table.getCountRows() < 1)) {
-			return importAttributes;
-		}
-
-		int cols = table.getCountCols();
 		List<String> addedAttributes = new ArrayList<String>(this.attributes.size());
-		for (int i = 0; i <= cols; i++) {
-			String cellValue = table.getCellValue(i, 0);
+		for (Map.Entry<Integer, String> cell : header.entrySet()) {
+			String cellValue = cell.getValue();
 			if (StringHelper.isEmpty(cellValue)) {
 				continue;
 			}
@@ -506,7 +327,7 @@ public class PersonImportAction implements Serializable {
 			GluuAttribute attribute = attributesDisplayNameMap.get(attributeName);
 			if (attribute != null) {
 				addedAttributes.add(attributeName);
-				ImportAttribute importAttribute = new ImportAttribute(i, attribute);
+				ImportAttribute importAttribute = new ImportAttribute(cell.getKey(), attribute);
 				importAttributes.add(importAttribute);
 			}
 		}
@@ -548,34 +369,13 @@ public class PersonImportAction implements Serializable {
 		if (!organizationService.isAllowPersonModification()) {
 			return OxTrustConstants.RESULT_FAILURE;
 		}
-		personService.addCustomObjectClass(this.person);
 		if (personService.getPersonByUid(this.person.getUid()) != null) {
 			return OxTrustConstants.RESULT_DUPLICATE;
 		}
-		this.inum = personService.generateInumForNewPerson();
-		String dn = personService.getDnForPerson(this.inum);
-		// Save person
-		this.person.setDn(dn);
-		this.person.setInum(this.inum);
-		List<GluuCustomAttribute> personAttributes = this.person.getCustomAttributes();
-		if (!personAttributes.contains(new GluuCustomAttribute("cn", ""))) {
-			List<GluuCustomAttribute> changedAttributes = new ArrayList<GluuCustomAttribute>();
-			changedAttributes.addAll(personAttributes);
-			changedAttributes.add(
-					new GluuCustomAttribute("cn", this.person.getGivenName() + " " + this.person.getDisplayName()));
-			this.person.setCustomAttributes(changedAttributes);
-		} else {
-			this.person.setCommonName(this.person.getCommonName() + " " + this.person.getGivenName());
-		}
 		try {
-			boolean runScript = externalUpdateUserService.isEnabled();
-			if (runScript) {
-				externalUpdateUserService.executeExternalAddUserMethods(this.person);
-			}
-			personService.addPerson(this.person);
-			if (runScript) {
-				externalUpdateUserService.executeExternalPostAddUserMethods(this.person);
-			}
+			// Save person
+			personImportService.addImportedPerson(this.person);
+			this.inum = this.person.getInum();
 		} catch (Exception ex) {
 			log.error("Failed to add new person {}", this.person.getInum(), ex);
 			return OxTrustConstants.RESULT_FAILURE;
@@ -601,18 +401,12 @@ public class PersonImportAction implements Serializable {
 		private static final long serialVersionUID = 7334362213305310293L;
 
 		private String fileName;
-		private Table table;
 		private List<ImportAttribute> importAttributes;
-		private List<GluuCustomPerson> persons;
 		private boolean ready;
 
 		public FileDataToImport() {
 		}
 
-		public FileDataToImport(Table table) {
-			this.table = table;
-		}
-
 		public List<ImportAttribute> getImportAttributes() {
 			return importAttributes;
 		}
@@ -621,14 +415,6 @@ public class PersonImportAction implements Serializable {
 			this.importAttributes = importAttributes;
 		}
 
-		public Table getTable() {
-			return table;
-		}
-
-		public void setTable(Table table) {
-			this.table = table;
-		}
-
 		public String getFileName() {
 			return fileName;
 		}
@@ -637,14 +423,6 @@ public class PersonImportAction implements Serializable {
 			this.fileName = fileName;
 		}
 
-		public List<GluuCustomPerson> getPersons() {
-			return persons;
-		}
-
-		public void setPersons(List<GluuCustomPerson> persons) {
-			this.persons = persons;
-		}
-
 		public boolean isReady() {
 			return ready;
 		}
@@ -655,9 +433,7 @@ public class PersonImportAction implements Serializable {
 
 		public void reset() {
 			this.fileName = null;
-			this.table = null;
 			this.importAttributes = null;
-			this.persons = null;
 			this.ready = false;
 		}
 	}
@@ -8,6 +8,7 @@ package org.gluu.oxtrust.ldap.cache.model;
 
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.Comparator;
 
 import org.gluu.util.ArrayHelper;
 
@@ -20,6 +21,10 @@ public class CacheCompoundKey implements Serializable {
 
 	private static final long serialVersionUID = -3366537601347036591L;
 
+	private static final char NULL_VALUE = '\u0000';
+	private static final char VALUES_SEPARATOR = '\u0001';
+	private static final char KEYS_SEPARATOR = '\u0002';
+
 	private String[] primaryKeyValues;
 	private String[] secondaryKeyValues;
 	private String[] tertiaryKeyValues;
@@ -54,6 +59,38 @@ public class CacheCompoundKey implements Serializable {
 		return tertiaryKeyValues;
 	}
 
+	/**
+	 * Build string representation of key which doesn't depend on values order.
+	 * Equal keys have equal sort keys, so it can be used to order and join
+	 * entries by compound key
+	 */
+	public String toSortKey() {
+		StringBuilder builder = new StringBuilder();
+		appendSortKey(builder, primaryKeyValues);
+		builder.append(KEYS_SEPARATOR);
+		appendSortKey(builder, secondaryKeyValues);
+		builder.append(KEYS_SEPARATOR);
+		appendSortKey(builder, tertiaryKeyValues);
+
+		return builder.toString();
+	}
+
+	private void appendSortKey(StringBuilder builder, String[] keyValues) {
+		if (keyValues == null) {
+			builder.append(NULL_VALUE);
+			return;
+		}
+
+		String[] sortedKeyValues = Arrays.copyOf(keyValues, keyValues.length);
+		Arrays.sort(sortedKeyValues, Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+		for (int i = 0; i < sortedKeyValues.length; i++) {
+			if (i > 0) {
+				builder.append(VALUES_SEPARATOR);
+			}
+			builder.append(sortedKeyValues[i] == null ? NULL_VALUE : sortedKeyValues[i]);
+		}
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -0,0 +1,201 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.gluu.oxtrust.model.GluuCustomAttribute;
+import org.gluu.util.StringHelper;
+
+/**
+ * Stable 64 bit digest of source entry with digests of each attribute.
+ * Attribute names are stored in lower case. Digests don't depend on attributes
+ * and values order
+ */
+public class CacheRefreshEntryDigest implements Serializable {
+
+	private static final long serialVersionUID = 2706356113618407498L;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final long digest;
+	private final String[] attributeNames;
+	private final long[] attributeDigests;
+
+	public CacheRefreshEntryDigest(long digest, String[] attributeNames, long[] attributeDigests) {
+		this.digest = digest;
+		this.attributeNames = attributeNames;
+		this.attributeDigests = attributeDigests;
+	}
+
+	public static CacheRefreshEntryDigest compute(GluuSimplePerson person) {
+		TreeMap<String, Long> attributes = new TreeMap<String, Long>();
+		for (GluuCustomAttribute customAttribute : person.getCustomAttributes()) {
+			String name = StringHelper.toLowerCase(customAttribute.getName());
+			if (name == null) {
+				continue;
+			}
+
+			String[] values = customAttribute.getValues();
+			long attributeDigest = update(FNV_OFFSET_BASIS, name);
+			if (values != null) {
+				String[] sortedValues = Arrays.copyOf(values, values.length);
+				Arrays.sort(sortedValues, Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+				for (String value : sortedValues) {
+					attributeDigest = update(attributeDigest, value);
+				}
+			}
+			attributes.put(name, mix(attributeDigest));
+		}
+
+		String[] attributeNames = new String[attributes.size()];
+		long[] attributeDigests = new long[attributes.size()];
+
+		long digest = update(FNV_OFFSET_BASIS, StringHelper.toLowerCase(person.getDn()));
+		digest = update(digest, person.getSourceServerName());
+
+		int i = 0;
+		for (String name : attributes.keySet()) {
+			attributeNames[i] = name;
+			attributeDigests[i] = attributes.get(name);
+			digest = update(digest, attributeDigests[i]);
+			i++;
+		}
+
+		return new CacheRefreshEntryDigest(mix(digest), attributeNames, attributeDigests);
+	}
+
+	public long getDigest() {
+		return digest;
+	}
+
+	public boolean hasAttributeDigests() {
+		return attributeNames != null;
+	}
+
+	/**
+	 * Get names of attributes which were added, removed or changed
+	 *
+	 * @return null if it's not possible to determine changed attributes
+	 */
+	public Set<String> getChangedAttributes(CacheRefreshEntryDigest prevEntryDigest) {
+		if ((prevEntryDigest == null) || !hasAttributeDigests() || !prevEntryDigest.hasAttributeDigests()) {
+			return null;
+		}
+
+		Set<String> result = new HashSet<String>();
+
+		// Both lists are sorted by name
+		int i = 0, j = 0;
+		while ((i < attributeNames.length) || (j < prevEntryDigest.attributeNames.length)) {
+			int compareResult;
+			if (i >= attributeNames.length) {
+				compareResult = 1;
+			} else if (j >= prevEntryDigest.attributeNames.length) {
+				compareResult = -1;
+			} else {
+				compareResult = attributeNames[i].compareTo(prevEntryDigest.attributeNames[j]);
+			}
+
+			if (compareResult < 0) {
+				result.add(attributeNames[i++]);
+			} else if (compareResult > 0) {
+				result.add(prevEntryDigest.attributeNames[j++]);
+			} else {
+				if (attributeDigests[i] != prevEntryDigest.attributeDigests[j]) {
+					result.add(attributeNames[i]);
+				}
+				i++;
+				j++;
+			}
+		}
+
+		return result;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(digest);
+		if (attributeNames == null) {
+			out.writeInt(-1);
+			return;
+		}
+
+		out.writeInt(attributeNames.length);
+		for (int i = 0; i < attributeNames.length; i++) {
+			out.writeUTF(attributeNames[i]);
+			out.writeLong(attributeDigests[i]);
+		}
+	}
+
+	public static CacheRefreshEntryDigest read(DataInput in) throws IOException {
+		long digest = in.readLong();
+		int count = in.readInt();
+		if (count == -1) {
+			return new CacheRefreshEntryDigest(digest, null, null);
+		}
+
+		String[] attributeNames = new String[count];
+		long[] attributeDigests = new long[count];
+		for (int i = 0; i < count; i++) {
+			attributeNames[i] = in.readUTF();
+			attributeDigests[i] = in.readLong();
+		}
+
+		return new CacheRefreshEntryDigest(digest, attributeNames, attributeDigests);
+	}
+
+	private static long update(long hash, String value) {
+		if (value == null) {
+			return update(hash, -1L);
+		}
+
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		hash = update(hash, (long) bytes.length);
+		for (byte b : bytes) {
+			hash ^= (b & 0xff);
+			hash *= FNV_PRIME;
+		}
+
+		return hash;
+	}
+
+	private static long update(long hash, long value) {
+		for (int i = 0; i < 8; i++) {
+			hash ^= (value >>> (i * 8)) & 0xff;
+			hash *= FNV_PRIME;
+		}
+
+		return hash;
+	}
+
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("CacheRefreshEntryDigest [digest=%016x, attributeNames=%s]", digest,
+				Arrays.toString(attributeNames));
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.model;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * State of incremental Cache Refresh. Contains high-water marks of change
+ * marker attribute for each source server and time of last full run
+ */
+public class CacheRefreshIncrementalState implements Serializable {
+
+	private static final long serialVersionUID = -1402873498102847251L;
+
+	private String changeMarkerAttribute;
+	private long lastFullRunTime;
+	private final Map<String, String> changeMarkers;
+
+	public CacheRefreshIncrementalState(String changeMarkerAttribute) {
+		this.changeMarkerAttribute = changeMarkerAttribute;
+		this.changeMarkers = new ConcurrentHashMap<String, String>();
+	}
+
+	public String getChangeMarkerAttribute() {
+		return changeMarkerAttribute;
+	}
+
+	public void setChangeMarkerAttribute(String changeMarkerAttribute) {
+		this.changeMarkerAttribute = changeMarkerAttribute;
+	}
+
+	public long getLastFullRunTime() {
+		return lastFullRunTime;
+	}
+
+	public void setLastFullRunTime(long lastFullRunTime) {
+		this.lastFullRunTime = lastFullRunTime;
+	}
+
+	public Map<String, String> getChangeMarkers() {
+		return changeMarkers;
+	}
+
+	public String getChangeMarker(String sourceServerName) {
+		return changeMarkers.get(sourceServerName);
+	}
+
+	/**
+	 * Keep marker if it's greater than current source server marker
+	 */
+	public void updateChangeMarker(String sourceServerName, String changeMarker) {
+		if ((sourceServerName == null) || (changeMarker == null)) {
+			return;
+		}
+
+		changeMarkers.merge(sourceServerName, changeMarker,
+				(marker1, marker2) -> compareChangeMarkers(marker1, marker2) >= 0 ? marker1 : marker2);
+	}
+
+	public void updateChangeMarkers(CacheRefreshIncrementalState state) {
+		for (Map.Entry<String, String> changeMarker : state.getChangeMarkers().entrySet()) {
+			updateChangeMarker(changeMarker.getKey(), changeMarker.getValue());
+		}
+	}
+
+	/**
+	 * Compare numeric markers (uSNChanged) as numbers and time stamps
+	 * (modifyTimestamp, whenChanged) as strings
+	 */
+	public static int compareChangeMarkers(String marker1, String marker2) {
+		if (isNumber(marker1) && isNumber(marker2)) {
+			String number1 = trimLeadingZeros(marker1);
+			String number2 = trimLeadingZeros(marker2);
+			if (number1.length() != number2.length()) {
+				return Integer.compare(number1.length(), number2.length());
+			}
+
+			return number1.compareTo(number2);
+		}
+
+		return marker1.compareTo(marker2);
+	}
+
+	private static boolean isNumber(String value) {
+		if (value.isEmpty()) {
+			return false;
+		}
+
+		for (int i = 0; i < value.length(); i++) {
+			if (!Character.isDigit(value.charAt(i))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static String trimLeadingZeros(String value) {
+		int i = 0;
+		while ((i < value.length() - 1) && (value.charAt(i) == '0')) {
+			i++;
+		}
+
+		return value.substring(i);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("CacheRefreshIncrementalState [changeMarkerAttribute=%s, lastFullRunTime=%s, changeMarkers=%s]",
+				changeMarkerAttribute, lastFullRunTime, changeMarkers);
+	}
+
+}
@@ -0,0 +1,141 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gluu.oxtrust.ldap.cache.model.GluuSimplePerson;
+import org.gluu.oxtrust.model.GluuCustomAttribute;
+
+/**
+ * Binary encoding of cache refresh records stored in sorted indexes
+ */
+public final class CacheRefreshRecordCodec {
+
+	private CacheRefreshRecordCodec() {
+	}
+
+	public static DataOutputStream createOutput(ByteArrayOutputStream bos) {
+		return new DataOutputStream(bos);
+	}
+
+	public static DataInputStream createInput(byte[] bytes) {
+		return new DataInputStream(new ByteArrayInputStream(bytes));
+	}
+
+	public static byte[] encodeString(String value) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		writeString(createOutput(bos), value);
+
+		return bos.toByteArray();
+	}
+
+	public static String decodeString(byte[] bytes) throws IOException {
+		return readString(createInput(bytes));
+	}
+
+	public static byte[] encodeInt(int value) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(4);
+		createOutput(bos).writeInt(value);
+
+		return bos.toByteArray();
+	}
+
+	public static int decodeInt(byte[] bytes) throws IOException {
+		return createInput(bytes).readInt();
+	}
+
+	public static void writeString(DataOutput out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	public static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length == -1) {
+			return null;
+		}
+
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public static void writeStrings(DataOutput out, String[] values) throws IOException {
+		if (values == null) {
+			out.writeInt(-1);
+			return;
+		}
+
+		out.writeInt(values.length);
+		for (String value : values) {
+			writeString(out, value);
+		}
+	}
+
+	public static String[] readStrings(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length == -1) {
+			return null;
+		}
+
+		String[] values = new String[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = readString(in);
+		}
+
+		return values;
+	}
+
+	public static void writePerson(DataOutput out, GluuSimplePerson person) throws IOException {
+		writeString(out, person.getDn());
+		writeString(out, person.getSourceServerName());
+		writeStrings(out, person.getCustomObjectClasses());
+
+		List<GluuCustomAttribute> customAttributes = person.getCustomAttributes();
+		out.writeInt(customAttributes.size());
+		for (GluuCustomAttribute customAttribute : customAttributes) {
+			writeString(out, customAttribute.getName());
+			writeStrings(out, customAttribute.getValues());
+		}
+	}
+
+	public static GluuSimplePerson readPerson(DataInput in) throws IOException {
+		GluuSimplePerson person = new GluuSimplePerson();
+		person.setDn(readString(in));
+		person.setSourceServerName(readString(in));
+		person.setCustomObjectClasses(readStrings(in));
+
+		int count = in.readInt();
+		List<GluuCustomAttribute> customAttributes = new ArrayList<GluuCustomAttribute>(count);
+		for (int i = 0; i < count; i++) {
+			String name = readString(in);
+			String[] values = readStrings(in);
+			customAttributes.add(new GluuCustomAttribute(name, values));
+		}
+		person.setCustomAttributes(customAttributes);
+
+		return person;
+	}
+
+}
@@ -11,17 +11,20 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.Set;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -32,6 +35,8 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.gluu.config.oxtrust.CacheRefreshConfiguration;
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshEntryDigest;
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshIncrementalState;
 import org.gluu.util.ArrayHelper;
 import org.slf4j.Logger;
 
@@ -47,9 +52,15 @@ public class CacheRefreshSnapshotFileService {
 	@Inject
 	private Logger log;
 
-	private static final String SNAPSHOT_FILE_NAME_PATTERN = "inum-snapshot-%s.txt";
+	private static final String SNAPSHOT_FILE_NAME_PATTERN = "inum-snapshot-%s.bin";
+	private static final String TEXT_SNAPSHOT_FILE_NAME_PATTERN = "inum-snapshot-%s.txt";
 	private static final String PROBLEM_LIST_FILE_NAME = "problem-inum-list.txt";
 	private static final String SNAPSHOT_FILE_NAME_DATE_PATTERN = "yyyy-MM-dd-HH-mm";
+	private static final String WORK_FOLDER_NAME = "work";
+	private static final String INCREMENTAL_STATE_FILE_NAME = "incremental-state.properties";
+	private static final String INCREMENTAL_STATE_MARKER_ATTRIBUTE = "changeMarkerAttribute";
+	private static final String INCREMENTAL_STATE_LAST_FULL_RUN_TIME = "lastFullRunTime";
+	private static final String INCREMENTAL_STATE_MARKER_PREFIX = "marker.";
 
 	public boolean prepareSnapshotsFolder(CacheRefreshConfiguration cacheRefreshConfiguration) {
 		String snapshotFolder = cacheRefreshConfiguration.getSnapshotFolder();
@@ -67,84 +78,87 @@ public class CacheRefreshSnapshotFileService {
 		return true;
 	}
 
-	public boolean createSnapshot(CacheRefreshConfiguration cacheRefreshConfiguration, Map<String, Integer> inumWithEntryHashCodeMap) {
-		if (!prepareSnapshotsFolder(cacheRefreshConfiguration)) {
-			return false;
+	public File prepareWorkFolder(CacheRefreshConfiguration cacheRefreshConfiguration) {
+		File dir = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + WORK_FOLDER_NAME);
+		try {
+			// Remove files left after previous run
+			if (dir.exists()) {
+				FileUtils.cleanDirectory(dir);
+			} else {
+				FileUtils.forceMkdir(dir);
+			}
+		} catch (IOException ex) {
+			log.error("Failed to prepare work folder '{}'", dir.getAbsolutePath(), ex);
+			return null;
 		}
 
-		DateFormat fileNameDateFormat = new SimpleDateFormat(SNAPSHOT_FILE_NAME_DATE_PATTERN);
-		String snapshotFileName = String.format(SNAPSHOT_FILE_NAME_PATTERN, fileNameDateFormat.format(new Date()));
+		return dir;
+	}
 
-		File file = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + snapshotFileName);
-		BufferedWriter bos;
-		try {
-			bos = new BufferedWriter(new FileWriter(file));
-		} catch (IOException ex) {
-			log.error("Failed to create snapshot file '{}'", file.getAbsolutePath(), ex);
+	public void cleanupWorkFolder(CacheRefreshConfiguration cacheRefreshConfiguration) {
+		File dir = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + WORK_FOLDER_NAME);
+		FileUtils.deleteQuietly(dir);
+	}
+
+	public boolean createSnapshot(CacheRefreshConfiguration cacheRefreshConfiguration, Map<String, CacheRefreshEntryDigest> inumWithEntryDigestMap) {
+		CacheRefreshSnapshotWriter snapshotWriter = createSnapshotWriter(cacheRefreshConfiguration);
+		if (snapshotWriter == null) {
 			return false;
 		}
 
+		String[] inums = inumWithEntryDigestMap.keySet().toArray(new String[0]);
+		Arrays.sort(inums);
 		try {
-			for (Entry<String, Integer> entry : inumWithEntryHashCodeMap.entrySet()) {
-				bos.write(String.format("%s:%d\n", entry.getKey(), entry.getValue()));
+			for (String inum : inums) {
+				snapshotWriter.write(inum, inumWithEntryDigestMap.get(inum));
 			}
-			bos.flush();
+			snapshotWriter.commit();
 		} catch (IOException ex) {
-			log.error("Failed to create snapshot file '{}'", file.getAbsolutePath(), ex);
+			log.error("Failed to create snapshot file '{}'", snapshotWriter.getFile().getAbsolutePath(), ex);
 			return false;
 		} finally {
-			IOUtils.closeQuietly(bos);
+			snapshotWriter.close();
 		}
 
 		return true;
 	}
 
-	public Map<String, Integer> readSnapshot(CacheRefreshConfiguration cacheRefreshConfiguration, String snapshotFileName) {
+	public CacheRefreshSnapshotWriter createSnapshotWriter(CacheRefreshConfiguration cacheRefreshConfiguration) {
 		if (!prepareSnapshotsFolder(cacheRefreshConfiguration)) {
 			return null;
 		}
 
+		DateFormat fileNameDateFormat = new SimpleDateFormat(SNAPSHOT_FILE_NAME_DATE_PATTERN);
+		String snapshotFileName = String.format(SNAPSHOT_FILE_NAME_PATTERN, fileNameDateFormat.format(new Date()));
+
 		File file = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + snapshotFileName);
-		if (!file.exists()) {
+		try {
+			return new CacheRefreshSnapshotWriter(file);
+		} catch (IOException ex) {
+			log.error("Failed to create snapshot file '{}'", file.getAbsolutePath(), ex);
 			return null;
 		}
+	}
 
-		BufferedReader bis;
-		try {
-			bis = new BufferedReader(new FileReader(file));
-		} catch (FileNotFoundException ex) {
-			log.error("Failed to load snapshot file '{}'", file.getAbsolutePath(), ex);
+	public CacheRefreshSnapshotReader openSnapshot(CacheRefreshConfiguration cacheRefreshConfiguration, String snapshotFileName) {
+		if (!prepareSnapshotsFolder(cacheRefreshConfiguration)) {
+			return null;
+		}
+
+		File file = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + snapshotFileName);
+		if (!file.exists()) {
 			return null;
 		}
 
-		Map<String, Integer> result = new HashMap<String, Integer>();
 		try {
-			String line;
-			while ((line = bis.readLine()) != null) {
-				String[] lineValues = line.split(":");
-				if (lineValues.length != 2) {
-					log.error("Failed to parse line: {}", line);
-					return null;
-				}
-
-				try {
-					result.put(lineValues[0], Integer.valueOf(lineValues[1]));
-				} catch (RuntimeException ex) {
-					log.error("Failed to parse '{}' to integer", lineValues[1], ex);
-					return null;
-				}
-			}
+			return CacheRefreshSnapshotReader.open(file);
 		} catch (IOException ex) {
 			log.error("Failed to load snapshot file '{}'", file.getAbsolutePath(), ex);
 			return null;
-		} finally {
-			IOUtils.closeQuietly(bis);
 		}
-
-		return result;
 	}
 
-	public Map<String, Integer> readLastSnapshot(CacheRefreshConfiguration cacheRefreshConfiguration) {
+	public CacheRefreshSnapshotReader openLastSnapshot(CacheRefreshConfiguration cacheRefreshConfiguration) {
 		if (!prepareSnapshotsFolder(cacheRefreshConfiguration)) {
 			return null;
 		}
@@ -154,12 +168,13 @@ public class CacheRefreshSnapshotFileService {
 			return null;
 		}
 
-		return readSnapshot(cacheRefreshConfiguration, snapshots[snapshots.length - 1]);
+		return openSnapshot(cacheRefreshConfiguration, snapshots[snapshots.length - 1]);
 	}
 
 	private String[] getSnapshotsList(CacheRefreshConfiguration cacheRefreshConfiguration) {
 		File file = new File(cacheRefreshConfiguration.getSnapshotFolder());
-		String[] files = file.list(new WildcardFileFilter(String.format(SNAPSHOT_FILE_NAME_PATTERN, "*")));
+		String[] files = file.list(new WildcardFileFilter(new String[] { String.format(SNAPSHOT_FILE_NAME_PATTERN, "*"),
+				String.format(TEXT_SNAPSHOT_FILE_NAME_PATTERN, "*") }));
 		Arrays.sort(files);
 
 		return files;
@@ -248,4 +263,77 @@ public class CacheRefreshSnapshotFileService {
 		return true;
 	}
 
+	public CacheRefreshIncrementalState readIncrementalState(CacheRefreshConfiguration cacheRefreshConfiguration) {
+		File file = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + INCREMENTAL_STATE_FILE_NAME);
+		if (!file.exists()) {
+			return null;
+		}
+
+		Properties properties = new Properties();
+		try (InputStream is = new FileInputStream(file)) {
+			properties.load(is);
+		} catch (IOException ex) {
+			log.error("Failed to load incremental state from file '{}'", file.getAbsolutePath(), ex);
+			return null;
+		}
+
+		CacheRefreshIncrementalState result = new CacheRefreshIncrementalState(
+				properties.getProperty(INCREMENTAL_STATE_MARKER_ATTRIBUTE));
+		try {
+			result.setLastFullRunTime(Long.parseLong(properties.getProperty(INCREMENTAL_STATE_LAST_FULL_RUN_TIME, "0")));
+		} catch (NumberFormatException ex) {
+			log.error("Failed to parse last full run time in file '{}'", file.getAbsolutePath(), ex);
+			return null;
+		}
+
+		for (String name : properties.stringPropertyNames()) {
+			if (name.startsWith(INCREMENTAL_STATE_MARKER_PREFIX)) {
+				result.updateChangeMarker(name.substring(INCREMENTAL_STATE_MARKER_PREFIX.length()),
+						properties.getProperty(name));
+			}
+		}
+
+		return result;
+	}
+
+	public boolean writeIncrementalState(CacheRefreshConfiguration cacheRefreshConfiguration,
+			CacheRefreshIncrementalState incrementalState) {
+		if (!prepareSnapshotsFolder(cacheRefreshConfiguration)) {
+			return false;
+		}
+
+		Properties properties = new Properties();
+		if (incrementalState.getChangeMarkerAttribute() != null) {
+			properties.setProperty(INCREMENTAL_STATE_MARKER_ATTRIBUTE, incrementalState.getChangeMarkerAttribute());
+		}
+		properties.setProperty(INCREMENTAL_STATE_LAST_FULL_RUN_TIME,
+				String.valueOf(incrementalState.getLastFullRunTime()));
+		for (Map.Entry<String, String> changeMarker : incrementalState.getChangeMarkers().entrySet()) {
+			properties.setProperty(INCREMENTAL_STATE_MARKER_PREFIX + changeMarker.getKey(), changeMarker.getValue());
+		}
+
+		File file = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + INCREMENTAL_STATE_FILE_NAME);
+		File tempFile = new File(file.getAbsolutePath() + ".tmp");
+		try (OutputStream os = new FileOutputStream(tempFile)) {
+			properties.store(os, "Cache Refresh incremental state");
+		} catch (IOException ex) {
+			log.error("Failed to write incremental state to file '{}'", tempFile.getAbsolutePath(), ex);
+			FileUtils.deleteQuietly(tempFile);
+			return false;
+		}
+
+		if ((file.exists() && !file.delete()) || !tempFile.renameTo(file)) {
+			log.error("Failed to replace incremental state file '{}'", file.getAbsolutePath());
+			FileUtils.deleteQuietly(tempFile);
+			return false;
+		}
+
+		return true;
+	}
+
+	public void removeIncrementalState(CacheRefreshConfiguration cacheRefreshConfiguration) {
+		File file = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + INCREMENTAL_STATE_FILE_NAME);
+		FileUtils.deleteQuietly(file);
+	}
+
 }
@@ -0,0 +1,251 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshEntryDigest;
+
+/**
+ * Iterate over snapshot entries in inum order. Supports binary snapshots and
+ * old text snapshots. Old snapshots contain only 32 bit hash codes without
+ * attribute digests
+ */
+public abstract class CacheRefreshSnapshotReader implements Closeable {
+
+	protected String inum;
+	protected CacheRefreshEntryDigest entryDigest;
+
+	public static CacheRefreshSnapshotReader open(File file) throws IOException {
+		if (isBinarySnapshot(file)) {
+			return new BinarySnapshotReader(file);
+		}
+
+		return new TextSnapshotReader(file);
+	}
+
+	/**
+	 * Move to next entry
+	 *
+	 * @return false if there are no more entries
+	 */
+	public abstract boolean next() throws IOException;
+
+	public String getInum() {
+		return inum;
+	}
+
+	public CacheRefreshEntryDigest getEntryDigest() {
+		return entryDigest;
+	}
+
+	protected static CacheRefreshEntryDigest createLegacyEntryDigest(int hashCode) {
+		return new CacheRefreshEntryDigest(hashCode, null, null);
+	}
+
+	private static boolean isBinarySnapshot(File file) throws IOException {
+		if (file.length() < 8) {
+			return false;
+		}
+
+		try (InputStream is = new FileInputStream(file)) {
+			DataInputStream in = new DataInputStream(is);
+			return in.readInt() == CacheRefreshSnapshotWriter.MAGIC;
+		}
+	}
+
+	/**
+	 * Read memory mapped binary snapshot block by block
+	 */
+	private static class BinarySnapshotReader extends CacheRefreshSnapshotReader {
+
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+		private final Inflater inflater;
+
+		private final int version;
+
+		private DataInputStream block;
+		private int blockRemaining;
+		private boolean finished;
+
+		protected BinarySnapshotReader(File file) throws IOException {
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				if (channel.size() > Integer.MAX_VALUE) {
+					throw new IOException(String.format("Snapshot file '%s' is too big", file.getAbsolutePath()));
+				}
+				this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} catch (IOException ex) {
+				channel.close();
+				throw ex;
+			}
+			this.inflater = new Inflater();
+
+			int magic = buffer.getInt();
+			this.version = buffer.getInt();
+			if ((magic != CacheRefreshSnapshotWriter.MAGIC) || ((version != CacheRefreshSnapshotWriter.VERSION)
+					&& (version != CacheRefreshSnapshotWriter.VERSION_1))) {
+				close();
+				throw new IOException(String.format("Unsupported snapshot file '%s' version '%d'",
+						file.getAbsolutePath(), version));
+			}
+		}
+
+		@Override
+		public boolean next() throws IOException {
+			if (finished) {
+				return false;
+			}
+
+			if ((blockRemaining == 0) && !readBlock()) {
+				this.finished = true;
+				return false;
+			}
+
+			this.inum = CacheRefreshRecordCodec.readString(block);
+			if (version == CacheRefreshSnapshotWriter.VERSION_1) {
+				this.entryDigest = createLegacyEntryDigest(block.readInt());
+			} else {
+				this.entryDigest = CacheRefreshEntryDigest.read(block);
+			}
+			this.blockRemaining--;
+
+			return true;
+		}
+
+		private boolean readBlock() throws IOException {
+			int count = buffer.getInt();
+			if (count == 0) {
+				return false;
+			}
+
+			int length = buffer.getInt();
+			int compressedLength = buffer.getInt();
+
+			byte[] compressed = new byte[compressedLength];
+			buffer.get(compressed);
+
+			byte[] uncompressed = new byte[length];
+			inflater.reset();
+			inflater.setInput(compressed);
+			try {
+				int inflated = 0;
+				while (inflated < length) {
+					int current = inflater.inflate(uncompressed, inflated, length - inflated);
+					if ((current == 0) && (inflater.finished() || inflater.needsInput())) {
+						break;
+					}
+					inflated += current;
+				}
+
+				if (inflated != length) {
+					throw new IOException("Snapshot block is truncated");
+				}
+			} catch (DataFormatException ex) {
+				throw new IOException("Failed to decompress snapshot block", ex);
+			}
+
+			this.block = new DataInputStream(new ByteArrayInputStream(uncompressed));
+			this.blockRemaining = count;
+
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			inflater.end();
+			channel.close();
+		}
+
+	}
+
+	/**
+	 * Read old text snapshot with inum:hashCode lines. Entries in these files
+	 * aren't ordered, so reader sorts them in memory
+	 */
+	private static class TextSnapshotReader extends CacheRefreshSnapshotReader {
+
+		private final List<TextSnapshotEntry> entries;
+		private int position;
+
+		protected TextSnapshotReader(File file) throws IOException {
+			this.entries = new ArrayList<TextSnapshotEntry>();
+
+			try (BufferedReader bis = new BufferedReader(new FileReader(file))) {
+				String line;
+				while ((line = bis.readLine()) != null) {
+					String[] lineValues = line.split(":");
+					if (lineValues.length != 2) {
+						throw new IOException(String.format("Failed to parse line: %s", line));
+					}
+
+					try {
+						entries.add(new TextSnapshotEntry(lineValues[0], Integer.parseInt(lineValues[1])));
+					} catch (NumberFormatException ex) {
+						throw new IOException(String.format("Failed to parse '%s' to integer", lineValues[1]), ex);
+					}
+				}
+			}
+
+			Collections.sort(entries);
+		}
+
+		@Override
+		public boolean next() {
+			if (position >= entries.size()) {
+				return false;
+			}
+
+			TextSnapshotEntry entry = entries.get(position++);
+			this.inum = entry.inum;
+			this.entryDigest = createLegacyEntryDigest(entry.hashCode);
+
+			return true;
+		}
+
+		@Override
+		public void close() {
+			entries.clear();
+		}
+
+	}
+
+	private static class TextSnapshotEntry implements Comparable<TextSnapshotEntry> {
+
+		private final String inum;
+		private final int hashCode;
+
+		protected TextSnapshotEntry(String inum, int hashCode) {
+			this.inum = inum;
+			this.hashCode = hashCode;
+		}
+
+		@Override
+		public int compareTo(TextSnapshotEntry other) {
+			return inum.compareTo(other.inum);
+		}
+
+	}
+
+}
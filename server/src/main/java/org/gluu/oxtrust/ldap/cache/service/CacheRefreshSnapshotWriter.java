@@ -0,0 +1,154 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshEntryDigest;
+
+/**
+ * Write binary snapshot. Entries should be added in inum order.
+ *
+ * File layout: magic, version, blocks and end marker. Each block contains
+ * records count, uncompressed and compressed sizes and deflated records. Each
+ * record contains inum, entry digest and attribute digests. Data is written
+ * into temporary file which is renamed to snapshot file on commit.
+ */
+public class CacheRefreshSnapshotWriter implements Closeable {
+
+	public static final int MAGIC = 0x47534E50;
+	public static final int VERSION = 2;
+	public static final int VERSION_1 = 1;
+
+	private static final int BLOCK_SIZE = 64 * 1024;
+	private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+	private final File file;
+	private final File tempFile;
+	private final DataOutputStream out;
+
+	private final ByteArrayOutputStream blockBuffer;
+	private final DataOutputStream blockOut;
+	private final Deflater deflater;
+
+	private int blockCount;
+	private long count;
+	private String lastInum;
+	private boolean committed;
+	private boolean closed;
+
+	public CacheRefreshSnapshotWriter(File file) throws IOException {
+		this.file = file;
+		this.tempFile = new File(file.getAbsolutePath() + TEMP_FILE_SUFFIX);
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), BLOCK_SIZE));
+
+		this.blockBuffer = new ByteArrayOutputStream(BLOCK_SIZE + 1024);
+		this.blockOut = new DataOutputStream(blockBuffer);
+		this.deflater = new Deflater(Deflater.BEST_SPEED);
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public void write(String inum, CacheRefreshEntryDigest entryDigest) throws IOException {
+		if ((lastInum != null) && (lastInum.compareTo(inum) >= 0)) {
+			throw new IllegalArgumentException(
+					String.format("Snapshot entries should be unique and sorted. Inum '%s' follows '%s'", inum, lastInum));
+		}
+		this.lastInum = inum;
+
+		CacheRefreshRecordCodec.writeString(blockOut, inum);
+		entryDigest.write(blockOut);
+		blockCount++;
+		count++;
+
+		if (blockBuffer.size() >= BLOCK_SIZE) {
+			flushBlock();
+		}
+	}
+
+	public void commit() throws IOException {
+		flushBlock();
+
+		// End marker
+		out.writeInt(0);
+		out.writeLong(count);
+		out.close();
+
+		if (file.exists() && !file.delete()) {
+			throw new IOException(String.format("Failed to replace snapshot file '%s'", file.getAbsolutePath()));
+		}
+
+		if (!tempFile.renameTo(file)) {
+			throw new IOException(String.format("Failed to rename snapshot file '%s'", tempFile.getAbsolutePath()));
+		}
+
+		this.committed = true;
+		close();
+	}
+
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		this.closed = true;
+
+		deflater.end();
+		if (!committed) {
+			try {
+				out.close();
+			} catch (IOException ex) {
+				// Nothing can be done
+			}
+			tempFile.delete();
+		}
+	}
+
+	private void flushBlock() throws IOException {
+		if (blockCount == 0) {
+			return;
+		}
+
+		byte[] block = blockBuffer.toByteArray();
+
+		deflater.reset();
+		deflater.setInput(block);
+		deflater.finish();
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(block.length / 2 + 64);
+		byte[] buffer = new byte[8 * 1024];
+		while (!deflater.finished()) {
+			int length = deflater.deflate(buffer);
+			compressed.write(buffer, 0, length);
+		}
+
+		out.writeInt(blockCount);
+		out.writeInt(block.length);
+		out.writeInt(compressed.size());
+		compressed.writeTo(out);
+
+		blockBuffer.reset();
+		this.blockCount = 0;
+	}
+
+}
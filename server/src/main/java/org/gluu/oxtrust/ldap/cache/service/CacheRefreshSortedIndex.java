@@ -0,0 +1,297 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Disk based sorted index of key/value records. Records are collected in
+ * memory buffer with limited size. Full buffer is sorted and stored into run
+ * file. Reader returns all records ordered by key using k-way merge of run
+ * files. Records with equal keys are returned in order of addition.
+ */
+public class CacheRefreshSortedIndex implements Closeable {
+
+	private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+	private final File folder;
+	private final String name;
+	private final int bufferSize;
+
+	private List<IndexRecord> buffer;
+	private List<File> runFiles;
+	private List<Reader> readers;
+	private long size;
+
+	public CacheRefreshSortedIndex(File folder, String name, int bufferSize) {
+		this.folder = folder;
+		this.name = name;
+		this.bufferSize = Math.max(1, bufferSize);
+
+		this.buffer = new ArrayList<IndexRecord>();
+		this.runFiles = new ArrayList<File>();
+		this.readers = new ArrayList<Reader>();
+	}
+
+	public synchronized void add(String key, byte[] value) throws IOException {
+		buffer.add(new IndexRecord(key, value, size));
+		size++;
+
+		if (buffer.size() >= bufferSize) {
+			flush();
+		}
+	}
+
+	public synchronized long size() {
+		return size;
+	}
+
+	public synchronized Reader reader() throws IOException {
+		flush();
+
+		Reader reader = new Reader(runFiles);
+		readers.add(reader);
+
+		return reader;
+	}
+
+	public synchronized void clear() {
+		closeReaders();
+		deleteRunFiles();
+
+		this.buffer = new ArrayList<IndexRecord>();
+		this.size = 0;
+	}
+
+	@Override
+	public synchronized void close() {
+		clear();
+	}
+
+	private void flush() throws IOException {
+		if (buffer.isEmpty()) {
+			return;
+		}
+
+		Collections.sort(buffer);
+
+		File runFile = new File(folder, String.format("%s-%d.run", name, runFiles.size()));
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(runFile), IO_BUFFER_SIZE));
+		try {
+			for (IndexRecord record : buffer) {
+				writeBytes(out, record.getKey().getBytes(StandardCharsets.UTF_8));
+				writeBytes(out, record.getValue());
+				out.writeLong(record.getSequence());
+			}
+		} finally {
+			out.close();
+		}
+		runFiles.add(runFile);
+
+		this.buffer = new ArrayList<IndexRecord>();
+	}
+
+	private void closeReaders() {
+		for (Reader reader : readers) {
+			reader.close();
+		}
+		readers.clear();
+	}
+
+	private void deleteRunFiles() {
+		for (File runFile : runFiles) {
+			runFile.delete();
+		}
+		runFiles.clear();
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		if (bytes == null) {
+			out.writeInt(-1);
+			return;
+		}
+
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length == -1) {
+			return null;
+		}
+
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+
+		return bytes;
+	}
+
+	public static class IndexRecord implements Comparable<IndexRecord> {
+
+		private final String key;
+		private final byte[] value;
+		private final long sequence;
+
+		protected IndexRecord(String key, byte[] value, long sequence) {
+			this.key = key;
+			this.value = value;
+			this.sequence = sequence;
+		}
+
+		public final String getKey() {
+			return key;
+		}
+
+		public final byte[] getValue() {
+			return value;
+		}
+
+		protected final long getSequence() {
+			return sequence;
+		}
+
+		@Override
+		public int compareTo(IndexRecord other) {
+			int result = key.compareTo(other.key);
+			if (result == 0) {
+				result = Long.compare(sequence, other.sequence);
+			}
+
+			return result;
+		}
+
+	}
+
+	/**
+	 * Iterate over all index records ordered by key
+	 */
+	public static class Reader implements Iterator<IndexRecord>, Closeable {
+
+		private final PriorityQueue<RunReader> queue;
+
+		protected Reader(List<File> runFiles) throws IOException {
+			this.queue = new PriorityQueue<RunReader>(Math.max(1, runFiles.size()));
+			try {
+				for (File runFile : runFiles) {
+					RunReader runReader = new RunReader(runFile);
+					if (runReader.advance()) {
+						queue.add(runReader);
+					}
+				}
+			} catch (IOException ex) {
+				close();
+				throw ex;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		public IndexRecord peek() {
+			if (queue.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+
+			return queue.peek().getCurrent();
+		}
+
+		@Override
+		public IndexRecord next() {
+			RunReader runReader = queue.poll();
+			if (runReader == null) {
+				throw new NoSuchElementException();
+			}
+
+			IndexRecord record = runReader.getCurrent();
+			try {
+				if (runReader.advance()) {
+					queue.add(runReader);
+				}
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+
+			return record;
+		}
+
+		@Override
+		public void close() {
+			RunReader runReader;
+			while ((runReader = queue.poll()) != null) {
+				runReader.close();
+			}
+		}
+
+	}
+
+	private static class RunReader implements Comparable<RunReader> {
+
+		private final DataInputStream in;
+		private IndexRecord current;
+
+		protected RunReader(File runFile) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), IO_BUFFER_SIZE));
+		}
+
+		public IndexRecord getCurrent() {
+			return current;
+		}
+
+		public boolean advance() throws IOException {
+			byte[] key;
+			try {
+				key = readBytes(in);
+			} catch (EOFException ex) {
+				close();
+				this.current = null;
+				return false;
+			}
+
+			byte[] value = readBytes(in);
+			long sequence = in.readLong();
+			this.current = new IndexRecord(new String(key, StandardCharsets.UTF_8), value, sequence);
+
+			return true;
+		}
+
+		public void close() {
+			try {
+				in.close();
+			} catch (IOException ex) {
+				// Nothing can be done
+			}
+		}
+
+		@Override
+		public int compareTo(RunReader other) {
+			return current.compareTo(other.current);
+		}
+
+	}
+
+}
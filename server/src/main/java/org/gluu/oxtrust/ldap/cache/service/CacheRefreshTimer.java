@@ -6,11 +6,18 @@
 
 package org.gluu.oxtrust.ldap.cache.service;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
@@ -22,11 +29,16 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 import javax.enterprise.context.ApplicationScoped;
-import javax.enterprise.event.Event;
-import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import javax.inject.Named;
 
@@ -41,19 +53,24 @@ import org.gluu.model.custom.script.model.bind.BindCredentials;
 import org.gluu.model.ldap.GluuLdapConfiguration;
 import org.gluu.oxtrust.config.ConfigurationFactory;
 import org.gluu.oxtrust.ldap.cache.model.CacheCompoundKey;
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshEntryDigest;
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshIncrementalState;
 import org.gluu.oxtrust.ldap.cache.model.GluuInumMap;
 import org.gluu.oxtrust.ldap.cache.model.GluuSimplePerson;
+import org.gluu.oxtrust.ldap.cache.service.CacheRefreshSortedIndex.IndexRecord;
 import org.gluu.oxtrust.ldap.service.ApplicationFactory;
 import org.gluu.oxtrust.ldap.service.AttributeService;
 import org.gluu.oxtrust.ldap.service.ConfigurationService;
 import org.gluu.oxtrust.ldap.service.EncryptionService;
 import org.gluu.oxtrust.ldap.service.InumService;
+import org.gluu.oxtrust.ldap.service.LeaderElectionService;
 import org.gluu.oxtrust.ldap.service.PersonService;
 import org.gluu.oxtrust.model.GluuConfiguration;
 import org.gluu.oxtrust.model.GluuCustomAttribute;
 import org.gluu.oxtrust.model.GluuCustomPerson;
-import org.gluu.oxtrust.service.cdi.event.CacheRefreshEvent;
 import org.gluu.oxtrust.service.external.ExternalCacheRefreshService;
+import org.gluu.oxtrust.service.timer.JobScheduler;
+import org.gluu.oxtrust.service.timer.ScheduledJob;
 import org.gluu.oxtrust.util.OxTrustConstants;
 import org.gluu.oxtrust.util.PropertyUtil;
 import org.gluu.persist.PersistenceEntryManager;
@@ -63,20 +80,18 @@ import org.gluu.persist.exception.EntryPersistenceException;
 import org.gluu.persist.exception.operation.SearchException;
 import org.gluu.persist.ldap.impl.LdapEntryManager;
 import org.gluu.persist.ldap.impl.LdapEntryManagerFactory;
+import org.gluu.persist.model.ProcessBatchOperation;
 import org.gluu.persist.model.SearchScope;
 import org.gluu.persist.model.base.GluuDummyEntry;
 import org.gluu.persist.operation.PersistenceOperationService;
 import org.gluu.search.filter.Filter;
 import org.gluu.service.ObjectSerializationService;
 import org.gluu.service.SchemaService;
-import org.gluu.service.cdi.async.Asynchronous;
-import org.gluu.service.cdi.event.Scheduled;
-import org.gluu.service.timer.event.TimerEvent;
-import org.gluu.service.timer.schedule.TimerSchedule;
 import org.gluu.util.ArrayHelper;
 import org.gluu.util.OxConstants;
 import org.gluu.util.Pair;
 import org.gluu.util.StringHelper;
+import org.gluu.util.properties.FileConfiguration;
 import org.gluu.util.security.PropertiesDecrypter;
 import org.slf4j.Logger;
 
@@ -95,11 +110,34 @@ public class CacheRefreshTimer {
 
 	private static final int DEFAULT_INTERVAL = 60;
 
+	// Lease used when master Cache Refresh server IP address isn't specified
+	private static final String LEASE_NAME = "cacheRefresh";
+	private static final int LEASE_TIME = 3 * DEFAULT_INTERVAL;
+
+	private static final String SOURCE_LOAD_PARALLELISM_PROPERTY = "cacheRefreshSourceLoadThreads";
+	private static final int DEFAULT_SOURCE_LOAD_PARALLELISM = 4;
+	private static final int SLOWEST_PARTITIONS_LOG_COUNT = 10;
+
+	private static final String STREAMING_MODE_PROPERTY = "cacheRefreshStreamingMode";
+	private static final String STREAMING_BUFFER_SIZE_PROPERTY = "cacheRefreshStreamingBufferSize";
+	private static final int DEFAULT_STREAMING_BUFFER_SIZE = 100000;
+
+	private static final String INCREMENTAL_MODE_PROPERTY = "cacheRefreshIncrementalMode";
+	private static final String CHANGE_MARKER_ATTRIBUTE_PROPERTY = "cacheRefreshChangeMarkerAttribute";
+	private static final String DEFAULT_CHANGE_MARKER_ATTRIBUTE = "modifyTimestamp";
+	private static final String FULL_RECONCILIATION_INTERVAL_PROPERTY = "cacheRefreshFullReconciliationInterval";
+	private static final int DEFAULT_FULL_RECONCILIATION_INTERVAL = 24 * 60;
+
+	private static final String TARGET_WRITE_THREADS_PROPERTY = "cacheRefreshTargetWriteThreads";
+	private static final int DEFAULT_TARGET_WRITE_THREADS = 4;
+	private static final String TARGET_WRITE_BATCH_SIZE_PROPERTY = "cacheRefreshTargetWriteBatchSize";
+	private static final int DEFAULT_TARGET_WRITE_BATCH_SIZE = 100;
+
 	@Inject
 	private Logger log;
 
 	@Inject
-	private Event<TimerEvent> timerEvent;
+	private JobScheduler jobScheduler;
 
 	@Inject
 	protected ApplicationFactory applicationFactory;
@@ -143,8 +181,15 @@ public class CacheRefreshTimer {
 	@Inject
 	private ObjectSerializationService objectSerializationService;
 
+	@Inject
+	private LeaderElectionService leaderElectionService;
+
 	private AtomicBoolean isActive;
 	private long lastFinishedTime;
+	private boolean leaseOwner;
+
+	private final Object externalScriptLock = new Object();
+	private volatile CacheRefreshWriteMetrics lastWriteMetrics;
 
 	public void initTimer() {
 		log.info("Initializing Cache Refresh Timer");
@@ -161,14 +206,14 @@ public class CacheRefreshTimer {
 		}
 
 		// Schedule to start cache refresh every 1 minute
-		timerEvent.fire(new TimerEvent(new TimerSchedule(DEFAULT_INTERVAL, DEFAULT_INTERVAL), new CacheRefreshEvent(),
-				Scheduled.Literal.INSTANCE));
+		ScheduledJob job = new ScheduledJob("cacheRefresh", DEFAULT_INTERVAL, DEFAULT_INTERVAL, this::process);
+		job.setPriority(Thread.MIN_PRIORITY + 2);
+		jobScheduler.schedule(job);
 
 		this.lastFinishedTime = System.currentTimeMillis();
 	}
 
-	@Asynchronous
-	public void process(@Observes @Scheduled CacheRefreshEvent cacheRefreshEvent) {
+	public void process() {
 		if (this.isActive.get()) {
 			log.debug("Another process is active");
 			return;
@@ -196,7 +241,18 @@ public class CacheRefreshTimer {
 				return;
 			}
 
-			processImpl(cacheRefreshConfiguration, currentConfiguration);
+			// Don't let lease expire while synchronization is running
+			ScheduledFuture<?> leaseRenewal = null;
+			if (this.leaseOwner) {
+				leaseRenewal = leaderElectionService.keepLease(LEASE_NAME, LEASE_TIME);
+			}
+			try {
+				processImpl(cacheRefreshConfiguration, currentConfiguration);
+			} finally {
+				if (leaseRenewal != null) {
+					leaseRenewal.cancel(false);
+				}
+			}
 			updateStatus(currentConfiguration, System.currentTimeMillis());
 
 			this.lastFinishedTime = System.currentTimeMillis();
@@ -217,10 +273,6 @@ public class CacheRefreshTimer {
 		}
 
 		String cacheRefreshServerIpAddress = currentConfiguration.getCacheRefreshServerIpAddress();
-		// if (StringHelper.isEmpty(cacheRefreshServerIpAddress)) {
-		// log.debug("There is no master Cache Refresh server");
-		// return false;
-		// }
 
 		// Compare server IP address with cacheRefreshServerIp
 		boolean cacheRefreshServer = false;
@@ -247,6 +299,13 @@ public class CacheRefreshTimer {
 			cacheRefreshServer = externalCacheRefreshService.executeExternalIsStartProcessMethods();
 		}
 
+		// There is no master Cache Refresh server, elect it
+		this.leaseOwner = false;
+		if (!cacheRefreshServer && StringHelper.isEmpty(cacheRefreshServerIpAddress)) {
+			cacheRefreshServer = leaderElectionService.isLeader(LEASE_NAME, LEASE_TIME);
+			this.leaseOwner = cacheRefreshServer;
+		}
+
 		if (!cacheRefreshServer) {
 			log.debug("This server isn't master Cache Refresh server");
 			return false;
@@ -264,7 +323,7 @@ public class CacheRefreshTimer {
 	}
 
 	private void processImpl(CacheRefreshConfiguration cacheRefreshConfiguration, GluuConfiguration currentConfiguration)
-			throws SearchException {
+			throws SearchException, IOException {
 		CacheRefreshUpdateMethod updateMethod = getUpdateMethod(cacheRefreshConfiguration);
 
 		// Prepare and check connections to LDAP servers
@@ -296,7 +355,13 @@ public class CacheRefreshTimer {
 			if ((sourceServerConnections == null) || (inumDbServerConnection == null)
 					|| (isVdsUpdate && (targetServerConnection == null))) {
 				log.error("Skipping cache refresh due to invalid server configuration");
+			} else if (isStreamingMode() || isIncrementalMode()) {
+				detectChangedEntriesStreaming(cacheRefreshConfiguration, currentConfiguration,
+						sourceServerConnections, inumDbServerConnection, targetServerConnection, updateMethod);
 			} else {
+				// Change markers aren't tracked in this mode
+				cacheRefreshSnapshotFileService.removeIncrementalState(cacheRefreshConfiguration);
+
 				detectChangedEntries(cacheRefreshConfiguration, currentConfiguration, sourceServerConnections,
 						inumDbServerConnection, targetServerConnection, updateMethod);
 			}
@@ -383,9 +448,9 @@ public class CacheRefreshTimer {
 				primaryKeyAttrValueInumMap, addedPrimaryKeyAttrValueInumMap);
 		log.debug("Count actual inum entries '{}' after updating inum server", allPrimaryKeyAttrValueInumMap.size());
 
-		HashMap<String, Integer> currInumWithEntryHashCodeMap = getSourcePersonsHashCodesMap(inumDbServerConnection,
+		HashMap<String, CacheRefreshEntryDigest> currInumWithEntryDigestMap = getSourcePersonsEntryDigestsMap(
 				sourcePersonCacheCompoundKeyMap, allPrimaryKeyAttrValueInumMap);
-		log.debug("Count actual source entries '{}' after calculating hash code", currInumWithEntryHashCodeMap.size());
+		log.debug("Count actual source entries '{}' after calculating digests", currInumWithEntryDigestMap.size());
 
 		// Create snapshots cache folder if needed
 		boolean result = cacheRefreshSnapshotFileService.prepareSnapshotsFolder(cacheRefreshConfiguration);
@@ -393,13 +458,13 @@ public class CacheRefreshTimer {
 			return false;
 		}
 
-		// Load last snapshot into memory
-		Map<String, Integer> prevInumWithEntryHashCodeMap = cacheRefreshSnapshotFileService
-				.readLastSnapshot(cacheRefreshConfiguration);
-
-		// Compare 2 snapshot and invoke update if needed
-		Set<String> changedInums = getChangedInums(currInumWithEntryHashCodeMap, prevInumWithEntryHashCodeMap,
-				isVDSMode);
+		// Compare current entries with last snapshot and invoke update if needed
+		Set<String> changedInums = new HashSet<String>();
+		List<String> deletedInums = new ArrayList<String>();
+		compareWithLastSnapshot(cacheRefreshConfiguration, currInumWithEntryDigestMap, changedInums, deletedInums);
+		if (isVDSMode) {
+			changedInums.addAll(deletedInums);
+		}
 		log.info("Found '{}' changed entries", changedInums.size());
 
 		// Load problem list from disk and add to changedInums
@@ -425,7 +490,7 @@ public class CacheRefreshTimer {
 
 		// Persist snapshot to cache folder
 		result = cacheRefreshSnapshotFileService.createSnapshot(cacheRefreshConfiguration,
-				currInumWithEntryHashCodeMap);
+				currInumWithEntryDigestMap);
 		if (!result) {
 			return false;
 		}
@@ -445,7 +510,7 @@ public class CacheRefreshTimer {
 		log.debug("Keep external persons: '{}'", keepExternalPerson);
 		if (keepExternalPerson) {
 			// Determine entries which need to remove
-			personsForRemoval = getRemovedPersons(currInumWithEntryHashCodeMap, prevInumWithEntryHashCodeMap);
+			personsForRemoval = getRemovedPersons(deletedInums);
 		} else {
 			// Process entries which don't exist in source server
 
@@ -454,7 +519,7 @@ public class CacheRefreshTimer {
 			log.info("Found '{}' entries in target server", targetPersons.size());
 
 			// Detect entries which need to remove
-			personsForRemoval = processTargetPersons(targetPersons, currInumWithEntryHashCodeMap);
+			personsForRemoval = processTargetPersons(targetPersons, currInumWithEntryDigestMap);
 		}
 		log.debug("Count entries '{}' for removal from target server", personsForRemoval.size());
 
@@ -479,6 +544,619 @@ public class CacheRefreshTimer {
 		return true;
 	}
 
+	private boolean detectChangedEntriesStreaming(CacheRefreshConfiguration cacheRefreshConfiguration,
+			GluuConfiguration currentConfiguration, LdapServerConnection[] sourceServerConnections,
+			LdapServerConnection inumDbServerConnection, LdapServerConnection targetServerConnection,
+			CacheRefreshUpdateMethod updateMethod) throws SearchException, IOException {
+		boolean isVDSMode = CacheRefreshUpdateMethod.VDS.equals(updateMethod);
+
+		// Create snapshots cache folder if needed
+		boolean result = cacheRefreshSnapshotFileService.prepareSnapshotsFolder(cacheRefreshConfiguration);
+		if (!result) {
+			return false;
+		}
+
+		// Inum objects disk cache isn't maintained in streaming mode
+		objectSerializationService.cleanup(getInumCachePath(cacheRefreshConfiguration));
+
+		File workFolder = cacheRefreshSnapshotFileService.prepareWorkFolder(cacheRefreshConfiguration);
+		if (workFolder == null) {
+			return false;
+		}
+
+		// Load only entries changed since last run if it's possible
+		CacheRefreshIncrementalState incrementalState = null;
+		boolean incrementalRun = false;
+		if (isIncrementalMode()) {
+			CacheRefreshIncrementalState prevIncrementalState = cacheRefreshSnapshotFileService
+					.readIncrementalState(cacheRefreshConfiguration);
+			incrementalRun = isIncrementalRun(cacheRefreshConfiguration, sourceServerConnections,
+					prevIncrementalState);
+
+			incrementalState = new CacheRefreshIncrementalState(getChangeMarkerAttribute());
+			if (incrementalRun) {
+				incrementalState.setLastFullRunTime(prevIncrementalState.getLastFullRunTime());
+				incrementalState.updateChangeMarkers(prevIncrementalState);
+				log.info("Attempting incremental run using '{}' change markers: '{}'",
+						incrementalState.getChangeMarkerAttribute(), incrementalState.getChangeMarkers());
+			} else {
+				incrementalState.setLastFullRunTime(System.currentTimeMillis());
+				log.info("Attempting full reconciliation run");
+			}
+		} else {
+			cacheRefreshSnapshotFileService.removeIncrementalState(cacheRefreshConfiguration);
+		}
+
+		int bufferSize = getStreamingBufferSize();
+		CacheRefreshSortedIndex sourceIndex = new CacheRefreshSortedIndex(workFolder, "source", bufferSize);
+		CacheRefreshSortedIndex inumIndex = new CacheRefreshSortedIndex(workFolder, "inum", bufferSize);
+		CacheRefreshSortedIndex currentIndex = new CacheRefreshSortedIndex(workFolder, "current", bufferSize);
+		CacheRefreshSortedIndex currentInumIndex = new CacheRefreshSortedIndex(workFolder, "current-inum", bufferSize);
+		CacheRefreshSortedIndex targetIndex = new CacheRefreshSortedIndex(workFolder, "target", bufferSize);
+		try {
+			// Load all entries from Source servers
+			log.info("Attempting to load entries from source server");
+			String[] keyAttributeStarts = cacheRefreshConfiguration.isUseSearchLimit() && !incrementalRun
+					? createTwoLettersArray()
+					: new String[] { "" };
+			loadSourceServerEntries(cacheRefreshConfiguration, sourceServerConnections, keyAttributeStarts,
+					sourceIndex, incrementalState, incrementalRun);
+			log.info("Found '{}' entries in source server", sourceIndex.size());
+
+			// Load all inum entries from LDAP
+			loadInumServerEntries(cacheRefreshConfiguration, inumDbServerConnection, inumIndex);
+			log.info("Found '{}' entries in inum server", inumIndex.size());
+
+			// Go through Source entries and create new InumMap entries if needed
+			long addedInumMapsCount = joinSourceAndInumServerEntries(cacheRefreshConfiguration,
+					inumDbServerConnection, sourceIndex, inumIndex, currentIndex);
+			log.info("Found '{}' unique entries in source server", currentIndex.size());
+			log.debug("Added '{}' new entries to inum server", addedInumMapsCount);
+			sourceIndex.close();
+			inumIndex.close();
+
+			// Load problem list from disk
+			Set<String> problemInums = new HashSet<String>();
+			List<String> problemInumsList = cacheRefreshSnapshotFileService.readProblemList(cacheRefreshConfiguration);
+			if (problemInumsList != null) {
+				log.info("Loaded '{}' problem entries from problem file", problemInumsList.size());
+				problemInums.addAll(problemInumsList);
+			}
+
+			CacheRefreshSnapshotWriter snapshotWriter = cacheRefreshSnapshotFileService
+					.createSnapshotWriter(cacheRefreshConfiguration);
+			if (snapshotWriter == null) {
+				return false;
+			}
+
+			// Open last snapshot. Entries in it are ordered by inum
+			CacheRefreshSnapshotReader prevSnapshotReader = cacheRefreshSnapshotFileService
+					.openLastSnapshot(cacheRefreshConfiguration);
+
+			boolean keepExternalPerson = cacheRefreshConfiguration.isKeepExternalPerson();
+			log.debug("Keep external persons: '{}'", keepExternalPerson);
+
+			// Compare current entries with last snapshot and invoke update if needed
+			StreamingUpdateContext updateContext = new StreamingUpdateContext(cacheRefreshConfiguration,
+					targetServerConnection, isVDSMode);
+			List<String> removedInums = new ArrayList<String>();
+			try {
+				mergeCurrentAndPrevSnapshot(updateContext, currentIndex, prevSnapshotReader, problemInums,
+						snapshotWriter, keepExternalPerson || incrementalRun ? null : currentInumIndex, removedInums,
+						incrementalRun);
+				closeSnapshotReader(prevSnapshotReader);
+				snapshotWriter.commit();
+
+				if (incrementalRun) {
+					// Source entries from problem list weren't loaded. Keep them for next runs
+					log.debug("Keep '{}' unchanged entries in problem list", problemInums.size());
+				} else {
+					// Process entries from problem list which aren't exist in source server
+					for (String problemInum : problemInums) {
+						updateContext.update(problemInum, null);
+					}
+					problemInums.clear();
+				}
+
+				// Wait for pending target entries updates
+				updateContext.finish();
+			} finally {
+				closeSnapshotReader(prevSnapshotReader);
+				snapshotWriter.close();
+				updateContext.close();
+			}
+			currentIndex.close();
+
+			log.info("Found '{}' changed entries", updateContext.getChangedCount());
+			log.info("Updated '{}' entries", updateContext.getUpdatedCount());
+			log.info("Failed to update '{}' entries", updateContext.getFailedInums().size());
+
+			// Retain only specified number of snapshots
+			cacheRefreshSnapshotFileService.retainSnapshots(cacheRefreshConfiguration,
+					cacheRefreshConfiguration.getSnapshotMaxCount());
+
+			// Save failed inums as problem list to disk
+			Set<String> failedInums = new HashSet<String>(updateContext.getFailedInums());
+			failedInums.addAll(problemInums);
+			currentConfiguration.setVdsCacheRefreshProblemCount(String.valueOf(failedInums.size()));
+			cacheRefreshSnapshotFileService.writeProblemList(cacheRefreshConfiguration, failedInums);
+
+			// Prepare list of persons for removal
+			List<GluuSimplePerson> personsForRemoval = null;
+			if (incrementalRun) {
+				// Removed entries are detected only during full reconciliation
+				personsForRemoval = new ArrayList<GluuSimplePerson>();
+			} else if (keepExternalPerson) {
+				// Determine entries which need to remove
+				personsForRemoval = getRemovedPersons(removedInums);
+			} else {
+				// Process entries which don't exist in source server
+
+				// Load all entries from Target server
+				loadTargetServerEntries(cacheRefreshConfiguration, ldapEntryManager, targetIndex);
+				log.info("Found '{}' entries in target server", targetIndex.size());
+
+				// Detect entries which need to remove
+				personsForRemoval = processTargetPersons(targetIndex, currentInumIndex);
+			}
+			log.debug("Count entries '{}' for removal from target server", personsForRemoval.size());
+
+			// Remove entries from target server
+			HashMap<String, GluuInumMap> inumInumMap = getInumInumMap(inumDbServerConnection, personsForRemoval);
+			Pair<List<String>, List<String>> removeTargetEntriesResult = removeTargetEntries(inumDbServerConnection,
+					ldapEntryManager, personsForRemoval, inumInumMap);
+			List<String> removedPersonInums = removeTargetEntriesResult.getFirst();
+			log.info("Removed '{}' persons from target server", removedPersonInums.size());
+
+			currentConfiguration.setVdsCacheRefreshLastUpdateCount(
+					String.valueOf(updateContext.getUpdatedCount() + removedPersonInums.size()));
+
+			// Persist high-water marks after successful run
+			if (incrementalState != null) {
+				log.debug("Saving incremental state: '{}'", incrementalState);
+				cacheRefreshSnapshotFileService.writeIncrementalState(cacheRefreshConfiguration, incrementalState);
+			}
+		} finally {
+			sourceIndex.close();
+			inumIndex.close();
+			currentIndex.close();
+			currentInumIndex.close();
+			targetIndex.close();
+
+			cacheRefreshSnapshotFileService.cleanupWorkFolder(cacheRefreshConfiguration);
+		}
+
+		return true;
+	}
+
+	private void loadSourceServerEntries(CacheRefreshConfiguration cacheRefreshConfiguration,
+			LdapServerConnection[] sourceServerConnections, String[] keyAttributeStarts,
+			final CacheRefreshSortedIndex sourceIndex, final CacheRefreshIncrementalState incrementalState,
+			boolean incrementalRun) throws SearchException {
+		final String[] keyAttributesWithoutValues = getCompoundKeyAttributesWithoutValues(cacheRefreshConfiguration);
+		String[] sourceReturnAttributes = getSourceReturnAttributes(cacheRefreshConfiguration);
+		final int chunkSize = cacheRefreshConfiguration.getLdapSearchSizeLimit();
+
+		// Request change marker to calculate high-water mark. Don't copy it if it's not in source attributes
+		final String[] returnAttributes;
+		final boolean removeChangeMarker;
+		if (incrementalState == null) {
+			returnAttributes = sourceReturnAttributes;
+			removeChangeMarker = false;
+		} else {
+			String changeMarkerAttribute = incrementalState.getChangeMarkerAttribute();
+			removeChangeMarker = !containsIgnoreCase(sourceReturnAttributes, changeMarkerAttribute);
+			returnAttributes = removeChangeMarker
+					? ArrayHelper.arrayMerge(sourceReturnAttributes, new String[] { changeMarkerAttribute })
+					: sourceReturnAttributes;
+		}
+
+		List<SourceServerPartition> partitions = prepareSourceServerPartitions(cacheRefreshConfiguration,
+				sourceServerConnections, keyAttributeStarts);
+		if (incrementalRun) {
+			applyChangeMarkerFilters(partitions, incrementalState);
+		}
+
+		executeSourceServerPartitions(partitions, partition -> {
+			long startTime = System.currentTimeMillis();
+
+			final String sourceServerName = partition.getSourceServerConnection().getSourceServerName();
+			PersistenceEntryManager sourcePersistenceEntryManager = partition.getSourceServerConnection()
+					.getPersistenceEntryManager();
+
+			final int[] entriesCount = new int[1];
+			ProcessBatchOperation<GluuSimplePerson> batchOperation = new ProcessBatchOperation<GluuSimplePerson>() {
+				@Override
+				public void performAction(List<GluuSimplePerson> entries) {
+					for (GluuSimplePerson sourcePerson : entries) {
+						sourcePerson.setSourceServerName(sourceServerName);
+						if (incrementalState != null) {
+							trackChangeMarker(incrementalState, sourceServerName, sourcePerson, removeChangeMarker);
+						}
+
+						String[][] keyAttributesValues = getKeyAttributesValues(keyAttributesWithoutValues,
+								sourcePerson);
+						String sortKey = new CacheCompoundKey(keyAttributesValues).toSortKey();
+						try {
+							sourceIndex.add(sortKey, encodeSourcePerson(partition.getIndex(), sourcePerson));
+						} catch (IOException ex) {
+							throw new UncheckedIOException(ex);
+						}
+					}
+					entriesCount[0] += entries.size();
+				}
+			};
+
+			sourcePersistenceEntryManager.findEntries(partition.getBaseDn(), GluuSimplePerson.class,
+					partition.getFilter(), SearchScope.SUB, returnAttributes, batchOperation, 0, 0, chunkSize);
+
+			partition.setEntriesCount(entriesCount[0]);
+			partition.setDuration(System.currentTimeMillis() - startTime);
+			log.debug("Loaded '{}' entries from source server '{}' with baseDN '{}' and key prefix '{}' in '{}' ms",
+					partition.getEntriesCount(), sourceServerName, partition.getBaseDn(),
+					partition.getKeyAttributeStart(), partition.getDuration());
+
+			return entriesCount[0];
+		});
+	}
+
+	private void loadInumServerEntries(CacheRefreshConfiguration cacheRefreshConfiguration,
+			LdapServerConnection inumDbServerConnection, final CacheRefreshSortedIndex inumIndex) {
+		PersistenceEntryManager inumDbPersistenceEntryManager = inumDbServerConnection.getPersistenceEntryManager();
+		String inumbaseDn = inumDbServerConnection.getBaseDns()[0];
+
+		ProcessBatchOperation<GluuInumMap> batchOperation = new ProcessBatchOperation<GluuInumMap>() {
+			@Override
+			public void performAction(List<GluuInumMap> entries) {
+				for (GluuInumMap inumMap : entries) {
+					String sortKey = new CacheCompoundKey(inumMap.getPrimaryKeyValues(),
+							inumMap.getSecondaryKeyValues(), inumMap.getTertiaryKeyValues()).toSortKey();
+					try {
+						inumIndex.add(sortKey, CacheRefreshRecordCodec.encodeString(inumMap.getInum()));
+					} catch (IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+				}
+			}
+		};
+
+		inumDbPersistenceEntryManager.findEntries(inumbaseDn, GluuInumMap.class, createInumMapFilter(),
+				SearchScope.SUB, null, batchOperation, 0, 0, cacheRefreshConfiguration.getLdapSearchSizeLimit());
+	}
+
+	private void loadTargetServerEntries(CacheRefreshConfiguration cacheRefreshConfiguration,
+			PersistenceEntryManager targetPersistenceEntryManager, final CacheRefreshSortedIndex targetIndex) {
+		Filter filter = Filter.createEqualityFilter(OxConstants.OBJECT_CLASS, OxTrustConstants.objectClassPerson);
+
+		ProcessBatchOperation<GluuSimplePerson> batchOperation = new ProcessBatchOperation<GluuSimplePerson>() {
+			@Override
+			public void performAction(List<GluuSimplePerson> entries) {
+				for (GluuSimplePerson targetPerson : entries) {
+					String personInum = targetPerson.getAttribute(OxTrustConstants.inum);
+					if (personInum == null) {
+						log.debug("Skipping person without inum with DN: '{}'", targetPerson.getDn());
+						continue;
+					}
+
+					try {
+						targetIndex.add(personInum, CacheRefreshRecordCodec.encodeString(targetPerson.getDn()));
+					} catch (IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+				}
+			}
+		};
+
+		targetPersistenceEntryManager.findEntries(personService.getDnForPerson(null), GluuSimplePerson.class, filter,
+				SearchScope.SUB, TARGET_PERSON_RETURN_ATTRIBUTES, batchOperation, 0, 0,
+				cacheRefreshConfiguration.getLdapSearchSizeLimit());
+	}
+
+	private long joinSourceAndInumServerEntries(CacheRefreshConfiguration cacheRefreshConfiguration,
+			LdapServerConnection inumDbServerConnection, CacheRefreshSortedIndex sourceIndex,
+			CacheRefreshSortedIndex inumIndex, CacheRefreshSortedIndex currentIndex) throws IOException {
+		PersistenceEntryManager inumDbPersistenceEntryManager = inumDbServerConnection.getPersistenceEntryManager();
+		String inumbaseDn = inumDbServerConnection.getBaseDns()[0];
+		String[] keyAttributesWithoutValues = getCompoundKeyAttributesWithoutValues(cacheRefreshConfiguration);
+
+		long addedCount = 0;
+		CacheRefreshSortedIndex.Reader sourceReader = sourceIndex.reader();
+		CacheRefreshSortedIndex.Reader inumReader = inumIndex.reader();
+		try {
+			while (sourceReader.hasNext()) {
+				IndexRecord sourceRecord = sourceReader.next();
+				String sortKey = sourceRecord.getKey();
+
+				// Select entry from first partition if there are few entries with same key
+				DataInputStream sourceInput = CacheRefreshRecordCodec.createInput(sourceRecord.getValue());
+				int sourcePartitionIndex = sourceInput.readInt();
+				GluuSimplePerson sourcePerson = CacheRefreshRecordCodec.readPerson(sourceInput);
+
+				boolean duplicateKey = false;
+				while (sourceReader.hasNext() && sortKey.equals(sourceReader.peek().getKey())) {
+					DataInputStream duplicateInput = CacheRefreshRecordCodec
+							.createInput(sourceReader.next().getValue());
+					int duplicatePartitionIndex = duplicateInput.readInt();
+					GluuSimplePerson duplicatePerson = CacheRefreshRecordCodec.readPerson(duplicateInput);
+
+					if (!StringHelper.equalsIgnoreCase(sourcePerson.getDn(), duplicatePerson.getDn())) {
+						duplicateKey = true;
+					} else if (duplicatePartitionIndex < sourcePartitionIndex) {
+						sourcePartitionIndex = duplicatePartitionIndex;
+						sourcePerson = duplicatePerson;
+					}
+				}
+
+				if (duplicateKey) {
+					log.error("Non-deterministic primary key. Skipping user with DN: {}", sourcePerson.getDn());
+					continue;
+				}
+
+				// Find inum entry with same key
+				while (inumReader.hasNext() && (inumReader.peek().getKey().compareTo(sortKey) < 0)) {
+					inumReader.next();
+				}
+
+				String inum = null;
+				if (inumReader.hasNext() && sortKey.equals(inumReader.peek().getKey())) {
+					inum = CacheRefreshRecordCodec.decodeString(inumReader.peek().getValue());
+					log.trace("Inum entry for DN: '{}' exist", sourcePerson.getDn());
+				} else {
+					String[][] keyAttributesValues = getKeyAttributesValues(keyAttributesWithoutValues, sourcePerson);
+					GluuInumMap inumMap = addGluuInumMap(inumbaseDn, inumDbPersistenceEntryManager,
+							keyAttributesWithoutValues, keyAttributesValues);
+					inum = inumMap.getInum();
+					addedCount++;
+					log.debug("Added new inum entry for DN: {}", sourcePerson.getDn());
+				}
+
+				CacheRefreshEntryDigest entryDigest = CacheRefreshEntryDigest.compute(sourcePerson);
+				currentIndex.add(inum, encodeCurrentPerson(entryDigest, sourcePerson));
+			}
+		} finally {
+			sourceReader.close();
+			inumReader.close();
+		}
+
+		return addedCount;
+	}
+
+	private void mergeCurrentAndPrevSnapshot(StreamingUpdateContext updateContext,
+			CacheRefreshSortedIndex currentIndex, CacheRefreshSnapshotReader prevSnapshotReader,
+			Set<String> problemInums, CacheRefreshSnapshotWriter snapshotWriter,
+			CacheRefreshSortedIndex currentInumIndex, List<String> removedInums, boolean incrementalRun)
+			throws IOException {
+		boolean hasPrevSnapshot = prevSnapshotReader != null;
+		boolean hasPrevEntry = hasPrevSnapshot && prevSnapshotReader.next();
+
+		CacheRefreshSortedIndex.Reader currentReader = currentIndex.reader();
+		try {
+			String lastInum = null;
+			while (currentReader.hasNext() || hasPrevEntry) {
+				int compareResult;
+				if (!currentReader.hasNext()) {
+					compareResult = 1;
+				} else if (!hasPrevEntry) {
+					compareResult = -1;
+				} else {
+					compareResult = currentReader.peek().getKey().compareTo(prevSnapshotReader.getInum());
+				}
+
+				if ((compareResult > 0) && incrementalRun) {
+					// Entry wasn't changed since last run
+					snapshotWriter.write(prevSnapshotReader.getInum(), prevSnapshotReader.getEntryDigest());
+					hasPrevEntry = prevSnapshotReader.next();
+					continue;
+				}
+
+				if (compareResult > 0) {
+					// Entry not exist in new snapshot
+					String prevInum = prevSnapshotReader.getInum();
+					hasPrevEntry = prevSnapshotReader.next();
+
+					removedInums.add(prevInum);
+					problemInums.remove(prevInum);
+					if (updateContext.isVDSMode()) {
+						updateContext.update(prevInum, null);
+					}
+					continue;
+				}
+
+				IndexRecord currentRecord = currentReader.next();
+				CacheRefreshEntryDigest prevEntryDigest = null;
+				if (compareResult == 0) {
+					prevEntryDigest = prevSnapshotReader.getEntryDigest();
+					hasPrevEntry = prevSnapshotReader.next();
+				}
+
+				String inum = currentRecord.getKey();
+				if (inum.equals(lastInum)) {
+					log.error("Skipping source entry with duplicate inum '{}'", inum);
+					continue;
+				}
+				lastInum = inum;
+
+				DataInputStream currentInput = CacheRefreshRecordCodec.createInput(currentRecord.getValue());
+				CacheRefreshEntryDigest entryDigest = CacheRefreshEntryDigest.read(currentInput);
+
+				snapshotWriter.write(inum, entryDigest);
+				if (currentInumIndex != null) {
+					currentInumIndex.add(inum, null);
+				}
+
+				boolean problemInum = problemInums.remove(inum);
+				if (!hasPrevSnapshot || (prevEntryDigest == null) || (prevEntryDigest.getDigest() != entryDigest.getDigest())
+						|| problemInum) {
+					GluuSimplePerson sourcePerson = CacheRefreshRecordCodec.readPerson(currentInput);
+					if (log.isTraceEnabled()) {
+						log.trace("Changed attributes of entry '{}': {}", inum, entryDigest.getChangedAttributes(prevEntryDigest));
+					}
+
+					updateContext.update(inum, sourcePerson);
+				}
+			}
+		} finally {
+			currentReader.close();
+		}
+	}
+
+	private void closeSnapshotReader(CacheRefreshSnapshotReader snapshotReader) {
+		if (snapshotReader == null) {
+			return;
+		}
+
+		try {
+			snapshotReader.close();
+		} catch (IOException ex) {
+			log.debug("Failed to close snapshot reader", ex);
+		}
+	}
+
+	private List<GluuSimplePerson> processTargetPersons(CacheRefreshSortedIndex targetIndex,
+			CacheRefreshSortedIndex currentInumIndex) throws IOException {
+		List<GluuSimplePerson> result = new ArrayList<GluuSimplePerson>();
+
+		CacheRefreshSortedIndex.Reader targetReader = targetIndex.reader();
+		CacheRefreshSortedIndex.Reader currentInumReader = currentInumIndex.reader();
+		try {
+			while (targetReader.hasNext()) {
+				IndexRecord targetRecord = targetReader.next();
+				String personInum = targetRecord.getKey();
+
+				while (currentInumReader.hasNext() && (currentInumReader.peek().getKey().compareTo(personInum) < 0)) {
+					currentInumReader.next();
+				}
+
+				if (currentInumReader.hasNext() && personInum.equals(currentInumReader.peek().getKey())) {
+					continue;
+				}
+
+				String personDn = CacheRefreshRecordCodec.decodeString(targetRecord.getValue());
+				log.debug("Person with such DN: '{}' isn't present on source server", personDn);
+				result.add(createSimplePerson(personDn, personInum));
+			}
+		} finally {
+			targetReader.close();
+			currentInumReader.close();
+		}
+
+		return result;
+	}
+
+	private HashMap<String, GluuInumMap> getInumInumMap(LdapServerConnection inumDbServerConnection,
+			List<GluuSimplePerson> persons) {
+		PersistenceEntryManager inumDbPersistenceEntryManager = inumDbServerConnection.getPersistenceEntryManager();
+		String inumbaseDn = inumDbServerConnection.getBaseDns()[0];
+
+		HashMap<String, GluuInumMap> result = new HashMap<String, GluuInumMap>();
+		for (GluuSimplePerson person : persons) {
+			String inum = person.getAttribute(OxTrustConstants.inum);
+			try {
+				GluuInumMap inumMap = inumDbPersistenceEntryManager.find(GluuInumMap.class,
+						cacheRefreshService.getDnForInum(inumbaseDn, inum));
+				if (inumMap != null) {
+					result.put(inumMap.getInum(), inumMap);
+				}
+			} catch (BasePersistenceException ex) {
+				log.debug("Failed to find inum entry with inum '{}'", inum, ex);
+			}
+		}
+
+		return result;
+	}
+
+	private byte[] encodeSourcePerson(int partitionIndex, GluuSimplePerson sourcePerson) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream out = CacheRefreshRecordCodec.createOutput(bos);
+		out.writeInt(partitionIndex);
+		CacheRefreshRecordCodec.writePerson(out, sourcePerson);
+
+		return bos.toByteArray();
+	}
+
+	private byte[] encodeCurrentPerson(CacheRefreshEntryDigest entryDigest, GluuSimplePerson sourcePerson)
+			throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream out = CacheRefreshRecordCodec.createOutput(bos);
+		entryDigest.write(out);
+		CacheRefreshRecordCodec.writePerson(out, sourcePerson);
+
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Submit target entries updates to write pipeline during streaming comparison
+	 */
+	private class StreamingUpdateContext {
+		private CacheRefreshConfiguration cacheRefreshConfiguration;
+		private boolean isVDSMode;
+
+		private PersistenceEntryManager targetPersistenceEntryManager;
+		private Filter vdsFilter;
+
+		private Map<String, String> targetServerAttributesMapping;
+		private String[] customObjectClasses;
+		private boolean validTargetServerSchema;
+
+		private long changedCount;
+		private CacheRefreshWritePipeline writePipeline;
+
+		protected StreamingUpdateContext(CacheRefreshConfiguration cacheRefreshConfiguration,
+				LdapServerConnection targetServerConnection, boolean isVDSMode) {
+			this.cacheRefreshConfiguration = cacheRefreshConfiguration;
+			this.isVDSMode = isVDSMode;
+			this.writePipeline = createWritePipeline();
+
+			if (isVDSMode) {
+				this.targetPersistenceEntryManager = targetServerConnection.getPersistenceEntryManager();
+				this.vdsFilter = cacheRefreshService.createObjectClassPresenceFilter();
+			} else {
+				this.targetServerAttributesMapping = getTargetServerAttributesMapping(cacheRefreshConfiguration);
+				this.customObjectClasses = appConfiguration.getPersonObjectClassTypes();
+				this.validTargetServerSchema = validateTargetServerSchema(cacheRefreshConfiguration,
+						targetServerAttributesMapping, customObjectClasses);
+			}
+		}
+
+		public boolean isVDSMode() {
+			return isVDSMode;
+		}
+
+		public void update(String inum, GluuSimplePerson sourcePerson) {
+			changedCount++;
+
+			if (isVDSMode) {
+				writePipeline.submit(inum, () -> updateTargetEntryViaVDS(cacheRefreshConfiguration,
+						targetPersistenceEntryManager, vdsFilter, inum));
+			} else {
+				writePipeline.submit(inum, () -> validTargetServerSchema && (sourcePerson != null)
+						&& updateTargetEntryViaCopy(sourcePerson, inum, customObjectClasses,
+								targetServerAttributesMapping));
+			}
+		}
+
+		public void finish() {
+			writePipeline.finish();
+			logWriteMetrics(writePipeline);
+		}
+
+		public void close() {
+			writePipeline.close();
+		}
+
+		public long getChangedCount() {
+			return changedCount;
+		}
+
+		public long getUpdatedCount() {
+			return writePipeline.getUpdatedInums().size();
+		}
+
+		public Set<String> getFailedInums() {
+			return writePipeline.getFailedInums();
+		}
+	}
+
 	private ArrayList<GluuInumMap> applyChangesToInumMap(HashMap<String, GluuInumMap> inumInumMap,
 			HashMap<CacheCompoundKey, GluuInumMap> addedPrimaryKeyAttrValueInumMap, List<String> removedGluuInumMaps) {
 		log.info("There are '{}' entries before updating inum list", inumInumMap.size());
@@ -495,88 +1173,127 @@ public class CacheRefreshTimer {
 		return currentInumMaps;
 	}
 
-	private Set<String> getChangedInums(HashMap<String, Integer> currInumWithEntryHashCodeMap,
-			Map<String, Integer> prevInumWithEntryHashCodeMap, boolean includeDeleted) {
-		// Find chaged inums
-		Set<String> changedInums = null;
+	private void compareWithLastSnapshot(CacheRefreshConfiguration cacheRefreshConfiguration,
+			HashMap<String, CacheRefreshEntryDigest> currInumWithEntryDigestMap, Set<String> changedInums,
+			List<String> deletedInums) {
+		CacheRefreshSnapshotReader prevSnapshotReader = cacheRefreshSnapshotFileService
+				.openLastSnapshot(cacheRefreshConfiguration);
 		// First time run
-		if (prevInumWithEntryHashCodeMap == null) {
-			changedInums = new HashSet<String>(currInumWithEntryHashCodeMap.keySet());
-		} else {
-			changedInums = new HashSet<String>();
+		if (prevSnapshotReader == null) {
+			changedInums.addAll(currInumWithEntryDigestMap.keySet());
+			return;
+		}
 
-			// Add all inums which not exist in new snapshot
-			if (includeDeleted) {
-				for (String prevInumKey : prevInumWithEntryHashCodeMap.keySet()) {
-					if (!currInumWithEntryHashCodeMap.containsKey(prevInumKey)) {
-						changedInums.add(prevInumKey);
-					}
+		String[] currInums = currInumWithEntryDigestMap.keySet().toArray(new String[0]);
+		Arrays.sort(currInums);
+
+		// Both lists are ordered by inum. Find changes in one pass
+		try {
+			int currIndex = 0;
+			boolean hasPrevEntry = prevSnapshotReader.next();
+			while ((currIndex < currInums.length) || hasPrevEntry) {
+				int compareResult;
+				if (currIndex >= currInums.length) {
+					compareResult = 1;
+				} else if (!hasPrevEntry) {
+					compareResult = -1;
+				} else {
+					compareResult = currInums[currIndex].compareTo(prevSnapshotReader.getInum());
 				}
-			}
 
-			// Add all new inums and changed inums
-			for (Entry<String, Integer> currEntry : currInumWithEntryHashCodeMap.entrySet()) {
-				String currInumKey = currEntry.getKey();
-				Integer prevHashCode = prevInumWithEntryHashCodeMap.get(currInumKey);
-				if ((prevHashCode == null)
-						|| ((prevHashCode != null) && !(prevHashCode.equals(currEntry.getValue())))) {
-					changedInums.add(currInumKey);
+				if (compareResult > 0) {
+					// Inum not exist in new snapshot
+					deletedInums.add(prevSnapshotReader.getInum());
+					hasPrevEntry = prevSnapshotReader.next();
+					continue;
 				}
-			}
-		}
-		return changedInums;
-	}
 
-	private List<GluuSimplePerson> getRemovedPersons(HashMap<String, Integer> currInumWithEntryHashCodeMap,
-			Map<String, Integer> prevInumWithEntryHashCodeMap) {
-		// First time run
-		if (prevInumWithEntryHashCodeMap == null) {
-			return new ArrayList<GluuSimplePerson>(0);
-		}
+				String currInum = currInums[currIndex++];
+				if (compareResult < 0) {
+					// New entry
+					changedInums.add(currInum);
+				} else {
+					CacheRefreshEntryDigest currEntryDigest = currInumWithEntryDigestMap.get(currInum);
+					CacheRefreshEntryDigest prevEntryDigest = prevSnapshotReader.getEntryDigest();
+					if (prevEntryDigest.getDigest() != currEntryDigest.getDigest()) {
+						// Changed entry
+						changedInums.add(currInum);
+						if (log.isTraceEnabled()) {
+							log.trace("Changed attributes of entry '{}': {}", currInum,
+									currEntryDigest.getChangedAttributes(prevEntryDigest));
+						}
+					}
+				}
 
-		// Add all inums which not exist in new snapshot
-		Set<String> deletedInums = new HashSet<String>();
-		for (String prevInumKey : prevInumWithEntryHashCodeMap.keySet()) {
-			if (!currInumWithEntryHashCodeMap.containsKey(prevInumKey)) {
-				deletedInums.add(prevInumKey);
+				if (compareResult == 0) {
+					hasPrevEntry = prevSnapshotReader.next();
+				}
 			}
+		} catch (IOException ex) {
+			log.error("Failed to compare entries with last snapshot", ex);
+
+			// Process it as first time run
+			changedInums.clear();
+			changedInums.addAll(currInumWithEntryDigestMap.keySet());
+			deletedInums.clear();
+		} finally {
+			closeSnapshotReader(prevSnapshotReader);
 		}
+	}
 
+	private List<GluuSimplePerson> getRemovedPersons(Collection<String> deletedInums) {
 		List<GluuSimplePerson> deletedPersons = new ArrayList<GluuSimplePerson>(deletedInums.size());
 		for (String deletedInum : deletedInums) {
-			GluuSimplePerson person = new GluuSimplePerson();
 			String personDn = personService.getDnForPerson(deletedInum);
-			person.setDn(personDn);
-
-			List<GluuCustomAttribute> customAttributes = new ArrayList<GluuCustomAttribute>();
-			customAttributes.add(new GluuCustomAttribute(OxTrustConstants.inum, deletedInum));
-			person.setCustomAttributes(customAttributes);
-
-			deletedPersons.add(person);
+			deletedPersons.add(createSimplePerson(personDn, deletedInum));
 		}
 
 		return deletedPersons;
 	}
 
+	private GluuSimplePerson createSimplePerson(String personDn, String inum) {
+		GluuSimplePerson person = new GluuSimplePerson();
+		person.setDn(personDn);
+
+		List<GluuCustomAttribute> customAttributes = new ArrayList<GluuCustomAttribute>();
+		customAttributes.add(new GluuCustomAttribute(OxTrustConstants.inum, inum));
+		person.setCustomAttributes(customAttributes);
+
+		return person;
+	}
+
 	private List<String> updateTargetEntriesViaVDS(CacheRefreshConfiguration cacheRefreshConfiguration,
 			LdapServerConnection targetServerConnection, Set<String> changedInums) {
-		List<String> result = new ArrayList<String>();
-
 		PersistenceEntryManager targetPersistenceEntryManager = targetServerConnection.getPersistenceEntryManager();
 		Filter filter = cacheRefreshService.createObjectClassPresenceFilter();
-		for (String changedInum : changedInums) {
-			String baseDn = "action=synchronizecache," + personService.getDnForPerson(changedInum);
-			try {
-				targetPersistenceEntryManager.findEntries(baseDn, GluuDummyEntry.class, filter, SearchScope.SUB, null,
-						null, 0, 0, cacheRefreshConfiguration.getLdapSearchSizeLimit());
-				result.add(changedInum);
-				log.debug("Updated entry with inum {}", changedInum);
-			} catch (BasePersistenceException ex) {
-				log.error("Failed to update entry with inum '{}' using baseDN {}", changedInum, baseDn, ex);
+
+		CacheRefreshWritePipeline writePipeline = createWritePipeline();
+		try {
+			for (String changedInum : changedInums) {
+				writePipeline.submit(changedInum, () -> updateTargetEntryViaVDS(cacheRefreshConfiguration,
+						targetPersistenceEntryManager, filter, changedInum));
 			}
+			writePipeline.finish();
+		} finally {
+			writePipeline.close();
 		}
+		logWriteMetrics(writePipeline);
 
-		return result;
+		return new ArrayList<String>(writePipeline.getUpdatedInums());
+	}
+
+	private boolean updateTargetEntryViaVDS(CacheRefreshConfiguration cacheRefreshConfiguration,
+			PersistenceEntryManager targetPersistenceEntryManager, Filter filter, String changedInum) {
+		String baseDn = "action=synchronizecache," + personService.getDnForPerson(changedInum);
+		try {
+			targetPersistenceEntryManager.findEntries(baseDn, GluuDummyEntry.class, filter, SearchScope.SUB, null,
+					null, 0, 0, cacheRefreshConfiguration.getLdapSearchSizeLimit());
+			log.debug("Updated entry with inum {}", changedInum);
+			return true;
+		} catch (BasePersistenceException ex) {
+			log.error("Failed to update entry with inum '{}' using baseDN {}", changedInum, baseDn, ex);
+			return false;
+		}
 	}
 
 	private List<String> updateTargetEntriesViaCopy(CacheRefreshConfiguration cacheRefreshConfiguration,
@@ -594,26 +1311,55 @@ public class CacheRefreshTimer {
 			return result;
 		}
 
-		for (String targetInum : changedInums) {
-			CacheCompoundKey compoundKey = inumCacheCompoundKeyMap.get(targetInum);
-			if (compoundKey == null) {
-				continue;
-			}
+		CacheRefreshWritePipeline writePipeline = createWritePipeline();
+		try {
+			for (String targetInum : changedInums) {
+				CacheCompoundKey compoundKey = inumCacheCompoundKeyMap.get(targetInum);
+				if (compoundKey == null) {
+					continue;
+				}
 
-			GluuSimplePerson sourcePerson = sourcePersonCacheCompoundKeyMap.get(compoundKey);
-			if (sourcePerson == null) {
-				continue;
-			}
+				GluuSimplePerson sourcePerson = sourcePersonCacheCompoundKeyMap.get(compoundKey);
+				if (sourcePerson == null) {
+					continue;
+				}
 
-			if (updateTargetEntryViaCopy(sourcePerson, targetInum, customObjectClasses,
-					targetServerAttributesMapping)) {
-				result.add(targetInum);
+				writePipeline.submit(targetInum, () -> updateTargetEntryViaCopy(sourcePerson, targetInum,
+						customObjectClasses, targetServerAttributesMapping));
 			}
+			writePipeline.finish();
+		} finally {
+			writePipeline.close();
 		}
+		logWriteMetrics(writePipeline);
+
+		result.addAll(writePipeline.getUpdatedInums());
 
 		return result;
 	}
 
+	private CacheRefreshWritePipeline createWritePipeline() {
+		int writersCount = getBaseConfigurationInt(TARGET_WRITE_THREADS_PROPERTY, DEFAULT_TARGET_WRITE_THREADS);
+		int batchSize = getBaseConfigurationInt(TARGET_WRITE_BATCH_SIZE_PROPERTY, DEFAULT_TARGET_WRITE_BATCH_SIZE);
+		log.debug("Updating target entries using '{}' writers and batch size '{}'", writersCount, batchSize);
+
+		return new CacheRefreshWritePipeline(writersCount, batchSize);
+	}
+
+	private void logWriteMetrics(CacheRefreshWritePipeline writePipeline) {
+		CacheRefreshWriteMetrics writeMetrics = writePipeline.getMetrics();
+		this.lastWriteMetrics = writeMetrics;
+
+		log.info("Target entries updates: submitted '{}', updated '{}', failed '{}', time '{}' ms, throughput '{}' entries/s, average write time '{}' ms",
+				writeMetrics.getSubmittedCount(), writeMetrics.getUpdatedCount(), writeMetrics.getFailedCount(),
+				writeMetrics.getDuration(), String.format("%.2f", writeMetrics.getThroughput()),
+				String.format("%.2f", writeMetrics.getAverageWriteTime()));
+	}
+
+	public CacheRefreshWriteMetrics getLastWriteMetrics() {
+		return lastWriteMetrics;
+	}
+
 	private boolean validateTargetServerSchema(CacheRefreshConfiguration cacheRefreshConfiguration,
 			Map<String, String> targetServerAttributesMapping, String[] customObjectClasses) {
 		// Get list of return attributes
@@ -715,8 +1461,11 @@ public class CacheRefreshTimer {
 
 		cacheRefreshService.setTargetEntryAttributes(sourcePerson, targetServerAttributesMapping, targetPerson);
 
-		// Execute interceptor script
-		boolean executionResult = externalCacheRefreshService.executeExternalUpdateUserMethods(targetPerson);
+		// Execute interceptor script. Scripts can be not thread safe
+		boolean executionResult;
+		synchronized (externalScriptLock) {
+			executionResult = externalCacheRefreshService.executeExternalUpdateUserMethods(targetPerson);
+		}
 		if (!executionResult) {
 			log.error("Failed to execute Cache Refresh scripts for person '{}'", targetInum);
 			return false;
@@ -842,56 +1591,49 @@ public class CacheRefreshTimer {
 		PersistenceEntryManager inumDbPersistenceEntryManager = inumDbServerConnection.getPersistenceEntryManager();
 		String inumbaseDn = inumDbServerConnection.getBaseDns()[0];
 
+		return inumDbPersistenceEntryManager.findEntries(inumbaseDn, GluuInumMap.class, createInumMapFilter(),
+				SearchScope.SUB, null, null, 0, 0, cacheRefreshConfiguration.getLdapSearchSizeLimit());
+	}
+
+	private Filter createInumMapFilter() {
 		Filter filterObjectClass = Filter.createEqualityFilter(OxConstants.OBJECT_CLASS,
 				OxTrustConstants.objectClassInumMap);
 		Filter filterStatus = Filter.createNOTFilter(
 				Filter.createEqualityFilter(OxTrustConstants.gluuStatus, GluuStatus.INACTIVE.getValue()));
-		Filter filter = Filter.createANDFilter(filterObjectClass, filterStatus);
 
-		return inumDbPersistenceEntryManager.findEntries(inumbaseDn, GluuInumMap.class, filter, SearchScope.SUB, null,
-				null, 0, 0, cacheRefreshConfiguration.getLdapSearchSizeLimit());
+		return Filter.createANDFilter(filterObjectClass, filterStatus);
 	}
 
 	private List<GluuSimplePerson> loadSourceServerEntriesWithoutLimits(
 			CacheRefreshConfiguration cacheRefreshConfiguration, LdapServerConnection[] sourceServerConnections)
 			throws SearchException {
-		Filter customFilter = cacheRefreshService.createFilter(cacheRefreshConfiguration.getCustomLdapFilter());
-		String[] keyAttributes = getCompoundKeyAttributes(cacheRefreshConfiguration);
-		String[] keyAttributesWithoutValues = getCompoundKeyAttributesWithoutValues(cacheRefreshConfiguration);
-		String[] keyObjectClasses = getCompoundKeyObjectClasses(cacheRefreshConfiguration);
-		String[] sourceAttributes = getSourceAttributes(cacheRefreshConfiguration);
+		return loadSourceServerEntries(cacheRefreshConfiguration, sourceServerConnections, new String[] { "" });
+	}
 
-		String[] returnAttributes = ArrayHelper.arrayMerge(keyAttributesWithoutValues, sourceAttributes);
+	private List<GluuSimplePerson> loadSourceServerEntries(CacheRefreshConfiguration cacheRefreshConfiguration,
+			LdapServerConnection[] sourceServerConnections) throws SearchException {
+		return loadSourceServerEntries(cacheRefreshConfiguration, sourceServerConnections, createTwoLettersArray());
+	}
 
-		Set<String> addedDns = new HashSet<String>();
+	private List<GluuSimplePerson> loadSourceServerEntries(final CacheRefreshConfiguration cacheRefreshConfiguration,
+			LdapServerConnection[] sourceServerConnections, String[] keyAttributeStarts) throws SearchException {
+		final String[] returnAttributes = getSourceReturnAttributes(cacheRefreshConfiguration);
+		List<SourceServerPartition> partitions = prepareSourceServerPartitions(cacheRefreshConfiguration,
+				sourceServerConnections, keyAttributeStarts);
 
-		List<GluuSimplePerson> sourcePersons = new ArrayList<GluuSimplePerson>();
-		for (LdapServerConnection sourceServerConnection : sourceServerConnections) {
-			String sourceServerName = sourceServerConnection.getSourceServerName();
+		// Map DN to index of first partition which contains it
+		final ConcurrentHashMap<String, Integer> addedDns = new ConcurrentHashMap<String, Integer>();
 
-			PersistenceEntryManager sourcePersistenceEntryManager = sourceServerConnection.getPersistenceEntryManager();
-			String[] baseDns = sourceServerConnection.getBaseDns();
-			Filter filter = cacheRefreshService.createFilter(keyAttributes, keyObjectClasses, "", customFilter);
-			if (log.isTraceEnabled()) {
-				log.trace("Using next filter to load entris from source server: {}", filter);
-			}
+		List<List<GluuSimplePerson>> partitionResults = executeSourceServerPartitions(partitions,
+				partition -> loadSourceServerPartition(cacheRefreshConfiguration, partition, returnAttributes, addedDns));
 
-			for (String baseDn : baseDns) {
-				List<GluuSimplePerson> currentSourcePersons = sourcePersistenceEntryManager.findEntries(baseDn,
-						GluuSimplePerson.class, filter, SearchScope.SUB, returnAttributes, null, 0, 0,
-						cacheRefreshConfiguration.getLdapSearchSizeLimit());
-
-				// Add to result and ignore root entry if needed
-				for (GluuSimplePerson currentSourcePerson : currentSourcePersons) {
-					currentSourcePerson.setSourceServerName(sourceServerName);
-					// if (!StringHelper.equalsIgnoreCase(baseDn,
-					// currentSourcePerson.getDn())) {
-					String currentSourcePersonDn = currentSourcePerson.getDn().toLowerCase();
-					if (!addedDns.contains(currentSourcePersonDn)) {
-						sourcePersons.add(currentSourcePerson);
-						addedDns.add(currentSourcePersonDn);
-					}
-					// }
+		List<GluuSimplePerson> sourcePersons = new ArrayList<GluuSimplePerson>();
+		for (int i = 0; i < partitionResults.size(); i++) {
+			// Add to result only entries which not exist in previous partitions
+			for (GluuSimplePerson currentSourcePerson : partitionResults.get(i)) {
+				String currentSourcePersonDn = currentSourcePerson.getDn().toLowerCase();
+				if (addedDns.get(currentSourcePersonDn).intValue() == i) {
+					sourcePersons.add(currentSourcePerson);
 				}
 			}
 		}
@@ -899,54 +1641,236 @@ public class CacheRefreshTimer {
 		return sourcePersons;
 	}
 
-	private List<GluuSimplePerson> loadSourceServerEntries(CacheRefreshConfiguration cacheRefreshConfiguration,
-			LdapServerConnection[] sourceServerConnections) throws SearchException {
+	private List<SourceServerPartition> prepareSourceServerPartitions(
+			CacheRefreshConfiguration cacheRefreshConfiguration, LdapServerConnection[] sourceServerConnections,
+			String[] keyAttributeStarts) throws SearchException {
 		Filter customFilter = cacheRefreshService.createFilter(cacheRefreshConfiguration.getCustomLdapFilter());
 		String[] keyAttributes = getCompoundKeyAttributes(cacheRefreshConfiguration);
-		String[] keyAttributesWithoutValues = getCompoundKeyAttributesWithoutValues(cacheRefreshConfiguration);
 		String[] keyObjectClasses = getCompoundKeyObjectClasses(cacheRefreshConfiguration);
-		String[] sourceAttributes = getSourceAttributes(cacheRefreshConfiguration);
-
-		String[] twoLettersArray = createTwoLettersArray();
-		String[] returnAttributes = ArrayHelper.arrayMerge(keyAttributesWithoutValues, sourceAttributes);
 
-		Set<String> addedDns = new HashSet<String>();
-
-		List<GluuSimplePerson> sourcePersons = new ArrayList<GluuSimplePerson>();
+		// Split load into partitions. Partitions order is the same as in sequential load
+		List<SourceServerPartition> partitions = new ArrayList<SourceServerPartition>();
 		for (LdapServerConnection sourceServerConnection : sourceServerConnections) {
-			String sourceServerName = sourceServerConnection.getSourceServerName();
-
-			PersistenceEntryManager sourcePersistenceEntryManager = sourceServerConnection.getPersistenceEntryManager();
-			String[] baseDns = sourceServerConnection.getBaseDns();
-			for (String keyAttributeStart : twoLettersArray) {
+			for (String keyAttributeStart : keyAttributeStarts) {
 				Filter filter = cacheRefreshService.createFilter(keyAttributes, keyObjectClasses, keyAttributeStart,
 						customFilter);
-				if (log.isDebugEnabled()) {
+				if (log.isTraceEnabled()) {
 					log.trace("Using next filter to load entris from source server: {}", filter);
 				}
 
-				for (String baseDn : baseDns) {
-					List<GluuSimplePerson> currentSourcePersons = sourcePersistenceEntryManager.findEntries(baseDn,
-							GluuSimplePerson.class, filter, SearchScope.SUB, returnAttributes, null, 0, 0,
-							cacheRefreshConfiguration.getLdapSearchSizeLimit());
-
-					// Add to result and ignore root entry if needed
-					for (GluuSimplePerson currentSourcePerson : currentSourcePersons) {
-						currentSourcePerson.setSourceServerName(sourceServerName);
-						// if (!StringHelper.equalsIgnoreCase(baseDn,
-						// currentSourcePerson.getDn())) {
-						String currentSourcePersonDn = currentSourcePerson.getDn().toLowerCase();
-						if (!addedDns.contains(currentSourcePersonDn)) {
-							sourcePersons.add(currentSourcePerson);
-							addedDns.add(currentSourcePersonDn);
-						}
-						// }
-					}
+				for (String baseDn : sourceServerConnection.getBaseDns()) {
+					partitions.add(new SourceServerPartition(partitions.size(), sourceServerConnection, baseDn,
+							keyAttributeStart, filter));
 				}
 			}
 		}
 
-		return sourcePersons;
+		return partitions;
+	}
+
+	private <T> List<T> executeSourceServerPartitions(List<SourceServerPartition> partitions,
+			final Function<SourceServerPartition, T> partitionLoader) {
+		int parallelism = Math.max(1, Math.min(getSourceLoadParallelism(), partitions.size()));
+		log.debug("Loading entries from source servers using '{}' partitions and '{}' threads", partitions.size(),
+				parallelism);
+
+		List<T> results = new ArrayList<T>(partitions.size());
+		ExecutorService executorService = Executors.newFixedThreadPool(parallelism);
+		try {
+			List<Future<T>> partitionResults = new ArrayList<Future<T>>(partitions.size());
+			for (final SourceServerPartition partition : partitions) {
+				partitionResults.add(executorService.submit(() -> partitionLoader.apply(partition)));
+			}
+
+			for (Future<T> partitionResult : partitionResults) {
+				results.add(getPartitionResult(partitionResult));
+			}
+		} finally {
+			executorService.shutdownNow();
+		}
+
+		logSlowestPartitions(partitions);
+
+		return results;
+	}
+
+	private List<GluuSimplePerson> loadSourceServerPartition(CacheRefreshConfiguration cacheRefreshConfiguration,
+			SourceServerPartition partition, String[] returnAttributes, ConcurrentHashMap<String, Integer> addedDns) {
+		long startTime = System.currentTimeMillis();
+
+		LdapServerConnection sourceServerConnection = partition.getSourceServerConnection();
+		String sourceServerName = sourceServerConnection.getSourceServerName();
+		PersistenceEntryManager sourcePersistenceEntryManager = sourceServerConnection.getPersistenceEntryManager();
+
+		List<GluuSimplePerson> currentSourcePersons = sourcePersistenceEntryManager.findEntries(partition.getBaseDn(),
+				GluuSimplePerson.class, partition.getFilter(), SearchScope.SUB, returnAttributes, null, 0, 0,
+				cacheRefreshConfiguration.getLdapSearchSizeLimit());
+
+		List<GluuSimplePerson> result = new ArrayList<GluuSimplePerson>(currentSourcePersons.size());
+		Set<String> partitionDns = new HashSet<String>();
+		for (GluuSimplePerson currentSourcePerson : currentSourcePersons) {
+			currentSourcePerson.setSourceServerName(sourceServerName);
+			String currentSourcePersonDn = currentSourcePerson.getDn().toLowerCase();
+			if (partitionDns.add(currentSourcePersonDn)) {
+				addedDns.merge(currentSourcePersonDn, partition.getIndex(), Integer::min);
+				result.add(currentSourcePerson);
+			}
+		}
+
+		partition.setEntriesCount(result.size());
+		partition.setDuration(System.currentTimeMillis() - startTime);
+		log.debug("Loaded '{}' entries from source server '{}' with baseDN '{}' and key prefix '{}' in '{}' ms",
+				partition.getEntriesCount(), sourceServerName, partition.getBaseDn(), partition.getKeyAttributeStart(),
+				partition.getDuration());
+
+		return result;
+	}
+
+	private <T> T getPartitionResult(Future<T> partitionResult) {
+		try {
+			return partitionResult.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new EntryPersistenceException("Interrupted while loading entries from source server", ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+
+			throw new EntryPersistenceException("Failed to load entries from source server", ex.getCause());
+		}
+	}
+
+	private void logSlowestPartitions(List<SourceServerPartition> partitions) {
+		if (!log.isInfoEnabled() || (partitions.size() <= 1)) {
+			return;
+		}
+
+		List<SourceServerPartition> sortedPartitions = new ArrayList<SourceServerPartition>(partitions);
+		Collections.sort(sortedPartitions, (p1, p2) -> Long.compare(p2.getDuration(), p1.getDuration()));
+
+		int count = Math.min(SLOWEST_PARTITIONS_LOG_COUNT, sortedPartitions.size());
+		for (SourceServerPartition partition : sortedPartitions.subList(0, count)) {
+			log.info("Slow partition: source server '{}', baseDN '{}', key prefix '{}', entries '{}', time '{}' ms",
+					partition.getSourceServerConnection().getSourceServerName(), partition.getBaseDn(),
+					partition.getKeyAttributeStart(), partition.getEntriesCount(), partition.getDuration());
+		}
+	}
+
+	private int getSourceLoadParallelism() {
+		return getBaseConfigurationInt(SOURCE_LOAD_PARALLELISM_PROPERTY, DEFAULT_SOURCE_LOAD_PARALLELISM);
+	}
+
+	private boolean isStreamingMode() {
+		FileConfiguration baseConfiguration = configurationFactory.getBaseConfiguration();
+		if (baseConfiguration == null) {
+			return false;
+		}
+
+		return baseConfiguration.getBoolean(STREAMING_MODE_PROPERTY, false);
+	}
+
+	private boolean isIncrementalRun(CacheRefreshConfiguration cacheRefreshConfiguration,
+			LdapServerConnection[] sourceServerConnections, CacheRefreshIncrementalState prevIncrementalState) {
+		if (prevIncrementalState == null) {
+			log.debug("There is no incremental state");
+			return false;
+		}
+
+		if (!StringHelper.equalsIgnoreCase(getChangeMarkerAttribute(), prevIncrementalState.getChangeMarkerAttribute())) {
+			log.debug("Change marker attribute was changed");
+			return false;
+		}
+
+		long fullReconciliationInterval = getBaseConfigurationInt(FULL_RECONCILIATION_INTERVAL_PROPERTY,
+				DEFAULT_FULL_RECONCILIATION_INTERVAL) * 60 * 1000L;
+		if (System.currentTimeMillis() - prevIncrementalState.getLastFullRunTime() >= fullReconciliationInterval) {
+			log.debug("Full reconciliation interval is expired");
+			return false;
+		}
+
+		for (LdapServerConnection sourceServerConnection : sourceServerConnections) {
+			if (prevIncrementalState.getChangeMarker(sourceServerConnection.getSourceServerName()) == null) {
+				log.debug("There is no change marker for source server '{}'",
+						sourceServerConnection.getSourceServerName());
+				return false;
+			}
+		}
+
+		CacheRefreshSnapshotReader lastSnapshotReader = cacheRefreshSnapshotFileService
+				.openLastSnapshot(cacheRefreshConfiguration);
+		if (lastSnapshotReader == null) {
+			log.debug("There is no last snapshot");
+			return false;
+		}
+		closeSnapshotReader(lastSnapshotReader);
+
+		return true;
+	}
+
+	private void applyChangeMarkerFilters(List<SourceServerPartition> partitions,
+			CacheRefreshIncrementalState incrementalState) {
+		String changeMarkerAttribute = incrementalState.getChangeMarkerAttribute();
+		for (SourceServerPartition partition : partitions) {
+			String changeMarker = incrementalState
+					.getChangeMarker(partition.getSourceServerConnection().getSourceServerName());
+
+			// Markers are inclusive to not lose entries changed in same second
+			Filter changeMarkerFilter = Filter.createGreaterOrEqualFilter(changeMarkerAttribute, changeMarker);
+			partition.setFilter(Filter.createANDFilter(partition.getFilter(), changeMarkerFilter));
+		}
+	}
+
+	private void trackChangeMarker(CacheRefreshIncrementalState incrementalState, String sourceServerName,
+			GluuSimplePerson sourcePerson, boolean removeChangeMarker) {
+		String changeMarkerAttribute = incrementalState.getChangeMarkerAttribute();
+		incrementalState.updateChangeMarker(sourceServerName, sourcePerson.getAttribute(changeMarkerAttribute));
+
+		if (removeChangeMarker) {
+			sourcePerson.getCustomAttributes().removeIf(
+					customAttribute -> StringHelper.equalsIgnoreCase(customAttribute.getName(), changeMarkerAttribute));
+		}
+	}
+
+	private boolean containsIgnoreCase(String[] values, String value) {
+		for (String currentValue : values) {
+			if (StringHelper.equalsIgnoreCase(currentValue, value)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private boolean isIncrementalMode() {
+		FileConfiguration baseConfiguration = configurationFactory.getBaseConfiguration();
+		if (baseConfiguration == null) {
+			return false;
+		}
+
+		return baseConfiguration.getBoolean(INCREMENTAL_MODE_PROPERTY, false);
+	}
+
+	private String getChangeMarkerAttribute() {
+		FileConfiguration baseConfiguration = configurationFactory.getBaseConfiguration();
+		if (baseConfiguration == null) {
+			return DEFAULT_CHANGE_MARKER_ATTRIBUTE;
+		}
+
+		return baseConfiguration.getString(CHANGE_MARKER_ATTRIBUTE_PROPERTY, DEFAULT_CHANGE_MARKER_ATTRIBUTE);
+	}
+
+	private int getStreamingBufferSize() {
+		return getBaseConfigurationInt(STREAMING_BUFFER_SIZE_PROPERTY, DEFAULT_STREAMING_BUFFER_SIZE);
+	}
+
+	private int getBaseConfigurationInt(String key, int defaultValue) {
+		FileConfiguration baseConfiguration = configurationFactory.getBaseConfiguration();
+		if (baseConfiguration == null) {
+			return defaultValue;
+		}
+
+		return baseConfiguration.getInt(key, defaultValue);
 	}
 
 	private List<GluuSimplePerson> loadTargetServerEntries(CacheRefreshConfiguration cacheRefreshConfiguration,
@@ -1027,12 +1951,10 @@ public class CacheRefreshTimer {
 		return result;
 	}
 
-	private HashMap<String, Integer> getSourcePersonsHashCodesMap(LdapServerConnection inumDbServerConnection,
+	private HashMap<String, CacheRefreshEntryDigest> getSourcePersonsEntryDigestsMap(
 			Map<CacheCompoundKey, GluuSimplePerson> sourcePersonCacheCompoundKeyMap,
 			HashMap<CacheCompoundKey, GluuInumMap> primaryKeyAttrValueInumMap) {
-		PersistenceEntryManager inumDbPersistenceEntryManager = inumDbServerConnection.getPersistenceEntryManager();
-
-		HashMap<String, Integer> result = new HashMap<String, Integer>();
+		HashMap<String, CacheRefreshEntryDigest> result = new HashMap<String, CacheRefreshEntryDigest>();
 
 		for (Entry<CacheCompoundKey, GluuSimplePerson> sourcePersonCacheCompoundKeyEntry : sourcePersonCacheCompoundKeyMap
 				.entrySet()) {
@@ -1041,19 +1963,19 @@ public class CacheRefreshTimer {
 
 			GluuInumMap currentInumMap = primaryKeyAttrValueInumMap.get(cacheCompoundKey);
 
-			result.put(currentInumMap.getInum(), inumDbPersistenceEntryManager.getHashCode(sourcePerson));
+			result.put(currentInumMap.getInum(), CacheRefreshEntryDigest.compute(sourcePerson));
 		}
 
 		return result;
 	}
 
 	private List<GluuSimplePerson> processTargetPersons(List<GluuSimplePerson> targetPersons,
-			HashMap<String, Integer> currInumWithEntryHashCodeMap) {
+			HashMap<String, CacheRefreshEntryDigest> currInumWithEntryDigestMap) {
 		List<GluuSimplePerson> result = new ArrayList<GluuSimplePerson>();
 
 		for (GluuSimplePerson targetPerson : targetPersons) {
 			String personInum = targetPerson.getAttribute(OxTrustConstants.inum);
-			if (!currInumWithEntryHashCodeMap.containsKey(personInum)) {
+			if (!currInumWithEntryDigestMap.containsKey(personInum)) {
 				log.debug("Person with such DN: '{}' isn't present on source server", targetPerson.getDn());
 				result.add(targetPerson);
 			}
@@ -1232,6 +2154,66 @@ public class CacheRefreshTimer {
 		}
 	}
 
+	private class SourceServerPartition {
+		private int index;
+		private LdapServerConnection sourceServerConnection;
+		private String baseDn;
+		private String keyAttributeStart;
+		private Filter filter;
+
+		private volatile int entriesCount;
+		private volatile long duration;
+
+		protected SourceServerPartition(int index, LdapServerConnection sourceServerConnection, String baseDn,
+				String keyAttributeStart, Filter filter) {
+			this.index = index;
+			this.sourceServerConnection = sourceServerConnection;
+			this.baseDn = baseDn;
+			this.keyAttributeStart = keyAttributeStart;
+			this.filter = filter;
+		}
+
+		public final int getIndex() {
+			return index;
+		}
+
+		public final LdapServerConnection getSourceServerConnection() {
+			return sourceServerConnection;
+		}
+
+		public final String getBaseDn() {
+			return baseDn;
+		}
+
+		public final void setFilter(Filter filter) {
+			this.filter = filter;
+		}
+
+		public final String getKeyAttributeStart() {
+			return keyAttributeStart;
+		}
+
+		public final Filter getFilter() {
+			return filter;
+		}
+
+		public final int getEntriesCount() {
+			return entriesCount;
+		}
+
+		public final void setEntriesCount(int entriesCount) {
+			this.entriesCount = entriesCount;
+		}
+
+		public final long getDuration() {
+			return duration;
+		}
+
+		public final void setDuration(long duration) {
+			this.duration = duration;
+		}
+	}
+
 	private CacheRefreshUpdateMethod getUpdateMethod(CacheRefreshConfiguration cacheRefreshConfiguration) {
 		String updateMethod = cacheRefreshConfiguration.getUpdateMethod();
 		if (StringHelper.isEmpty(updateMethod)) {
@@ -1245,6 +2227,13 @@ public class CacheRefreshTimer {
 		return cacheRefreshConfiguration.getSourceAttributes().toArray(new String[0]);
 	}
 
+	private String[] getSourceReturnAttributes(CacheRefreshConfiguration cacheRefreshConfiguration) {
+		String[] keyAttributesWithoutValues = getCompoundKeyAttributesWithoutValues(cacheRefreshConfiguration);
+		String[] sourceAttributes = getSourceAttributes(cacheRefreshConfiguration);
+
+		return ArrayHelper.arrayMerge(keyAttributesWithoutValues, sourceAttributes);
+	}
+
 	private String[] getCompoundKeyAttributes(CacheRefreshConfiguration cacheRefreshConfiguration) {
 		return cacheRefreshConfiguration.getKeyAttributes().toArray(new String[0]);
 	}
@@ -0,0 +1,102 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.io.Serializable;
+
+/**
+ * Statistics of target entries updates in last Cache Refresh run
+ */
+public class CacheRefreshWriteMetrics implements Serializable {
+
+	private static final long serialVersionUID = -3207513329446210379L;
+
+	private final int writersCount;
+	private final int batchSize;
+	private final long submittedCount;
+	private final long updatedCount;
+	private final long failedCount;
+	private final long duration;
+	private final long writeTime;
+
+	public CacheRefreshWriteMetrics(int writersCount, int batchSize, long submittedCount, long updatedCount,
+			long failedCount, long duration, long writeTime) {
+		this.writersCount = writersCount;
+		this.batchSize = batchSize;
+		this.submittedCount = submittedCount;
+		this.updatedCount = updatedCount;
+		this.failedCount = failedCount;
+		this.duration = duration;
+		this.writeTime = writeTime;
+	}
+
+	public int getWritersCount() {
+		return writersCount;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public long getSubmittedCount() {
+		return submittedCount;
+	}
+
+	public long getUpdatedCount() {
+		return updatedCount;
+	}
+
+	public long getFailedCount() {
+		return failedCount;
+	}
+
+	/**
+	 * Time between pipeline start and end of last update in milliseconds
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Total time spent by all writers in milliseconds
+	 */
+	public long getWriteTime() {
+		return writeTime;
+	}
+
+	/**
+	 * Processed entries per second
+	 */
+	public double getThroughput() {
+		if (duration == 0) {
+			return 0;
+		}
+
+		return (updatedCount + failedCount) * 1000.0 / duration;
+	}
+
+	/**
+	 * Average time of one entry update in milliseconds
+	 */
+	public double getAverageWriteTime() {
+		long count = updatedCount + failedCount;
+		if (count == 0) {
+			return 0;
+		}
+
+		return (double) writeTime / count;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"CacheRefreshWriteMetrics [writersCount=%s, batchSize=%s, submittedCount=%s, updatedCount=%s, failedCount=%s, duration=%s, writeTime=%s, throughput=%.2f]",
+				writersCount, batchSize, submittedCount, updatedCount, failedCount, duration, writeTime,
+				getThroughput());
+	}
+
+}
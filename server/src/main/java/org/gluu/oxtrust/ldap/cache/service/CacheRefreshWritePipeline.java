@@ -0,0 +1,214 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Execute target entries updates in batches using specified number of writers.
+ * Number of batches in progress is limited to avoid keeping all pending
+ * updates in memory
+ */
+public class CacheRefreshWritePipeline implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(CacheRefreshWritePipeline.class);
+
+	private final int writersCount;
+	private final int batchSize;
+
+	private final ExecutorService executorService;
+	private final Semaphore pendingBatches;
+	private final List<Future<?>> batchResults;
+
+	private List<PendingWrite> currentBatch;
+
+	private final Set<String> updatedInums;
+	private final Set<String> failedInums;
+	private final AtomicLong writeTime;
+
+	private long submittedCount;
+	private long startTime;
+	private long duration;
+	private boolean finished;
+
+	public CacheRefreshWritePipeline(int writersCount, int batchSize) {
+		this.writersCount = Math.max(1, writersCount);
+		this.batchSize = Math.max(1, batchSize);
+
+		if (this.writersCount > 1) {
+			this.executorService = Executors.newFixedThreadPool(this.writersCount);
+		} else {
+			this.executorService = null;
+		}
+		this.pendingBatches = new Semaphore(this.writersCount * 2);
+		this.batchResults = new ArrayList<Future<?>>();
+		this.currentBatch = new ArrayList<PendingWrite>(this.batchSize);
+
+		this.updatedInums = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		this.failedInums = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		this.writeTime = new AtomicLong();
+
+		this.startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Add entry update to current batch. Writer should return false if update
+	 * failed
+	 */
+	public void submit(String inum, BooleanSupplier writer) {
+		if (finished) {
+			throw new IllegalStateException("Write pipeline is finished");
+		}
+
+		submittedCount++;
+		currentBatch.add(new PendingWrite(inum, writer));
+		if (currentBatch.size() >= batchSize) {
+			dispatchBatch();
+		}
+	}
+
+	/**
+	 * Wait until all submitted updates are done
+	 */
+	public void finish() {
+		if (finished) {
+			return;
+		}
+
+		dispatchBatch();
+		for (Future<?> batchResult : batchResults) {
+			try {
+				batchResult.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for target entries updates", ex);
+			} catch (ExecutionException ex) {
+				log.error("Failed to execute target entries updates", ex.getCause());
+			}
+		}
+		batchResults.clear();
+
+		this.finished = true;
+		this.duration = System.currentTimeMillis() - startTime;
+	}
+
+	@Override
+	public void close() {
+		if (executorService != null) {
+			executorService.shutdownNow();
+		}
+	}
+
+	public Set<String> getUpdatedInums() {
+		return updatedInums;
+	}
+
+	public Set<String> getFailedInums() {
+		return failedInums;
+	}
+
+	public long getSubmittedCount() {
+		return submittedCount;
+	}
+
+	public CacheRefreshWriteMetrics getMetrics() {
+		long currentDuration = finished ? duration : System.currentTimeMillis() - startTime;
+
+		return new CacheRefreshWriteMetrics(writersCount, batchSize, submittedCount, updatedInums.size(),
+				failedInums.size(), currentDuration, writeTime.get() / 1000000);
+	}
+
+	private void dispatchBatch() {
+		if (currentBatch.isEmpty()) {
+			return;
+		}
+
+		final List<PendingWrite> batch = currentBatch;
+		this.currentBatch = new ArrayList<PendingWrite>(batchSize);
+
+		if (executorService == null) {
+			processBatch(batch);
+			return;
+		}
+
+		try {
+			pendingBatches.acquire();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for target entries updates", ex);
+		}
+
+		try {
+			batchResults.add(executorService.submit(() -> {
+				try {
+					processBatch(batch);
+				} finally {
+					pendingBatches.release();
+				}
+			}));
+		} catch (RuntimeException ex) {
+			pendingBatches.release();
+			throw ex;
+		}
+	}
+
+	private void processBatch(List<PendingWrite> batch) {
+		for (PendingWrite pendingWrite : batch) {
+			long writeStartTime = System.nanoTime();
+			boolean result;
+			try {
+				result = pendingWrite.getWriter().getAsBoolean();
+			} catch (RuntimeException ex) {
+				log.error("Failed to update entry with inum '{}'", pendingWrite.getInum(), ex);
+				result = false;
+			}
+			writeTime.addAndGet(System.nanoTime() - writeStartTime);
+
+			if (result) {
+				updatedInums.add(pendingWrite.getInum());
+			} else {
+				failedInums.add(pendingWrite.getInum());
+			}
+		}
+	}
+
+	private static class PendingWrite {
+
+		private final String inum;
+		private final BooleanSupplier writer;
+
+		protected PendingWrite(String inum, BooleanSupplier writer) {
+			this.inum = inum;
+			this.writer = writer;
+		}
+
+		public String getInum() {
+			return inum;
+		}
+
+		public BooleanSupplier getWriter() {
+			return writer;
+		}
+
+	}
+
+}
@@ -6,34 +6,58 @@
 
 package org.gluu.oxtrust.ldap.service;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
-import javax.enterprise.event.Event;
-import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.gluu.config.oxtrust.AppConfiguration;
 import org.gluu.model.GluuStatus;
+import org.gluu.oxtrust.config.ConfigurationFactory;
 import org.gluu.oxtrust.model.GluuSAMLTrustRelationship;
 import org.gluu.oxtrust.model.GluuValidationStatus;
-import org.gluu.oxtrust.service.cdi.event.EntityIdMonitoringEvent;
+import org.gluu.oxtrust.service.timer.JobScheduler;
+import org.gluu.oxtrust.service.timer.ScheduledJob;
 import org.gluu.oxtrust.util.ServiceUtil;
-import org.gluu.saml.metadata.SAMLMetadataParser;
-import org.gluu.service.cdi.async.Asynchronous;
-import org.gluu.service.cdi.event.Scheduled;
-import org.gluu.service.timer.event.TimerEvent;
-import org.gluu.service.timer.schedule.TimerSchedule;
+import org.gluu.util.StringHelper;
+import org.gluu.util.properties.FileConfiguration;
 import org.slf4j.Logger;
 
 /**
@@ -49,11 +73,21 @@ public class EntityIDMonitoringService {
 
 	private static final int DEFAULT_INTERVAL = 2 * 60; // 2 minutes
 
+	private static final String UPDATE_THREADS_PROPERTY = "entityIdMonitoringUpdateThreads";
+	private static final int DEFAULT_UPDATE_THREADS = 4;
+	private static final int UPDATE_BATCH_SIZE = 100;
+
+	private static final String STATE_FILE_PROPERTY = "entityIdMonitoringStateFile";
+	private static final String DEFAULT_STATE_FILE_NAME = "oxtrust-entityid-monitoring-state.properties";
+
 	@Inject
 	private Logger log;
 
 	@Inject
-	private Event<TimerEvent> timerEvent;
+	private MetadataEntityIdService metadataEntityIdService;
+
+	@Inject
+	private JobScheduler jobScheduler;
 
 	@Inject
 	private AppConfiguration appConfiguration;
@@ -64,8 +98,35 @@ public class EntityIDMonitoringService {
 	@Inject
 	private TrustService trustService;
 
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
 	private AtomicBoolean isActive;
 
+	private ExecutorService updateExecutor;
+
+	// Digests of federations state at the end of last processing, keyed by inum
+	private Map<String, String> processedDigests;
+
+	@PostConstruct
+	public void init() {
+		int threads = getUpdateThreads();
+		final AtomicInteger counter = new AtomicInteger();
+		ThreadFactory threadFactory = runnable -> {
+			Thread thread = new Thread(runnable, "entityid-monitoring-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		this.updateExecutor = Executors.newFixedThreadPool(threads, threadFactory);
+
+		this.processedDigests = loadProcessedDigests();
+	}
+
+	@PreDestroy
+	public void destroy() {
+		updateExecutor.shutdownNow();
+	}
+
 	public void initTimer() {
 		log.debug("Initializing EntityId Monitoring Timer");
 		this.isActive = new AtomicBoolean(false);
@@ -73,13 +134,12 @@ public class EntityIDMonitoringService {
 		final int delay = 30;
 		final int interval = DEFAULT_INTERVAL;
 
-		timerEvent.fire(new TimerEvent(new TimerSchedule(delay, interval), new EntityIdMonitoringEvent(),
-				Scheduled.Literal.INSTANCE));
+		ScheduledJob job = new ScheduledJob("entityIdMonitoring", delay, interval,
+				this::processMetadataValidationTimerEvent);
+		jobScheduler.schedule(job);
 	}
 
-	@Asynchronous
-	public void processMetadataValidationTimerEvent(
-			@Observes @Scheduled EntityIdMonitoringEvent entityIdMonitoringEvent) {
+	public void processMetadataValidationTimerEvent() {
 		if (this.isActive.get()) {
 			return;
 		}
@@ -100,105 +160,348 @@ public class EntityIDMonitoringService {
 	public void process() {
 		log.trace("Starting entityId monitoring process.");
 		log.trace("EVENT_METADATA_ENTITY_ID_UPDATE Starting");
-		for (GluuSAMLTrustRelationship tr : trustService.getAllTrustRelationships().stream()
-				.filter(e -> e.isFederation()).collect(Collectors.toList())) {
-			log.info("==========================CURRENT TR " + tr.getInum());
-			String idpMetadataFolder = appConfiguration.getShibboleth3IdpRootDir() + File.separator
-					+ Shibboleth3ConfService.SHIB3_IDP_METADATA_FOLDER + File.separator;
+		List<GluuSAMLTrustRelationship> trustRelationships = trustService.getAllTrustRelationships();
+		if (trustRelationships == null) {
+			return;
+		}
+
+		// Group federated TRs by parent federation to not load all TRs for each of them
+		Map<String, List<GluuSAMLTrustRelationship>> childTrusts = new HashMap<String, List<GluuSAMLTrustRelationship>>();
+		for (GluuSAMLTrustRelationship tr : trustRelationships) {
+			if (!tr.isFederation() && StringHelper.isNotEmpty(tr.getGluuContainerFederation())) {
+				childTrusts.computeIfAbsent(tr.getGluuContainerFederation().toLowerCase(),
+						k -> new ArrayList<GluuSAMLTrustRelationship>()).add(tr);
+			}
+		}
+
+		String idpMetadataFolder = appConfiguration.getShibboleth3IdpRootDir() + File.separator
+				+ Shibboleth3ConfService.SHIB3_IDP_METADATA_FOLDER + File.separator;
+
+		// Status changes are computed in memory first, only changed entries are written
+		List<GluuSAMLTrustRelationship> changedTrs = new ArrayList<GluuSAMLTrustRelationship>();
+		Map<String, String> digests = new HashMap<String, String>();
+		Map<String, List<GluuSAMLTrustRelationship>> changedTrsByFederation = new HashMap<String, List<GluuSAMLTrustRelationship>>();
+		for (GluuSAMLTrustRelationship tr : trustRelationships) {
+			if (!tr.isFederation()) {
+				continue;
+			}
+
 			File metadataFile = new File(idpMetadataFolder + tr.getSpMetaDataFN());
-			List<String> entityIds = SAMLMetadataParser.getEntityIdFromMetadataFile(metadataFile);
-			Set<String> fromFileEntityIds = new HashSet<String>(entityIds);
-			if (fromFileEntityIds != null && !fromFileEntityIds.isEmpty()) {
-				log.trace("EntityIds from metadata: " + serviceUtil.iterableToString(entityIds));
-				log.trace("Unique entityIds: " + serviceUtil.iterableToString(fromFileEntityIds));
-				Collection<String> disjunction = CollectionUtils.disjunction(fromFileEntityIds, tr.getGluuEntityId());
-				log.trace("EntityIds disjunction: " + serviceUtil.iterableToString(disjunction));
-				if (!disjunction.isEmpty()) {
-					log.trace("EntityIds disjunction is not empty. Somthing has changed. Processing further.");
-					tr.setGluuEntityId(fromFileEntityIds);
-					List<GluuSAMLTrustRelationship> federatedTrs = trustService.getChildTrusts(tr);
-					for (GluuSAMLTrustRelationship federatedTr : federatedTrs) {
-						log.trace("Processing TR part: " + federatedTr.getDn());
-						boolean isActive = federatedTr.getStatus() != null
-								&& GluuStatus.ACTIVE.equals(federatedTr.getStatus());
-						log.trace("isActive:" + isActive);
-						boolean entityIdPresent = fromFileEntityIds != null
-								&& fromFileEntityIds.contains(federatedTr.getEntityId());
-						log.trace("entityIdPresent:" + entityIdPresent);
-						boolean previouslyDisabled = federatedTr.getValidationLog() != null
-								&& federatedTr.getValidationLog()
-										.contains(ENTITY_ID_VANISHED_MESSAGE + " : " + federatedTr.getEntityId());
-						log.trace("previouslyDisabled:" + previouslyDisabled);
-						if (isActive && !entityIdPresent) {
-							log.trace("no entityId found for part : " + federatedTr.getDn());
-							federatedTr.setStatus(GluuStatus.INACTIVE);
-							List<String> log = new ArrayList<String>();
-							log.add(ENTITY_ID_VANISHED_MESSAGE + " : " + federatedTr.getEntityId());
-							federatedTr.setValidationLog(log);
-						} else if (entityIdPresent && previouslyDisabled) {
-							log.trace("entityId found for part : " + federatedTr.getDn());
+			List<GluuSAMLTrustRelationship> federatedTrs = childTrusts.get(tr.getDn().toLowerCase());
+			if (federatedTrs == null) {
+				federatedTrs = Collections.emptyList();
+			}
+
+			String digest = getFederationDigest(tr, metadataFile, federatedTrs);
+			if (digest.equals(processedDigests.get(tr.getInum()))) {
+				log.trace("Federation '{}' wasn't changed since last processing", tr.getInum());
+				digests.put(tr.getInum(), digest);
+				continue;
+			}
+
+			log.info("==========================CURRENT TR " + tr.getInum());
+			List<GluuSAMLTrustRelationship> changed = processFederation(tr, metadataFile, federatedTrs);
+			changedTrs.addAll(changed);
+			changedTrsByFederation.put(tr.getInum(), changed);
+			digests.put(tr.getInum(), getFederationDigest(tr, metadataFile, federatedTrs));
+		}
+
+		Set<String> failedDns = updateTrustRelationships(changedTrs);
+
+		// Federations with failed updates should be processed again
+		for (Map.Entry<String, List<GluuSAMLTrustRelationship>> entry : changedTrsByFederation.entrySet()) {
+			for (GluuSAMLTrustRelationship changedTr : entry.getValue()) {
+				if (failedDns.contains(changedTr.getDn())) {
+					digests.remove(entry.getKey());
+					break;
+				}
+			}
+		}
+
+		if (!digests.equals(processedDigests)) {
+			processedDigests = digests;
+			saveProcessedDigests(digests);
+		}
+		log.debug("EntityId monitoring process finished. Updated TRs: {}, failed: {}", changedTrs.size() - failedDns.size(),
+				failedDns.size());
+	}
+
+	/**
+	 * Applies status changes to federation and its federated TRs
+	 * 
+	 * @return TRs which state was changed
+	 */
+	private List<GluuSAMLTrustRelationship> processFederation(GluuSAMLTrustRelationship tr, File metadataFile,
+			List<GluuSAMLTrustRelationship> federatedTrs) {
+		Map<GluuSAMLTrustRelationship, TrustRelationshipState> states = new IdentityHashMap<GluuSAMLTrustRelationship, TrustRelationshipState>();
+		states.put(tr, new TrustRelationshipState(tr));
+		for (GluuSAMLTrustRelationship federatedTr : federatedTrs) {
+			states.put(federatedTr, new TrustRelationshipState(federatedTr));
+		}
+
+		List<String> entityIds = metadataEntityIdService.getEntityIdFromMetadataFile(metadataFile);
+		Set<String> fromFileEntityIds = entityIds == null ? null : new HashSet<String>(entityIds);
+		if (fromFileEntityIds != null && !fromFileEntityIds.isEmpty()) {
+			log.trace("EntityIds from metadata: " + serviceUtil.iterableToString(entityIds));
+			log.trace("Unique entityIds: " + serviceUtil.iterableToString(fromFileEntityIds));
+			Collection<String> disjunction = CollectionUtils.disjunction(fromFileEntityIds, tr.getGluuEntityId());
+			log.trace("EntityIds disjunction: " + serviceUtil.iterableToString(disjunction));
+			if (!disjunction.isEmpty()) {
+				log.trace("EntityIds disjunction is not empty. Somthing has changed. Processing further.");
+				tr.setGluuEntityId(fromFileEntityIds);
+				for (GluuSAMLTrustRelationship federatedTr : federatedTrs) {
+					log.trace("Processing TR part: " + federatedTr.getDn());
+					boolean isActive = federatedTr.getStatus() != null
+							&& GluuStatus.ACTIVE.equals(federatedTr.getStatus());
+					log.trace("isActive:" + isActive);
+					boolean entityIdPresent = fromFileEntityIds.contains(federatedTr.getEntityId());
+					log.trace("entityIdPresent:" + entityIdPresent);
+					boolean previouslyDisabled = federatedTr.getValidationLog() != null && federatedTr
+							.getValidationLog().contains(ENTITY_ID_VANISHED_MESSAGE + " : " + federatedTr.getEntityId());
+					log.trace("previouslyDisabled:" + previouslyDisabled);
+					if (isActive && !entityIdPresent) {
+						log.trace("no entityId found for part : " + federatedTr.getDn());
+						federatedTr.setStatus(GluuStatus.INACTIVE);
+						List<String> log = new ArrayList<String>();
+						log.add(ENTITY_ID_VANISHED_MESSAGE + " : " + federatedTr.getEntityId());
+						federatedTr.setValidationLog(log);
+					} else if (entityIdPresent && previouslyDisabled) {
+						log.trace("entityId found for part : " + federatedTr.getDn());
+						federatedTr.setStatus(GluuStatus.ACTIVE);
+						federatedTr.setValidationStatus(GluuValidationStatus.SUCCESS);
+						List<String> log = federatedTr.getValidationLog();
+						List<String> updatedLog = new ArrayList<String>(log);
+						updatedLog.remove(ENTITY_ID_VANISHED_MESSAGE + " : " + federatedTr.getEntityId());
+						if (updatedLog.isEmpty()) {
+							updatedLog = null;
+						}
+						federatedTr.setValidationLog(updatedLog);
+					} else {
+						if (GluuValidationStatus.FAILED.equals(federatedTr.getValidationStatus())) {
 							federatedTr.setStatus(GluuStatus.ACTIVE);
 							federatedTr.setValidationStatus(GluuValidationStatus.SUCCESS);
-							List<String> log = federatedTr.getValidationLog();
-							List<String> updatedLog = new ArrayList<String>(log);
-							updatedLog.remove(ENTITY_ID_VANISHED_MESSAGE + " : " + federatedTr.getEntityId());
-							if (updatedLog.isEmpty()) {
-								updatedLog = null;
-							}
-							federatedTr.setValidationLog(updatedLog);
-						} else {
-							if (federatedTr.getValidationStatus().equals(GluuValidationStatus.FAILED)) {
-								federatedTr.setStatus(GluuStatus.ACTIVE);
-								federatedTr.setValidationStatus(GluuValidationStatus.SUCCESS);
-							}
 						}
-						trustService.updateTrustRelationship(federatedTr);
 					}
+				}
+				tr.setStatus(GluuStatus.ACTIVE);
+				tr.setValidationStatus(GluuValidationStatus.SUCCESS);
+			} else {
+				if (GluuStatus.INACTIVE.equals(tr.getStatus())) {
 					tr.setStatus(GluuStatus.ACTIVE);
 					tr.setValidationStatus(GluuValidationStatus.SUCCESS);
-					trustService.updateTrustRelationship(tr);
-				} else {
-					if (tr.getStatus().equals(GluuStatus.INACTIVE)) {
-						tr.setStatus(GluuStatus.ACTIVE);
-						tr.setValidationStatus(GluuValidationStatus.SUCCESS);
-						if (tr.getValidationLog() != null && !tr.getValidationLog().isEmpty()) {
-							List<String> validationLog = new ArrayList<>(tr.getValidationLog());
-							validationLog.remove(FEDERATION_FILE_INVALID_MESSAGE);
-							tr.setValidationLog(validationLog);
-						}
-						List<GluuSAMLTrustRelationship> federatedTrs = trustService.getChildTrusts(tr);
-						if (federatedTrs != null && !federatedTrs.isEmpty()) {
-							for (GluuSAMLTrustRelationship child : federatedTrs) {
-								child.setValidationStatus(GluuValidationStatus.SUCCESS);
-								child.setStatus(GluuStatus.ACTIVE);
-								trustService.updateTrustRelationship(child);
-							}
-						}
-						trustService.updateTrustRelationship(tr);
+					if (tr.getValidationLog() != null && !tr.getValidationLog().isEmpty()) {
+						List<String> validationLog = new ArrayList<>(tr.getValidationLog());
+						validationLog.remove(FEDERATION_FILE_INVALID_MESSAGE);
+						tr.setValidationLog(validationLog);
+					}
+					for (GluuSAMLTrustRelationship child : federatedTrs) {
+						child.setValidationStatus(GluuValidationStatus.SUCCESS);
+						child.setStatus(GluuStatus.ACTIVE);
 					}
 				}
+			}
+		} else {
+			tr.setStatus(GluuStatus.INACTIVE);
+			tr.setValidationStatus(GluuValidationStatus.FAILED);
+			if (tr.getValidationLog() != null && !tr.getValidationLog().contains(FEDERATION_FILE_INVALID_MESSAGE)) {
+				List<String> validationLog = new ArrayList<>(tr.getValidationLog());
+				validationLog.add(FEDERATION_FILE_INVALID_MESSAGE);
+				tr.setValidationLog(validationLog);
 			} else {
-				tr.setStatus(GluuStatus.INACTIVE);
-				tr.setValidationStatus(GluuValidationStatus.FAILED);
-				if (tr.getValidationLog() != null && !tr.getValidationLog().contains(FEDERATION_FILE_INVALID_MESSAGE)) {
-					List<String> validationLog = new ArrayList<>(tr.getValidationLog());
-					validationLog.add(FEDERATION_FILE_INVALID_MESSAGE);
-					tr.setValidationLog(validationLog);
-				} else {
-					tr.setValidationLog(Arrays.asList(FEDERATION_FILE_INVALID_MESSAGE));
-				}
-				List<GluuSAMLTrustRelationship> federatedTrs = trustService.getChildTrusts(tr);
-				if (federatedTrs != null && !federatedTrs.isEmpty()) {
-					for (GluuSAMLTrustRelationship child : federatedTrs) {
-						child.setValidationStatus(GluuValidationStatus.FAILED);
-						child.setStatus(GluuStatus.INACTIVE);
-						trustService.updateTrustRelationship(child);
+				tr.setValidationLog(Arrays.asList(FEDERATION_FILE_INVALID_MESSAGE));
+			}
+			for (GluuSAMLTrustRelationship child : federatedTrs) {
+				child.setValidationStatus(GluuValidationStatus.FAILED);
+				child.setStatus(GluuStatus.INACTIVE);
+			}
+		}
+
+		List<GluuSAMLTrustRelationship> changedTrs = new ArrayList<GluuSAMLTrustRelationship>();
+		for (GluuSAMLTrustRelationship federatedTr : federatedTrs) {
+			if (!states.get(federatedTr).equals(new TrustRelationshipState(federatedTr))) {
+				changedTrs.add(federatedTr);
+			}
+		}
+		if (!states.get(tr).equals(new TrustRelationshipState(tr))) {
+			changedTrs.add(tr);
+		}
+
+		return changedTrs;
+	}
+
+	/**
+	 * Writes TRs in concurrent batches
+	 * 
+	 * @return DNs of TRs which weren't updated
+	 */
+	private Set<String> updateTrustRelationships(List<GluuSAMLTrustRelationship> trustRelationships) {
+		Set<String> failedDns = Collections.synchronizedSet(new HashSet<String>());
+		if (trustRelationships.isEmpty()) {
+			return failedDns;
+		}
+
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int i = 0; i < trustRelationships.size(); i += UPDATE_BATCH_SIZE) {
+			final List<GluuSAMLTrustRelationship> batch = trustRelationships.subList(i,
+					Math.min(i + UPDATE_BATCH_SIZE, trustRelationships.size()));
+			futures.add(updateExecutor.submit(() -> {
+				for (GluuSAMLTrustRelationship tr : batch) {
+					try {
+						trustService.updateTrustRelationship(tr);
+					} catch (Exception ex) {
+						log.error("Failed to update TR '{}'", tr.getDn(), ex);
+						failedDns.add(tr.getDn());
 					}
 				}
-				trustService.updateTrustRelationship(tr);
+			}));
+		}
+
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				futures.get(i).get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return markAllFailed(trustRelationships, failedDns);
+			} catch (ExecutionException ex) {
+				log.error("Failed to update batch of TRs", ex.getCause());
+				markAllFailed(
+						trustRelationships.subList(i * UPDATE_BATCH_SIZE,
+								Math.min((i + 1) * UPDATE_BATCH_SIZE, trustRelationships.size())),
+						failedDns);
 			}
+		}
+
+		return failedDns;
+	}
 
+	private Set<String> markAllFailed(List<GluuSAMLTrustRelationship> trustRelationships, Set<String> failedDns) {
+		for (GluuSAMLTrustRelationship tr : trustRelationships) {
+			failedDns.add(tr.getDn());
 		}
+
+		return failedDns;
+	}
+
+	/*
+	 * Digest of federation state. Metadata file is identified by its name, size and
+	 * modification time
+	 */
+	private String getFederationDigest(GluuSAMLTrustRelationship tr, File metadataFile,
+			List<GluuSAMLTrustRelationship> federatedTrs) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(metadataFile.getPath()).append('|').append(metadataFile.length()).append('|')
+				.append(metadataFile.lastModified());
+		sb.append('|').append(tr.getStatus()).append('|').append(tr.getValidationStatus());
+		sb.append('|').append(tr.getGluuEntityId() == null ? null : new TreeSet<String>(tr.getGluuEntityId()));
+		sb.append('|').append(federatedTrs.size());
+
+		try {
+			MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+			return Base64.getEncoder().encodeToString(messageDigest.digest(sb.toString().getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException ex) {
+			return sb.toString();
+		}
+	}
+
+	private int getUpdateThreads() {
+		FileConfiguration baseConfiguration = configurationFactory.getBaseConfiguration();
+		if (baseConfiguration == null) {
+			return DEFAULT_UPDATE_THREADS;
+		}
+
+		return Math.max(1, baseConfiguration.getInt(UPDATE_THREADS_PROPERTY, DEFAULT_UPDATE_THREADS));
+	}
+
+	private File getStateFile() {
+		String defaultStateFile = System.getProperty("java.io.tmpdir") + File.separator + DEFAULT_STATE_FILE_NAME;
+
+		FileConfiguration baseConfiguration = configurationFactory.getBaseConfiguration();
+		if (baseConfiguration == null) {
+			return new File(defaultStateFile);
+		}
+
+		return new File(baseConfiguration.getString(STATE_FILE_PROPERTY, defaultStateFile));
+	}
+
+	private Map<String, String> loadProcessedDigests() {
+		Map<String, String> digests = new HashMap<String, String>();
+
+		File stateFile = getStateFile();
+		if (!stateFile.isFile()) {
+			return digests;
+		}
+
+		Properties properties = new Properties();
+		try (InputStream is = new BufferedInputStream(new FileInputStream(stateFile))) {
+			properties.load(is);
+		} catch (IOException ex) {
+			log.error("Failed to load entityId monitoring state '{}'", stateFile, ex);
+			return digests;
+		}
+
+		for (String inum : properties.stringPropertyNames()) {
+			digests.put(inum, properties.getProperty(inum));
+		}
+
+		return digests;
+	}
+
+	private void saveProcessedDigests(Map<String, String> digests) {
+		File stateFile = getStateFile();
+		File tmpFile = new File(stateFile.getPath() + ".tmp");
+
+		Properties properties = new Properties();
+		properties.putAll(digests);
+		try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
+			properties.store(os, "Last processed federations");
+		} catch (IOException ex) {
+			log.error("Failed to save entityId monitoring state '{}'", stateFile, ex);
+			return;
+		}
+
+		try {
+			Files.move(tmpFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException ex) {
+			log.error("Failed to replace entityId monitoring state '{}'", stateFile, ex);
+		}
+	}
+
+	/*
+	 * TR attributes updated by monitoring process
+	 */
+	private static class TrustRelationshipState {
+
+		private final GluuStatus status;
+		private final GluuValidationStatus validationStatus;
+		private final List<String> validationLog;
+		private final Set<String> entityIds;
+
+		public TrustRelationshipState(GluuSAMLTrustRelationship tr) {
+			this.status = tr.getStatus();
+			this.validationStatus = tr.getValidationStatus();
+			this.validationLog = tr.getValidationLog() == null ? null : new ArrayList<String>(tr.getValidationLog());
+			this.entityIds = tr.getGluuEntityId() == null ? null : new HashSet<String>(tr.getGluuEntityId());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof TrustRelationshipState)) {
+				return false;
+			}
+
+			TrustRelationshipState other = (TrustRelationshipState) obj;
+			return Objects.equals(status, other.status) && Objects.equals(validationStatus, other.validationStatus)
+					&& Objects.equals(validationLog, other.validationLog) && Objects.equals(entityIds, other.entityIds);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(status, validationStatus, validationLog, entityIds);
+		}
+
 	}
 
 }
@@ -0,0 +1,159 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.util.properties.FileConfiguration;
+import org.slf4j.Logger;
+
+/**
+ * Keeps counts of persons and groups. Counters are maintained incrementally
+ * when entries are added or removed through oxTrust services and periodically
+ * reconciled with exact counts in low priority thread, so callers get counts
+ * without scanning directory. Counters are kept per node: status checker runs
+ * on one node only, so entries added or removed on other nodes (or directly in
+ * LDAP) are reflected after next reconciliation (entryCountReconcileInterval,
+ * 1 hour by default)
+ */
+@ApplicationScoped
+@Named("entryCountService")
+public class EntryCountService {
+
+	private static final String RECONCILE_INTERVAL_PROPERTY = "entryCountReconcileInterval";
+	private static final int DEFAULT_RECONCILE_INTERVAL = 60 * 60; // 1 hour
+
+	private static final long UNKNOWN = -1;
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	@Inject
+	private IPersonService personService;
+
+	@Inject
+	private IGroupService groupService;
+
+	private AtomicLong personCount = new AtomicLong(UNKNOWN);
+	private AtomicLong groupCount = new AtomicLong(UNKNOWN);
+
+	private ScheduledExecutorService reconcileExecutor;
+
+	@PostConstruct
+	public void init() {
+		this.reconcileExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "entry-count-reconcile");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+
+		int interval = getReconcileInterval();
+		reconcileExecutor.scheduleWithFixedDelay(this::reconcile, interval, interval, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	public void destroy() {
+		reconcileExecutor.shutdownNow();
+	}
+
+	public long getPersonCount() {
+		long count = personCount.get();
+		if (count == UNKNOWN) {
+			count = reconcilePersonCount();
+		}
+
+		return count;
+	}
+
+	public long getGroupCount() {
+		long count = groupCount.get();
+		if (count == UNKNOWN) {
+			count = reconcileGroupCount();
+		}
+
+		return count;
+	}
+
+	public void personAdded() {
+		increment(personCount, 1);
+	}
+
+	public void personRemoved() {
+		increment(personCount, -1);
+	}
+
+	public void groupAdded() {
+		increment(groupCount, 1);
+	}
+
+	public void groupRemoved() {
+		increment(groupCount, -1);
+	}
+
+	private void increment(AtomicLong counter, long delta) {
+		// Unknown count will be loaded on first access
+		counter.updateAndGet(count -> count == UNKNOWN ? UNKNOWN : Math.max(0, count + delta));
+	}
+
+	/**
+	 * Replaces counters with exact counts. Entries added or removed while counting
+	 * may be missed until next reconciliation
+	 */
+	public void reconcile() {
+		try {
+			long persons = personCount.get();
+			long groups = groupCount.get();
+			long exactPersons = reconcilePersonCount();
+			long exactGroups = reconcileGroupCount();
+
+			if ((persons != exactPersons) || (groups != exactGroups)) {
+				log.debug("Reconciled entry counts. Persons: {} -> {}, groups: {} -> {}", persons, exactPersons, groups,
+						exactGroups);
+			}
+		} catch (Exception ex) {
+			log.error("Failed to reconcile entry counts", ex);
+		}
+	}
+
+	private long reconcilePersonCount() {
+		long count = personService.countPersons();
+		personCount.set(count);
+
+		return count;
+	}
+
+	private long reconcileGroupCount() {
+		long count = groupService.countGroups();
+		groupCount.set(count);
+
+		return count;
+	}
+
+	private int getReconcileInterval() {
+		FileConfiguration baseConfiguration = configurationFactory.getBaseConfiguration();
+		if (baseConfiguration == null) {
+			return DEFAULT_RECONCILE_INTERVAL;
+		}
+
+		return Math.max(60, baseConfiguration.getInt(RECONCILE_INTERVAL_PROPERTY, DEFAULT_RECONCILE_INTERVAL));
+	}
+
+}
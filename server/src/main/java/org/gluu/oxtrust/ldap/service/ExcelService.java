@@ -6,23 +6,33 @@
 
 package org.gluu.oxtrust.ldap.service;
 
-import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
 
-import org.apache.poi.EncryptedDocumentException;
-import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.poifs.filesystem.FileMagic;
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
 import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
-import org.gluu.oxtrust.model.table.Table;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
 import org.slf4j.Logger;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
 
 /**
  * Service class to work with Excel files
@@ -37,30 +47,118 @@ public class ExcelService {
 	@Inject
 	private Logger log;
 
-	public Table read(InputStream is) {
-		org.gluu.oxtrust.model.table.Table result = null;
+	/**
+	 * Reads first sheet row by row without loading whole workbook. XLSX files are
+	 * parsed with SAX, other formats are loaded with {@link WorkbookFactory}
+	 * 
+	 * @param handler
+	 *            Receives cell values of each non empty row by column index
+	 */
+	public void read(InputStream is, RowHandler handler) throws Exception {
+		InputStream input = FileMagic.prepareToCheckMagic(is);
+		if (FileMagic.valueOf(input) == FileMagic.OOXML) {
+			readXlsx(input, handler);
+		} else {
+			readWorkbook(input, handler);
+		}
+	}
+
+	private void readXlsx(InputStream is, RowHandler handler) throws Exception {
+		OPCPackage opcPackage = OPCPackage.open(is);
 		try {
-			result = new org.gluu.oxtrust.model.table.Table();
-			Workbook workbook = WorkbookFactory.create(is);
-			Sheet datatypeSheet = workbook.getSheetAt(0);
-			Iterator<Row> iterator = datatypeSheet.iterator();
-			while (iterator.hasNext()) {
-				Row currentRow = iterator.next();
-				Iterator<Cell> cellIterator = currentRow.iterator();
-				while (cellIterator.hasNext()) {
-					Cell currentCell = cellIterator.next();
-					result.addCell(new org.gluu.oxtrust.model.table.Cell(currentCell.getColumnIndex(),
-							currentCell.getRowIndex(), currentCell.getStringCellValue()));
+			XSSFReader reader = new XSSFReader(opcPackage);
+			ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(opcPackage);
+			StylesTable styles = reader.getStylesTable();
+
+			Iterator<InputStream> sheets = reader.getSheetsData();
+			if (!sheets.hasNext()) {
+				return;
+			}
+
+			try (InputStream sheet = sheets.next()) {
+				XMLReader parser = SAXHelper.newXMLReader();
+				parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings, new RowCollector(handler),
+						new DataFormatter(), false));
+				parser.parse(new InputSource(sheet));
+			} catch (StopReadingException ex) {
+				log.trace("Reading was stopped by row handler");
+			}
+		} finally {
+			// Package was opened for reading only, close it without saving
+			opcPackage.revert();
+		}
+	}
+
+	private void readWorkbook(InputStream is, RowHandler handler) throws Exception {
+		DataFormatter formatter = new DataFormatter();
+		try (Workbook workbook = WorkbookFactory.create(is)) {
+			for (Row row : workbook.getSheetAt(0)) {
+				Map<Integer, String> cells = new HashMap<Integer, String>();
+				for (Cell cell : row) {
+					cells.put(cell.getColumnIndex(), formatter.formatCellValue(cell));
+				}
+
+				if (!cells.isEmpty() && !handler.row(row.getRowNum(), cells)) {
+					return;
 				}
 			}
-		} catch (IOException e) {
-			log.error("Error: " + e);
-		} catch (EncryptedDocumentException e) {
-			log.error("Error: " + e);
-		} catch (InvalidFormatException e) {
-			log.error("Error: " + e);
 		}
-		return result;
+	}
+
+	public interface RowHandler {
+
+		/**
+		 * @return false to stop reading
+		 */
+		boolean row(int rowIndex, Map<Integer, String> cells);
+
+	}
+
+	private static class RowCollector implements SheetContentsHandler {
+
+		private final RowHandler handler;
+		private Map<Integer, String> cells;
+		private int lastColumn;
+
+		public RowCollector(RowHandler handler) {
+			this.handler = handler;
+		}
+
+		@Override
+		public void startRow(int rowNum) {
+			this.cells = new HashMap<Integer, String>();
+			this.lastColumn = -1;
+		}
+
+		@Override
+		public void endRow(int rowNum) {
+			if (!cells.isEmpty() && !handler.row(rowNum, cells)) {
+				throw new StopReadingException();
+			}
+		}
+
+		@Override
+		public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+			// Reference is optional in XLSX, cells without it follow previous one
+			int column = cellReference == null ? lastColumn + 1 : new CellReference(cellReference).getCol();
+			cells.put(column, formattedValue);
+			lastColumn = column;
+		}
+
+		public void headerFooter(String text, boolean isHeader, String tagName) {
+		}
+
+	}
+
+	// SheetContentsHandler methods can't throw checked exceptions
+	private static class StopReadingException extends RuntimeException {
+
+		private static final long serialVersionUID = -1578254612381941623L;
+
+		public StopReadingException() {
+			super("Reading stopped");
+		}
+
 	}
 
 }
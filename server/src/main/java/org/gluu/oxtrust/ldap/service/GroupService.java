@@ -52,6 +52,9 @@ public class GroupService implements Serializable, IGroupService {
 	@Inject
 	private PersonService personService;
 
+	@Inject
+	private EntryCountService entryCountService;
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -66,6 +69,7 @@ public class GroupService implements Serializable, IGroupService {
 		List<GluuGroup> groups = findGroups(displayNameGroup, 1);
 		if (groups == null || groups.size() == 0) {
 			ldapEntryManager.persist(group);
+			entryCountService.groupAdded();
 		} else {
 			throw new DuplicateEntryException("Duplicate displayName: " + group.getDisplayName());
 		}
@@ -112,6 +116,7 @@ public class GroupService implements Serializable, IGroupService {
 		}
 
 		ldapEntryManager.remove(group);
+		entryCountService.groupRemoved();
 		// clear references in gluuPerson entries
 	}
 
@@ -97,6 +97,9 @@ public interface IPersonService {
 	public abstract List<GluuCustomPerson> findPersonsByUids(List<String> uids, String[] returnAttributes)
 			throws Exception;
 
+	public abstract List<GluuCustomPerson> findPersonsByInums(List<String> inums, String[] returnAttributes)
+			throws Exception;
+
 	public abstract GluuCustomPerson findPersonByDn(String dn, String... returnAttributes);
 
 	/**
@@ -0,0 +1,297 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.model.TimerLease;
+import org.gluu.persist.PersistenceEntryManager;
+import org.gluu.persist.exception.BasePersistenceException;
+import org.gluu.persist.exception.EntryPersistenceException;
+import org.gluu.persist.ldap.operation.LdapOperationService;
+import org.gluu.persist.model.base.SimpleBranch;
+import org.gluu.service.DataSourceTypeService;
+import org.gluu.util.properties.FileConfiguration;
+import org.slf4j.Logger;
+
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+import com.unboundid.ldap.sdk.ResultCode;
+
+/**
+ * Lease based leader election for background jobs. Leases are stored in
+ * persistence layer shared by all oxTrust nodes. Node which holds not expired
+ * lease is leader, other nodes take lease over when it expires. Leases are
+ * renewed and taken over with conditional modification, so only one node wins.
+ * Expiration time is set by clock of lease owner and checked by clocks of other
+ * nodes, so node clocks should be synchronized (e.g. with NTP) with precision
+ * much better than lease time
+ */
+@ApplicationScoped
+@Named
+public class LeaderElectionService {
+
+	private static final String ENABLED_PROPERTY = "timerLeaderElection";
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private PersistenceEntryManager ldapEntryManager;
+
+	@Inject
+	private ConfigurationService configurationService;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	@Inject
+	private DataSourceTypeService dataSourceTypeService;
+
+	private String nodeId;
+
+	private Set<String> ownedLeases = ConcurrentHashMap.newKeySet();
+
+	private ScheduledExecutorService renewalExecutor;
+
+	@PostConstruct
+	public void init() {
+		String hostName;
+		try {
+			hostName = InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException ex) {
+			hostName = "unknown";
+		}
+		this.nodeId = hostName + "-" + UUID.randomUUID().toString().substring(0, 8);
+
+		this.renewalExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "lease-renewal");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void destroy() {
+		renewalExecutor.shutdownNow();
+
+		// Allow other nodes to take leases over without waiting for expiration
+		for (String name : ownedLeases) {
+			release(name);
+		}
+	}
+
+	public boolean isEnabled() {
+		FileConfiguration baseConfiguration = configurationFactory.getBaseConfiguration();
+		if (baseConfiguration == null) {
+			return true;
+		}
+
+		return baseConfiguration.getBoolean(ENABLED_PROPERTY, true);
+	}
+
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Acquires or renews lease
+	 * 
+	 * @param name
+	 *            Lease name, usually job name
+	 * @param leaseTime
+	 *            Lease duration in seconds
+	 * @return True if this node holds lease
+	 */
+	public boolean isLeader(String name, int leaseTime) {
+		if (!isEnabled()) {
+			return true;
+		}
+
+		try {
+			boolean leader = acquire(name, TimeUnit.SECONDS.toMillis(leaseTime));
+			if (leader) {
+				if (ownedLeases.add(name)) {
+					log.info("Node '{}' became leader of '{}'", nodeId, name);
+				}
+			} else if (ownedLeases.remove(name)) {
+				log.info("Node '{}' lost leadership of '{}'", nodeId, name);
+			}
+
+			return leader;
+		} catch (BasePersistenceException ex) {
+			log.error("Failed to acquire lease '{}'", name, ex);
+			ownedLeases.remove(name);
+			return false;
+		}
+	}
+
+	/**
+	 * Renews lease periodically until returned future is cancelled. Should be used
+	 * while job which takes longer than lease time is running
+	 */
+	public ScheduledFuture<?> keepLease(String name, int leaseTime) {
+		long period = Math.max(1, leaseTime / 3);
+		return renewalExecutor.scheduleAtFixedRate(() -> isLeader(name, leaseTime), period, period, TimeUnit.SECONDS);
+	}
+
+	public void release(String name) {
+		if (!ownedLeases.remove(name)) {
+			return;
+		}
+
+		try {
+			TimerLease lease = findLease(getDnForLease(name));
+			if ((lease != null) && nodeId.equals(lease.getOwner())) {
+				updateLease(lease, 0);
+			}
+		} catch (BasePersistenceException ex) {
+			log.error("Failed to release lease '{}'", name, ex);
+		}
+	}
+
+	private boolean acquire(String name, long leaseTime) {
+		String dn = getDnForLease(name);
+		long now = System.currentTimeMillis();
+
+		TimerLease lease = findLease(dn);
+		if (lease == null) {
+			prepareBranch();
+
+			lease = new TimerLease();
+			lease.setDn(dn);
+			lease.setName(name);
+			lease.setLease(nodeId, now + leaseTime);
+			try {
+				ldapEntryManager.persist(lease);
+				return true;
+			} catch (BasePersistenceException ex) {
+				// Another node created lease at the same time
+				log.debug("Failed to create lease '{}'", name, ex);
+				return false;
+			}
+		}
+
+		if (!nodeId.equals(lease.getOwner())) {
+			if (lease.getExpiration() > now) {
+				return false;
+			}
+
+			log.debug("Lease '{}' of node '{}' expired", name, lease.getOwner());
+		}
+
+		// Renewal fails too if another node took expired lease over
+		return updateLease(lease, now + leaseTime);
+	}
+
+	/**
+	 * Sets this node as lease owner if lease wasn't changed since it was read
+	 * 
+	 * @return True if lease was updated
+	 */
+	private boolean updateLease(TimerLease lease, long expiration) {
+		String dn = lease.getDn();
+		String oldDescription = lease.getDescription();
+		lease.setLease(nodeId, expiration);
+
+		if (!dataSourceTypeService.isLDAP(dn)) {
+			// Conditional modification isn't available, check if another node didn't
+			// update lease at the same time
+			ldapEntryManager.merge(lease);
+
+			TimerLease storedLease = findLease(dn);
+			return (storedLease != null) && lease.getDescription().equals(storedLease.getDescription());
+		}
+
+		// Modification with removal of old value fails if another node changed it
+		Modification[] modifications;
+		if (oldDescription == null) {
+			modifications = new Modification[] {
+					new Modification(ModificationType.REPLACE, "description", lease.getDescription()) };
+		} else {
+			modifications = new Modification[] {
+					new Modification(ModificationType.DELETE, "description", oldDescription),
+					new Modification(ModificationType.ADD, "description", lease.getDescription()) };
+		}
+
+		LdapOperationService ldapOperationService = (LdapOperationService) ldapEntryManager.getOperationService();
+		LDAPConnection connection = null;
+		try {
+			connection = ldapOperationService.getConnection();
+			connection.modify(dn, modifications);
+			return true;
+		} catch (LDAPException ex) {
+			if (ResultCode.NO_SUCH_ATTRIBUTE.equals(ex.getResultCode())) {
+				log.debug("Lease '{}' was changed by another node", lease.getName());
+				return false;
+			}
+			throw new EntryPersistenceException(String.format("Failed to update lease '%s'", dn), ex);
+		} finally {
+			if (connection != null) {
+				ldapOperationService.releaseConnection(connection);
+			}
+		}
+	}
+
+	private TimerLease findLease(String dn) {
+		if (!ldapEntryManager.contains(dn, TimerLease.class)) {
+			return null;
+		}
+
+		return ldapEntryManager.find(TimerLease.class, dn);
+	}
+
+	private void prepareBranch() {
+		String branchDn = getDnForLease(null);
+		if (ldapEntryManager.contains(branchDn, SimpleBranch.class)) {
+			return;
+		}
+
+		SimpleBranch branch = new SimpleBranch();
+		branch.setOrganizationalUnitName("leases");
+		branch.setDn(branchDn);
+		try {
+			ldapEntryManager.persist(branch);
+		} catch (BasePersistenceException ex) {
+			// Another node created branch at the same time
+			log.debug("Failed to create leases branch", ex);
+		}
+	}
+
+	/**
+	 * Build DN string for lease
+	 * 
+	 * @param name
+	 *            Lease name
+	 * @return DN string for specified lease or DN for leases branch if name is null
+	 */
+	public String getDnForLease(String name) {
+		String configurationDn = configurationService.getDnForConfiguration();
+		if (name == null) {
+			return String.format("ou=leases,%s", configurationDn);
+		}
+		return String.format("ou=%s,ou=leases,%s", name, configurationDn);
+	}
+
+}
@@ -15,8 +15,6 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.enterprise.context.ApplicationScoped;
-import javax.enterprise.event.Event;
-import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.xml.xpath.XPath;
@@ -28,12 +26,9 @@ import org.apache.commons.io.FileUtils;
 import org.gluu.oxtrust.config.ConfigurationFactory;
 import org.gluu.oxtrust.model.FileData;
 import org.gluu.oxtrust.model.GluuConfiguration;
-import org.gluu.oxtrust.service.cdi.event.LogFileSizeChekerEvent;
+import org.gluu.oxtrust.service.timer.JobScheduler;
+import org.gluu.oxtrust.service.timer.ScheduledJob;
 import org.gluu.service.XmlService;
-import org.gluu.service.cdi.async.Asynchronous;
-import org.gluu.service.cdi.event.Scheduled;
-import org.gluu.service.timer.event.TimerEvent;
-import org.gluu.service.timer.schedule.TimerSchedule;
 import org.gluu.util.StringHelper;
 import org.slf4j.Logger;
 import org.w3c.dom.Node;
@@ -49,7 +44,7 @@ public class LogFileSizeChecker {
 	private Logger log;
 
 	@Inject
-	private Event<TimerEvent> timerEvent;
+	private JobScheduler jobScheduler;
 
 	@Inject
 	ConfigurationService configurationService;
@@ -66,12 +61,12 @@ public class LogFileSizeChecker {
 		final int delay = 2 * 60;
 		final int interval = DEFAULT_INTERVAL;
 
-		timerEvent.fire(new TimerEvent(new TimerSchedule(delay, interval), new LogFileSizeChekerEvent(),
-				Scheduled.Literal.INSTANCE));
+		ScheduledJob job = new ScheduledJob("logFileSizeChecker", delay, interval, this::process);
+		job.setPriority(Thread.MIN_PRIORITY);
+		jobScheduler.schedule(job);
 	}
 
-	@Asynchronous
-	public void process(@Observes @Scheduled LogFileSizeChekerEvent logFileSizeChekerEvent) {
+	public void process() {
 		if (this.isActive.get()) {
 			return;
 		}
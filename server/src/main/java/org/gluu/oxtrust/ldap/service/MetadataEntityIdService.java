@@ -0,0 +1,319 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.util.properties.FileConfiguration;
+import org.slf4j.Logger;
+
+/**
+ * Provides entityIDs defined in SAML metadata files. Results are kept in an
+ * index keyed by file path and validated by file size, modification time and
+ * content digest, so unchanged files are not read again. Index is stored on
+ * disk to survive restarts
+ */
+@ApplicationScoped
+@Named("metadataEntityIdService")
+public class MetadataEntityIdService {
+
+	private static final int VERSION = 1;
+
+	private static final String INDEX_FILE_PROPERTY = "metadataEntityIdIndexFile";
+	private static final String DEFAULT_INDEX_FILE_NAME = "oxtrust-metadata-entityid-index.dat";
+
+	// Minimal interval between index saves in milliseconds
+	private static final long SAVE_INTERVAL = 30 * 1000;
+
+	private static final String ENTITY_DESCRIPTOR = "EntityDescriptor";
+	private static final String ENTITY_ID = "entityID";
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	private Map<String, IndexEntry> index = new ConcurrentHashMap<String, IndexEntry>();
+
+	private XMLInputFactory xmlInputFactory;
+
+	private volatile boolean modified;
+	private volatile long lastSaveTime;
+
+	@PostConstruct
+	public void init() {
+		this.xmlInputFactory = XMLInputFactory.newInstance();
+		this.xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		this.xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		this.xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+		loadIndex();
+	}
+
+	@PreDestroy
+	public void destroy() {
+		if (modified) {
+			saveIndex();
+		}
+	}
+
+	/**
+	 * Get entityIDs of all EntityDescriptor elements of metadata file
+	 *
+	 * @return List of entityIDs or null if file doesn't exist or it's not a
+	 *         well-formed XML file
+	 */
+	public List<String> getEntityIdFromMetadataFile(File metadataFile) {
+		if (!metadataFile.isFile()) {
+			return null;
+		}
+
+		String path = metadataFile.getAbsolutePath();
+		long size = metadataFile.length();
+		long lastModified = metadataFile.lastModified();
+
+		IndexEntry entry = index.get(path);
+		if ((entry != null) && (entry.getSize() == size) && (entry.getLastModified() == lastModified)) {
+			return new ArrayList<String>(entry.getEntityIds());
+		}
+
+		IndexEntry newEntry = null;
+		if ((entry != null) && (entry.getSize() == size)) {
+			// File was touched, check if content is still the same
+			byte[] digest = digestFile(metadataFile);
+			if (Arrays.equals(entry.getDigest(), digest)) {
+				log.trace("Metadata file '{}' was touched but its content is the same", path);
+				newEntry = new IndexEntry(size, lastModified, digest, entry.getEntityIds());
+			}
+		}
+
+		if (newEntry == null) {
+			newEntry = scanMetadataFile(metadataFile, size, lastModified);
+			if (newEntry == null) {
+				index.remove(path);
+				return null;
+			}
+			log.debug("Indexed {} entityIDs of metadata file '{}'", newEntry.getEntityIds().size(), path);
+		}
+
+		index.put(path, newEntry);
+		modified = true;
+
+		if (System.currentTimeMillis() - lastSaveTime > SAVE_INTERVAL) {
+			saveIndex();
+		}
+
+		return new ArrayList<String>(newEntry.getEntityIds());
+	}
+
+	/*
+	 * Streaming scan of metadata file. Digest of file content is calculated in the
+	 * same pass
+	 */
+	private IndexEntry scanMetadataFile(File metadataFile, long size, long lastModified) {
+		MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			log.error("Failed to create digest", ex);
+			return null;
+		}
+
+		List<String> entityIds = new ArrayList<String>();
+		try (InputStream is = new DigestInputStream(new BufferedInputStream(new FileInputStream(metadataFile)),
+				messageDigest)) {
+			XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(is);
+			try {
+				while (reader.hasNext()) {
+					if ((reader.next() == XMLStreamConstants.START_ELEMENT)
+							&& ENTITY_DESCRIPTOR.equals(reader.getLocalName())) {
+						String entityId = reader.getAttributeValue(null, ENTITY_ID);
+						if (entityId != null) {
+							entityIds.add(entityId);
+						}
+					}
+				}
+			} finally {
+				reader.close();
+			}
+
+			// Consume rest of the file to get digest of whole content
+			byte[] buffer = new byte[8192];
+			while (is.read(buffer) != -1) {
+			}
+		} catch (IOException | XMLStreamException ex) {
+			log.error("Failed to parse metadata file '{}'", metadataFile.getAbsolutePath(), ex);
+			return null;
+		}
+
+		return new IndexEntry(size, lastModified, messageDigest.digest(), entityIds);
+	}
+
+	private byte[] digestFile(File file) {
+		try (InputStream is = new FileInputStream(file)) {
+			MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = is.read(buffer)) != -1) {
+				messageDigest.update(buffer, 0, count);
+			}
+
+			return messageDigest.digest();
+		} catch (IOException | NoSuchAlgorithmException ex) {
+			log.error("Failed to calculate digest of file '{}'", file.getAbsolutePath(), ex);
+			return null;
+		}
+	}
+
+	private File getIndexFile() {
+		String defaultIndexFile = System.getProperty("java.io.tmpdir") + File.separator + DEFAULT_INDEX_FILE_NAME;
+
+		FileConfiguration baseConfiguration = configurationFactory.getBaseConfiguration();
+		if (baseConfiguration == null) {
+			return new File(defaultIndexFile);
+		}
+
+		return new File(baseConfiguration.getString(INDEX_FILE_PROPERTY, defaultIndexFile));
+	}
+
+	private void loadIndex() {
+		File indexFile = getIndexFile();
+		if (!indexFile.isFile()) {
+			return;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+			int version = in.readInt();
+			if (version != VERSION) {
+				log.info("Ignoring metadata entityID index '{}' with unsupported version {}", indexFile, version);
+				return;
+			}
+
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String path = in.readUTF();
+				long size = in.readLong();
+				long lastModified = in.readLong();
+
+				byte[] digest = new byte[in.readInt()];
+				in.readFully(digest);
+
+				int entityIdsCount = in.readInt();
+				List<String> entityIds = new ArrayList<String>(entityIdsCount);
+				for (int j = 0; j < entityIdsCount; j++) {
+					entityIds.add(in.readUTF());
+				}
+
+				index.put(path, new IndexEntry(size, lastModified, digest, entityIds));
+			}
+			log.debug("Loaded metadata entityID index '{}' with {} files", indexFile, count);
+		} catch (IOException ex) {
+			log.error("Failed to load metadata entityID index '{}'", indexFile, ex);
+			index.clear();
+		}
+	}
+
+	private synchronized void saveIndex() {
+		File indexFile = getIndexFile();
+		File tmpFile = new File(indexFile.getPath() + ".tmp");
+
+		modified = false;
+		lastSaveTime = System.currentTimeMillis();
+
+		List<Map.Entry<String, IndexEntry>> entries = new ArrayList<Map.Entry<String, IndexEntry>>(index.entrySet());
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			for (Map.Entry<String, IndexEntry> mapEntry : entries) {
+				IndexEntry entry = mapEntry.getValue();
+				out.writeUTF(mapEntry.getKey());
+				out.writeLong(entry.getSize());
+				out.writeLong(entry.getLastModified());
+				out.writeInt(entry.getDigest().length);
+				out.write(entry.getDigest());
+				out.writeInt(entry.getEntityIds().size());
+				for (String entityId : entry.getEntityIds()) {
+					out.writeUTF(entityId);
+				}
+			}
+		} catch (IOException ex) {
+			log.error("Failed to save metadata entityID index '{}'", indexFile, ex);
+			modified = true;
+			return;
+		}
+
+		try {
+			Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException ex) {
+			log.error("Failed to replace metadata entityID index '{}'", indexFile, ex);
+			modified = true;
+		}
+	}
+
+	private static class IndexEntry {
+
+		private final long size;
+		private final long lastModified;
+		private final byte[] digest;
+		private final List<String> entityIds;
+
+		public IndexEntry(long size, long lastModified, byte[] digest, List<String> entityIds) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.digest = digest;
+			this.entityIds = entityIds;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public byte[] getDigest() {
+			return digest;
+		}
+
+		public List<String> getEntityIds() {
+			return entityIds;
+		}
+
+	}
+
+}
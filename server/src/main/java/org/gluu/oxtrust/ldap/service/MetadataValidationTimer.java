@@ -8,34 +8,42 @@ package org.gluu.oxtrust.ldap.service;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
-import javax.enterprise.event.Event;
-import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.gluu.config.oxtrust.AppConfiguration;
 import org.gluu.model.GluuStatus;
+import org.gluu.oxtrust.config.ConfigurationFactory;
 import org.gluu.oxtrust.model.GluuSAMLTrustRelationship;
 import org.gluu.oxtrust.model.GluuValidationStatus;
-import org.gluu.oxtrust.service.cdi.event.MetadataValidationEvent;
-import org.gluu.saml.metadata.SAMLMetadataParser;
-import org.gluu.service.cdi.async.Asynchronous;
-import org.gluu.service.cdi.event.Scheduled;
-import org.gluu.service.timer.event.TimerEvent;
-import org.gluu.service.timer.schedule.TimerSchedule;
+import org.gluu.oxtrust.service.timer.JobScheduler;
+import org.gluu.oxtrust.service.timer.MisfirePolicy;
+import org.gluu.oxtrust.service.timer.ScheduledJob;
 import org.gluu.util.StringHelper;
+import org.gluu.util.properties.FileConfiguration;
 import org.gluu.xml.GluuErrorHandler;
 import org.slf4j.Logger;
 
@@ -50,11 +58,17 @@ public class MetadataValidationTimer {
 
 	private final static int DEFAULT_INTERVAL = 60; // 60 seconds
 
+	private static final String VALIDATION_THREADS_PROPERTY = "metadataValidationThreads";
+	private static final int DEFAULT_VALIDATION_THREADS = 4;
+
 	@Inject
 	private Logger log;
 
 	@Inject
-	private Event<TimerEvent> timerEvent;
+	private MetadataEntityIdService metadataEntityIdService;
+
+	@Inject
+	private JobScheduler jobScheduler;
 
 	@Inject
 	private AppConfiguration appConfiguration;
@@ -65,33 +79,74 @@ public class MetadataValidationTimer {
 	@Inject
 	private Shibboleth3ConfService shibboleth3ConfService;
 
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
 	private AtomicBoolean isActive;
 
 	private LinkedBlockingQueue<String> metadataUpdates;
 
+	// Unpunctuated inums of trust relationships which metadata is being validated
+	private Set<String> inProgress;
+
+	private ExecutorService validationExecutor;
+	private int validationThreads;
+
+	private AtomicLong validationCount;
+	private AtomicLong validationTime;
+	private volatile long lastValidationTime;
+	private volatile long lastBatchTime;
+
 	@PostConstruct
 	public void init() {
 		this.isActive = new AtomicBoolean(true);
 		try {
 			this.metadataUpdates = new LinkedBlockingQueue<String>();
+			this.inProgress = ConcurrentHashMap.newKeySet();
+			this.validationCount = new AtomicLong();
+			this.validationTime = new AtomicLong();
+
+			this.validationThreads = getValidationThreads();
+			final AtomicInteger counter = new AtomicInteger();
+			ThreadFactory threadFactory = runnable -> {
+				Thread thread = new Thread(runnable, "metadata-validation-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			};
+			this.validationExecutor = Executors.newFixedThreadPool(validationThreads, threadFactory);
 		} finally {
 			this.isActive.set(false);
 		}
 	}
 
+	@PreDestroy
+	public void destroy() {
+		validationExecutor.shutdownNow();
+	}
+
+	private int getValidationThreads() {
+		FileConfiguration baseConfiguration = configurationFactory.getBaseConfiguration();
+		if (baseConfiguration == null) {
+			return DEFAULT_VALIDATION_THREADS;
+		}
+
+		return Math.max(1, baseConfiguration.getInt(VALIDATION_THREADS_PROPERTY, DEFAULT_VALIDATION_THREADS));
+	}
+
 	public void initTimer() {
 		log.debug("Initializing Metadata Validation Timer");
 
 		final int delay = 30;
 		final int interval = DEFAULT_INTERVAL;
 
-		timerEvent.fire(new TimerEvent(new TimerSchedule(delay, interval), new MetadataValidationEvent(),
-				Scheduled.Literal.INSTANCE));
+		ScheduledJob job = new ScheduledJob("metadataValidation", delay, interval,
+				this::processMetadataValidationTimerEvent);
+		job.setPriority(Thread.NORM_PRIORITY + 1);
+		job.setMisfirePolicy(MisfirePolicy.FIRE_NOW);
+		jobScheduler.schedule(job);
 	}
 
-	@Asynchronous
-	public void processMetadataValidationTimerEvent(
-			@Observes @Scheduled MetadataValidationEvent metadataValidationEvent) {
+	public void processMetadataValidationTimerEvent() {
 		if (this.isActive.get()) {
 			return;
 		}
@@ -109,15 +164,51 @@ public class MetadataValidationTimer {
 		}
 	}
 
-	private void procesMetadataValidation() {
-		log.debug("Starting metadata validation");
-		boolean result = validateMetadata(
-				appConfiguration.getShibboleth3IdpRootDir() + File.separator
-						+ Shibboleth3ConfService.SHIB3_IDP_TEMPMETADATA_FOLDER + File.separator,
-				appConfiguration.getShibboleth3IdpRootDir() + File.separator
-						+ Shibboleth3ConfService.SHIB3_IDP_METADATA_FOLDER + File.separator);
-		log.debug("Metadata validation finished with result: '{}'", result);
+	private void procesMetadataValidation() throws InterruptedException {
+		int queueDepth = getQueueDepth();
+		if (queueDepth == 0) {
+			return;
+		}
 
+		log.debug("Starting metadata validation of {} files", queueDepth);
+		long start = System.currentTimeMillis();
+
+		final String shib3IdpTempmetadataFolder = appConfiguration.getShibboleth3IdpRootDir() + File.separator
+				+ Shibboleth3ConfService.SHIB3_IDP_TEMPMETADATA_FOLDER + File.separator;
+		final String shib3IdpMetadataFolder = appConfiguration.getShibboleth3IdpRootDir() + File.separator
+				+ Shibboleth3ConfService.SHIB3_IDP_METADATA_FOLDER + File.separator;
+
+		// Workers drain queue in parallel. Files which can't be processed now are
+		// queued again after batch to not spin on them
+		final List<String> deferred = Collections.synchronizedList(new ArrayList<String>());
+		int workers = Math.min(validationThreads, queueDepth);
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(workers);
+		for (int i = 0; i < workers; i++) {
+			futures.add(validationExecutor.submit(
+					() -> validateQueuedMetadata(shib3IdpTempmetadataFolder, shib3IdpMetadataFolder, deferred)));
+		}
+
+		boolean result = false;
+		try {
+			for (Future<Boolean> future : futures) {
+				try {
+					result |= future.get();
+				} catch (ExecutionException ex) {
+					log.error("Metadata validation worker failed", ex.getCause());
+				}
+			}
+		} finally {
+			synchronized (metadataUpdates) {
+				metadataUpdates.addAll(deferred);
+			}
+		}
+
+		lastBatchTime = System.currentTimeMillis() - start;
+		log.info("Metadata validation batch finished with result: '{}' in {} ms. Deferred: {}, queue depth: {}, "
+				+ "average validation time: {} ms", result, lastBatchTime, deferred.size(), getQueueDepth(),
+				getAverageValidationTime());
+
+		// Regenerate configuration once per batch
 		if (result) {
 			regenerateConfigurationFiles();
 		}
@@ -129,6 +220,31 @@ public class MetadataValidationTimer {
 		}
 	}
 
+	public int getQueueDepth() {
+		return metadataUpdates.size();
+	}
+
+	public long getValidationCount() {
+		return validationCount.get();
+	}
+
+	/**
+	 * @return Average time in milliseconds spent on validation of one metadata
+	 *         file
+	 */
+	public long getAverageValidationTime() {
+		long count = validationCount.get();
+		return count == 0 ? 0 : validationTime.get() / count;
+	}
+
+	public long getLastValidationTime() {
+		return lastValidationTime;
+	}
+
+	public long getLastBatchTime() {
+		return lastBatchTime;
+	}
+
 	public boolean isQueued(String gluuSAMLspMetaDataFN) {
 		synchronized (metadataUpdates) {
 			for (String filename : metadataUpdates) {
@@ -174,144 +290,186 @@ public class MetadataValidationTimer {
 	}
 
 	/**
+	 * Validates queued metadata files until queue is empty
+	 * 
 	 * @param shib3IdpTempmetadataFolder
 	 * @param shib3IdpMetadataFolder
+	 * @param deferred
+	 *            Collects files which should be validated in next batch
+	 * @return True if at least one file was moved to metadata folder
 	 */
-	private boolean validateMetadata(String shib3IdpTempmetadataFolder, String shib3IdpMetadataFolder) {
+	private boolean validateQueuedMetadata(String shib3IdpTempmetadataFolder, String shib3IdpMetadataFolder,
+			List<String> deferred) {
 		boolean result = false;
-		log.trace("Starting metadata validation process.");
 
-		String metadataFN = null;
-		synchronized (metadataUpdates) {
-			if (!metadataUpdates.isEmpty()) {
-				metadataFN = metadataUpdates.poll();
+		String metadataFN;
+		while ((metadataFN = pollMetadataUpdate()) != null) {
+			if (StringHelper.isEmpty(metadataFN)) {
+				continue;
+			}
+
+			// Don't process two files of the same trust relationship at once
+			String inum = metadataFN.split("-" + Shibboleth3ConfService.SHIB3_IDP_SP_METADATA_FILE)[0];
+			if (!inProgress.add(inum)) {
+				deferred.add(metadataFN);
+				continue;
+			}
+
+			long start = System.currentTimeMillis();
+			try {
+				result |= validateMetadata(metadataFN, shib3IdpTempmetadataFolder, shib3IdpMetadataFolder, deferred);
+			} catch (Exception ex) {
+				log.error("Failed to validate metadata file '{}'", metadataFN, ex);
+			} finally {
+				inProgress.remove(inum);
+
+				long duration = System.currentTimeMillis() - start;
+				lastValidationTime = duration;
+				validationTime.addAndGet(duration);
+				validationCount.incrementAndGet();
 			}
 		}
 
-		synchronized (this) {
-			if (StringHelper.isNotEmpty(metadataFN)) {
-				File metadata = new File(shib3IdpTempmetadataFolder + metadataFN);
-				File target = new File(shib3IdpMetadataFolder + metadataFN.replaceAll(".{4}\\..{4}$", ""));
-				GluuSAMLTrustRelationship tr = trustService.getTrustByUnpunctuatedInum(
-						metadataFN.split("-" + Shibboleth3ConfService.SHIB3_IDP_SP_METADATA_FILE)[0]);
-				if (tr == null) {
-					metadataUpdates.add(metadataFN);
-					return false;
-				}
-				tr.setValidationStatus(GluuValidationStatus.PENDING);
-				trustService.updateTrustRelationship(tr);
+		return result;
+	}
 
-				GluuErrorHandler errorHandler = null;
-				List<String> validationLog = null;
-				try {
-					errorHandler = shibboleth3ConfService.validateMetadata(new FileInputStream(metadata));
-				} catch (Exception e) {
-					tr.setValidationStatus(GluuValidationStatus.FAILED);
-					tr.setStatus(GluuStatus.INACTIVE);
-					validationLog = new ArrayList<String>();
-					validationLog.add(e.getMessage());
-					log.warn("Validation of " + tr.getInum() + " failed: " + e.getMessage());
-					tr.setValidationLog(validationLog);
-					trustService.updateTrustRelationship(tr);
-
-					return false;
-				}
-				if (errorHandler.isValid()) {
-					tr.setValidationLog(errorHandler.getLog());
-					tr.setValidationStatus(GluuValidationStatus.SUCCESS);
-					if (((!target.exists()) || target.delete()) && (!metadata.renameTo(target))) {
-						log.error("Failed to move metadata file to location:" + target.getAbsolutePath());
-						tr.setStatus(GluuStatus.INACTIVE);
-					} else {
-						tr.setSpMetaDataFN(target.getName());
-					}
-					boolean federation = shibboleth3ConfService.isFederation(tr);
-					tr.setFederation(federation);
-					String idpMetadataFolder = appConfiguration.getShibboleth3IdpRootDir() + File.separator
-							+ Shibboleth3ConfService.SHIB3_IDP_METADATA_FOLDER + File.separator;
-					File metadataFile = new File(idpMetadataFolder + tr.getSpMetaDataFN());
-
-					List<String> entityIdList = SAMLMetadataParser.getEntityIdFromMetadataFile(metadataFile);
-					Set<String> entityIdSet = new TreeSet<String>();
-					Set<String> duplicatesSet = new TreeSet<String>();
-					if (entityIdList != null && !entityIdList.isEmpty()) {
-
-						for (String entityId : entityIdList) {
-							if (!entityIdSet.add(entityId)) {
-								duplicatesSet.add(entityId);
-							}
-						}
-					}
+	private String pollMetadataUpdate() {
+		synchronized (metadataUpdates) {
+			return metadataUpdates.poll();
+		}
+	}
 
-					if (!duplicatesSet.isEmpty()) {
-						validationLog = tr.getValidationLog();
-						if (validationLog != null) {
-							validationLog = new LinkedList<String>(validationLog);
-						} else {
-							validationLog = new LinkedList<String>();
-						}
-						validationLog.add("This metadata contains multiple instances of entityId: "
-								+ Arrays.toString(duplicatesSet.toArray()));
-					}
-					tr.setValidationLog(validationLog);
-					tr.setGluuEntityId(entityIdSet);
-					tr.setStatus(GluuStatus.ACTIVE);
+	/**
+	 * @param metadataFN
+	 * @param shib3IdpTempmetadataFolder
+	 * @param shib3IdpMetadataFolder
+	 * @param deferred
+	 */
+	private boolean validateMetadata(String metadataFN, String shib3IdpTempmetadataFolder,
+			String shib3IdpMetadataFolder, List<String> deferred) {
+		boolean result = false;
+		log.trace("Starting validation of metadata file '{}'", metadataFN);
+
+		File metadata = new File(shib3IdpTempmetadataFolder + metadataFN);
+		File target = new File(shib3IdpMetadataFolder + metadataFN.replaceAll(".{4}\\..{4}$", ""));
+		GluuSAMLTrustRelationship tr = trustService.getTrustByUnpunctuatedInum(
+				metadataFN.split("-" + Shibboleth3ConfService.SHIB3_IDP_SP_METADATA_FILE)[0]);
+		if (tr == null) {
+			deferred.add(metadataFN);
+			return false;
+		}
+		tr.setValidationStatus(GluuValidationStatus.PENDING);
+		trustService.updateTrustRelationship(tr);
+
+		GluuErrorHandler errorHandler = null;
+		List<String> validationLog = null;
+		try (InputStream is = new FileInputStream(metadata)) {
+			errorHandler = shibboleth3ConfService.validateMetadata(is);
+		} catch (Exception e) {
+			tr.setValidationStatus(GluuValidationStatus.FAILED);
+			tr.setStatus(GluuStatus.INACTIVE);
+			validationLog = new ArrayList<String>();
+			validationLog.add(e.getMessage());
+			log.warn("Validation of " + tr.getInum() + " failed: " + e.getMessage());
+			tr.setValidationLog(validationLog);
+			trustService.updateTrustRelationship(tr);
 
-					trustService.updateTrustRelationship(tr);
-					result = true;
-				} else if (appConfiguration.isIgnoreValidation() || errorHandler.isInternalError()) {
-					tr.setValidationLog(new ArrayList<String>(new HashSet<String>(errorHandler.getLog())));
-					tr.setValidationStatus(GluuValidationStatus.FAILED);
-					if (((!target.exists()) || target.delete()) && (!metadata.renameTo(target))) {
-						log.error("Failed to move metadata file to location:" + target.getAbsolutePath());
-						tr.setStatus(GluuStatus.INACTIVE);
-					} else {
-						tr.setSpMetaDataFN(target.getName());
-					}
-					boolean federation = shibboleth3ConfService.isFederation(tr);
-					tr.setFederation(federation);
-					String idpMetadataFolder = appConfiguration.getShibboleth3IdpRootDir() + File.separator
-							+ Shibboleth3ConfService.SHIB3_IDP_METADATA_FOLDER + File.separator;
-					File metadataFile = new File(idpMetadataFolder + tr.getSpMetaDataFN());
-
-					List<String> entityIdList = SAMLMetadataParser.getEntityIdFromMetadataFile(metadataFile);
-					Set<String> duplicatesSet = new TreeSet<String>();
-					Set<String> entityIdSet = new TreeSet<String>();
-
-					for (String entityId : entityIdList) {
-						if (!entityIdSet.add(entityId)) {
-							duplicatesSet.add(entityId);
-						}
+			return false;
+		}
+		if (errorHandler.isValid()) {
+			tr.setValidationLog(errorHandler.getLog());
+			tr.setValidationStatus(GluuValidationStatus.SUCCESS);
+			if (((!target.exists()) || target.delete()) && (!metadata.renameTo(target))) {
+				log.error("Failed to move metadata file to location:" + target.getAbsolutePath());
+				tr.setStatus(GluuStatus.INACTIVE);
+			} else {
+				tr.setSpMetaDataFN(target.getName());
+			}
+			boolean federation = shibboleth3ConfService.isFederation(tr);
+			tr.setFederation(federation);
+			String idpMetadataFolder = appConfiguration.getShibboleth3IdpRootDir() + File.separator
+					+ Shibboleth3ConfService.SHIB3_IDP_METADATA_FOLDER + File.separator;
+			File metadataFile = new File(idpMetadataFolder + tr.getSpMetaDataFN());
+
+			List<String> entityIdList = metadataEntityIdService.getEntityIdFromMetadataFile(metadataFile);
+			Set<String> entityIdSet = new TreeSet<String>();
+			Set<String> duplicatesSet = new TreeSet<String>();
+			if (entityIdList != null && !entityIdList.isEmpty()) {
+
+				for (String entityId : entityIdList) {
+					if (!entityIdSet.add(entityId)) {
+						duplicatesSet.add(entityId);
 					}
+				}
+			}
 
-					tr.setGluuEntityId(entityIdSet);
-					tr.setStatus(GluuStatus.ACTIVE);
-					validationLog = tr.getValidationLog();
-					if (!duplicatesSet.isEmpty()) {
-						validationLog.add("This metadata contains multiple instances of entityId: "
-								+ Arrays.toString(duplicatesSet.toArray()));
-					}
+			if (!duplicatesSet.isEmpty()) {
+				validationLog = tr.getValidationLog();
+				if (validationLog != null) {
+					validationLog = new LinkedList<String>(validationLog);
+				} else {
+					validationLog = new LinkedList<String>();
+				}
+				validationLog.add("This metadata contains multiple instances of entityId: "
+						+ Arrays.toString(duplicatesSet.toArray()));
+			}
+			tr.setValidationLog(validationLog);
+			tr.setGluuEntityId(entityIdSet);
+			tr.setStatus(GluuStatus.ACTIVE);
+
+			trustService.updateTrustRelationship(tr);
+			result = true;
+		} else if (appConfiguration.isIgnoreValidation() || errorHandler.isInternalError()) {
+			tr.setValidationLog(new ArrayList<String>(new HashSet<String>(errorHandler.getLog())));
+			tr.setValidationStatus(GluuValidationStatus.FAILED);
+			if (((!target.exists()) || target.delete()) && (!metadata.renameTo(target))) {
+				log.error("Failed to move metadata file to location:" + target.getAbsolutePath());
+				tr.setStatus(GluuStatus.INACTIVE);
+			} else {
+				tr.setSpMetaDataFN(target.getName());
+			}
+			boolean federation = shibboleth3ConfService.isFederation(tr);
+			tr.setFederation(federation);
+			String idpMetadataFolder = appConfiguration.getShibboleth3IdpRootDir() + File.separator
+					+ Shibboleth3ConfService.SHIB3_IDP_METADATA_FOLDER + File.separator;
+			File metadataFile = new File(idpMetadataFolder + tr.getSpMetaDataFN());
+
+			List<String> entityIdList = metadataEntityIdService.getEntityIdFromMetadataFile(metadataFile);
+			Set<String> duplicatesSet = new TreeSet<String>();
+			Set<String> entityIdSet = new TreeSet<String>();
+
+			for (String entityId : entityIdList) {
+				if (!entityIdSet.add(entityId)) {
+					duplicatesSet.add(entityId);
+				}
+			}
 
-					if (errorHandler.isInternalError()) {
-						validationLog = tr.getValidationLog();
+			tr.setGluuEntityId(entityIdSet);
+			tr.setStatus(GluuStatus.ACTIVE);
+			validationLog = tr.getValidationLog();
+			if (!duplicatesSet.isEmpty()) {
+				validationLog.add("This metadata contains multiple instances of entityId: "
+						+ Arrays.toString(duplicatesSet.toArray()));
+			}
 
-						validationLog.add(
-								"Warning: cannot validate metadata. Check internet connetion ans www.w3.org availability.");
+			if (errorHandler.isInternalError()) {
+				validationLog = tr.getValidationLog();
 
-						// update log with warning
-						for (String warningLogMessage : errorHandler.getLog())
-							validationLog.add("Warning: " + warningLogMessage);
-					}
+				validationLog.add(
+						"Warning: cannot validate metadata. Check internet connetion ans www.w3.org availability.");
 
-					trustService.updateTrustRelationship(tr);
-					result = true;
-				} else {
-					tr.setValidationLog(new ArrayList<String>(new HashSet<String>(errorHandler.getLog())));
-					tr.setValidationStatus(GluuValidationStatus.FAILED);
-					tr.setStatus(GluuStatus.INACTIVE);
-					trustService.updateTrustRelationship(tr);
-				}
+				// update log with warning
+				for (String warningLogMessage : errorHandler.getLog())
+					validationLog.add("Warning: " + warningLogMessage);
 			}
+
+			trustService.updateTrustRelationship(tr);
+			result = true;
+		} else {
+			tr.setValidationLog(new ArrayList<String>(new HashSet<String>(errorHandler.getLog())));
+			tr.setValidationStatus(GluuValidationStatus.FAILED);
+			tr.setStatus(GluuStatus.INACTIVE);
+			trustService.updateTrustRelationship(tr);
 		}
 
 		return result;
@@ -0,0 +1,507 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.commons.lang.RandomStringUtils;
+import org.gluu.model.GluuAttribute;
+import org.gluu.model.GluuStatus;
+import org.gluu.model.attribute.AttributeDataType;
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.ldap.service.PersonImportStatus.State;
+import org.gluu.oxtrust.model.GluuCustomAttribute;
+import org.gluu.oxtrust.model.GluuCustomPerson;
+import org.gluu.oxtrust.service.external.ExternalUpdateUserService;
+import org.gluu.persist.model.AttributeData;
+import org.gluu.util.StringHelper;
+import org.gluu.util.properties.FileConfiguration;
+import org.slf4j.Logger;
+
+/**
+ * Imports persons from Excel file in background. File is read twice without
+ * loading it into memory: first pass validates rows in chunks, second pass adds
+ * persons in batches on several threads. If any person can't be added, persons
+ * added by the import are removed
+ */
+@ApplicationScoped
+@Named
+public class PersonImportService {
+
+	private static final String UID = "uid";
+	private static final String MAIL = "mail";
+	private static final String USER_PASSWORD = "userPassword";
+	private static final String SEPARATOR = ";";
+
+	private static final String[] PERSON_IMPORT_PERSON_LOCKUP_RETURN_ATTRIBUTES = { UID, "displayName", MAIL };
+
+	private static final int DEFAULT_BATCH_SIZE = 500;
+	private static final int DEFAULT_THREADS = 4;
+	private static final int MAX_STATUSES = 20;
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private PersonService personService;
+
+	@Inject
+	private ExcelService excelService;
+
+	@Inject
+	private ExternalUpdateUserService externalUpdateUserService;
+
+	@Inject
+	private OxTrustAuditService oxTrustAuditService;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	private final ExecutorService importExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "person-import");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Map<String, PersonImportStatus> statuses = new LinkedHashMap<String, PersonImportStatus>() {
+
+		private static final long serialVersionUID = -8227391046542393734L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PersonImportStatus> eldest) {
+			return size() > MAX_STATUSES;
+		}
+	};
+
+	@PreDestroy
+	public void destroy() {
+		importExecutor.shutdownNow();
+	}
+
+	/**
+	 * Queues import. Imports run one at a time
+	 *
+	 * @param columns
+	 *            Attributes to import by column index
+	 * @param generatePassword
+	 *            Generate random password for persons without it
+	 * @param auditMessage
+	 *            Appended to audit record written after import
+	 */
+	public PersonImportStatus startImport(String fileName, byte[] fileData, Map<Integer, GluuAttribute> columns,
+			boolean generatePassword, String auditMessage) {
+		PersonImportStatus status = new PersonImportStatus(UUID.randomUUID().toString(), fileName);
+		synchronized (statuses) {
+			statuses.put(status.getId(), status);
+		}
+
+		importExecutor.execute(() -> {
+			try {
+				new ImportJob(status, fileData, columns, generatePassword).run();
+				if (status.getState() == State.COMPLETED) {
+					oxTrustAuditService.audit(status.getAddedCount() + " USERS IMPORTED " + auditMessage);
+				}
+			} catch (Exception ex) {
+				log.error("Failed to import persons from '{}'", fileName, ex);
+				status.addError("Import failed: %s", ex.getMessage());
+				status.setState(State.FAILED);
+			}
+		});
+
+		return status;
+	}
+
+	public PersonImportStatus getStatus(String id) {
+		synchronized (statuses) {
+			return statuses.get(id);
+		}
+	}
+
+	/**
+	 * Adds person with generated inum and runs user update scripts
+	 */
+	public void addImportedPerson(GluuCustomPerson person) throws Exception {
+		addImportedPerson(person, null);
+	}
+
+	/**
+	 * @param addedPersons
+	 *            Receives person once it's stored, before post add scripts run,
+	 *            so person can be removed if one of scripts fails
+	 */
+	private void addImportedPerson(GluuCustomPerson person, Queue<GluuCustomPerson> addedPersons) throws Exception {
+		personService.addCustomObjectClass(person);
+
+		String inum = personService.generateInumForNewPerson();
+		person.setDn(personService.getDnForPerson(inum));
+		person.setInum(inum);
+
+		List<GluuCustomAttribute> personAttributes = person.getCustomAttributes();
+		if (!personAttributes.contains(new GluuCustomAttribute("cn", ""))) {
+			List<GluuCustomAttribute> changedAttributes = new ArrayList<GluuCustomAttribute>();
+			changedAttributes.addAll(personAttributes);
+			changedAttributes.add(new GluuCustomAttribute("cn", person.getGivenName() + " " + person.getDisplayName()));
+			person.setCustomAttributes(changedAttributes);
+		} else {
+			person.setCommonName(person.getCommonName() + " " + person.getGivenName());
+		}
+
+		boolean runScript = externalUpdateUserService.isEnabled();
+		if (runScript) {
+			externalUpdateUserService.executeExternalAddUserMethods(person);
+		}
+		personService.addPerson(person);
+		if (addedPersons != null) {
+			addedPersons.add(person);
+		}
+		if (runScript) {
+			externalUpdateUserService.executeExternalPostAddUserMethods(person);
+		}
+	}
+
+	private int getConfigurationValue(String name, int defaultValue) {
+		FileConfiguration baseConfiguration = configurationFactory.getBaseConfiguration();
+		if (baseConfiguration == null) {
+			return defaultValue;
+		}
+
+		return Math.max(1, baseConfiguration.getInt(name, defaultValue));
+	}
+
+	private class ImportJob {
+
+		private final PersonImportStatus status;
+		private final byte[] fileData;
+		private final Map<Integer, GluuAttribute> columns;
+		private final boolean generatePassword;
+
+		private final int batchSize = getConfigurationValue("personImportBatchSize", DEFAULT_BATCH_SIZE);
+		private final int threads = getConfigurationValue("personImportThreads", DEFAULT_THREADS);
+
+		public ImportJob(PersonImportStatus status, byte[] fileData, Map<Integer, GluuAttribute> columns,
+				boolean generatePassword) {
+			this.status = status;
+			this.fileData = fileData;
+			this.columns = columns;
+			this.generatePassword = generatePassword;
+		}
+
+		public void run() throws Exception {
+			status.setState(State.VALIDATING);
+			if (!validate()) {
+				status.setState(State.FAILED);
+				return;
+			}
+			log.info("Validated {} persons in '{}'", status.getRowCount(), status.getFileName());
+
+			status.setState(State.IMPORTING);
+			if (!store()) {
+				status.setState(State.FAILED);
+				return;
+			}
+			log.info("Imported {} persons from '{}'", status.getAddedCount(), status.getFileName());
+
+			status.setState(State.COMPLETED);
+		}
+
+		/*
+		 * Checks values of each row, uniqueness of uid and mail in file and that
+		 * persons with them don't exist yet. Existing persons are looked up with one
+		 * request per chunk
+		 */
+		private boolean validate() throws Exception {
+			Set<String> uids = new HashSet<String>();
+			Set<String> mails = new HashSet<String>();
+
+			forEachChunk(chunk -> {
+				List<GluuCustomPerson> persons = convertRows(chunk);
+				if (persons == null) {
+					return false;
+				}
+
+				List<String> chunkUids = new ArrayList<String>();
+				List<String> chunkMails = new ArrayList<String>();
+				for (GluuCustomPerson person : persons) {
+					if (!uids.add(person.getUid())) {
+						status.addError("Import failed. There are persons with simular uid '%s' in input file", person.getUid());
+					}
+					chunkUids.add(person.getUid());
+
+					String mail = person.getMail();
+					if (mail != null) {
+						if (!mails.add(mail)) {
+							status.addError("Import failed. There are persons with simular mail '%s' in input file", mail);
+						}
+						chunkMails.add(mail);
+					}
+				}
+
+				List<GluuCustomPerson> existPersons = personService.findPersonsByUids(chunkUids,
+						PERSON_IMPORT_PERSON_LOCKUP_RETURN_ATTRIBUTES);
+				if (existPersons.size() > 0) {
+					status.addError("Import failed. There are persons with existing uid(s): %s",
+							personService.getPersonUids(existPersons));
+				}
+
+				if (!chunkMails.isEmpty()) {
+					List<GluuCustomPerson> existEmailPersons = personService.findPersonsByMailids(chunkMails,
+							PERSON_IMPORT_PERSON_LOCKUP_RETURN_ATTRIBUTES);
+					if (existEmailPersons.size() > 0) {
+						status.addError("Import failed. There are persons with existing mailid(s): %s",
+								personService.getPersonMailids(existEmailPersons));
+					}
+				}
+
+				status.addRows(persons.size());
+				return !status.hasErrors();
+			});
+
+			if (!status.hasErrors() && (status.getRowCount() == 0)) {
+				status.addError("Import failed. No data found");
+			}
+
+			return !status.hasErrors();
+		}
+
+		/*
+		 * Adds persons in batches. Reading waits while all threads are busy, so only
+		 * few batches are kept in memory
+		 */
+		private boolean store() throws Exception {
+			ExecutorService storeExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = new Thread(runnable, "person-import-store");
+				thread.setDaemon(true);
+				return thread;
+			});
+			Semaphore permits = new Semaphore(threads * 2);
+			AtomicBoolean failed = new AtomicBoolean();
+			Queue<GluuCustomPerson> addedPersons = new ConcurrentLinkedQueue<GluuCustomPerson>();
+
+			try {
+				forEachChunk(chunk -> {
+					List<GluuCustomPerson> persons = convertRows(chunk);
+					if (persons == null) {
+						failed.set(true);
+						return false;
+					}
+
+					permits.acquireUninterruptibly();
+					storeExecutor.execute(() -> {
+						try {
+							storeBatch(persons, failed, addedPersons);
+						} finally {
+							permits.release();
+						}
+					});
+
+					return !failed.get();
+				});
+			} catch (Exception ex) {
+				log.error("Failed to read '{}'", status.getFileName(), ex);
+				status.addError("Failed to read file: %s", ex.getMessage());
+			} finally {
+				permits.acquireUninterruptibly(threads * 2);
+				storeExecutor.shutdown();
+			}
+
+			if (failed.get() || status.hasErrors()) {
+				rollback(addedPersons);
+				return false;
+			}
+
+			return true;
+		}
+
+		private void storeBatch(List<GluuCustomPerson> persons, AtomicBoolean failed, Queue<GluuCustomPerson> addedPersons) {
+			for (GluuCustomPerson person : persons) {
+				if (failed.get()) {
+					return;
+				}
+
+				try {
+					addImportedPerson(person, addedPersons);
+					status.personAdded();
+					log.debug("Added new person: {}", person.getUid());
+				} catch (Exception ex) {
+					log.error("Failed to add new person {}", person.getUid(), ex);
+					status.addError("Failed to add new person: '%s'", person.getUid());
+					failed.set(true);
+				}
+			}
+		}
+
+		private void rollback(Queue<GluuCustomPerson> addedPersons) {
+			log.info("Removing {} persons added by failed import from '{}'", addedPersons.size(), status.getFileName());
+			for (GluuCustomPerson person : addedPersons) {
+				try {
+					personService.removePerson(person);
+					status.personRolledBack();
+				} catch (Exception ex) {
+					log.error("Failed to remove person {}", person.getDn(), ex);
+					status.addError("Failed to remove imported person: '%s'", person.getUid());
+				}
+			}
+		}
+
+		private void forEachChunk(ChunkHandler handler) throws Exception {
+			Map<Integer, Map<Integer, String>> chunk = new LinkedHashMap<Integer, Map<Integer, String>>();
+			AtomicBoolean stopped = new AtomicBoolean();
+			AtomicBoolean header = new AtomicBoolean(true);
+
+			try (InputStream is = new ByteArrayInputStream(fileData)) {
+				excelService.read(is, (rowIndex, cells) -> {
+					if (header.getAndSet(false)) {
+						return true;
+					}
+
+					chunk.put(rowIndex, cells);
+					if (chunk.size() < batchSize) {
+						return true;
+					}
+
+					boolean proceed = processChunk(handler, chunk);
+					stopped.set(!proceed);
+					return proceed;
+				});
+			}
+
+			if (!stopped.get() && !chunk.isEmpty()) {
+				processChunk(handler, chunk);
+			}
+		}
+
+		private boolean processChunk(ChunkHandler handler, Map<Integer, Map<Integer, String>> chunk) {
+			try {
+				return handler.process(chunk);
+			} catch (Exception ex) {
+				log.error("Failed to process rows of '{}'", status.getFileName(), ex);
+				status.addError("Failed to process rows: %s", ex.getMessage());
+				return false;
+			} finally {
+				chunk.clear();
+			}
+		}
+
+		/*
+		 * Converts rows to persons and fills default values
+		 *
+		 * @return Persons or null if there are invalid values
+		 */
+		private List<GluuCustomPerson> convertRows(Map<Integer, Map<Integer, String>> rows) throws Exception {
+			Map<String, List<AttributeData>> entriesAttributes = new HashMap<String, List<AttributeData>>();
+			Map<String, String> uidPasswords = new HashMap<String, String>();
+			boolean valid = true;
+			for (Map.Entry<Integer, Map<Integer, String>> row : rows.entrySet()) {
+				List<AttributeData> attributeDataList = new ArrayList<AttributeData>();
+				String uid = null;
+				String password = null;
+				for (Map.Entry<Integer, GluuAttribute> column : columns.entrySet()) {
+					GluuAttribute attribute = column.getValue();
+					String cellValue = row.getValue().get(column.getKey());
+					if (StringHelper.isEmpty(cellValue)) {
+						if (attribute.isRequred()) {
+							status.addError("Import failed. Empty '%s' not allowed at row %s", attribute.getDisplayName(),
+									row.getKey() + 1);
+							valid = false;
+						}
+						continue;
+					}
+
+					String ldapValue = getTypedValue(attribute, cellValue);
+					if (StringHelper.isEmpty(ldapValue)) {
+						status.addError("Invalid value '%s' in column '%s' at row %s were specified", cellValue,
+								attribute.getDisplayName(), row.getKey() + 1);
+						valid = false;
+						continue;
+					}
+					if (attribute.getName().equalsIgnoreCase(UID)) {
+						uid = ldapValue;
+					}
+					if (attribute.getName().equalsIgnoreCase(USER_PASSWORD)) {
+						password = ldapValue;
+					}
+
+					if (attribute.getOxMultiValuedAttribute()) {
+						attributeDataList.add(new AttributeData(attribute.getName(), ldapValue.split(SEPARATOR)));
+					} else {
+						attributeDataList.add(new AttributeData(attribute.getName(), ldapValue));
+					}
+				}
+				entriesAttributes.put(Integer.toString(row.getKey()), attributeDataList);
+				uidPasswords.put(uid, password);
+			}
+			if (!valid) {
+				return null;
+			}
+
+			List<GluuCustomPerson> persons = personService.createEntities(entriesAttributes);
+			for (GluuCustomPerson person : persons) {
+				if (person.getStatus() == null) {
+					person.setStatus(GluuStatus.INACTIVE);
+				}
+				if (uidPasswords.containsKey(person.getUid())) {
+					String password = uidPasswords.get(person.getUid());
+					person.setUserPassword(password != null ? password : person.getUid());
+				}
+
+				if (StringHelper.isEmpty(person.getCommonName())) {
+					person.setCommonName(person.getGivenName() + " " + person.getSurname());
+				} else {
+					person.setCommonName(person.getCommonName() + " " + person.getGivenName() + " " + person.getSurname());
+				}
+				person.setDisplayName(person.getCommonName());
+
+				if (generatePassword && StringHelper.isEmpty(person.getUserPassword())) {
+					person.setUserPassword(RandomStringUtils.randomAlphanumeric(16));
+				}
+			}
+
+			return persons;
+		}
+
+		private String getTypedValue(GluuAttribute attribute, String value) {
+			if (AttributeDataType.STRING.equals(attribute.getDataType())
+					|| attribute.getName().equalsIgnoreCase("gluuStatus")) {
+				return value;
+			} else if (AttributeDataType.BOOLEAN.equals(attribute.getDataType())) {
+				return Boolean.valueOf(value).toString();
+			}
+			return null;
+		}
+
+	}
+
+	private interface ChunkHandler {
+
+		/**
+		 * @return false to stop reading
+		 */
+		boolean process(Map<Integer, Map<Integer, String>> rows) throws Exception;
+
+	}
+
+}
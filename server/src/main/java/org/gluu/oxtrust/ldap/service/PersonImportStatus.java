@@ -0,0 +1,139 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of background person import. Updated by import threads and polled
+ * by UI
+ */
+public class PersonImportStatus implements Serializable {
+
+	private static final long serialVersionUID = 5210398207841836307L;
+
+	private static final int MAX_ERRORS = 100;
+
+	public enum State {
+		QUEUED, VALIDATING, IMPORTING, COMPLETED, FAILED
+	}
+
+	private final String id;
+	private final String fileName;
+
+	private volatile State state = State.QUEUED;
+	private volatile Date startTime;
+	private volatile Date endTime;
+
+	private final AtomicInteger rowCount = new AtomicInteger();
+	private final AtomicInteger addedCount = new AtomicInteger();
+	private final AtomicInteger rolledBackCount = new AtomicInteger();
+	private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+	public PersonImportStatus(String id, String fileName) {
+		this.id = id;
+		this.fileName = fileName;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	void setState(State state) {
+		if ((state == State.VALIDATING) && (this.startTime == null)) {
+			this.startTime = new Date();
+		} else if ((state == State.COMPLETED) || (state == State.FAILED)) {
+			this.endTime = new Date();
+		}
+		this.state = state;
+	}
+
+	public boolean isRunning() {
+		return (state != State.COMPLETED) && (state != State.FAILED);
+	}
+
+	public Date getStartTime() {
+		return startTime;
+	}
+
+	public Date getEndTime() {
+		return endTime;
+	}
+
+	/**
+	 * @return Number of rows validated so far
+	 */
+	public int getRowCount() {
+		return rowCount.get();
+	}
+
+	void addRows(int count) {
+		rowCount.addAndGet(count);
+	}
+
+	public int getAddedCount() {
+		return addedCount.get();
+	}
+
+	void personAdded() {
+		addedCount.incrementAndGet();
+	}
+
+	/**
+	 * @return Number of added persons removed after import failure
+	 */
+	public int getRolledBackCount() {
+		return rolledBackCount.get();
+	}
+
+	void personRolledBack() {
+		rolledBackCount.incrementAndGet();
+	}
+
+	/**
+	 * @return Percent of validated rows which were imported
+	 */
+	public int getProgress() {
+		int rows = rowCount.get();
+		return rows == 0 ? 0 : (int) (100L * addedCount.get() / rows);
+	}
+
+	public List<String> getErrors() {
+		synchronized (errors) {
+			return new ArrayList<String>(errors);
+		}
+	}
+
+	public boolean hasErrors() {
+		return !errors.isEmpty();
+	}
+
+	/*
+	 * Only first errors are kept, invalid file may produce error for each row
+	 */
+	void addError(String format, Object... args) {
+		synchronized (errors) {
+			if (errors.size() < MAX_ERRORS) {
+				errors.add(String.format(format, args));
+			}
+		}
+	}
+
+}
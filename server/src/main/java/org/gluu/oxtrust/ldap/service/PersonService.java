@@ -60,6 +60,9 @@ public class PersonService implements Serializable, IPersonService {
 	@Inject
 	private OrganizationService organizationService;
 
+	@Inject
+	private EntryCountService entryCountService;
+
 	private List<GluuCustomAttribute> mandatoryAttributes;
 
 	/*
@@ -107,6 +110,7 @@ public class PersonService implements Serializable, IPersonService {
 			if (persons == null || persons.size() == 0) {
 				person.setCreationDate(new Date());
 				ldapEntryManager.persist(person);
+				entryCountService.personAdded();
 			} else {
 				throw new DuplicateEntryException("Duplicate UID value: " + person.getUid());
 			}
@@ -157,6 +161,7 @@ public class PersonService implements Serializable, IPersonService {
 	@Override
 	public void removePerson(GluuCustomPerson person) {
 		ldapEntryManager.removeRecursively(person.getDn());
+		entryCountService.personRemoved();
 	}
 
 	/*
@@ -269,6 +274,23 @@ public class PersonService implements Serializable, IPersonService {
 		return ldapEntryManager.findEntries(getDnForPerson(null), GluuCustomPerson.class, filter, returnAttributes);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.gluu.oxtrust.ldap.service.IPersonService#findPersonsByInums(java.util.
+	 * List, java.lang.String[])
+	 */
+	@Override
+	public List<GluuCustomPerson> findPersonsByInums(List<String> inums, String[] returnAttributes) throws Exception {
+		List<Filter> inumFilters = new ArrayList<Filter>();
+		for (String inum : inums) {
+			inumFilters.add(Filter.createEqualityFilter(OxTrustConstants.inum, inum));
+		}
+		Filter filter = Filter.createORFilter(inumFilters);
+		return ldapEntryManager.findEntries(getDnForPerson(null), GluuCustomPerson.class, filter, returnAttributes);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
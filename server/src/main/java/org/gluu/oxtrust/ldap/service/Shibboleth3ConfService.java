@@ -17,13 +17,18 @@ import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import javax.ejb.Stateless;
@@ -56,6 +61,8 @@ import org.gluu.oxtrust.model.GluuCustomAttribute;
 import org.gluu.oxtrust.model.GluuMetadataSourceType;
 import org.gluu.oxtrust.model.GluuSAMLFederationProposal;
 import org.gluu.oxtrust.model.GluuSAMLTrustRelationship;
+import org.gluu.oxtrust.model.MetadataFilter;
+import org.gluu.oxtrust.model.ProfileConfiguration;
 import org.gluu.oxtrust.model.SamlAcr;
 import org.gluu.oxtrust.util.EasyCASSLProtocolSocketFactory;
 import org.gluu.persist.PersistenceEntryManager;
@@ -92,6 +99,11 @@ public class Shibboleth3ConfService implements Serializable {
 
 	private List<String> schemaValidationFileNames = new ArrayList<>();
 	private static final long serialVersionUID = 6752452480800274694L;
+
+	// Service is stateless, prepared trust relationships data is shared by all instances
+	private static final Map<String, TrustRelationshipFragment> trustRelationshipFragments = new ConcurrentHashMap<String, TrustRelationshipFragment>();
+	// Compiled metadata schema is thread safe, so it's built once and shared by all validations
+	private static volatile Schema metadataSchema;
 	private static final String SHIB3_IDP_CONF_FOLDER = "conf";
 	private static final String SHIB3_IDP_AUNTHN_FOLDER = "authn";
 	public static final String SHIB3_IDP_METADATA_FOLDER = "metadata";
@@ -134,6 +146,9 @@ public class Shibboleth3ConfService implements Serializable {
 	@Inject
 	private Logger log;
 
+	@Inject
+	private MetadataEntityIdService metadataEntityIdService;
+
 	@Inject
 	private FilterService filterService;
 
@@ -370,20 +385,18 @@ public class Shibboleth3ConfService implements Serializable {
 				String idpMetadataFolder = getIdpMetadataDir();
 
 				File metadataFile = new File(idpMetadataFolder + trustRelationship.getSpMetaDataFN());
-				List<String> entityIds = SAMLMetadataParser.getEntityIdFromMetadataFile(metadataFile);
+				TrustRelationshipFragment fragment = getTrustRelationshipFragment(trustRelationship, metadataFile);
 
 				// if for some reason metadata is corrupted or missing - mark trust relationship
 				// INACTIVE
 				// user will be able to fix this in UI
-				if (entityIds == null) {
+				if (fragment == null) {
 					trustRelationship.setStatus(GluuStatus.INACTIVE);
 					trustService.updateTrustRelationship(trustRelationship);
 					continue;
 				}
 
-				trustEntityIds.put(trustRelationship.getInum(), entityIds);
-
-				initProfileConfiguration(trustRelationship);
+				trustEntityIds.put(trustRelationship.getInum(), new ArrayList<String>(fragment.getEntityIds()));
 
 				if (trustRelationship.getMetadataFilters().get("signatureValidation") != null) {
 
@@ -397,43 +410,8 @@ public class Shibboleth3ConfService implements Serializable {
 					trustEngines.add(trustEngine);
 				}
 
-				// If there is an intrusive filter - push it to the end of the list.
-				if (trustRelationship.getGluuSAMLMetaDataFilter() != null) {
-
-					List<String> filtersList = new ArrayList<String>();
-					String entityRoleWhiteList = null;
-					for (String filterXML : trustRelationship.getGluuSAMLMetaDataFilter()) {
-
-						Document xmlDocument;
-
-						try {
-
-							xmlDocument = xmlService.getXmlDocument(filterXML.getBytes());
-
-						} catch (Exception e) {
-							log.error("GluuSAMLMetaDataFilter contains invalid value.", e);
-							e.printStackTrace();
-							continue;
-						}
-
-						if (xmlDocument.getFirstChild().getAttributes().getNamedItem("xsi:type").getNodeValue()
-								.equals(FilterService.ENTITY_ROLE_WHITE_LIST_TYPE)) {
-							entityRoleWhiteList = filterXML;
-							continue;
-						}
-
-						filtersList.add(filterXML);
-					}
-
-					if (entityRoleWhiteList != null) {
-						filtersList.add(entityRoleWhiteList);
-					}
-
-					trustRelationship.setGluuSAMLMetaDataFilter(filtersList);
-				}
-
 			} else {
-				initProfileConfiguration(trustRelationship);
+				getTrustRelationshipFragment(trustRelationship, null);
 
 				String federationInum = trustRelationship.getGluuContainerFederation();
 
@@ -447,6 +425,13 @@ public class Shibboleth3ConfService implements Serializable {
 			}
 		}
 
+		// Forget fragments of removed trust relationships
+		Set<String> inums = new HashSet<String>();
+		for (GluuSAMLTrustRelationship trustRelationship : trustRelationships) {
+			inums.add(trustRelationship.getInum());
+		}
+		trustRelationshipFragments.keySet().retainAll(inums);
+
 		for (String trustRelationshipInum : trustEntityIds.keySet()) {
 			List<String> federatedSites = deconstructedMap.get(trustRelationshipInum);
 			if (federatedSites != null) {
@@ -467,6 +452,105 @@ public class Shibboleth3ConfService implements Serializable {
 		return trustParams;
 	}
 
+	/*
+	 * Prepare trust relationship data which depends only on its own attributes
+	 * and metadata file: entityIds, parsed metadata filters and profile
+	 * configurations. Results are reused while the trust relationship and its
+	 * metadata file stay the same. Returns null if metadata file is corrupted or
+	 * missing
+	 */
+	private TrustRelationshipFragment getTrustRelationshipFragment(GluuSAMLTrustRelationship trustRelationship,
+			File metadataFile) {
+		String digest = getTrustRelationshipDigest(trustRelationship, metadataFile);
+
+		TrustRelationshipFragment fragment = trustRelationshipFragments.get(trustRelationship.getInum());
+		if ((fragment != null) && fragment.getDigest().equals(digest)) {
+			log.trace("Reusing prepared data of trust relationship {}", trustRelationship.getInum());
+			fragment.applyTo(trustRelationship);
+			return fragment;
+		}
+
+		List<String> entityIds = null;
+		if (metadataFile != null) {
+			entityIds = metadataEntityIdService.getEntityIdFromMetadataFile(metadataFile);
+			if (entityIds == null) {
+				trustRelationshipFragments.remove(trustRelationship.getInum());
+				return null;
+			}
+		}
+
+		initProfileConfiguration(trustRelationship);
+		if (metadataFile != null) {
+			sortMetadataFilters(trustRelationship);
+		}
+
+		fragment = new TrustRelationshipFragment(digest, entityIds, trustRelationship);
+		trustRelationshipFragments.put(trustRelationship.getInum(), fragment);
+
+		return fragment;
+	}
+
+	/*
+	 * If there is an intrusive filter - push it to the end of the list
+	 */
+	private void sortMetadataFilters(GluuSAMLTrustRelationship trustRelationship) {
+		if (trustRelationship.getGluuSAMLMetaDataFilter() == null) {
+			return;
+		}
+
+		List<String> filtersList = new ArrayList<String>();
+		String entityRoleWhiteList = null;
+		for (String filterXML : trustRelationship.getGluuSAMLMetaDataFilter()) {
+
+			Document xmlDocument;
+
+			try {
+
+				xmlDocument = xmlService.getXmlDocument(filterXML.getBytes());
+
+			} catch (Exception e) {
+				log.error("GluuSAMLMetaDataFilter contains invalid value.", e);
+				e.printStackTrace();
+				continue;
+			}
+
+			if (xmlDocument.getFirstChild().getAttributes().getNamedItem("xsi:type").getNodeValue()
+					.equals(FilterService.ENTITY_ROLE_WHITE_LIST_TYPE)) {
+				entityRoleWhiteList = filterXML;
+				continue;
+			}
+
+			filtersList.add(filterXML);
+		}
+
+		if (entityRoleWhiteList != null) {
+			filtersList.add(entityRoleWhiteList);
+		}
+
+		trustRelationship.setGluuSAMLMetaDataFilter(filtersList);
+	}
+
+	/*
+	 * Digest of trust relationship attributes used to prepare its data. Metadata
+	 * file is identified by its name, size and modification time
+	 */
+	private String getTrustRelationshipDigest(GluuSAMLTrustRelationship trustRelationship, File metadataFile) {
+		StringBuilder sb = new StringBuilder();
+		if (metadataFile != null) {
+			sb.append(metadataFile.getPath()).append('|').append(metadataFile.length()).append('|')
+					.append(metadataFile.lastModified());
+		}
+		sb.append('|').append(trustRelationship.getGluuSAMLMetaDataFilter());
+		sb.append('|').append(trustRelationship.getGluuProfileConfiguration());
+
+		try {
+			MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+			return Base64.getEncoder().encodeToString(messageDigest.digest(sb.toString().getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException ex) {
+			return sb.toString();
+		}
+	}
+
 	protected void initProfileConfiguration(GluuSAMLTrustRelationship trustRelationship)
 			throws FactoryConfigurationError {
 		try {
@@ -1021,7 +1105,7 @@ public class Shibboleth3ConfService implements Serializable {
 
 		String metadataFolder = getIdpMetadataDir();
 		File metadataFile = new File(metadataFolder + spMetaDataFN);
-		List<String> entityId = SAMLMetadataParser.getEntityIdFromMetadataFile(metadataFile);
+		List<String> entityId = metadataEntityIdService.getEntityIdFromMetadataFile(metadataFile);
 		return (entityId != null) && !entityId.isEmpty();
 	}
 
@@ -1191,7 +1275,11 @@ public class Shibboleth3ConfService implements Serializable {
 	 */
 	public GluuErrorHandler validateMetadata(InputStream stream)
 			throws ParserConfigurationException, SAXException, IOException {
-		Schema schema;
+		Schema schema = metadataSchema;
+		if (schema != null) {
+			return XMLValidator.validateMetadata(stream, schema);
+		}
+
 		List<InputStream> collect = null;
 		try {
 			String schemaDir = "META-INF" + File.separator + "shibboleth3" + File.separator + "idp" + File.separator
@@ -1201,6 +1289,7 @@ public class Shibboleth3ConfService implements Serializable {
 			collect = schemaValidationFileNames.stream()
 					.map(e -> ClassUtils.getResourceAsStream(getClass(), schemaDir + e)).collect(Collectors.toList());
 			schema = SchemaBuilder.buildSchema(SchemaLanguage.XML, collect.toArray(new InputStream[0]));
+			metadataSchema = schema;
 		} catch (Exception e) {
 			log.info("", e);
 			final List<String> validationLog = new ArrayList<String>();
@@ -1404,4 +1493,41 @@ public class Shibboleth3ConfService implements Serializable {
 		}
 
 	}
+
+	private static class TrustRelationshipFragment {
+
+		private final String digest;
+		private final List<String> entityIds;
+		private final Map<String, MetadataFilter> metadataFilters;
+		private final Map<String, ProfileConfiguration> profileConfigurations;
+		private final List<String> gluuSAMLMetaDataFilter;
+
+		public TrustRelationshipFragment(String digest, List<String> entityIds, GluuSAMLTrustRelationship trustRelationship) {
+			this.digest = digest;
+			this.entityIds = entityIds == null ? null : new ArrayList<String>(entityIds);
+			this.metadataFilters = new HashMap<String, MetadataFilter>(trustRelationship.getMetadataFilters());
+			this.profileConfigurations = new HashMap<String, ProfileConfiguration>(
+					trustRelationship.getProfileConfigurations());
+			this.gluuSAMLMetaDataFilter = trustRelationship.getGluuSAMLMetaDataFilter() == null ? null
+					: new ArrayList<String>(trustRelationship.getGluuSAMLMetaDataFilter());
+		}
+
+		public String getDigest() {
+			return digest;
+		}
+
+		public List<String> getEntityIds() {
+			return entityIds;
+		}
+
+		public void applyTo(GluuSAMLTrustRelationship trustRelationship) {
+			trustRelationship.getMetadataFilters().putAll(metadataFilters);
+			trustRelationship.getProfileConfigurations().putAll(profileConfigurations);
+			if (gluuSAMLMetaDataFilter != null) {
+				trustRelationship.setGluuSAMLMetaDataFilter(new ArrayList<String>(gluuSAMLMetaDataFilter));
+			}
+		}
+
+	}
+
 }
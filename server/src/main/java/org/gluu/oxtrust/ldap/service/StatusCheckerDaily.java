@@ -44,10 +44,7 @@ public class StatusCheckerDaily {
 	private ConfigurationService configurationService;
 
 	@Inject
-	private IGroupService groupService;
-
-	@Inject
-	private IPersonService personService;
+	private EntryCountService entryCountService;
 
 	@Inject
 	private CentralLdapService centralLdapService;
@@ -102,8 +99,8 @@ public class StatusCheckerDaily {
 		log.debug("Getting data from ldap");
 		GluuConfiguration configuration = configurationService.getConfiguration();
 		GluuOxTrustStat oxTrustStat = configurationService.getOxtrustStat();
-		oxTrustStat.setGroupCount(String.valueOf(groupService.countGroups()));
-		oxTrustStat.setPersonCount(String.valueOf(personService.countPersons()));
+		oxTrustStat.setGroupCount(String.valueOf(entryCountService.getGroupCount()));
+		oxTrustStat.setPersonCount(String.valueOf(entryCountService.getPersonCount()));
 		Date currentDateTime = new Date();
 		configuration.setLastUpdate(currentDateTime);
 		configurationService.updateConfiguration(configuration);
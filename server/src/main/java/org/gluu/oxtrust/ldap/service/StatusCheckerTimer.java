@@ -6,6 +6,7 @@
 
 package org.gluu.oxtrust.ldap.service;
 
+import java.beans.PropertyDescriptor;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -13,6 +14,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.cert.Certificate;
@@ -20,20 +22,29 @@ import java.security.cert.X509Certificate;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
-import javax.enterprise.event.Event;
-import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.net.ssl.HttpsURLConnection;
@@ -42,6 +53,7 @@ import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
 import org.apache.commons.beanutils.BeanUtils;
+import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.io.IOUtils;
 import org.gluu.config.oxtrust.AppConfiguration;
@@ -50,14 +62,12 @@ import org.gluu.oxtrust.model.GluuConfiguration;
 import org.gluu.oxtrust.model.GluuOxTrustStat;
 import org.gluu.oxtrust.model.status.ConfigurationStatus;
 import org.gluu.oxtrust.model.status.OxtrustStat;
-import org.gluu.oxtrust.service.cdi.event.StatusCheckerTimerEvent;
+import org.gluu.oxtrust.service.status.StatusProbe;
+import org.gluu.oxtrust.service.timer.JobScheduler;
+import org.gluu.oxtrust.service.timer.ScheduledJob;
 import org.gluu.oxtrust.util.NumberHelper;
 import org.gluu.oxtrust.util.OxTrustConstants;
 import org.gluu.persist.exception.BasePersistenceException;
-import org.gluu.service.cdi.async.Asynchronous;
-import org.gluu.service.cdi.event.Scheduled;
-import org.gluu.service.timer.event.TimerEvent;
-import org.gluu.service.timer.schedule.TimerSchedule;
 import org.gluu.util.StringHelper;
 import org.gluu.util.process.ProcessHelper;
 import org.slf4j.Logger;
@@ -73,11 +83,17 @@ public class StatusCheckerTimer {
 
 	private final static int DEFAULT_INTERVAL = 60; // 1 minute
 
+	// Probes timeouts in milliseconds
+	private final static int COUNT_TIMEOUT = 30 * 1000;
+	private final static int PROGRAM_TIMEOUT = 20 * 1000;
+	private final static int HTTP_TIMEOUT = 10 * 1000;
+	private final static int CENTRAL_SERVER_TIMEOUT = 30 * 1000;
+
 	@Inject
 	private Logger log;
 
 	@Inject
-	private Event<TimerEvent> timerEvent;
+	private JobScheduler jobScheduler;
 
 	@Inject
 	private ConfigurationService configurationService;
@@ -96,14 +112,33 @@ public class StatusCheckerTimer {
 	private AtomicBoolean isActive;
 
 	@Inject
-	private IGroupService groupService;
+	private EntryCountService entryCountService;
 
-	@Inject
-	private IPersonService personService;
+	private ExecutorService probeExecutor;
+
+	private AtomicBoolean centralServerUpdateRunning = new AtomicBoolean(false);
+
+	private List<StatusProbe<StatusValues>> probes;
 
 	@PostConstruct
 	public void create() {
 		this.numberFormat = NumberFormat.getNumberInstance(Locale.US);
+		this.probes = createProbes();
+
+		// Thread for each probe and for central server update. Timed out tasks which are
+		// still running aren't started again, so they can't exhaust pool
+		final AtomicInteger counter = new AtomicInteger();
+		ThreadFactory threadFactory = runnable -> {
+			Thread thread = new Thread(runnable, "status-probe-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		this.probeExecutor = Executors.newFixedThreadPool(probes.size() + 1, threadFactory);
+	}
+
+	@PreDestroy
+	public void destroy() {
+		probeExecutor.shutdownNow();
 	}
 
 	public void initTimer() {
@@ -113,12 +148,12 @@ public class StatusCheckerTimer {
 		final int delay = 1 * 60;
 		final int interval = DEFAULT_INTERVAL;
 
-		timerEvent.fire(new TimerEvent(new TimerSchedule(delay, interval), new StatusCheckerTimerEvent(),
-				Scheduled.Literal.INSTANCE));
+		ScheduledJob job = new ScheduledJob("statusChecker", delay, interval, this::process);
+		job.setClustered(true);
+		jobScheduler.schedule(job);
 	}
 
-	@Asynchronous
-	public void process(@Observes @Scheduled StatusCheckerTimerEvent statusCheckerTimerEvent) {
+	public void process() {
 		if (this.isActive.get()) {
 			return;
 		}
@@ -150,20 +185,31 @@ public class StatusCheckerTimer {
 			log.debug("isUpdateStatus");
 			return;
 		}
+
+		// Run all probes concurrently. Hung probes don't block others, their last good
+		// values are used instead
+		for (StatusProbe<StatusValues> probe : probes) {
+			probe.start(probeExecutor);
+		}
+
 		ConfigurationStatus configurationStatus = new ConfigurationStatus();
 		OxtrustStat oxtrustStatObject = new OxtrustStat();
-		oxtrustStatObject.setGroupCount(String.valueOf(groupService.countGroups()));
-		oxtrustStatObject.setPersonCount(String.valueOf(personService.countPersons()));
-		log.debug("Setting FactorAttributes");
-		setFactorAttributes(configurationStatus, oxtrustStatObject);
-		// Execute df and update configuration attributes
-		setDfAttributes(configurationStatus, oxtrustStatObject);
-		// Set HTTPD attributes
-		setHttpdAttributes(configurationStatus);
 		try {
-			setCertificateExpiryAttributes(configurationStatus);
-		} catch (Exception ex) {
-			log.error("Failed to check certificate expiration", ex);
+			for (StatusProbe<StatusValues> probe : probes) {
+				StatusValues values = probe.await(log);
+				if (values != null) {
+					copyNotNullProperties(configurationStatus, values.getConfigurationStatus());
+					copyNotNullProperties(oxtrustStatObject, values.getOxtrustStat());
+				}
+			}
+		} catch (InterruptedException ex) {
+			log.warn("Status update was interrupted");
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		if (log.isDebugEnabled()) {
+			log.debug("Status probes latency: {}", getProbeLatencies());
 		}
 
 		GluuConfiguration configuration = configurationService.getConfiguration();
@@ -181,26 +227,28 @@ public class StatusCheckerTimer {
 		configurationService.updateConfiguration(configuration);
 		configurationService.updateOxtrustStat(gluuOxTrustStat);
 		if (centralLdapService.isUseCentralServer()) {
-			try {
-				boolean existConfiguration = centralLdapService.containsConfiguration(configuration.getDn());
-				if (existConfiguration) {
-					centralLdapService.updateConfiguration(configuration);
-				} else {
-					centralLdapService.addConfiguration(configuration);
-				}
-			} catch (BasePersistenceException ex) {
-				log.error("Failed to update configuration at central server", ex);
+			if (!centralServerUpdateRunning.compareAndSet(false, true)) {
+				log.warn("Previous update of configuration at central server is still running");
 				return;
 			}
-			try {
-				boolean existConfiguration = centralLdapService.containsOxtrustStatForToday(gluuOxTrustStat.getDn());
-				if (existConfiguration) {
-					centralLdapService.updateOxtrustStat(gluuOxTrustStat);
-				} else {
-					centralLdapService.addOxtrustStat(gluuOxTrustStat);
+
+			// Central server may be slow or unavailable, don't let it block status cycle
+			Future<?> future = probeExecutor.submit(() -> {
+				try {
+					updateCentralServer(configuration, gluuOxTrustStat);
+				} finally {
+					centralServerUpdateRunning.set(false);
 				}
-			} catch (BasePersistenceException ex) {
-				log.error("Failed to update configuration at central server", ex);
+			});
+			try {
+				future.get(CENTRAL_SERVER_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException ex) {
+				future.cancel(true);
+				log.warn("Update of configuration at central server didn't finish in {} ms", CENTRAL_SERVER_TIMEOUT);
+			} catch (ExecutionException ex) {
+				log.error("Failed to update configuration at central server", ex.getCause());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
 				return;
 			}
 		}
@@ -208,10 +256,112 @@ public class StatusCheckerTimer {
 		log.debug("Configuration status update finished");
 	}
 
+	private void updateCentralServer(GluuConfiguration configuration, GluuOxTrustStat gluuOxTrustStat) {
+		try {
+			boolean existConfiguration = centralLdapService.containsConfiguration(configuration.getDn());
+			if (existConfiguration) {
+				centralLdapService.updateConfiguration(configuration);
+			} else {
+				centralLdapService.addConfiguration(configuration);
+			}
+		} catch (BasePersistenceException ex) {
+			log.error("Failed to update configuration at central server", ex);
+			return;
+		}
+		try {
+			boolean existConfiguration = centralLdapService.containsOxtrustStatForToday(gluuOxTrustStat.getDn());
+			if (existConfiguration) {
+				centralLdapService.updateOxtrustStat(gluuOxTrustStat);
+			} else {
+				centralLdapService.addOxtrustStat(gluuOxTrustStat);
+			}
+		} catch (BasePersistenceException ex) {
+			log.error("Failed to update configuration at central server", ex);
+			return;
+		}
+	}
+
+	private List<StatusProbe<StatusValues>> createProbes() {
+		List<StatusProbe<StatusValues>> probes = new ArrayList<StatusProbe<StatusValues>>();
+
+		probes.add(new StatusProbe<StatusValues>("groupCount", COUNT_TIMEOUT, () -> {
+			StatusValues values = new StatusValues();
+			values.getOxtrustStat().setGroupCount(String.valueOf(entryCountService.getGroupCount()));
+			return values;
+		}));
+
+		probes.add(new StatusProbe<StatusValues>("personCount", COUNT_TIMEOUT, () -> {
+			StatusValues values = new StatusValues();
+			values.getOxtrustStat().setPersonCount(String.valueOf(entryCountService.getPersonCount()));
+			return values;
+		}));
+
+		probes.add(new StatusProbe<StatusValues>("facter", PROGRAM_TIMEOUT, () -> {
+			StatusValues values = new StatusValues();
+			log.debug("Setting FactorAttributes");
+			setFactorAttributes(values.getConfigurationStatus(), values.getOxtrustStat());
+			return values;
+		}));
+
+		probes.add(new StatusProbe<StatusValues>("df", PROGRAM_TIMEOUT, () -> {
+			StatusValues values = new StatusValues();
+			// Execute df and update configuration attributes
+			setDfAttributes(values.getConfigurationStatus(), values.getOxtrustStat());
+			return values;
+		}));
+
+		probes.add(new StatusProbe<StatusValues>("httpd", HTTP_TIMEOUT, () -> {
+			StatusValues values = new StatusValues();
+			// Set HTTPD attributes
+			setHttpdAttributes(values.getConfigurationStatus());
+			return values;
+		}));
+
+		probes.add(new StatusProbe<StatusValues>("sslCertificate", HTTP_TIMEOUT, () -> {
+			StatusValues values = new StatusValues();
+			setCertificateExpiryAttributes(values.getConfigurationStatus());
+			return values;
+		}));
+
+		return probes;
+	}
+
+	/**
+	 * @return Duration of last execution of each status probe in milliseconds
+	 */
+	public Map<String, Long> getProbeLatencies() {
+		Map<String, Long> latencies = new LinkedHashMap<String, Long>();
+		for (StatusProbe<StatusValues> probe : probes) {
+			latencies.put(probe.getName(), probe.getLastLatency());
+		}
+
+		return latencies;
+	}
+
+	private void copyNotNullProperties(Object dest, Object orig) {
+		for (PropertyDescriptor descriptor : PropertyUtils.getPropertyDescriptors(orig)) {
+			String name = descriptor.getName();
+			if (!PropertyUtils.isReadable(orig, name) || !PropertyUtils.isWriteable(dest, name)) {
+				continue;
+			}
+
+			try {
+				Object value = PropertyUtils.getSimpleProperty(orig, name);
+				if (value != null) {
+					PropertyUtils.setSimpleProperty(dest, name, value);
+				}
+			} catch (Exception ex) {
+				log.error("Failed to copy status attribute '{}'", name, ex);
+			}
+		}
+	}
+
 	private void setCertificateExpiryAttributes(ConfigurationStatus configuration) {
 		try {
 			URL destinationURL = new URL(appConfiguration.getApplicationUrl());
 			HttpsURLConnection conn = (HttpsURLConnection) destinationURL.openConnection();
+			conn.setConnectTimeout(HTTP_TIMEOUT);
+			conn.setReadTimeout(HTTP_TIMEOUT);
 			conn.connect();
 			Certificate[] certs = conn.getServerCertificates();
 			if (certs.length > 0) {
@@ -271,7 +421,10 @@ public class StatusCheckerTimer {
 			} else {
 				url = new URL(urlParts[0], hostAndPort[0], Integer.parseInt(hostAndPort[1]), httpdTestPageName);
 			}
-			InputStream in = url.openConnection().getInputStream();
+			URLConnection connection = url.openConnection();
+			connection.setConnectTimeout(HTTP_TIMEOUT);
+			connection.setReadTimeout(HTTP_TIMEOUT);
+			InputStream in = connection.getInputStream();
 			BufferedReader reader = new BufferedReader(new InputStreamReader(in));
 			String line = null;
 			while ((line = reader.readLine()) != null) {
@@ -532,4 +685,22 @@ public class StatusCheckerTimer {
 		return (number == null) ? null : String.valueOf(number.intValue());
 	}
 
+	/*
+	 * Values gathered by one status probe
+	 */
+	private static class StatusValues {
+
+		private final ConfigurationStatus configurationStatus = new ConfigurationStatus();
+		private final OxtrustStat oxtrustStat = new OxtrustStat();
+
+		public ConfigurationStatus getConfigurationStatus() {
+			return configurationStatus;
+		}
+
+		public OxtrustStat getOxtrustStat() {
+			return oxtrustStat;
+		}
+
+	}
+
 }
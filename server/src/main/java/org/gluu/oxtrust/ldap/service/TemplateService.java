@@ -15,6 +15,7 @@ import java.net.JarURLConnection;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
@@ -70,9 +71,19 @@ public class TemplateService implements Serializable {
 		return sw.toString();
 	}
 
+	/*
+	 * Write configuration file. File is not touched if it has the same content
+	 * already, so services watching it don't reload it
+	 */
 	public boolean writeConfFile(String confFile, String conf) {
+		File file = new File(confFile);
 		try {
-			FileUtils.writeStringToFile(new File(confFile), conf, "UTF-8");
+			if ((conf != null) && hasContent(file, conf.getBytes(StandardCharsets.UTF_8))) {
+				log.debug("Configuration file '{}' is up to date", confFile);
+				return true;
+			}
+
+			FileUtils.writeStringToFile(file, conf, "UTF-8");
 		} catch (IOException ex) {
 			log.error("Failed to write IDP configuration file '{}'", confFile, ex);
 			ex.printStackTrace();
@@ -82,6 +93,14 @@ public class TemplateService implements Serializable {
 		return true;
 	}
 
+	private boolean hasContent(File file, byte[] content) throws IOException {
+		if (!file.isFile() || (file.length() != content.length)) {
+			return false;
+		}
+
+		return Arrays.equals(FileUtils.readFileToByteArray(file), content);
+	}
+
 	/*
 	 * Load Velocity configuration from classpath
 	 */
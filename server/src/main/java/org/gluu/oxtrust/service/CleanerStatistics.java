@@ -0,0 +1,117 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.service;
+
+import java.util.Date;
+
+/**
+ * Clean up statistics of one type of expired entries. Also keeps batch size
+ * and latency which {@link CleanerTimer} adapts between runs
+ */
+public class CleanerStatistics {
+
+	public static final long UNKNOWN = -1;
+
+	private final String name;
+
+	private volatile Date lastRunDate;
+	private volatile long lastDuration = UNKNOWN;
+	private volatile long lastRemoved;
+	private volatile long totalRemoved;
+	private volatile long backlog = UNKNOWN;
+	private volatile long backoffCount;
+
+	private volatile int batchSize;
+	// Average time of removing one entry in milliseconds
+	private volatile double entryLatency = UNKNOWN;
+
+	public CleanerStatistics(String name, int batchSize) {
+		this.name = name;
+		this.batchSize = batchSize;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Date getLastRunDate() {
+		return lastRunDate;
+	}
+
+	/**
+	 * @return Duration of last run in milliseconds or -1 if it wasn't executed
+	 *         yet
+	 */
+	public long getLastDuration() {
+		return lastDuration;
+	}
+
+	/**
+	 * @return Number of entries removed in last run or -1 if it's unknown
+	 */
+	public long getLastRemoved() {
+		return lastRemoved;
+	}
+
+	public long getTotalRemoved() {
+		return totalRemoved;
+	}
+
+	/**
+	 * @return Estimated number of expired entries left after last run or -1 if
+	 *         it's unknown
+	 */
+	public long getBacklog() {
+		return backlog;
+	}
+
+	/**
+	 * @return Number of times cleaner paused because backend latency rose
+	 */
+	public long getBackoffCount() {
+		return backoffCount;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public double getEntryLatency() {
+		return entryLatency;
+	}
+
+	void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	void setEntryLatency(double entryLatency) {
+		this.entryLatency = entryLatency;
+	}
+
+	void backedOff() {
+		this.backoffCount++;
+	}
+
+	void finished(Date runDate, long duration, long removed, long backlog) {
+		this.lastRunDate = runDate;
+		this.lastDuration = duration;
+		this.lastRemoved = removed;
+		this.backlog = backlog;
+		if (removed > 0) {
+			this.totalRemoved += removed;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CleanerStatistics [name=" + name + ", lastRunDate=" + lastRunDate + ", lastDuration=" + lastDuration
+				+ ", lastRemoved=" + lastRemoved + ", totalRemoved=" + totalRemoved + ", backlog=" + backlog
+				+ ", backoffCount=" + backoffCount + ", batchSize=" + batchSize + ", entryLatency=" + entryLatency
+				+ "]";
+	}
+
+}
@@ -1,26 +1,30 @@
 package org.gluu.oxtrust.service;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongSupplier;
 
 import javax.ejb.DependsOn;
 import javax.enterprise.context.ApplicationScoped;
-import javax.enterprise.event.Event;
-import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.gluu.config.oxtrust.AppConfiguration;
 import org.gluu.model.ApplicationType;
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.service.timer.JobScheduler;
+import org.gluu.oxtrust.service.timer.ScheduledJob;
 import org.gluu.service.cache.CacheProvider;
-import org.gluu.service.cdi.async.Asynchronous;
-import org.gluu.service.cdi.event.CleanerEvent;
-import org.gluu.service.cdi.event.Scheduled;
-import org.gluu.service.timer.event.TimerEvent;
-import org.gluu.service.timer.schedule.TimerSchedule;
+import org.gluu.util.properties.FileConfiguration;
 import org.slf4j.Logger;
 
 /**
@@ -34,8 +38,23 @@ import org.slf4j.Logger;
 public class CleanerTimer {
 
 	public final static int BATCH_SIZE = 100;
+	private final static int MIN_BATCH_SIZE = 10;
+	private final static int MAX_BATCH_SIZE = 1000;
 	private final static int DEFAULT_INTERVAL = 60; // 1 minute
 
+	private final static String TIME_BUDGET_PROPERTY = "cleanerTimeBudget";
+	private final static int DEFAULT_TIME_BUDGET = 30; // 30 seconds
+
+	// Batch is considered slow if its entry latency exceeds average latency this
+	// number of times
+	private final static double SLOW_BATCH_FACTOR = 2.0;
+	// Weight of last batch in average entry latency
+	private final static double LATENCY_WEIGHT = 0.2;
+
+	public final static String CACHE = "cache";
+	public final static String PASSWORD_RESET = "passwordReset";
+	public final static String METRIC = "metric";
+
 	@Inject
 	private Logger log;
 
@@ -52,11 +71,16 @@ public class CleanerTimer {
 	private AppConfiguration appConfiguration;
 
 	@Inject
-	private Event<TimerEvent> cleanerEvent;
+	private JobScheduler jobScheduler;
 
 	@Inject
 	private CleanUpLogger cleanUpLogger;
 
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	private final Map<String, CleanerStatistics> statistics = new ConcurrentHashMap<String, CleanerStatistics>();
+
 	private long lastFinishedTime;
 
 	private AtomicBoolean isActive;
@@ -68,14 +92,14 @@ public class CleanerTimer {
 		this.isActive = new AtomicBoolean(false);
 
 		// Schedule to start cleaner every 1 minute
-		cleanerEvent.fire(
-				new TimerEvent(new TimerSchedule(DEFAULT_INTERVAL, DEFAULT_INTERVAL), new CleanerEvent(), Scheduled.Literal.INSTANCE));
+		ScheduledJob job = new ScheduledJob("cleaner", DEFAULT_INTERVAL, DEFAULT_INTERVAL, this::process);
+		job.setClustered(true);
+		jobScheduler.schedule(job);
 
 		cleanUpLogger.addNewLogLine("Initialization Done at :" + new Date());
 	}
 
-	@Asynchronous
-	public void process(@Observes @Scheduled CleanerEvent cleanerEvent) {
+	public void process() {
 		cleanUpLogger.addNewLogLine("++++Starting processing clean up services at:" + new Date());
 
 		if (this.isActive.get()) {
@@ -103,9 +127,17 @@ public class CleanerTimer {
 			}
 
 			Date now = new Date();
+			long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(getTimeBudget());
+
 			processCache(now);
-			processPasswordReset();
-			processMetricEntries();
+
+			// Share time budget left between entry types
+			processPasswordReset(System.currentTimeMillis() + (deadline - System.currentTimeMillis()) / 2);
+			processMetricEntries(deadline);
+
+			for (CleanerStatistics entryStatistics : statistics.values()) {
+				log.debug("Clean up statistics: {}", entryStatistics);
+			}
 
 			this.lastFinishedTime = System.currentTimeMillis();
 		} catch (Exception e) {
@@ -113,20 +145,26 @@ public class CleanerTimer {
 		}
 	}
 
-	protected void processPasswordReset() {
+	protected void processPasswordReset(long deadline) {
 		cleanUpLogger.addNewLogLine("-Starting processing PasswordReset clean up at:" + new Date());
 		Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
 		calendar.add(Calendar.SECOND, -appConfiguration.getPasswordResetRequestExpirationTime());
 		final Date expirationDate = calendar.getTime();
 		cleanUpLogger.addNewLogLine("-Running password reset clean up with expiration date :" + expirationDate);
-		passwordResetService.cleanup(expirationDate);
-		cleanUpLogger.addNewLogLine("-Processing PasswordReset clean up at:" + new Date());
+		long removed = removeInBatches(PASSWORD_RESET, deadline,
+				batchSize -> passwordResetService.cleanup(expirationDate, batchSize),
+				() -> passwordResetService.countExpiredPasswordResetRequests(expirationDate));
+		cleanUpLogger.addNewLogLine("-Processing PasswordReset clean up at:" + new Date() + ", removed: " + removed);
 	}
 
 	private void processCache(Date now) {
 		cleanUpLogger.addNewLogLine("~Starting processing cache at:" + now);
+		long start = System.currentTimeMillis();
 		try {
-            cacheProvider.cleanup(now);
+			// Cache provider cleans up in single pass and doesn't report removed entries
+			cacheProvider.cleanup(now);
+			getStatistics(CACHE).finished(now, System.currentTimeMillis() - start, CleanerStatistics.UNKNOWN,
+					CleanerStatistics.UNKNOWN);
 		} catch (Exception e) {
 			log.error("Failed to clean up cache.", e);
 			cleanUpLogger.addNewLogLineAsError("~Error occurs while processing cache");
@@ -135,19 +173,118 @@ public class CleanerTimer {
 		cleanUpLogger.addNewLogLine("~Processing cache done at:" + new Date());
 	}
 
-	private void processMetricEntries() {
+	private void processMetricEntries(long deadline) {
 		cleanUpLogger.addNewLogLine("#Starting processing Metric entries at:" + new Date());
 		log.debug("Start metric entries clean up");
 		int keepDataDays = appConfiguration.getMetricReporterKeepDataDays();
 		Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
 		calendar.add(Calendar.DATE, -keepDataDays);
-		Date expirationDate = calendar.getTime();
+		final Date expirationDate = calendar.getTime();
 		cleanUpLogger.addNewLogLine(String.format(
 				"#Ready to remove expired entries with parameters batch size: %s, expiration date: %s",
-				BATCH_SIZE, expirationDate));
-		metricService.removeExpiredMetricEntries(expirationDate, ApplicationType.OX_TRUST, 0, BATCH_SIZE);
+				getStatistics(METRIC).getBatchSize(), expirationDate));
+		long removed = removeInBatches(METRIC, deadline,
+				batchSize -> metricService.removeExpiredMetricEntries(expirationDate, ApplicationType.OX_TRUST,
+						batchSize),
+				() -> metricService.countExpiredMetricEntries(expirationDate, ApplicationType.OX_TRUST));
 		log.debug("End metric entries clean up");
-		cleanUpLogger.addNewLogLine("#Processing Metric entries done at:" + new Date());
+		cleanUpLogger.addNewLogLine("#Processing Metric entries done at:" + new Date() + ", removed: " + removed);
+	}
+
+	/**
+	 * Removes expired entries in batches until there are no more entries or
+	 * deadline is reached. Batch size grows while backend keeps up and it's cut
+	 * with pause when batch latency rises
+	 * 
+	 * @param remover
+	 *            Removes batch of specified size and returns number of removed
+	 *            entries
+	 * @param backlogCounter
+	 *            Counts expired entries left
+	 * @return Number of removed entries
+	 */
+	private long removeInBatches(String name, long deadline, IntUnaryOperator remover, LongSupplier backlogCounter) {
+		CleanerStatistics entryStatistics = getStatistics(name);
+
+		Date runDate = new Date();
+		long start = runDate.getTime();
+		long removed = 0;
+		boolean drained = false;
+		try {
+			while (!drained && (System.currentTimeMillis() < deadline) && !Thread.currentThread().isInterrupted()) {
+				int batchSize = entryStatistics.getBatchSize();
+
+				long batchStart = System.currentTimeMillis();
+				int count = remover.applyAsInt(batchSize);
+				long batchDuration = System.currentTimeMillis() - batchStart;
+
+				removed += count;
+				drained = count < batchSize;
+				if (count == 0) {
+					break;
+				}
+
+				double batchLatency = (double) batchDuration / count;
+				double entryLatency = entryStatistics.getEntryLatency();
+				if ((entryLatency > 0) && (batchLatency > SLOW_BATCH_FACTOR * entryLatency)) {
+					// Backend slows down. Use smaller batches and give it time to recover
+					entryStatistics.setBatchSize(Math.max(MIN_BATCH_SIZE, batchSize / 2));
+					entryStatistics.backedOff();
+					log.debug("Clean up of '{}' backs off. Batch latency: {} ms per entry, average: {} ms per entry",
+							name, batchLatency, entryLatency);
+
+					long pause = Math.min(batchDuration, deadline - System.currentTimeMillis());
+					if (pause > 0) {
+						Thread.sleep(pause);
+					}
+				} else {
+					entryStatistics.setBatchSize(Math.min(MAX_BATCH_SIZE, batchSize + BATCH_SIZE));
+				}
+
+				entryStatistics.setEntryLatency(entryLatency < 0 ? batchLatency
+						: (1 - LATENCY_WEIGHT) * entryLatency + LATENCY_WEIGHT * batchLatency);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		// Count only if last run didn't remove all expired entries
+		long backlog = 0;
+		if (!drained) {
+			try {
+				backlog = backlogCounter.getAsLong();
+			} catch (Exception ex) {
+				log.error("Failed to count expired entries of '{}'", name, ex);
+				backlog = CleanerStatistics.UNKNOWN;
+			}
+		}
+
+		entryStatistics.finished(runDate, System.currentTimeMillis() - start, removed, backlog);
+		if (backlog > 0) {
+			log.info("Removed {} expired entries of '{}', about {} entries left", removed, name, backlog);
+		}
+
+		return removed;
+	}
+
+	private CleanerStatistics getStatistics(String name) {
+		return statistics.computeIfAbsent(name, key -> new CleanerStatistics(key, BATCH_SIZE));
+	}
+
+	/**
+	 * @return Clean up statistics of all entry types
+	 */
+	public List<CleanerStatistics> getStatistics() {
+		return new ArrayList<CleanerStatistics>(statistics.values());
+	}
+
+	private int getTimeBudget() {
+		FileConfiguration baseConfiguration = configurationFactory.getBaseConfiguration();
+		if (baseConfiguration == null) {
+			return DEFAULT_TIME_BUDGET;
+		}
+
+		return Math.max(1, baseConfiguration.getInt(TIME_BUDGET_PROPERTY, DEFAULT_TIME_BUDGET));
 	}
 
 	private boolean isStartProcess() {
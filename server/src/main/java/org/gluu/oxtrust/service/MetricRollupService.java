@@ -0,0 +1,323 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.model.metric.MetricType;
+import org.gluu.model.metric.counter.CounterMetricEntry;
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.util.properties.FileConfiguration;
+import org.slf4j.Logger;
+
+/**
+ * Keeps per-day aggregates of counter metrics. Raw counter entries are folded
+ * into daily counts once, with adjustment for servers restarts, so charts don't
+ * need to load and walk raw entries again. Aggregates are stored on disk to
+ * survive restarts
+ */
+@ApplicationScoped
+@Named
+public class MetricRollupService {
+
+	public static final int RETENTION_DAYS = 365;
+
+	private static final int VERSION = 1;
+
+	private static final String ROLLUP_FILE_PROPERTY = "metricRollupFile";
+	private static final String DEFAULT_ROLLUP_FILE_NAME = "oxtrust-metric-rollup.dat";
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	private Map<MetricType, DailyRollup> rollups = new EnumMap<MetricType, DailyRollup>(MetricType.class);
+
+	@PostConstruct
+	public void init() {
+		loadRollups();
+	}
+
+	/**
+	 * @return Date after which raw entries of all metric types passed were not
+	 *         folded yet, or default date if some of them weren't folded at all
+	 */
+	public synchronized Date getRollupStartDate(List<MetricType> metricTypes, Date defaultStartDate) {
+		long startTime = Long.MAX_VALUE;
+		for (MetricType metricType : metricTypes) {
+			DailyRollup rollup = rollups.get(metricType);
+			if (rollup == null) {
+				return defaultStartDate;
+			}
+			startTime = Math.min(startTime, rollup.getLastCreationTime());
+		}
+
+		return new Date(Math.max(startTime, defaultStartDate.getTime()));
+	}
+
+	/**
+	 * Folds counter entries ordered by creation date into daily counts. Entries
+	 * which were already folded are skipped
+	 */
+	public synchronized void fold(MetricType metricType, List<CounterMetricEntry> metrics) {
+		DailyRollup rollup = rollups.get(metricType);
+		if (rollup == null) {
+			rollup = new DailyRollup();
+			rollups.put(metricType, rollup);
+		}
+
+		if (metrics != null) {
+			int folded = 0;
+			for (CounterMetricEntry metric : metrics) {
+				if (rollup.fold(metric.getCreationDate(), metric.getMetricData().getCount())) {
+					folded++;
+				}
+			}
+			log.trace("Folded {} entries of metric '{}'", folded, metricType);
+		}
+
+		rollup.prune(getFirstRetainedDay());
+	}
+
+	/**
+	 * @return Counts of last countDays days and today ordered by date (yyyy-MM-dd)
+	 */
+	public synchronized Map<String, Long> getDailyCounts(MetricType metricType, int countDays) {
+		LocalDate today = LocalDate.now();
+
+		// Prepare map with all dates
+		Map<String, Long> stats = new TreeMap<String, Long>();
+		for (int i = 0; i <= countDays; i++) {
+			stats.put(today.minusDays(i).toString(), 0L);
+		}
+
+		DailyRollup rollup = rollups.get(metricType);
+		if (rollup != null) {
+			for (Map.Entry<String, Long> entry : rollup.getDailyCounts().tailMap(today.minusDays(countDays).toString())
+					.entrySet()) {
+				if (stats.containsKey(entry.getKey())) {
+					stats.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+
+		return stats;
+	}
+
+	/**
+	 * @return Sum of counts of last RETENTION_DAYS days and today
+	 */
+	public synchronized long getTotal(MetricType metricType) {
+		DailyRollup rollup = rollups.get(metricType);
+		if (rollup == null) {
+			return 0L;
+		}
+
+		rollup.prune(getFirstRetainedDay());
+		return rollup.getTotal();
+	}
+
+	private String getFirstRetainedDay() {
+		return LocalDate.now().minusDays(RETENTION_DAYS).toString();
+	}
+
+	private static String getDay(long time) {
+		return Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault()).toLocalDate().toString();
+	}
+
+	private File getRollupFile() {
+		String defaultRollupFile = System.getProperty("java.io.tmpdir") + File.separator + DEFAULT_ROLLUP_FILE_NAME;
+
+		FileConfiguration baseConfiguration = configurationFactory.getBaseConfiguration();
+		if (baseConfiguration == null) {
+			return new File(defaultRollupFile);
+		}
+
+		return new File(baseConfiguration.getString(ROLLUP_FILE_PROPERTY, defaultRollupFile));
+	}
+
+	private void loadRollups() {
+		File rollupFile = getRollupFile();
+		if (!rollupFile.isFile()) {
+			return;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(rollupFile)))) {
+			int version = in.readInt();
+			if (version != VERSION) {
+				log.info("Ignoring metric rollup '{}' with unsupported version {}", rollupFile, version);
+				return;
+			}
+
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String metricTypeName = in.readUTF();
+				DailyRollup rollup = new DailyRollup();
+				rollup.read(in);
+
+				try {
+					rollups.put(MetricType.valueOf(metricTypeName), rollup);
+				} catch (IllegalArgumentException ex) {
+					log.debug("Ignoring rollup of unknown metric '{}'", metricTypeName);
+				}
+			}
+			log.debug("Loaded metric rollup '{}' with {} metrics", rollupFile, count);
+		} catch (IOException ex) {
+			log.error("Failed to load metric rollup '{}'", rollupFile, ex);
+			rollups.clear();
+		}
+	}
+
+	public synchronized void saveRollups() {
+		File rollupFile = getRollupFile();
+		File tmpFile = new File(rollupFile.getPath() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+			out.writeInt(VERSION);
+			out.writeInt(rollups.size());
+			for (Map.Entry<MetricType, DailyRollup> entry : rollups.entrySet()) {
+				out.writeUTF(entry.getKey().name());
+				entry.getValue().write(out);
+			}
+		} catch (IOException ex) {
+			log.error("Failed to save metric rollup '{}'", rollupFile, ex);
+			return;
+		}
+
+		try {
+			Files.move(tmpFile.toPath(), rollupFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException ex) {
+			log.error("Failed to replace metric rollup '{}'", rollupFile, ex);
+		}
+	}
+
+	/*
+	 * Daily counts of one counter metric and state needed to continue folding
+	 */
+	private static class DailyRollup {
+
+		private TreeMap<String, Long> dailyCounts = new TreeMap<String, Long>();
+		private long total;
+
+		// Creation time and adjusted count of last folded entry
+		private long lastCreationTime = -1;
+		private long lastCount;
+
+		// Value added to counts after last server restart
+		private long adjust;
+
+		// Adjusted count at the end of the day before last folded entry day
+		private long dayStartCount;
+
+		public boolean fold(Date creationDate, long count) {
+			long creationTime = creationDate.getTime();
+			if (creationTime <= lastCreationTime) {
+				return false;
+			}
+
+			boolean first = lastCreationTime == -1;
+
+			// Detect server restarts. Server restart condition: previous entry count >
+			// current entry count
+			if (!first && (lastCount > count + adjust)) {
+				// Last count before server restart
+				adjust = lastCount;
+			}
+			long adjustedCount = count + adjust;
+
+			// Show only difference, not total
+			if (!first && !getDay(lastCreationTime).equals(getDay(creationTime))) {
+				dayStartCount = lastCount;
+			}
+
+			lastCreationTime = creationTime;
+			lastCount = adjustedCount;
+
+			putDailyCount(getDay(creationTime), adjustedCount - dayStartCount);
+
+			return true;
+		}
+
+		private void putDailyCount(String day, long count) {
+			Long previous = dailyCounts.put(day, count);
+			total += count - (previous == null ? 0L : previous);
+		}
+
+		public void prune(String firstRetainedDay) {
+			Map<String, Long> expired = dailyCounts.headMap(firstRetainedDay);
+			for (Long count : expired.values()) {
+				total -= count;
+			}
+			expired.clear();
+		}
+
+		public TreeMap<String, Long> getDailyCounts() {
+			return dailyCounts;
+		}
+
+		public long getTotal() {
+			return total;
+		}
+
+		public long getLastCreationTime() {
+			return lastCreationTime;
+		}
+
+		public void write(DataOutputStream out) throws IOException {
+			out.writeLong(lastCreationTime);
+			out.writeLong(lastCount);
+			out.writeLong(adjust);
+			out.writeLong(dayStartCount);
+
+			List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(dailyCounts.entrySet());
+			out.writeInt(entries.size());
+			for (Map.Entry<String, Long> entry : entries) {
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue());
+			}
+		}
+
+		public void read(DataInputStream in) throws IOException {
+			lastCreationTime = in.readLong();
+			lastCount = in.readLong();
+			adjust = in.readLong();
+			dayStartCount = in.readLong();
+
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				putDailyCount(in.readUTF(), in.readLong());
+			}
+		}
+
+	}
+
+}
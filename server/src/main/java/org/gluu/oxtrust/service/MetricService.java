@@ -17,6 +17,8 @@ import org.gluu.oxtrust.ldap.service.OrganizationService;
 import org.gluu.oxtrust.model.AuthenticationChartDto;
 import org.gluu.oxtrust.util.OxTrustConstants;
 import org.gluu.persist.PersistenceEntryManager;
+import org.gluu.persist.model.SearchScope;
+import org.gluu.search.filter.Filter;
 import org.gluu.service.CacheService;
 import org.gluu.service.metric.inject.ReportMetric;
 import org.slf4j.Logger;
@@ -25,7 +27,6 @@ import javax.ejb.Stateless;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 import javax.inject.Named;
-import java.text.SimpleDateFormat;
 import java.util.*;
 
 /**
@@ -38,12 +39,11 @@ import java.util.*;
 @Named(MetricService.METRIC_SERVICE_COMPONENT_NAME)
 public class MetricService extends org.gluu.service.metric.MetricService {
 
-	private static final int YEARLY = 365;
+	private static final int YEARLY = MetricRollupService.RETENTION_DAYS;
 
 	private static final long serialVersionUID = 7875838160379126796L;
 
 	public static final String METRIC_SERVICE_COMPONENT_NAME = "metricService";
-	private SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd");
 
 	@Inject
 	private Logger log;
@@ -54,6 +54,9 @@ public class MetricService extends org.gluu.service.metric.MetricService {
 	@Inject
 	private CacheService cacheService;
 
+	@Inject
+	private MetricRollupService metricRollupService;
+
 	@Inject
 	private ConfigurationService configurationService;
 
@@ -90,30 +93,14 @@ public class MetricService extends org.gluu.service.metric.MetricService {
 			return authenticationChartDto;
 		}
 
-		Map<MetricType, List<? extends MetricEntry>> entries = findAuthenticationMetrics(ApplicationType.OX_AUTH,
-				-countDays);
-
-		Map<MetricType, List<? extends MetricEntry>> yearlyEntris = findAuthenticationMetrics(ApplicationType.OX_AUTH,
-				-YEARLY);
-		Map<String, Long> yearlySuccessStats = calculateCounterStatistics(YEARLY,
-				(List<CounterMetricEntry>) yearlyEntris.get(MetricType.OXAUTH_USER_AUTHENTICATION_SUCCESS));
-		Long[] yearlyValues = new Long[YEARLY];
-		yearlyValues = yearlySuccessStats.values().toArray(yearlyValues);
-		Long yearlyRequest = 0L;
-		for (Long number : yearlyValues) {
-			yearlyRequest = yearlyRequest + number;
-		}
-		Map<String, Long> yearlyFailureStats = calculateCounterStatistics(YEARLY,
-				(List<CounterMetricEntry>) yearlyEntris.get(MetricType.OXAUTH_USER_AUTHENTICATION_FAILURES));
-		yearlyValues = new Long[YEARLY];
-		yearlyValues = yearlyFailureStats.values().toArray(yearlyValues);
-		for (Long number : yearlyValues) {
-			yearlyRequest = yearlyRequest + number;
-		}
+		rollupAuthenticationMetrics(ApplicationType.OX_AUTH);
+
+		Long yearlyRequest = metricRollupService.getTotal(MetricType.OXAUTH_USER_AUTHENTICATION_SUCCESS)
+				+ metricRollupService.getTotal(MetricType.OXAUTH_USER_AUTHENTICATION_FAILURES);
 
 		String[] labels = new String[countDays];
-		Map<String, Long> successStats = calculateCounterStatistics(countDays,
-				(List<CounterMetricEntry>) entries.get(MetricType.OXAUTH_USER_AUTHENTICATION_SUCCESS));
+		Map<String, Long> successStats = metricRollupService
+				.getDailyCounts(MetricType.OXAUTH_USER_AUTHENTICATION_SUCCESS, countDays);
 		labels = successStats.keySet().toArray(labels);
 
 		Long[] values = new Long[countDays];
@@ -124,8 +111,8 @@ public class MetricService extends org.gluu.service.metric.MetricService {
 		authenticationChartDto.setLabels(labels);
 		authenticationChartDto.setSuccess(values);
 
-		Map<String, Long> failureStats = calculateCounterStatistics(countDays,
-				(List<CounterMetricEntry>) entries.get(MetricType.OXAUTH_USER_AUTHENTICATION_FAILURES));
+		Map<String, Long> failureStats = metricRollupService
+				.getDailyCounts(MetricType.OXAUTH_USER_AUTHENTICATION_FAILURES, countDays);
 		values = new Long[countDays];
 		values = failureStats.values().toArray(values);
 		authenticationChartDto.setFailure(values);
@@ -137,93 +124,64 @@ public class MetricService extends org.gluu.service.metric.MetricService {
 		return authenticationChartDto;
 	}
 
-	private Map<MetricType, List<? extends MetricEntry>> findAuthenticationMetrics(ApplicationType applicationType,
-			int countDays) {
+	/*
+	 * Folds raw authentication counters reported after last rollup into daily
+	 * aggregates. Only first rollup loads whole year of entries
+	 */
+	private void rollupAuthenticationMetrics(ApplicationType applicationType) {
 		List<MetricType> metricTypes = new ArrayList<MetricType>();
 		metricTypes.add(MetricType.OXAUTH_USER_AUTHENTICATION_FAILURES);
 		metricTypes.add(MetricType.OXAUTH_USER_AUTHENTICATION_SUCCESS);
 
 		Date endDate = new Date();
 		Calendar calendar = Calendar.getInstance();
-		calendar.add(Calendar.DATE, countDays);
+		calendar.add(Calendar.DATE, -YEARLY);
 
-		Date startDate = calendar.getTime();
+		Date startDate = metricRollupService.getRollupStartDate(metricTypes, calendar.getTime());
 
 		Map<MetricType, List<? extends MetricEntry>> entries = findMetricEntry(applicationType, metricTypes, startDate, endDate);
-
-		return entries;
-	}
-
-	private Map<String, Long> calculateCounterStatistics(int countDays, List<CounterMetricEntry> metrics) {
-		// Prepare map with all dates
-		Map<String, Long> stats = new TreeMap<String, Long>();
-		Calendar calendar = Calendar.getInstance();
-		for (int i = 0; i <= countDays; i++) {
-			String dateString = df.format(calendar.getTime());
-			stats.put(dateString, 0L);
-			calendar.add(Calendar.DATE, -1);
-		}
-
-		if ((metrics == null) || (metrics.size() == 0)) {
-			return stats;
+		for (MetricType metricType : metricTypes) {
+			metricRollupService.fold(metricType, (List<CounterMetricEntry>) entries.get(metricType));
 		}
+		metricRollupService.saveRollups();
+	}
 
-		// Detect servers restart and readjust counts
-		// Server restart condition: previous entry
-		// CounterMetricEntry.CounterMetricEntry.count > current entry
-		// CounterMetricEntry.CounterMetricEntry.count
-		CounterMetricEntry prevMetric = null;
-		long prevDayCount = 0L;
-		long adjust = 0;
-		for (CounterMetricEntry metric : metrics) {
-			Date date = metric.getCreationDate();
-			calendar.setTime(date);
-
-			// Detect server restarts
-			if ((prevMetric != null)
-					&& (prevMetric.getMetricData().getCount() > metric.getMetricData().getCount() + adjust)) {
-				// Last count before server restart
-				long count = prevMetric.getMetricData().getCount();
+	public long countExpiredMetricEntries(Date expirationDate, ApplicationType applicationType) {
+		String baseDn = getDnForApplicationType(applicationType);
+		return ldapEntryManager.countEntries(baseDn, MetricEntry.class, getExpirationFilter(baseDn, expirationDate),
+				SearchScope.SUB);
+	}
 
-				// Change adjust value
-				adjust = count;
+	/**
+	 * Removes one batch of expired metric entries
+	 *
+	 * @return Number of removed entries
+	 */
+	public int removeExpiredMetricEntries(Date expirationDate, ApplicationType applicationType, int batchSize) {
+		String baseDn = getDnForApplicationType(applicationType);
+		List<MetricEntry> metricEntries = ldapEntryManager.findEntries(baseDn, MetricEntry.class,
+				getExpirationFilter(baseDn, expirationDate), SearchScope.SUB, new String[] { "oxStartDate" }, null, 0,
+				batchSize, batchSize);
+
+		int removed = 0;
+		for (MetricEntry metricEntry : metricEntries) {
+			try {
+				ldapEntryManager.remove(metricEntry);
+				removed++;
+			} catch (Exception ex) {
+				log.error("Failed to remove metric entry '{}'", metricEntry.getDn(), ex);
 			}
-
-			long count = metric.getMetricData().getCount();
-			metric.getMetricData().setCount(count + adjust);
-
-			prevMetric = metric;
 		}
 
-		// Iterate through ordered by MetricEntry.startDate list and just make value
-		// snapshot at the end of the day
-		int prevDay = -1;
-		prevMetric = null;
-		prevDayCount = 0L;
-		for (CounterMetricEntry metric : metrics) {
-			Date date = metric.getCreationDate();
-			calendar.setTime(date);
-
-			int currDay = calendar.get(Calendar.DAY_OF_MONTH);
-			if ((prevMetric != null) && (prevDay != currDay)) {
-				long count = prevMetric.getMetricData().getCount();
-				String dateString = df.format(prevMetric.getCreationDate());
-				stats.put(dateString, count - prevDayCount);
-
-				// Show only difference, not total
-				prevDayCount = count;
-			}
-
-			prevMetric = metric;
-			prevDay = currDay;
-		}
+		return removed;
+	}
 
-		// Add last day statistic
-		long count = prevMetric.getMetricData().getCount();
-		String dateString = df.format(prevMetric.getCreationDate());
-		stats.put(dateString, count - prevDayCount);
+	private Filter getExpirationFilter(String baseDn, Date expirationDate) {
+		return Filter.createLessOrEqualFilter("oxStartDate", ldapEntryManager.encodeTime(baseDn, expirationDate));
+	}
 
-		return stats;
+	private String getDnForApplicationType(ApplicationType applicationType) {
+		return String.format("ou=%s,%s", applicationType.getValue(), baseDn());
 	}
 
 	@Override
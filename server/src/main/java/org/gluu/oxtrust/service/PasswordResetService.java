@@ -19,7 +19,6 @@ import org.gluu.oxtrust.ldap.service.OrganizationService;
 import org.gluu.oxtrust.model.PasswordResetRequest;
 import org.gluu.persist.PersistenceEntryManager;
 import org.gluu.persist.model.BatchOperation;
-import org.gluu.persist.model.ProcessBatchOperation;
 import org.gluu.persist.model.SearchScope;
 import org.gluu.persist.model.base.SimpleBranch;
 import org.gluu.search.filter.Filter;
@@ -176,28 +175,40 @@ public class PasswordResetService implements Serializable {
 		return passwordResetRequests;
 	}
 
-	public void cleanup(final Date expirationDate) {
+	public long countExpiredPasswordResetRequests(Date expirationDate) {
+		final String baseDn = getDnForPasswordResetRequest(null);
+		Filter expirationFilter = Filter.createLessOrEqualFilter("creationDate",
+				ldapEntryManager.encodeTime(baseDn, expirationDate));
+
+		return ldapEntryManager.countEntries(baseDn, PasswordResetRequest.class, expirationFilter, SearchScope.SUB);
+	}
+
+	/**
+	 * Removes one batch of expired password reset requests
+	 * 
+	 * @return Number of removed requests
+	 */
+	public int cleanup(final Date expirationDate, int batchSize) {
 		logger.addNewLogLine("Start actual password reset clean up with expiration date: " + expirationDate);
-		BatchOperation<PasswordResetRequest> passwordResetRequestBatchService = new ProcessBatchOperation<PasswordResetRequest>() {
-			@Override
-			public void performAction(List<PasswordResetRequest> entries) {
-				for (PasswordResetRequest passwordResetRequest : entries) {
-					try {
-						log.debug("Removing PasswordResetRequest: {}, Creation date: {}",
-								passwordResetRequest.getOxGuid(), passwordResetRequest.getCreationDate());
-						logger.addNewLogLine("Removing PasswordResetRequest" + passwordResetRequest.getOxGuid()
-								+ " , create date :" + passwordResetRequest.getCreationDate());
-						removePasswordResetRequest(passwordResetRequest);
-					} catch (Exception ex) {
-						log.error("Failed to remove entry", ex);
-					}
-				}
+		List<PasswordResetRequest> passwordResetRequests = getExpiredPasswordResetRequests(null, expirationDate,
+				new String[] { "oxGuid", "creationDate" }, batchSize, batchSize);
+
+		int removed = 0;
+		for (PasswordResetRequest passwordResetRequest : passwordResetRequests) {
+			try {
+				log.debug("Removing PasswordResetRequest: {}, Creation date: {}", passwordResetRequest.getOxGuid(),
+						passwordResetRequest.getCreationDate());
+				logger.addNewLogLine("Removing PasswordResetRequest" + passwordResetRequest.getOxGuid()
+						+ " , create date :" + passwordResetRequest.getCreationDate());
+				removePasswordResetRequest(passwordResetRequest);
+				removed++;
+			} catch (Exception ex) {
+				log.error("Failed to remove entry", ex);
 			}
-		};
-
-		getExpiredPasswordResetRequests(passwordResetRequestBatchService, expirationDate,
-				new String[] { "oxGuid", "creationDate" }, 0, CleanerTimer.BATCH_SIZE);
+		}
 		logger.addNewLogLine("Password reset clean up done at: " + new Date());
+
+		return removed;
 	}
 
 	/**
@@ -25,7 +25,9 @@ import org.gluu.util.Pair;
 
 import javax.lang.model.type.NullType;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -35,6 +37,8 @@ public class FilterListener extends ScimFilterBaseListener {
 
     private Logger log = LogManager.getLogger(getClass());
     private Deque<Filter> filter;
+    private Deque<FilterTemplate.Node> templateNodes;
+    private List<String> literals;
     private Class<? extends BaseScimResource> resourceClass;
     private String error;
     private SubFilterGenerator subFilterGenerator;
@@ -42,7 +46,8 @@ public class FilterListener extends ScimFilterBaseListener {
 
     public FilterListener(Class<? extends BaseScimResource> resourceClass, boolean ldapBackend) {
         filter = new ArrayDeque<>();
-        extService = CdiUtil.bean(ExtensionService.class);
+        templateNodes = new ArrayDeque<>();
+        literals = new ArrayList<>();
         this.resourceClass = resourceClass;
 
         subFilterGenerator =  new SubFilterGenerator(ldapBackend);
@@ -67,6 +72,10 @@ public class FilterListener extends ScimFilterBaseListener {
             boolean multiValued = false;
 
             if (attrAnnot == null) {
+                //Looked up only when needed, filters on core attributes don't require CDI
+                if (extService == null) {
+                    extService = CdiUtil.bean(ExtensionService.class);
+                }
                 ExtensionField field = extService.getFieldOfExtendedAttribute(resourceClass, path);
 
                 if (field == null) {
@@ -116,6 +125,14 @@ public class FilterListener extends ScimFilterBaseListener {
                         }
                     } else {
                         filter.push(subFilth);
+
+                        int literalIndex = -1;
+                        if (!isPrRule && !type.equals(CompValueType.NULL)) {
+                            literalIndex = literals.size();
+                            literals.add(compValueCtx.getText());
+                        }
+                        templateNodes.push(new FilterTemplate.AttributeNode(path, subattr, ldapAttribute, attrType, type,
+                                operator, multiValued, literalIndex));
                     }
                 }
             }
@@ -125,24 +142,44 @@ public class FilterListener extends ScimFilterBaseListener {
     @Override
     public void exitAndFilter(ScimFilterParser.AndFilterContext ctx) {
         filter.push(Filter.createANDFilter(filter.poll(), filter.poll()));
+        templateNodes.push(new FilterTemplate.AndNode(templateNodes.poll(), templateNodes.poll()));
     }
 
     @Override
     public void exitNegatedFilter(ScimFilterParser.NegatedFilterContext ctx) {
         if (ctx.getText().startsWith("not(")) {
             filter.push(Filter.createNOTFilter(filter.poll()));
+            templateNodes.push(new FilterTemplate.NotNode(templateNodes.poll()));
         }
     }
 
     @Override
     public void exitOrFilter(ScimFilterParser.OrFilterContext ctx) {
         filter.push(Filter.createORFilter(filter.poll(), filter.poll()));
+        templateNodes.push(new FilterTemplate.OrNode(templateNodes.poll(), templateNodes.poll()));
     }
 
     public String getError() {
         return error;
     }
 
+    /**
+     * Comparison values found, in the same order they appear in filter text
+     */
+    public List<String> getLiterals() {
+        return literals;
+    }
+
+    /**
+     * Template of the filter computed or null if there was an error
+     */
+    public FilterTemplate getTemplate() {
+        if (StringUtils.isEmpty(error) && templateNodes.size() == 1) {
+            return new FilterTemplate(templateNodes.peek(), literals.size());
+        }
+        return null;
+    }
+
     public Filter getFilter() {
         if (StringUtils.isEmpty(error)) {
             Filter f = filter.poll();
@@ -0,0 +1,246 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+package org.gluu.oxtrust.service.antlr.scimFilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.gluu.oxtrust.model.scim2.AttributeDefinition.Type;
+import org.gluu.oxtrust.service.antlr.scimFilter.enums.CompValueType;
+import org.gluu.oxtrust.service.antlr.scimFilter.enums.ScimOperator;
+import org.gluu.search.filter.Filter;
+import org.gluu.util.Pair;
+
+/**
+ * Compiled shape of a SCIM filter. It keeps the structure computed by {@link FilterListener} with comparison values
+ * taken out, so filters which differ only in their literals are built without ANTLR parsing and tree walking
+ */
+public class FilterTemplate {
+
+    private static final String STRING_PLACEHOLDER = "?s";
+    private static final String NUMBER_PLACEHOLDER = "?n";
+    private static final String BOOLEAN_PLACEHOLDER = "?b";
+
+    private static final Set<String> COMPARE_OPERATORS = new HashSet<>(
+            Arrays.asList("eq", "ne", "co", "sw", "ew", "gt", "lt", "ge", "le"));
+    private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?");
+    //Same as STRING rule of ScimFilter.g4, so literals which would not be accepted by the parser are not templated
+    private static final Pattern STRING = Pattern.compile(
+            "\"([\\u0020-\\u0021\\u0023-\\u005B\\u005D-\\uFFFF]|\\\\u[a-fA-F0-9]{4}|\\\\[\"\\\\/bfnrt])*\"");
+
+    private final Node root;
+    private final int literalCount;
+
+    FilterTemplate(Node root, int literalCount) {
+        this.root = root;
+        this.literalCount = literalCount;
+    }
+
+    public int getLiteralCount() {
+        return literalCount;
+    }
+
+    /**
+     * Builds a new filter using the literals passed (in the same order they appear in filter text)
+     */
+    public Filter instantiate(List<String> literals, boolean ldapBackend) throws Exception {
+
+        if (literals.size() != literalCount)
+            throw new IllegalArgumentException(String.format("Expected %d literals, got %d", literalCount, literals.size()));
+
+        return root.build(literals, new SubFilterGenerator(ldapBackend));
+
+    }
+
+    /**
+     * Splits a preprocessed filter into normalized text, where literals are replaced by typed placeholders and
+     * whitespace is collapsed, and the list of literals. Returns null if the filter can't be split reliably
+     */
+    public static Shape getShape(String filter) {
+
+        StringBuilder text = new StringBuilder();
+        List<String> literals = new ArrayList<>();
+        String previousWord = null;
+
+        int n = filter.length();
+        int i = 0;
+        while (i < n) {
+            char c = filter.charAt(i);
+
+            if (c == '"') {
+                int j = i + 1;
+                while (j < n && filter.charAt(j) != '"') {
+                    j += filter.charAt(j) == '\\' ? 2 : 1;
+                }
+                if (j >= n)
+                    return null;    //Unterminated string, let the parser report it
+
+                String literal = filter.substring(i, j + 1);
+                if (!STRING.matcher(literal).matches())
+                    return null;
+
+                literals.add(literal);
+                text.append(STRING_PLACEHOLDER);
+                previousWord = null;
+                i = j + 1;
+            } else if (Character.isWhitespace(c)) {
+                while (i < n && Character.isWhitespace(filter.charAt(i))) {
+                    i++;
+                }
+                text.append(' ');
+            } else if (c == '(' || c == ')') {
+                text.append(c);
+                previousWord = null;
+                i++;
+            } else {
+                int j = i;
+                while (j < n && !Character.isWhitespace(filter.charAt(j)) && "()\"".indexOf(filter.charAt(j)) == -1) {
+                    j++;
+                }
+                String word = filter.substring(i, j);
+                if (word.indexOf('?') != -1)
+                    return null;
+
+                if (previousWord != null && COMPARE_OPERATORS.contains(previousWord) && NUMBER.matcher(word).matches()) {
+                    literals.add(word);
+                    text.append(NUMBER_PLACEHOLDER);
+                } else if (previousWord != null && COMPARE_OPERATORS.contains(previousWord)
+                        && (word.equals("true") || word.equals("false"))) {
+                    literals.add(word);
+                    text.append(BOOLEAN_PLACEHOLDER);
+                } else {
+                    text.append(word);
+                }
+                previousWord = word;
+                i = j;
+            }
+        }
+
+        return new Shape(text.toString().trim(), literals);
+
+    }
+
+    public static class Shape {
+
+        private final String text;
+        private final List<String> literals;
+
+        Shape(String text, List<String> literals) {
+            this.text = text;
+            this.literals = Collections.unmodifiableList(literals);
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public List<String> getLiterals() {
+            return literals;
+        }
+
+    }
+
+    interface Node {
+        Filter build(List<String> literals, SubFilterGenerator generator) throws Exception;
+    }
+
+    /*
+     * Atomic expression. All parameters except the comparison value were computed by FilterListener
+     */
+    static class AttributeNode implements Node {
+
+        private final String path;
+        private final String subAttribute;
+        private final String attribute;
+        private final Type attrType;
+        private final CompValueType type;
+        private final ScimOperator operator;
+        private final boolean multiValued;
+        //Index of comparison value in literals or -1 for 'pr' and null comparisons (value is not used for them)
+        private final int literalIndex;
+
+        AttributeNode(String path, String subAttribute, String attribute, Type attrType, CompValueType type,
+                      ScimOperator operator, boolean multiValued, int literalIndex) {
+            this.path = path;
+            this.subAttribute = subAttribute;
+            this.attribute = attribute;
+            this.attrType = attrType;
+            this.type = type;
+            this.operator = operator;
+            this.multiValued = multiValued;
+            this.literalIndex = literalIndex;
+        }
+
+        public Filter build(List<String> literals, SubFilterGenerator generator) throws Exception {
+
+            String compValue = literalIndex == -1 ? null : literals.get(literalIndex);
+            Pair<Filter, String> subf = generator.build(subAttribute, attribute, compValue, attrType, type, operator, multiValued);
+
+            if (subf.getFirst() == null) {
+                String error = subf.getSecond();
+                if (error == null) {
+                    error = String.format("Operator '%s' is not supported for attribute %s", operator.getValue(), path);
+                }
+                throw new Exception("An error occurred when building LDAP filter: " + error);
+            }
+            return subf.getFirst();
+
+        }
+
+    }
+
+    static class AndNode implements Node {
+
+        private final Node first;
+        private final Node second;
+
+        AndNode(Node first, Node second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        public Filter build(List<String> literals, SubFilterGenerator generator) throws Exception {
+            return Filter.createANDFilter(first.build(literals, generator), second.build(literals, generator));
+        }
+
+    }
+
+    static class OrNode implements Node {
+
+        private final Node first;
+        private final Node second;
+
+        OrNode(Node first, Node second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        public Filter build(List<String> literals, SubFilterGenerator generator) throws Exception {
+            return Filter.createORFilter(first.build(literals, generator), second.build(literals, generator));
+        }
+
+    }
+
+    static class NotNode implements Node {
+
+        private final Node node;
+
+        NotNode(Node node) {
+            this.node = node;
+        }
+
+        public Filter build(List<String> literals, SubFilterGenerator generator) throws Exception {
+            return Filter.createNOTFilter(node.build(literals, generator));
+        }
+
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+package org.gluu.oxtrust.service.antlr.scimFilter;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gluu.oxtrust.model.scim2.AttributeDefinition.Type;
+import org.gluu.oxtrust.model.scim2.BaseScimResource;
+import org.gluu.oxtrust.model.scim2.annotations.Attribute;
+import org.gluu.oxtrust.model.scim2.util.IntrospectUtil;
+import org.gluu.oxtrust.service.antlr.scimFilter.antlr4.ScimFilterBaseVisitor;
+import org.gluu.oxtrust.service.antlr.scimFilter.antlr4.ScimFilterParser;
+import org.gluu.oxtrust.service.antlr.scimFilter.enums.CompValueType;
+import org.gluu.oxtrust.service.antlr.scimFilter.enums.ScimOperator;
+import org.gluu.oxtrust.service.antlr.scimFilter.util.FilterUtil;
+import org.joda.time.DateTime;
+
+/**
+ * Turns the parse tree of a filter into a predicate over the items of a complex multi-valued attribute. Attribute
+ * types and comparison values are resolved once here, so the predicate can be tested against any number of items.
+ * Expressions that can't be evaluated (unknown attribute, operator not applicable to attribute type, etc.) fail with an
+ * exception when tested
+ */
+public class MatchFilterCompiler extends ScimFilterBaseVisitor<Predicate<Map<String, Object>>> {
+
+    private Logger log = LogManager.getLogger(getClass());
+    private String parentAttribute;
+    private Class<? extends BaseScimResource> resourceClass;
+
+    public MatchFilterCompiler(String parentAttribute, Class<? extends BaseScimResource> resourceClass) {
+        this.parentAttribute = parentAttribute;
+        this.resourceClass = resourceClass;
+    }
+
+    @Override
+    public Predicate<Map<String, Object>> visitNegatedFilter(ScimFilterParser.NegatedFilterContext ctx) {
+        Predicate<Map<String, Object>> predicate = visit(ctx.filter());
+        return ctx.getText().startsWith("not(") ? predicate.negate() : predicate;
+    }
+
+    @Override
+    public Predicate<Map<String, Object>> visitOrFilter(ScimFilterParser.OrFilterContext ctx) {
+        return visit(ctx.getChild(0)).or(visit(ctx.getChild(2)));
+    }
+
+    @Override
+    public Predicate<Map<String, Object>> visitAndFilter(ScimFilterParser.AndFilterContext ctx) {
+        return visit(ctx.getChild(0)).and(visit(ctx.getChild(2)));
+    }
+
+    @Override
+    public Predicate<Map<String, Object>> visitAttrexp(ScimFilterParser.AttrexpContext ctx) {
+
+        String attribute = ctx.attrpath().getText();
+        ScimFilterParser.CompvalueContext compValueCtx = ctx.compvalue();
+
+        if (compValueCtx == null && ctx.getChild(1).getText().equals("pr"))
+            return compile(attribute, ScimOperator.NOT_EQUAL, CompValueType.NULL, null);
+
+        ScimOperator operator = ScimOperator.getByValue(ctx.compareop().getText());
+        CompValueType valueType = FilterUtil.getCompValueType(compValueCtx);
+        String value = compValueCtx.getText();
+
+        if (CompValueType.STRING.equals(valueType)) //drop double quotes
+            value = value.substring(1, value.length() - 1);
+
+        return compile(attribute, operator, valueType, value);
+
+    }
+
+    private Predicate<Map<String, Object>> compile(String attribute, ScimOperator operator, CompValueType valueType, String value) {
+
+        String attr = StringUtils.isEmpty(parentAttribute) ? attribute : parentAttribute + "." + attribute;
+        Attribute attrAnnot = IntrospectUtil.getFieldAnnotation(attr,
+                resourceClass == null ? BaseScimResource.class : resourceClass, Attribute.class);
+
+        if (attrAnnot == null)
+            return new Failure(String.format("Could not determine type of attribute '%s'", attr));
+
+        Type attrType = attrAnnot.type();
+        String errMsg = FilterUtil.checkFilterConsistency(attribute, attrType, valueType, operator);
+        if (errMsg != null)
+            return new Failure(errMsg);
+
+        log.trace("MatchFilterCompiler.compile. Attribute {} of type {}, operator {}", attr, attrType, operator.getValue());
+
+        if (CompValueType.NULL.equals(valueType)) {
+            boolean present = !operator.equals(ScimOperator.EQUAL);
+            return item -> (item.get(attribute) != null) == present;
+        }
+
+        switch (attrType) {
+            case STRING:
+            case REFERENCE:
+                return new StringComparison(attribute, operator, attrAnnot.isCaseExact(), value);
+            case INTEGER:
+            case DECIMAL:
+                if (operator.equals(ScimOperator.CONTAINS) || operator.equals(ScimOperator.STARTS_WITH) || operator.equals(ScimOperator.ENDS_WITH))
+                    break;
+                return new NumericComparison(attribute, operator, new BigDecimal(value));
+            case BOOLEAN:
+                if (!operator.equals(ScimOperator.EQUAL) && !operator.equals(ScimOperator.NOT_EQUAL))
+                    break;
+                boolean equal = operator.equals(ScimOperator.EQUAL);
+                boolean compareAgainst = Boolean.valueOf(value);
+                return item -> {
+                    Object currentValue = item.get(attribute);
+                    return currentValue != null && (Boolean.valueOf(currentValue.toString()) == compareAgainst) == equal;
+                };
+            case DATETIME:
+                if (operator.equals(ScimOperator.CONTAINS) || operator.equals(ScimOperator.STARTS_WITH) || operator.equals(ScimOperator.ENDS_WITH))
+                    break;
+                try {
+                    return new DateTimeComparison(attribute, operator, new DateTime(value).getMillis());
+                } catch (Exception e) {
+                    return new Failure("Date not in ISO format: " + value);
+                }
+            default:
+                return new Failure(String.format("Attribute '%s' can't be compared", attr));
+        }
+        return new Failure(FilterUtil.getOperatorInconsistencyError(operator.getValue(), attrType.toString(), attribute));
+
+    }
+
+    /*
+     * Expression which can't be evaluated. Error is raised only if the expression is actually tested
+     */
+    private static class Failure implements Predicate<Map<String, Object>> {
+
+        private final String error;
+
+        Failure(String error) {
+            this.error = error;
+        }
+
+        public boolean test(Map<String, Object> item) {
+            throw new IllegalArgumentException(error);
+        }
+
+    }
+
+    private static class StringComparison implements Predicate<Map<String, Object>> {
+
+        private final String attribute;
+        private final ScimOperator operator;
+        private final boolean caseExact;
+        private final String compareAgainst;
+
+        StringComparison(String attribute, ScimOperator operator, boolean caseExact, String value) {
+            this.attribute = attribute;
+            this.operator = operator;
+            this.caseExact = caseExact;
+            this.compareAgainst = caseExact ? value : value.toLowerCase();
+        }
+
+        public boolean test(Map<String, Object> item) {
+
+            Object currentValue = item.get(attribute);
+            if (currentValue == null)
+                return false;
+
+            String valueInItem = caseExact ? currentValue.toString() : currentValue.toString().toLowerCase();
+            switch (operator) {
+                case EQUAL:
+                    return valueInItem.equals(compareAgainst);
+                case NOT_EQUAL:
+                    return !valueInItem.equals(compareAgainst);
+                case CONTAINS:
+                    return valueInItem.contains(compareAgainst);
+                case STARTS_WITH:
+                    return valueInItem.startsWith(compareAgainst);
+                case ENDS_WITH:
+                    return valueInItem.endsWith(compareAgainst);
+                case GREATER_THAN:
+                    return valueInItem.compareTo(compareAgainst) > 0;
+                case GREATER_THAN_OR_EQUAL:
+                    return valueInItem.compareTo(compareAgainst) >= 0;
+                case LESS_THAN:
+                    return valueInItem.compareTo(compareAgainst) < 0;
+                default:
+                    return valueInItem.compareTo(compareAgainst) <= 0;
+            }
+
+        }
+
+    }
+
+    private static class NumericComparison implements Predicate<Map<String, Object>> {
+
+        private final String attribute;
+        private final ScimOperator operator;
+        private final BigDecimal compareAgainst;
+
+        NumericComparison(String attribute, ScimOperator operator, BigDecimal compareAgainst) {
+            this.attribute = attribute;
+            this.operator = operator;
+            this.compareAgainst = compareAgainst;
+        }
+
+        public boolean test(Map<String, Object> item) {
+
+            Object currentValue = item.get(attribute);
+            if (currentValue == null)
+                return false;
+
+            BigDecimal valueInItem = new BigDecimal(currentValue.toString());
+            //equals (not compareTo) for equality, so 1.0 and 1 are different values as with the visitor
+            switch (operator) {
+                case EQUAL:
+                    return valueInItem.equals(compareAgainst);
+                case NOT_EQUAL:
+                    return !valueInItem.equals(compareAgainst);
+                case GREATER_THAN:
+                    return valueInItem.compareTo(compareAgainst) > 0;
+                case GREATER_THAN_OR_EQUAL:
+                    return valueInItem.equals(compareAgainst) || valueInItem.compareTo(compareAgainst) > 0;
+                case LESS_THAN:
+                    return valueInItem.compareTo(compareAgainst) < 0;
+                default:
+                    return valueInItem.equals(compareAgainst) || valueInItem.compareTo(compareAgainst) < 0;
+            }
+
+        }
+
+    }
+
+    private static class DateTimeComparison implements Predicate<Map<String, Object>> {
+
+        private final String attribute;
+        private final ScimOperator operator;
+        private final long compareAgainst;
+
+        DateTimeComparison(String attribute, ScimOperator operator, long compareAgainst) {
+            this.attribute = attribute;
+            this.operator = operator;
+            this.compareAgainst = compareAgainst;
+        }
+
+        public boolean test(Map<String, Object> item) {
+
+            Object currentValue = item.get(attribute);
+            if (currentValue == null)
+                return false;
+
+            long valueInItem;
+            try {
+                valueInItem = new DateTime(currentValue.toString()).getMillis();
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Date not in ISO format: " + currentValue, e);
+            }
+            switch (operator) {
+                case EQUAL:
+                    return valueInItem == compareAgainst;
+                case NOT_EQUAL:
+                    return valueInItem != compareAgainst;
+                case GREATER_THAN:
+                    return valueInItem > compareAgainst;
+                case GREATER_THAN_OR_EQUAL:
+                    return valueInItem >= compareAgainst;
+                case LESS_THAN:
+                    return valueInItem < compareAgainst;
+                default:
+                    return valueInItem <= compareAgainst;
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+package org.gluu.oxtrust.service.antlr.scimFilter;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Named;
+
+import org.gluu.oxtrust.model.scim2.BaseScimResource;
+import org.gluu.oxtrust.service.cdi.event.EventType;
+import org.gluu.oxtrust.service.cdi.event.Events;
+
+/**
+ * Bounded caches of compiled SCIM filters. Filter texts already seen are mapped to their template and literals;
+ * templates are shared by all filters with the same shape. Filters are always built anew from templates, so callers
+ * never share {@link org.gluu.search.filter.Filter} instances. Predicates used to match items of complex multi-valued
+ * attributes in memory are cached as well; they are stateless and can be shared. Compiled filters depend on attribute
+ * definitions (e.g. of extensions, which can be changed at runtime), so entries expire after one minute like
+ * projection plans of serializer
+ */
+@ApplicationScoped
+@Named
+public class ScimFilterCache {
+
+    private static final int MAX_FILTERS = 1000;
+    private static final int MAX_TEMPLATES = 200;
+    private static final int MAX_PREDICATES = 200;
+    private static final long EXPIRATION = 60 * 1000;
+
+    private final ExpiringLruMap<CompiledFilter> filters = new ExpiringLruMap<>(MAX_FILTERS, EXPIRATION);
+    private final ExpiringLruMap<FilterTemplate> templates = new ExpiringLruMap<>(MAX_TEMPLATES, EXPIRATION);
+    private final ExpiringLruMap<Predicate<Map<String, Object>>> predicates = new ExpiringLruMap<>(MAX_PREDICATES, EXPIRATION);
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong templateHitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public String getKey(Class<? extends BaseScimResource> clazz, boolean ldapBackend, String filter) {
+        return clazz.getName() + (ldapBackend ? "|ldap|" : "|other|") + filter;
+    }
+
+    public CompiledFilter getFilter(String key) {
+        CompiledFilter compiledFilter = filters.get(key);
+        if (compiledFilter != null) {
+            hitCount.incrementAndGet();
+        }
+        return compiledFilter;
+    }
+
+    public void putFilter(String key, CompiledFilter compiledFilter) {
+        filters.put(key, compiledFilter);
+    }
+
+    public FilterTemplate getTemplate(String key) {
+        FilterTemplate template = templates.get(key);
+        if (template == null) {
+            missCount.incrementAndGet();
+        } else {
+            templateHitCount.incrementAndGet();
+        }
+        return template;
+    }
+
+    public void putTemplate(String key, FilterTemplate template) {
+        templates.put(key, template);
+    }
+
+    public Predicate<Map<String, Object>> getPredicate(String key) {
+        return predicates.get(key);
+    }
+
+    public void putPredicate(String key, Predicate<Map<String, Object>> predicate) {
+        predicates.put(key, predicate);
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Number of filters which were not seen before but whose shape was already compiled
+     */
+    public long getTemplateHitCount() {
+        return templateHitCount.get();
+    }
+
+    /**
+     * Number of filters which had to be parsed with ANTLR
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public static class CompiledFilter {
+
+        private final FilterTemplate template;
+        private final List<String> literals;
+
+        public CompiledFilter(FilterTemplate template, List<String> literals) {
+            this.template = template;
+            this.literals = literals;
+        }
+
+        public FilterTemplate getTemplate() {
+            return template;
+        }
+
+        public List<String> getLiterals() {
+            return literals;
+        }
+
+    }
+
+    /**
+     * Removes all cached filters after attribute definitions were changed on this node. Changes made on other nodes
+     * are picked up when entries expire
+     */
+    public void clear(@Observes @EventType(Events.EVENT_CLEAR_ATTRIBUTES) Events event) {
+        filters.clear();
+        templates.clear();
+        predicates.clear();
+    }
+
+    /*
+     * LRU map whose values expire after given time since they were put
+     */
+    private static class ExpiringLruMap<V> {
+
+        private final long expiration;
+        private final Map<String, CacheEntry<V>> entries;
+
+        ExpiringLruMap(int maxSize, long expiration) {
+            this.expiration = expiration;
+            this.entries = new LinkedHashMap<String, CacheEntry<V>>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = -3461728916235783458L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<V>> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        synchronized V get(String key) {
+            CacheEntry<V> entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() - entry.creationTime > expiration) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.value;
+        }
+
+        synchronized void put(String key, V value) {
+            entries.put(key, new CacheEntry<V>(value, System.currentTimeMillis()));
+        }
+
+        synchronized void clear() {
+            entries.clear();
+        }
+
+    }
+
+    private static class CacheEntry<V> {
+
+        private final V value;
+        private final long creationTime;
+
+        CacheEntry(V value, long creationTime) {
+            this.value = value;
+            this.creationTime = creationTime;
+        }
+
+    }
+
+}
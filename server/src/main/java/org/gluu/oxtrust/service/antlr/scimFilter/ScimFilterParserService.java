@@ -6,6 +6,7 @@
 package org.gluu.oxtrust.service.antlr.scimFilter;
 
 import java.util.Map;
+import java.util.function.Predicate;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -39,6 +40,9 @@ public class ScimFilterParserService {
     @Inject
     private PersistanceFactoryService persistenceFactoryService;
 
+    @Inject
+    private ScimFilterCache filterCache;
+
     private boolean ldapBackend;
 
     public boolean isLdapBackend() {
@@ -94,12 +98,21 @@ public class ScimFilterParserService {
             if (StringUtils.isEmpty(filter))
                 ldapFilter=defaultFilter;
             else {
-                FilterListener filterListener = new FilterListener(clazz, ldapBackend);
-                walkTree(FilterUtil.preprocess(filter, clazz), filterListener);
-                ldapFilter = filterListener.getFilter();
-
-                if (ldapFilter == null)
-                    throw new Exception("An error occurred when building LDAP filter: " + filterListener.getError());
+                String key = filterCache.getKey(clazz, ldapBackend, filter);
+                ScimFilterCache.CompiledFilter compiledFilter = filterCache.getFilter(key);
+
+                if (compiledFilter == null) {
+                    compiledFilter = compileFilter(filter, clazz);
+                    if (compiledFilter == null) {
+                        //Shape could not be templated, parse every time
+                        ldapFilter = parseFilter(FilterUtil.preprocess(filter, clazz), clazz).getFilter();
+                        if (ldapFilter == null)
+                            throw new Exception("An error occurred when building LDAP filter");
+                        return ldapFilter;
+                    }
+                    filterCache.putFilter(key, compiledFilter);
+                }
+                ldapFilter = compiledFilter.getTemplate().instantiate(compiledFilter.getLiterals(), ldapBackend);
             }
 
             return ldapFilter;
@@ -110,10 +123,61 @@ public class ScimFilterParserService {
 
     }
 
-    public Boolean complexAttributeMatch(ParseTree parseTree, Map<String, Object> item, String parent, Class<? extends BaseScimResource> clazz) throws Exception {
+    /**
+     * Finds the template for the filter shape, parsing the filter only if the shape was not compiled yet
+     * @return Template and literals of the filter or null if the filter can't be templated
+     */
+    private ScimFilterCache.CompiledFilter compileFilter(String filter, Class<? extends BaseScimResource> clazz) throws Exception {
+
+        String preprocessed = FilterUtil.preprocess(filter, clazz);
+        FilterTemplate.Shape shape = FilterTemplate.getShape(preprocessed);
+        if (shape == null)
+            return null;
+
+        String templateKey = filterCache.getKey(clazz, ldapBackend, shape.getText());
+        FilterTemplate template = filterCache.getTemplate(templateKey);
+
+        if (template == null || template.getLiteralCount() != shape.getLiterals().size()) {
+            FilterListener filterListener = parseFilter(preprocessed, clazz);
+            template = filterListener.getTemplate();
+
+            //Use template only if the parser found the same literals
+            if (template == null || !filterListener.getLiterals().equals(shape.getLiterals()))
+                return null;
+
+            filterCache.putTemplate(templateKey, template);
+        }
+        return new ScimFilterCache.CompiledFilter(template, shape.getLiterals());
+
+    }
+
+    private FilterListener parseFilter(String preprocessed, Class<? extends BaseScimResource> clazz) throws Exception {
+
+        FilterListener filterListener = new FilterListener(clazz, ldapBackend);
+        walkTree(preprocessed, filterListener);
+
+        if (StringUtils.isNotEmpty(filterListener.getError()))
+            throw new Exception("An error occurred when building LDAP filter: " + filterListener.getError());
+        return filterListener;
+
+    }
+
+    /**
+     * Compiles a filter to match items of the complex multi-valued attribute passed. The predicate returned can be
+     * tested against any number of items and is cached
+     * @param filter A preprocessed filter (see {@link FilterUtil#preprocess(String, Class)})
+     */
+    public Predicate<Map<String, Object>> compileMatchFilter(String filter, String parent, Class<? extends BaseScimResource> clazz) throws Exception {
+
+        String key = clazz.getName() + "|match|" + parent + "|" + filter;
+        Predicate<Map<String, Object>> predicate = filterCache.getPredicate(key);
+
+        if (predicate == null) {
+            predicate = new MatchFilterCompiler(parent, clazz).visit(getParseTree(filter));
+            filterCache.putPredicate(key, predicate);
+        }
+        return predicate;
 
-        MatchFilterVisitor matchVisitor=new MatchFilterVisitor(item, parent, clazz);
-        return matchVisitor.visit(parseTree);
     }
 
     @PostConstruct
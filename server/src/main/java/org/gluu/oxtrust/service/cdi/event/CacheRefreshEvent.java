@@ -1,8 +0,0 @@
-package org.gluu.oxtrust.service.cdi.event;
-
-/**
- * @author Yuriy Movchan Date: 05/05/2017
- */
-public class CacheRefreshEvent {
-
-}
@@ -0,0 +1,62 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+package org.gluu.oxtrust.service.scim2;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+
+/**
+ * Shared pool of worker threads used to run independent SCIM operations (e.g. searches of different resource types)
+ * concurrently. Tasks should not depend on request scoped beans since they are not executed in the request thread
+ */
+@ApplicationScoped
+@Named
+public class Scim2ExecutorService {
+
+    private static final int MIN_THREADS = 4;
+
+    @Inject
+    private Logger log;
+
+    private ExecutorService executorService;
+
+    @PostConstruct
+    public void init() {
+
+        int threads = Math.max(MIN_THREADS, Runtime.getRuntime().availableProcessors());
+        final AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "scim2-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executorService = Executors.newFixedThreadPool(threads, threadFactory);
+        log.info("Initialized SCIM worker pool with {} threads", threads);
+
+    }
+
+    public <T> Future<T> submit(Callable<T> task) {
+        return executorService.submit(task);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executorService.shutdownNow();
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+package org.gluu.oxtrust.service.scim2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.oxtrust.ldap.service.IFidoDeviceService;
+import org.gluu.oxtrust.ldap.service.IPersonService;
+import org.gluu.oxtrust.model.fido.GluuCustomFidoDevice;
+import org.gluu.oxtrust.model.scim2.BaseScimResource;
+import org.gluu.oxtrust.model.scim2.Meta;
+import org.gluu.oxtrust.model.scim2.fido.FidoDeviceResource;
+import org.gluu.oxtrust.model.scim2.util.DateUtil;
+import org.gluu.oxtrust.model.scim2.util.ScimResourceUtil;
+import org.gluu.oxtrust.service.antlr.scimFilter.ScimFilterParserService;
+import org.gluu.persist.PersistenceEntryManager;
+import org.gluu.persist.model.PagedResult;
+import org.gluu.persist.model.SortOrder;
+import org.gluu.search.filter.Filter;
+import org.slf4j.Logger;
+
+/**
+ * Business logic of the SCIM service for the resource type "FidoDevice": querying the DB and transforming
+ * GluuCustomFidoDevice into FidoDeviceResource. It does not depend on request scoped beans, so it can be used from
+ * worker threads (see {@link Scim2ExecutorService})
+ */
+@ApplicationScoped
+@Named
+public class Scim2FidoDeviceService {
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private IFidoDeviceService fidoDeviceService;
+
+	@Inject
+	private IPersonService personService;
+
+	@Inject
+	private ScimFilterParserService scimFilterParserService;
+
+	@Inject
+	private PersistenceEntryManager ldapEntryManager;
+
+	private boolean ldapBackend;
+
+	public void transferAttributesToFidoResource(GluuCustomFidoDevice fidoDevice, FidoDeviceResource res, String url, String userId) {
+
+		res.setId(fidoDevice.getId());
+
+		Meta meta = new Meta();
+		meta.setResourceType(ScimResourceUtil.getType(res.getClass()));
+
+		String strDate = fidoDevice.getCreationDate();
+		meta.setCreated(ldapBackend ? DateUtil.generalizedToISOStringDate(strDate) : (strDate + "Z"));
+		meta.setLastModified(fidoDevice.getMetaLastModified());
+		meta.setLocation(fidoDevice.getMetaLocation());
+		if (meta.getLocation() == null)
+			meta.setLocation(url + "/" + fidoDevice.getId());
+
+		res.setMeta(meta);
+
+		// Set values in order of appearance in FidoDeviceResource class
+		res.setUserId(userId);
+		res.setCreationDate(meta.getCreated());
+		res.setApplication(fidoDevice.getApplication());
+		res.setCounter(fidoDevice.getCounter());
+
+		res.setDeviceData(fidoDevice.getDeviceData());
+		res.setDeviceHashCode(fidoDevice.getDeviceHashCode());
+		res.setDeviceKeyHandle(fidoDevice.getDeviceKeyHandle());
+		res.setDeviceRegistrationConf(fidoDevice.getDeviceRegistrationConf());
+
+		strDate = fidoDevice.getLastAccessTime();
+		if (strDate != null) {
+			res.setLastAccessTime(ldapBackend ? DateUtil.generalizedToISOStringDate(strDate) : (strDate + "Z"));
+		}
+		res.setStatus(fidoDevice.getStatus());
+		res.setDisplayName(fidoDevice.getDisplayName());
+		res.setDescription(fidoDevice.getDescription());
+		res.setNickname(fidoDevice.getNickname());
+
+	}
+
+	public PagedResult<BaseScimResource> searchDevices(String userId, String filter, String sortBy, SortOrder sortOrder,
+			int startIndex, int count, String url, int maxCount) throws Exception {
+
+		Filter ldapFilter = scimFilterParserService.createFilter(filter, Filter.createPresenceFilter("oxId"), FidoDeviceResource.class);
+		log.info("Executing search for fido devices using: ldapfilter '{}', sortBy '{}', sortOrder '{}', startIndex '{}', count '{}'",
+				ldapFilter.toString(), sortBy, sortOrder.getValue(), startIndex, count);
+
+		PagedResult<GluuCustomFidoDevice> list;
+		try {
+			list = ldapEntryManager.findPagedEntries(fidoDeviceService.getDnForFidoDevice(userId, null),
+					GluuCustomFidoDevice.class, ldapFilter, null, sortBy, sortOrder, startIndex - 1, count, maxCount);
+		} catch (Exception e) {
+			log.info("Returning an empty listViewReponse");
+			log.error(e.getMessage(), e);
+			list = new PagedResult<>();
+			list.setEntries(new ArrayList<>());
+		}
+		List<BaseScimResource> resources = new ArrayList<>();
+
+		for (GluuCustomFidoDevice device : list.getEntries()) {
+			FidoDeviceResource scimDev = new FidoDeviceResource();
+			transferAttributesToFidoResource(device, scimDev, url, getUserInumFromDN(device.getDn()));
+			resources.add(scimDev);
+		}
+		log.info("Found {} matching entries - returning {}", list.getTotalEntriesCount(), list.getEntries().size());
+
+		PagedResult<BaseScimResource> result = new PagedResult<>();
+		result.setEntries(resources);
+		result.setTotalEntriesCount(list.getTotalEntriesCount());
+
+		return result;
+
+	}
+
+	private String getUserInumFromDN(String deviceDn) {
+		String baseDn = personService.getDnForPerson(null).replaceAll("\\s*", "");
+		deviceDn = deviceDn.replaceAll("\\s*", "").replaceAll("," + baseDn, "");
+		return deviceDn.substring(deviceDn.indexOf("inum=") + 5);
+	}
+
+	@PostConstruct
+	private void init() {
+		ldapBackend = scimFilterParserService.isLdapBackend();
+	}
+
+}
@@ -7,9 +7,14 @@ package org.gluu.oxtrust.service.scim2;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -30,6 +35,7 @@ import org.gluu.oxtrust.model.scim2.user.UserResource;
 import org.gluu.oxtrust.model.scim2.util.ScimResourceUtil;
 import org.gluu.oxtrust.service.antlr.scimFilter.ScimFilterParserService;
 import org.gluu.oxtrust.service.external.ExternalScimService;
+import org.gluu.oxtrust.service.scim2.Scim2MemberCache.CachedMember;
 import org.gluu.persist.PersistenceEntryManager;
 import org.gluu.persist.model.PagedResult;
 import org.gluu.persist.model.SortOrder;
@@ -48,6 +54,10 @@ public class Scim2GroupService implements Serializable {
 	 */
 	private static final long serialVersionUID = 1555887165477267426L;
 
+	private static final int MEMBERS_BATCH_SIZE = 100;
+
+	private static final String[] MEMBER_ATTRIBUTES = new String[] { "inum", "displayName" };
+
 	@Inject
 	private Logger log;
 
@@ -72,6 +82,9 @@ public class Scim2GroupService implements Serializable {
 	@Inject
 	private PersistenceEntryManager ldapEntryManager;
 
+	@Inject
+	private Scim2MemberCache memberCache;
+
 	private void transferAttributesToGroup(GroupResource res, GluuGroup group, String usersUrl) {
 
 		// externalId (so oxTrustExternalId) not part of LDAP schema
@@ -126,6 +139,26 @@ public class Scim2GroupService implements Serializable {
 
 	public void transferAttributesToGroupResource(GluuGroup gluuGroup, GroupResource res, String groupsUrl,
 			String usersUrl) {
+		transferAttributesToGroupResource(gluuGroup, res, true, groupsUrl, usersUrl);
+	}
+
+	/**
+	 * Transfers the info of a GluuGroup to a SCIM GroupResource
+	 * 
+	 * @param fillMembers
+	 *            Whether members have to be transferred. When false (e.g.
+	 *            members were excluded from the response) no user lookups take
+	 *            place
+	 */
+	public void transferAttributesToGroupResource(GluuGroup gluuGroup, GroupResource res, boolean fillMembers,
+			String groupsUrl, String usersUrl) {
+
+		Map<String, CachedMember> resolvedMembers = fillMembers ? findMembers(gluuGroup.getMembers()) : null;
+		transferAttributesToGroupResource(gluuGroup, res, resolvedMembers, groupsUrl, usersUrl);
+	}
+
+	private void transferAttributesToGroupResource(GluuGroup gluuGroup, GroupResource res,
+			Map<String, CachedMember> resolvedMembers, String groupsUrl, String usersUrl) {
 
 		res.setId(gluuGroup.getInum());
 
@@ -142,17 +175,14 @@ public class Scim2GroupService implements Serializable {
 
 		// Transfer members from GluuGroup to GroupResource
 		List<String> memberDNs = gluuGroup.getMembers();
-		if (memberDNs != null) {
+		if (resolvedMembers != null && memberDNs != null) {
 			Set<Member> members = new HashSet<>();
 
 			for (String dn : memberDNs) {
-				GluuCustomPerson person = null;
-				try {
-					person = personService.getPersonByDn(dn);
-				} catch (Exception e) {
+				CachedMember person = resolvedMembers.get(dn);
+				if (person == null) {
 					log.warn("Wrong member entry {} found in group {}", dn, gluuGroup.getDisplayName());
-				}
-				if (person != null) {
+				} else {
 					Member aMember = new Member();
 					aMember.setValue(person.getInum());
 					aMember.setRef(usersUrl + "/" + person.getInum());
@@ -166,6 +196,85 @@ public class Scim2GroupService implements Serializable {
 		}
 	}
 
+	/**
+	 * Finds inum and display name of the users whose DNs are passed. Users not
+	 * found in the member cache are looked up in chunks of MEMBERS_BATCH_SIZE
+	 * inums, with one search per chunk
+	 * 
+	 * @param dns
+	 *            DNs of users
+	 * @return Map of DN to member. DNs of non-existing entries are not part of
+	 *         the map
+	 */
+	private Map<String, CachedMember> findMembers(Collection<String> dns) {
+
+		Map<String, CachedMember> resolvedMembers = new HashMap<>();
+		if (dns == null) {
+			return resolvedMembers;
+		}
+
+		String peopleDn = personService.getDnForPerson(null);
+		Map<String, String> pendingDns = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+		for (String dn : new LinkedHashSet<>(dns)) {
+			CachedMember member = memberCache.get(dn);
+			if (member != null) {
+				resolvedMembers.put(dn, member);
+				continue;
+			}
+
+			String inum = getInumFromDn(dn, peopleDn);
+			if (inum == null) {
+				// Not an entry of people branch, look it up alone
+				try {
+					GluuCustomPerson person = personService.findPersonByDn(dn, MEMBER_ATTRIBUTES);
+					if (person != null) {
+						resolvedMembers.put(dn, memberCache.put(dn, person.getInum(), person.getDisplayName()));
+					}
+				} catch (Exception e) {
+					log.debug("Failed to find member {}: {}", dn, e.getMessage());
+				}
+			} else {
+				pendingDns.put(inum, dn);
+				if (pendingDns.size() == MEMBERS_BATCH_SIZE) {
+					findMembersBatch(pendingDns, resolvedMembers);
+					pendingDns.clear();
+				}
+			}
+		}
+
+		if (pendingDns.size() > 0) {
+			findMembersBatch(pendingDns, resolvedMembers);
+		}
+
+		return resolvedMembers;
+	}
+
+	private void findMembersBatch(Map<String, String> dnsByInum, Map<String, CachedMember> resolvedMembers) {
+		try {
+			List<GluuCustomPerson> persons = personService.findPersonsByInums(new ArrayList<>(dnsByInum.keySet()),
+					MEMBER_ATTRIBUTES);
+			for (GluuCustomPerson person : persons) {
+				String dn = dnsByInum.get(person.getInum());
+				if (dn != null) {
+					resolvedMembers.put(dn, memberCache.put(dn, person.getInum(), person.getDisplayName()));
+				}
+			}
+		} catch (Exception e) {
+			log.error("Failed to find members by inum", e);
+		}
+	}
+
+	private String getInumFromDn(String dn, String peopleDn) {
+		int comma = dn.indexOf(',');
+		if ((comma > 5) && dn.regionMatches(true, 0, "inum=", 0, 5)
+				&& dn.substring(comma + 1).trim().equalsIgnoreCase(peopleDn)) {
+			return dn.substring(5, comma).trim();
+		}
+
+		return null;
+	}
+
 	/**
 	 * Inserts a new group in LDAP based on the SCIM Resource passed There is no
 	 * need to check attributes mutability in this case as there are no original
@@ -280,6 +389,11 @@ public class Scim2GroupService implements Serializable {
 
 	public PagedResult<BaseScimResource> searchGroups(String filter, String sortBy, SortOrder sortOrder, int startIndex,
 			int count, String groupsUrl, String usersUrl, int maxCount) throws Exception {
+		return searchGroups(filter, sortBy, sortOrder, startIndex, count, groupsUrl, usersUrl, maxCount, true);
+	}
+
+	public PagedResult<BaseScimResource> searchGroups(String filter, String sortBy, SortOrder sortOrder, int startIndex,
+			int count, String groupsUrl, String usersUrl, int maxCount, boolean fillMembers) throws Exception {
 
 		Filter ldapFilter = scimFilterParserService.createFilter(filter, Filter.createPresenceFilter("inum"), GroupResource.class);
 		log.info("Executing search for groups using: ldapfilter '{}', sortBy '{}', sortOrder '{}', startIndex '{}', count '{}'",
@@ -289,9 +403,21 @@ public class Scim2GroupService implements Serializable {
 				GluuGroup.class, ldapFilter, null, sortBy, sortOrder, startIndex - 1, count, maxCount);
 		List<BaseScimResource> resources = new ArrayList<BaseScimResource>();
 
+		// Members of all groups in the page are looked up together
+		Map<String, CachedMember> resolvedMembers = null;
+		if (fillMembers) {
+			List<String> memberDNs = new ArrayList<String>();
+			for (GluuGroup group : list.getEntries()) {
+				if (group.getMembers() != null) {
+					memberDNs.addAll(group.getMembers());
+				}
+			}
+			resolvedMembers = findMembers(memberDNs);
+		}
+
 		for (GluuGroup group : list.getEntries()) {
 			GroupResource scimGroup = new GroupResource();
-			transferAttributesToGroupResource(group, scimGroup, groupsUrl, usersUrl);
+			transferAttributesToGroupResource(group, scimGroup, resolvedMembers, groupsUrl, usersUrl);
 			resources.add(scimGroup);
 		}
 		log.info("Found {} matching entries - returning {}", list.getTotalEntriesCount(), list.getEntries().size());
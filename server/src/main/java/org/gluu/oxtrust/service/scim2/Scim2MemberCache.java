@@ -0,0 +1,78 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+package org.gluu.oxtrust.service.scim2;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Named;
+
+/**
+ * Short-lived cache of the inum and display name of users referenced as members of groups (keyed by user DN). It
+ * saves looking up the same users again and again when groups sharing members are read or searched in a row
+ */
+@ApplicationScoped
+@Named
+public class Scim2MemberCache {
+
+    private static final long EXPIRATION = 30 * 1000;
+    private static final int MAX_ENTRIES = 100000;
+
+    private Map<String, CachedMember> members = new ConcurrentHashMap<>();
+
+    /**
+     * @return The member associated to the DN passed or null if it is not cached or its entry expired
+     */
+    public CachedMember get(String dn) {
+
+        CachedMember member = members.get(dn);
+        if (member != null && member.expiration < System.currentTimeMillis()) {
+            members.remove(dn, member);
+            member = null;
+        }
+        return member;
+
+    }
+
+    public CachedMember put(String dn, String inum, String displayName) {
+
+        if (members.size() >= MAX_ENTRIES) {
+            members.clear();
+        }
+        CachedMember member = new CachedMember(inum, displayName, System.currentTimeMillis() + EXPIRATION);
+        members.put(dn, member);
+        return member;
+
+    }
+
+    public void remove(String dn) {
+        members.remove(dn);
+    }
+
+    public static class CachedMember {
+
+        private String inum;
+        private String displayName;
+        private long expiration;
+
+        CachedMember(String inum, String displayName, long expiration) {
+            this.inum = inum;
+            this.displayName = displayName;
+            this.expiration = expiration;
+        }
+
+        public String getInum() {
+            return inum;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+    }
+
+}
@@ -14,6 +14,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 import javax.ejb.Stateless;
 import javax.inject.Inject;
@@ -23,7 +24,6 @@ import javax.management.InvalidAttributeValueException;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.antlr.v4.runtime.tree.ParseTree;
 import org.apache.commons.lang.StringUtils;
 import org.gluu.oxtrust.model.exception.SCIMException;
 import org.gluu.oxtrust.model.scim2.AttributeDefinition;
@@ -178,11 +178,11 @@ public class Scim2PatchService {
         } else {
             try {
                 valSelFilter = FilterUtil.preprocess(valSelFilter, cls);
-                ParseTree parseTree = filterService.getParseTree(valSelFilter);
+                Predicate<Map<String, Object>> matchFilter = filterService.compileMatchFilter(valSelFilter, attribute, cls);
 
                 List<Integer> matchingIndexes = new ArrayList<Integer>();
                 for (int i = 0; i < list.size(); i++) {
-                    if (filterService.complexAttributeMatch(parseTree, list.get(i), attribute, cls)) {
+                    if (matchFilter.test(list.get(i))) {
                         matchingIndexes.add(0, i);  //Important: add so that resulting list is reverse-ordered
                     }
                 }
@@ -19,10 +19,12 @@ import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.management.InvalidAttributeValueException;
+import javax.ws.rs.Path;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response.Status;
 
 import org.apache.commons.lang.StringUtils;
+import org.gluu.config.oxtrust.AppConfiguration;
 import org.gluu.model.GluuStatus;
 import org.gluu.oxtrust.ldap.service.IGroupService;
 import org.gluu.oxtrust.ldap.service.IPersonService;
@@ -89,7 +91,7 @@ public class Scim2UserService implements Serializable {
 	private IGroupService groupService;
 
 	@Inject
-	private GroupWebService groupWS;
+	private AppConfiguration appConfiguration;
 
 	@Inject
 	private ExternalScimService externalScimService;
@@ -106,8 +108,13 @@ public class Scim2UserService implements Serializable {
 	@Inject
 	private PersistenceEntryManager ldapEntryManager;
 
+	@Inject
+	private Scim2MemberCache memberCache;
+
 	private boolean ldapBackend;
 
+	private String groupsEndpointUrl;
+
 	private String[] getComplexMultivaluedAsArray(List items) {
 
 		String array[] = {};
@@ -355,7 +362,7 @@ public class Scim2UserService implements Serializable {
 
 					Group group = new Group();
 					group.setValue(gluuGroup.getInum());
-					String reference = groupWS.getEndpointUrl() + "/" + gluuGroup.getInum();
+					String reference = groupsEndpointUrl + "/" + gluuGroup.getInum();
 					group.setRef(reference);
 					group.setDisplay(gluuGroup.getDisplayName());
 					group.setType(Group.Type.DIRECT); // Only support direct membership: see section 4.1.2 of RFC 7644
@@ -527,11 +534,13 @@ public class Scim2UserService implements Serializable {
 			}
 
 			userPersistenceHelper.updatePerson(gluuPerson);
+			memberCache.remove(gluuPerson.getDn());
 			// Copy back to user the info from gluuPerson
 			transferAttributesToUserResource(gluuPerson, user, url);
 			externalScimService.executeScimPostUpdateUserMethods(gluuPerson);
 		} else {
             userPersistenceHelper.updatePerson(gluuPerson);
+			memberCache.remove(gluuPerson.getDn());
 		}
 
 	}
@@ -554,6 +563,7 @@ public class Scim2UserService implements Serializable {
 		}
 
 		userPersistenceHelper.removePerson(gluuPerson);
+		memberCache.remove(dn);
 
 		if (externalScimService.isEnabled())
 			externalScimService.executeScimPostDeleteUserMethods(gluuPerson);
@@ -598,6 +608,8 @@ public class Scim2UserService implements Serializable {
 	@PostConstruct
     private void init() {
         ldapBackend = scimFilterParserService.isLdapBackend();
+        // Not taken from GroupWebService since it's request scoped and this service is used in worker threads too
+        groupsEndpointUrl = appConfiguration.getBaseEndpoint() + GroupWebService.class.getAnnotation(Path.class).value();
     }
 
 }
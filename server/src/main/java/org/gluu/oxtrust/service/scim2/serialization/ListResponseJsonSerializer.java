@@ -11,7 +11,6 @@ import java.util.List;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.JsonSerializer;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import org.gluu.oxtrust.model.scim2.BaseScimResource;
 import org.gluu.oxtrust.model.scim2.ListResponse;
@@ -22,7 +21,6 @@ import org.gluu.oxtrust.model.scim2.ListResponse;
 public class ListResponseJsonSerializer extends JsonSerializer<ListResponse> {
 
     private ScimResourceSerializer resourceSerializer;
-    private ObjectMapper mapper = new ObjectMapper();
 
     private String attributes;
     private String excludeAttributes;
@@ -72,8 +70,7 @@ public class ListResponseJsonSerializer extends JsonSerializer<ListResponse> {
 
                     if (listResponse.getResources().size() > 0) {
                         for (BaseScimResource resource : listResponse.getResources()) {
-                            JsonNode jsonResource = mapper.readTree(resourceSerializer.serialize(resource, attributes, excludeAttributes));
-                            jGen.writeTree(jsonResource);
+                            resourceSerializer.serialize(resource, attributes, excludeAttributes, jGen);
                         }
                     } else if (jsonResources != null) {
                         for (JsonNode node : jsonResources) {
@@ -0,0 +1,161 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+package org.gluu.oxtrust.service.scim2.serialization;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * Compiled form of the set of attribute paths to include when serializing a resource. Paths are stored in a tree whose
+ * nodes are the dot-separated components of paths, so checking if a property has to be included is a matter of
+ * descending the tree instead of scanning a sorted set.
+ * A property is included if its path is one of the paths of the set or the prefix of one of them (this is the same
+ * rule applied by ScimResourceSerializer before plans existed)
+ */
+public class ProjectionPlan {
+
+    private Node root = new Node();
+    private long creationTime = System.currentTimeMillis();
+
+    public ProjectionPlan(Set<String> include) {
+        for (String path : include) {
+            Node node = root;
+            for (String component : path.split("\\.")) {
+                node = node.addChild(component);
+            }
+        }
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * Tells whether the attribute path passed (or any of its subattributes) would be written by this plan
+     */
+    public boolean includes(String path) {
+        return root.getChild(path) != null;
+    }
+
+    /**
+     * Copies the object the parser is about to read to the generator keeping only the properties of the plan
+     * @param parser Parser positioned before the START_OBJECT token of the resource
+     * @param generator Destination
+     */
+    public void write(JsonParser parser, JsonGenerator generator) throws IOException {
+
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Resource was not serialized as a JSON object");
+        }
+        generator.writeStartObject();
+        copyObject(parser, root, generator);
+        generator.writeEndObject();
+
+    }
+
+    /**
+     * Section 2.5 of RFC 7643: When a resource is expressed in JSON format, unassigned attributes, although they are
+     * defined in schema, MAY be omitted for compactness. Thus null values and objects left with no properties are
+     * not written
+     * @return Number of properties written
+     */
+    private int copyObject(JsonParser parser, Node node, JsonGenerator generator) throws IOException {
+
+        int written = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            Node child = node.getChild(key);
+
+            if (child == null || token == JsonToken.VALUE_NULL) {
+                parser.skipChildren();
+            } else if (token == JsonToken.START_OBJECT) {
+                TokenBuffer buffer = new TokenBuffer(parser.getCodec(), false);
+                if (copyObject(parser, child, buffer) > 0) {
+                    generator.writeFieldName(key);
+                    generator.writeStartObject();
+                    buffer.serialize(generator);
+                    generator.writeEndObject();
+                    written++;
+                }
+            } else if (token == JsonToken.START_ARRAY) {
+                generator.writeFieldName(key);
+                copyArray(parser, child, generator);
+                written++;
+            } else {
+                generator.writeFieldName(key);
+                generator.copyCurrentEvent(parser);
+                written++;
+            }
+        }
+        return written;
+
+    }
+
+    private void copyArray(JsonParser parser, Node node, JsonGenerator generator) throws IOException {
+
+        generator.writeStartArray();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == JsonToken.START_OBJECT) {
+                TokenBuffer buffer = new TokenBuffer(parser.getCodec(), false);
+                if (copyObject(parser, node, buffer) > 0) {
+                    generator.writeStartObject();
+                    buffer.serialize(generator);
+                    generator.writeEndObject();
+                }
+            } else if (token != JsonToken.VALUE_NULL) {
+                generator.copyCurrentStructure(parser);
+            }
+        }
+        generator.writeEndArray();
+
+    }
+
+    private static class Node {
+
+        private Map<String, Node> children;
+
+        Node addChild(String component) {
+            if (children == null) {
+                children = new HashMap<>();
+            }
+            return children.computeIfAbsent(component, k -> new Node());
+        }
+
+        /**
+         * Finds the node of a property. Keys may contain dots (e.g. extension URNs) so they are descended component
+         * by component
+         */
+        Node getChild(String key) {
+
+            key = key.startsWith("$") ? key.substring(1) : key;     //makes attributes like $ref to be accepted...
+            Node node = this;
+            int start = 0;
+            while (node != null) {
+                int end = key.indexOf('.', start);
+                String component = end == -1 ? key.substring(start) : key.substring(start, end);
+                node = node.children == null ? null : node.children.get(component);
+
+                if (end == -1) {
+                    break;
+                }
+                start = end + 1;
+            }
+            return node;
+
+        }
+
+    }
+
+}
@@ -5,24 +5,27 @@
  */
 package org.gluu.oxtrust.service.scim2.serialization;
 
+import java.io.StringWriter;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.Version;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import org.gluu.oxtrust.model.scim2.BaseScimResource;
 import org.gluu.oxtrust.model.scim2.ListResponse;
 import org.gluu.oxtrust.model.scim2.extensions.Extension;
@@ -44,6 +47,12 @@ public class ScimResourceSerializer {
     @Inject
     private ExtensionService extService;
 
+    private static final long PLAN_EXPIRATION = 60 * 1000;
+    private static final int MAX_PLANS = 500;
+
+    //Instances of this bean are pooled, so cached plans are shared by all of them
+    private static final Map<PlanKey, ProjectionPlan> plans = new ConcurrentHashMap<>();
+
     private ObjectMapper mapper = new ObjectMapper();
 
     private Set<String> expandAttributesPaths(String attributes, String defaultSchemaUrn, List<String> schemas, SortedSet<String> attribs) {
@@ -117,91 +126,80 @@ public class ScimResourceSerializer {
 
     }
 
-    private boolean containsProperty(SortedSet<String> properties, String prefix, String key) {
+    /**
+     * Returns the projection plan for the resource class, schemas and attributes/excludedAttributes params given.
+     * Plans are cached for a short time only, since resource extensions can be changed by administrators
+     */
+    private ProjectionPlan getProjectionPlan(Class<? extends BaseScimResource> resourceClass, Set<String> schemas,
+                                             String attributes, String exclusions) {
 
-        key = key.startsWith("$") ? key.substring(1) : key;     //makes attributes like $ref to be accepted...
-        String property = (prefix.length() == 0) ? key : prefix + "." + key;
-        Set<String> set = properties.tailSet(property);
+        PlanKey key = new PlanKey(resourceClass, schemas, attributes, exclusions);
+        ProjectionPlan plan = plans.get(key);
 
-        boolean flag = set.contains(property);
-        if (!flag) {
-            for (String prop : set) {
-                if (prop.startsWith(property + ".")) {
-                    flag = true;
-                    break;
-                }
+        if (plan == null || System.currentTimeMillis() - plan.getCreationTime() > PLAN_EXPIRATION) {
+            SortedSet<String> include = new TreeSet<String>();
+            buildIncludeSet(include, resourceClass, schemas == null ? null : new ArrayList<String>(schemas), attributes, exclusions);
+            log.trace("getProjectionPlan. Attributes to include: {}", include);
+
+            plan = new ProjectionPlan(include);
+            if (plans.size() >= MAX_PLANS) {
+                plans.clear();
             }
+            plans.put(key, plan);
         }
-        return flag;
+        return plan;
 
     }
 
-    private String getNewPrefix(String prefix, String key) {
-        return prefix + (prefix.length() == 0 ? "" : ".") + key;
-    }
+    /**
+     * Tells whether an attribute will be part of resources of the class given when serialized using the
+     * attributes/excludedAttributes params passed. This allows to skip computing attributes that are costly to obtain
+     * @param resourceClass Class of resources
+     * @param attributes Value of attributes query param
+     * @param exclusions Value of excludedAttributes query param
+     * @param path Attribute path (e.g. "members")
+     */
+    public boolean isReturned(Class<? extends BaseScimResource> resourceClass, String attributes, String exclusions, String path) {
+
+        Set<String> schemas = new HashSet<>();
+        schemas.add(ScimResourceUtil.getDefaultSchemaUrn(resourceClass));
+        for (Extension ext : extService.getResourceExtensions(resourceClass)) {
+            schemas.add(ext.getUrn());
+        }
+        return getProjectionPlan(resourceClass, schemas, attributes, exclusions).includes(path);
 
-    private Map<String, Object> smallerMap(String prefix, Map<String, Object> value, SortedSet<String> include) {
-        LinkedHashMap<String, Object> smallMap = new LinkedHashMap<>();
-        traverse(prefix, value, smallMap, include);
-        return smallMap.size() == 0 ? null : smallMap;
     }
 
     /**
-     * Section 2.5 of RFC 7643: When a resource is expressed in JSON format, unassigned attributes, although they are
-     * defined in schema, MAY be omitted for compactness
-     * @param prefix
-     * @param map
-     * @param destination
-     * @param include
+     * Writes the resource to the generator passed including only the attributes that apply
+     * @param resource Resource to serialize
+     * @param attributes Value of attributes query param
+     * @param exclusions Value of excludedAttributes query param
+     * @param generator Destination
+     * @throws Exception
      */
-    private void traverse(String prefix, Map<String, Object> map, LinkedHashMap<String, Object> destination, SortedSet<String> include) {
-
-        for (String key : map.keySet()) {
-            Object value = map.get(key);
-
-            if (value != null && containsProperty(include, prefix, key)) {
-
-                if (value instanceof Map) {
-                    value = smallerMap(getNewPrefix(prefix, key), IntrospectUtil.strObjMap(value), include);
-                } else if (IntrospectUtil.isCollection(value.getClass())) {
-                    List list = new ArrayList();
-                    Map<String, Object> innerMap;
-
-                    for (Object item : (Collection) value) {
-                        if (item != null) {
-                            if (item instanceof Map) {
-                                innerMap = smallerMap(getNewPrefix(prefix, key), IntrospectUtil.strObjMap(item), include);
-                                if (innerMap != null)
-                                    list.add(innerMap);
-                            } else {
-                                list.add(item);
-                            }
-                        }
-                    }
-                    value = list;
-                }
-                if (value != null) {
-                    destination.put(key, value);
-                }
-            }
+    public void serialize(BaseScimResource resource, String attributes, String exclusions, JsonGenerator generator) throws Exception {
+
+        ProjectionPlan plan = getProjectionPlan(resource.getClass(), resource.getSchemas(), attributes, exclusions);
+
+        //Do generic serialization. This works for any POJO (not only subclasses of BaseScimResource)
+        TokenBuffer buffer = new TokenBuffer(mapper, false);
+        mapper.writeValue(buffer, resource);
+
+        try (JsonParser parser = buffer.asParser()) {
+            plan.write(parser, generator);
         }
 
     }
 
     public String serialize(BaseScimResource resource, String attributes, String exclusions) throws Exception {
 
-        SortedSet<String> include = new TreeSet<String>();
-        Class<? extends BaseScimResource> resourceClass = resource.getClass();
-        buildIncludeSet(include, resourceClass, new ArrayList<String>(resource.getSchemas()), attributes, exclusions);
-        log.trace("serialize. Attributes to include: {}", include);
-
-        //Do generic serialization. This works for any POJO (not only subclasses of BaseScimResource)
-        Map<String, Object> map = mapper.convertValue(resource, new TypeReference<Map<String, Object>>() {});
-        //Using LinkedHashMap allows recursive routines to visit submaps in the same order as fields appear in java classes
-        LinkedHashMap<String, Object> newMap = new LinkedHashMap<String, Object>();
-        traverse("", map, newMap, include);
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(writer)) {
+            serialize(resource, attributes, exclusions, generator);
+        }
 
-        String result = mapper.writeValueAsString(newMap);
+        String result = writer.toString();
         log.trace("serialize. Output is {}", result);
 
         return result;
@@ -221,4 +219,39 @@ public class ScimResourceSerializer {
         return mapper;
     }
 
+    private static class PlanKey {
+
+        private Class<? extends BaseScimResource> resourceClass;
+        private Set<String> schemas;
+        private String attributes;
+        private String exclusions;
+
+        PlanKey(Class<? extends BaseScimResource> resourceClass, Set<String> schemas, String attributes, String exclusions) {
+            this.resourceClass = resourceClass;
+            this.schemas = schemas == null ? null : new HashSet<>(schemas);
+            this.attributes = attributes;
+            this.exclusions = exclusions;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (this == o)
+                return true;
+            if (!(o instanceof PlanKey))
+                return false;
+
+            PlanKey other = (PlanKey) o;
+            return resourceClass.equals(other.resourceClass) && Objects.equals(schemas, other.schemas)
+                    && Objects.equals(attributes, other.attributes) && Objects.equals(exclusions, other.exclusions);
+
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(resourceClass, schemas, attributes, exclusions);
+        }
+
+    }
+
 }
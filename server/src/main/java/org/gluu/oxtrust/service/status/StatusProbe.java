@@ -0,0 +1,146 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.service.status;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+
+/**
+ * Status check which runs in its own thread with a timeout. Last good value is
+ * kept and returned when the check fails or doesn't finish in time. Check which
+ * is still running (e.g. hung on I/O after timeout) isn't started again, so
+ * each probe occupies at most one executor thread
+ */
+public class StatusProbe<T> {
+
+	private final String name;
+	private final long timeout;
+	private final Callable<T> check;
+
+	private volatile T lastValue;
+	private volatile long lastLatency = -1;
+	private volatile int failures;
+	private volatile boolean running;
+
+	private Future<T> future;
+	private long startTime;
+
+	/**
+	 * @param name
+	 *            Name used in logs and latency statistics
+	 * @param timeout
+	 *            Timeout in milliseconds
+	 * @param check
+	 *            Check to execute. It should return null if there is no value
+	 */
+	public StatusProbe(String name, long timeout, Callable<T> check) {
+		this.name = name;
+		this.timeout = timeout;
+		this.check = check;
+	}
+
+	/**
+	 * Starts check in executor passed, unless previous check is still running
+	 */
+	public synchronized void start(ExecutorService executorService) {
+		if (running) {
+			// Previous check hasn't finished yet. Cancelled task keeps its thread until
+			// it returns
+			future = null;
+			failures++;
+			return;
+		}
+
+		startTime = System.currentTimeMillis();
+
+		running = true;
+		try {
+			future = executorService.submit(() -> {
+				try {
+					long start = System.currentTimeMillis();
+					T value = check.call();
+					lastLatency = System.currentTimeMillis() - start;
+
+					return value;
+				} finally {
+					running = false;
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			running = false;
+			throw ex;
+		}
+	}
+
+	/**
+	 * Waits for check started by {@link #start(ExecutorService)}
+	 *
+	 * @return Value returned by check or last good value if it failed or timed out
+	 */
+	public synchronized T await(Logger log) throws InterruptedException {
+		if (future == null) {
+			if (running) {
+				log.warn("Status probe '{}' is still running, using last good value", name);
+			}
+			return lastValue;
+		}
+
+		long remaining = startTime + timeout - System.currentTimeMillis();
+		try {
+			T value = future.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+			if (value != null) {
+				lastValue = value;
+				failures = 0;
+			}
+		} catch (TimeoutException ex) {
+			future.cancel(true);
+			failures++;
+			lastLatency = timeout;
+			log.warn("Status probe '{}' didn't finish in {} ms, using last good value", name, timeout);
+		} catch (ExecutionException ex) {
+			failures++;
+			log.error("Status probe '{}' failed, using last good value", name, ex.getCause());
+		}
+
+		return lastValue;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public T getLastValue() {
+		return lastValue;
+	}
+
+	/**
+	 * @return Duration of last check in milliseconds or -1 if it wasn't executed
+	 *         yet
+	 */
+	public long getLastLatency() {
+		return lastLatency;
+	}
+
+	public int getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return True if check was started and hasn't returned yet
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+}
@@ -9,22 +9,17 @@ package org.gluu.oxtrust.service.status.ldap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.enterprise.context.ApplicationScoped;
-import javax.enterprise.event.Event;
-import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.gluu.oxtrust.ldap.service.ApplicationFactory;
 import org.gluu.oxtrust.ldap.service.CentralLdapService;
+import org.gluu.oxtrust.service.timer.JobScheduler;
+import org.gluu.oxtrust.service.timer.ScheduledJob;
 import org.gluu.persist.PersistenceEntryManager;
 import org.gluu.persist.ldap.impl.LdapEntryManager;
 import org.gluu.persist.ldap.operation.impl.LdapConnectionProvider;
 import org.gluu.persist.operation.PersistenceOperationService;
-import org.gluu.service.cdi.async.Asynchronous;
-import org.gluu.service.cdi.event.LdapStatusEvent;
-import org.gluu.service.cdi.event.Scheduled;
-import org.gluu.service.timer.event.TimerEvent;
-import org.gluu.service.timer.schedule.TimerSchedule;
 import org.slf4j.Logger;
 
 /**
@@ -44,7 +39,7 @@ public class PersistanceStatusTimer {
     private CentralLdapService centralLdapService;
 
 	@Inject
-	private Event<TimerEvent> timerEvent;
+	private JobScheduler jobScheduler;
 
 	@Inject @Named(ApplicationFactory.PERSISTENCE_ENTRY_MANAGER_NAME)
     private PersistenceEntryManager ldapEntryManager;
@@ -58,12 +53,12 @@ public class PersistanceStatusTimer {
         log.info("Initializing Persistance Layer Status Timer");
         this.isActive = new AtomicBoolean(false);
 
-		timerEvent.fire(new TimerEvent(new TimerSchedule(DEFAULT_INTERVAL, DEFAULT_INTERVAL), new LdapStatusEvent(),
-				Scheduled.Literal.INSTANCE));
+		ScheduledJob job = new ScheduledJob("persistenceStatus", DEFAULT_INTERVAL, DEFAULT_INTERVAL, this::process);
+		job.setPriority(Thread.NORM_PRIORITY + 2);
+		jobScheduler.schedule(job);
     }
 
-    @Asynchronous
-    public void process(@Observes @Scheduled LdapStatusEvent ldapStatusEvent) {
+    public void process() {
         if (this.isActive.get()) {
             return;
         }
@@ -0,0 +1,288 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.service.timer;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.ldap.service.LeaderElectionService;
+import org.gluu.util.StringHelper;
+import org.gluu.util.properties.FileConfiguration;
+import org.slf4j.Logger;
+
+/**
+ * Scheduler of oxTrust background jobs. Each job runs in its own thread with
+ * its own priority, so long jobs don't delay others. Job runs can be observed
+ * and cancelled
+ */
+@ApplicationScoped
+@Named
+public class JobScheduler {
+
+	private static final String PROPERTY_PREFIX = "scheduler.";
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	@Inject
+	private LeaderElectionService leaderElectionService;
+
+	private final Map<String, JobRunner> jobs = new ConcurrentHashMap<String, JobRunner>();
+
+	private final ScheduledExecutorService watchdogExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "scheduler-watchdog");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	@PreDestroy
+	public void destroy() {
+		for (JobRunner job : jobs.values()) {
+			job.stop();
+		}
+		watchdogExecutor.shutdownNow();
+	}
+
+	/**
+	 * Schedules job. Job with the same name is replaced
+	 */
+	public void schedule(ScheduledJob job) {
+		applyConfiguration(job);
+
+		JobRunner jobRunner = new JobRunner(job);
+		JobRunner previous = jobs.put(job.getName(), jobRunner);
+		if (previous != null) {
+			previous.stop();
+		}
+		jobRunner.start();
+
+		log.info(
+				"Scheduled job '{}' with delay {}s, interval {}s, jitter {}s, priority {}, misfire policy {}, clustered {}",
+				job.getName(), job.getDelay(), job.getInterval(), job.getJitter(), job.getPriority(),
+				job.getMisfirePolicy(), job.isClustered());
+	}
+
+	/**
+	 * Interrupts current run of job. Next runs are not affected
+	 *
+	 * @return True if job was running
+	 */
+	public boolean cancel(String name) {
+		JobRunner jobRunner = jobs.get(name);
+		return (jobRunner != null) && jobRunner.cancel();
+	}
+
+	public List<String> getJobNames() {
+		return new ArrayList<String>(jobs.keySet());
+	}
+
+	public JobStatus getJobStatus(String name) {
+		JobRunner jobRunner = jobs.get(name);
+		return jobRunner == null ? null : jobRunner.getStatus();
+	}
+
+	public List<JobStatus> getJobStatuses() {
+		List<JobStatus> statuses = new ArrayList<JobStatus>();
+		for (JobRunner jobRunner : jobs.values()) {
+			statuses.add(jobRunner.getStatus());
+		}
+
+		return statuses;
+	}
+
+	private void applyConfiguration(ScheduledJob job) {
+		FileConfiguration baseConfiguration = configurationFactory.getBaseConfiguration();
+		if (baseConfiguration == null) {
+			return;
+		}
+
+		String prefix = PROPERTY_PREFIX + job.getName() + ".";
+		job.setDelay(baseConfiguration.getInt(prefix + "delay", job.getDelay()));
+		job.setInterval(Math.max(1, baseConfiguration.getInt(prefix + "interval", job.getInterval())));
+		job.setJitter(Math.max(0, baseConfiguration.getInt(prefix + "jitter", job.getJitter())));
+		job.setMaxRunTime(Math.max(0, baseConfiguration.getInt(prefix + "maxRunTime", job.getMaxRunTime())));
+
+		int priority = baseConfiguration.getInt(prefix + "priority", job.getPriority());
+		job.setPriority(Math.min(Thread.MAX_PRIORITY, Math.max(Thread.MIN_PRIORITY, priority)));
+
+		String misfirePolicy = baseConfiguration.getString(prefix + "misfirePolicy", null);
+		if (StringHelper.isNotEmpty(misfirePolicy)) {
+			job.setMisfirePolicy(MisfirePolicy.getByName(misfirePolicy, job.getMisfirePolicy()));
+		}
+
+		job.setClustered(baseConfiguration.getBoolean(prefix + "clustered", job.isClustered()));
+	}
+
+	private class JobRunner implements Runnable {
+
+		private final ScheduledJob job;
+		private final ScheduledExecutorService executor;
+		private final RunDurationHistogram histogram = new RunDurationHistogram();
+
+		private final AtomicLong runCount = new AtomicLong();
+		private final AtomicLong failureCount = new AtomicLong();
+		private final AtomicLong misfireCount = new AtomicLong();
+		private final AtomicLong cancelCount = new AtomicLong();
+		private final AtomicLong standbyCount = new AtomicLong();
+
+		private volatile Thread runnerThread;
+		private volatile long runningSince;
+		private volatile long nextFireTime;
+		private volatile long lastDuration = -1;
+
+		JobRunner(ScheduledJob job) {
+			this.job = job;
+			this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "scheduler-" + job.getName());
+				thread.setDaemon(true);
+				thread.setPriority(job.getPriority());
+				return thread;
+			});
+		}
+
+		void start() {
+			nextFireTime = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(job.getDelay());
+			scheduleNext();
+		}
+
+		void stop() {
+			executor.shutdownNow();
+		}
+
+		boolean cancel() {
+			Thread thread = runnerThread;
+			if (thread == null) {
+				return false;
+			}
+
+			cancelCount.incrementAndGet();
+			log.warn("Cancelling job '{}' running since {}", job.getName(), new Date(runningSince));
+			thread.interrupt();
+
+			return true;
+		}
+
+		@Override
+		public void run() {
+			long start = System.currentTimeMillis();
+			boolean executed = false;
+			ScheduledFuture<?> leaseRenewal = null;
+			ScheduledFuture<?> watchdog = null;
+
+			// Any failure, leader check included, must not prevent next run from being scheduled
+			try {
+				if (job.isClustered()) {
+					if (!leaderElectionService.isLeader(job.getName(), getLeaseTime())) {
+						standbyCount.incrementAndGet();
+						log.trace("Job '{}' is running on another node", job.getName());
+						return;
+					}
+					leaseRenewal = leaderElectionService.keepLease(job.getName(), getLeaseTime());
+				}
+
+				executed = true;
+				runningSince = start;
+				runnerThread = Thread.currentThread();
+				if (job.getMaxRunTime() > 0) {
+					watchdog = watchdogExecutor.schedule(this::cancel, job.getMaxRunTime(), TimeUnit.SECONDS);
+				}
+
+				job.getTask().run();
+			} catch (Throwable ex) {
+				failureCount.incrementAndGet();
+				log.error("Job '{}' failed", job.getName(), ex);
+			} finally {
+				runnerThread = null;
+				if (watchdog != null) {
+					watchdog.cancel(false);
+				}
+				if (leaseRenewal != null) {
+					leaseRenewal.cancel(false);
+				}
+
+				if (executed) {
+					// Clear interrupted flag if job was cancelled
+					Thread.interrupted();
+
+					lastDuration = System.currentTimeMillis() - start;
+					histogram.record(lastDuration);
+					runCount.incrementAndGet();
+				}
+
+				if (!executor.isShutdown()) {
+					scheduleNext();
+				}
+			}
+		}
+
+		private void scheduleNext() {
+			long now = System.currentTimeMillis();
+			long interval = TimeUnit.SECONDS.toMillis(job.getInterval());
+
+			long next = nextFireTime;
+			// Failures before job is executed (e.g. leader check) count as fire times too
+			if (runCount.get() + standbyCount.get() + failureCount.get() > 0) {
+				next += interval;
+			}
+
+			if (next < now) {
+				long missed = (now - next) / interval + 1;
+				misfireCount.addAndGet(missed);
+				log.debug("Job '{}' missed {} fire times", job.getName(), missed);
+
+				if (MisfirePolicy.FIRE_NOW == job.getMisfirePolicy()) {
+					next = now;
+				} else {
+					next += missed * interval;
+				}
+			}
+			nextFireTime = next;
+
+			long jitter = 0;
+			if (job.getJitter() > 0) {
+				jitter = ThreadLocalRandom.current().nextLong(TimeUnit.SECONDS.toMillis(job.getJitter()) + 1);
+			}
+
+			executor.schedule(this, next - now + jitter, TimeUnit.MILLISECONDS);
+		}
+
+		/*
+		 * Lease outlives two fire times, so leader keeps it between runs and other
+		 * nodes take it over only after leader stops
+		 */
+		private int getLeaseTime() {
+			return 2 * job.getInterval() + job.getJitter() + 30;
+		}
+
+		JobStatus getStatus() {
+			boolean running = runnerThread != null;
+			return new JobStatus(job.getName(), running, running ? new Date(runningSince) : null,
+					new Date(nextFireTime), lastDuration, runCount.get(), failureCount.get(), misfireCount.get(),
+					cancelCount.get(), standbyCount.get(), histogram);
+		}
+
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.service.timer;
+
+import java.util.Date;
+
+/**
+ * Snapshot of state and statistics of job executed by {@link JobScheduler}
+ */
+public class JobStatus {
+
+	private final String name;
+	private final boolean running;
+	private final Date runningSince;
+	private final Date nextFireTime;
+	private final long lastDuration;
+	private final long runCount;
+	private final long failureCount;
+	private final long misfireCount;
+	private final long cancelCount;
+	private final long standbyCount;
+	private final RunDurationHistogram histogram;
+
+	public JobStatus(String name, boolean running, Date runningSince, Date nextFireTime, long lastDuration,
+			long runCount, long failureCount, long misfireCount, long cancelCount, long standbyCount,
+			RunDurationHistogram histogram) {
+		this.name = name;
+		this.running = running;
+		this.runningSince = runningSince;
+		this.nextFireTime = nextFireTime;
+		this.lastDuration = lastDuration;
+		this.runCount = runCount;
+		this.failureCount = failureCount;
+		this.misfireCount = misfireCount;
+		this.cancelCount = cancelCount;
+		this.standbyCount = standbyCount;
+		this.histogram = histogram;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public Date getRunningSince() {
+		return runningSince;
+	}
+
+	public Date getNextFireTime() {
+		return nextFireTime;
+	}
+
+	/**
+	 * @return Duration of last run in milliseconds or -1 if job wasn't executed
+	 *         yet
+	 */
+	public long getLastDuration() {
+		return lastDuration;
+	}
+
+	public long getRunCount() {
+		return runCount;
+	}
+
+	public long getFailureCount() {
+		return failureCount;
+	}
+
+	/**
+	 * @return Number of fire times missed because previous run took too long
+	 */
+	public long getMisfireCount() {
+		return misfireCount;
+	}
+
+	public long getCancelCount() {
+		return cancelCount;
+	}
+
+	/**
+	 * @return Number of fire times skipped because another node holds job lease
+	 */
+	public long getStandbyCount() {
+		return standbyCount;
+	}
+
+	public RunDurationHistogram getHistogram() {
+		return histogram;
+	}
+
+	@Override
+	public String toString() {
+		return "JobStatus [name=" + name + ", running=" + running + ", runningSince=" + runningSince
+				+ ", nextFireTime=" + nextFireTime + ", lastDuration=" + lastDuration + ", runCount=" + runCount
+				+ ", failureCount=" + failureCount + ", misfireCount=" + misfireCount + ", cancelCount="
+				+ cancelCount + ", standbyCount=" + standbyCount + ", histogram=" + histogram + "]";
+	}
+
+}
@@ -0,0 +1,35 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.service.timer;
+
+/**
+ * Defines what scheduler does when job run takes longer than its interval and
+ * next fire times are missed
+ */
+public enum MisfirePolicy {
+
+	/**
+	 * Start job once right after previous run
+	 */
+	FIRE_NOW,
+
+	/**
+	 * Skip missed fire times and wait for next one
+	 */
+	SKIP;
+
+	public static MisfirePolicy getByName(String name, MisfirePolicy defaultPolicy) {
+		for (MisfirePolicy policy : values()) {
+			if (policy.name().equalsIgnoreCase(name)) {
+				return policy;
+			}
+		}
+
+		return defaultPolicy;
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.service.timer;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of job run durations with fixed buckets
+ */
+public class RunDurationHistogram {
+
+	// Upper bounds of buckets in milliseconds. Last bucket is unbounded
+	private static final long[] BOUNDS = { 100, 500, 1000, 5000, 10 * 1000, 30 * 1000, 60 * 1000, 5 * 60 * 1000,
+			15 * 60 * 1000, Long.MAX_VALUE };
+
+	private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long duration) {
+		int bucket = Arrays.binarySearch(BOUNDS, duration);
+		if (bucket < 0) {
+			bucket = -bucket - 1;
+		}
+		counts.incrementAndGet(bucket);
+		total.addAndGet(duration);
+		max.accumulateAndGet(duration, Math::max);
+	}
+
+	public long[] getBounds() {
+		return BOUNDS.clone();
+	}
+
+	public long[] getCounts() {
+		long[] result = new long[counts.length()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = counts.get(i);
+		}
+
+		return result;
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			count += counts.get(i);
+		}
+
+		return count;
+	}
+
+	public long getAverage() {
+		long count = getCount();
+		return count == 0 ? 0 : total.get() / count;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < BOUNDS.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(BOUNDS[i] == Long.MAX_VALUE ? "inf" : "<=" + BOUNDS[i]).append(": ").append(counts.get(i));
+		}
+
+		return sb.append("]").toString();
+	}
+
+}
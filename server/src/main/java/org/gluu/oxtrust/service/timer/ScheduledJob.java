@@ -0,0 +1,114 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.service.timer;
+
+/**
+ * Definition of periodic job executed by {@link JobScheduler}. Default values
+ * can be overridden in gluu.properties with scheduler.&lt;name&gt;.&lt;property&gt;
+ * keys (delay, interval, jitter, priority, misfirePolicy, maxRunTime, clustered)
+ */
+public class ScheduledJob {
+
+	private final String name;
+	private final Runnable task;
+
+	// All times are in seconds
+	private int delay;
+	private int interval;
+	private int jitter;
+	private int maxRunTime;
+
+	private int priority = Thread.NORM_PRIORITY;
+	private MisfirePolicy misfirePolicy = MisfirePolicy.SKIP;
+
+	// Run job on one cluster node only
+	private boolean clustered;
+
+	public ScheduledJob(String name, int delay, int interval, Runnable task) {
+		this.name = name;
+		this.delay = delay;
+		this.interval = interval;
+		this.task = task;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Runnable getTask() {
+		return task;
+	}
+
+	public int getDelay() {
+		return delay;
+	}
+
+	public void setDelay(int delay) {
+		this.delay = delay;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	public void setInterval(int interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * @return Maximum random delay added to each fire time
+	 */
+	public int getJitter() {
+		return jitter;
+	}
+
+	public void setJitter(int jitter) {
+		this.jitter = jitter;
+	}
+
+	/**
+	 * @return Time after which running job is cancelled or 0 if it's not limited
+	 */
+	public int getMaxRunTime() {
+		return maxRunTime;
+	}
+
+	public void setMaxRunTime(int maxRunTime) {
+		this.maxRunTime = maxRunTime;
+	}
+
+	/**
+	 * @return Priority of job thread
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
+	public void setPriority(int priority) {
+		this.priority = priority;
+	}
+
+	public MisfirePolicy getMisfirePolicy() {
+		return misfirePolicy;
+	}
+
+	public void setMisfirePolicy(MisfirePolicy misfirePolicy) {
+		this.misfirePolicy = misfirePolicy;
+	}
+
+	/**
+	 * @return True if job should run only on node which holds job lease
+	 */
+	public boolean isClustered() {
+		return clustered;
+	}
+
+	public void setClustered(boolean clustered) {
+		this.clustered = clustered;
+	}
+
+}
@@ -0,0 +1,155 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.service.token;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Public keys of oxAuth JWKS by key id. Keys are replaced as a whole on each
+ * load, so readers never see partially loaded key set
+ */
+public class JwksKeyCache {
+
+	private static final int CONNECT_TIMEOUT = 5 * 1000;
+	private static final int READ_TIMEOUT = 10 * 1000;
+
+	private final Logger log;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private volatile Map<String, PublicKey> keys = Collections.emptyMap();
+	private volatile long lastLoadTime;
+
+	public JwksKeyCache(Logger log) {
+		this.log = log;
+	}
+
+	public PublicKey getKey(String keyId) {
+		return keys.get(keyId);
+	}
+
+	public boolean isEmpty() {
+		return keys.isEmpty();
+	}
+
+	public int getSize() {
+		return keys.size();
+	}
+
+	public long getLastLoadTime() {
+		return lastLoadTime;
+	}
+
+	/**
+	 * Loads JWKS and replaces current keys. Current keys are kept if JWKS can't be
+	 * loaded
+	 */
+	public void load(String jwksUri) {
+		try {
+			JsonNode jwks = fetch(jwksUri);
+
+			Map<String, PublicKey> newKeys = new HashMap<String, PublicKey>();
+			for (JsonNode jwk : jwks.path("keys")) {
+				String keyId = jwk.path("kid").asText(null);
+				if ((keyId == null) || "enc".equals(jwk.path("use").asText(null))) {
+					continue;
+				}
+
+				try {
+					PublicKey publicKey = toPublicKey(jwk);
+					if (publicKey != null) {
+						newKeys.put(keyId, publicKey);
+					}
+				} catch (GeneralSecurityException | IllegalArgumentException ex) {
+					log.warn("Failed to load JWKS key '{}'", keyId, ex);
+				}
+			}
+
+			this.keys = Collections.unmodifiableMap(newKeys);
+			this.lastLoadTime = System.currentTimeMillis();
+			log.debug("Loaded {} keys from JWKS '{}'", newKeys.size(), jwksUri);
+		} catch (IOException ex) {
+			log.error("Failed to load JWKS '{}'", jwksUri, ex);
+		}
+	}
+
+	private JsonNode fetch(String jwksUri) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(jwksUri).openConnection();
+		connection.setConnectTimeout(CONNECT_TIMEOUT);
+		connection.setReadTimeout(READ_TIMEOUT);
+		connection.setRequestProperty("Accept", "application/json");
+		try {
+			if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				throw new IOException("Unexpected response status " + connection.getResponseCode());
+			}
+
+			try (InputStream is = connection.getInputStream()) {
+				return objectMapper.readTree(is);
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private PublicKey toPublicKey(JsonNode jwk) throws GeneralSecurityException {
+		String keyType = jwk.path("kty").asText();
+		if ("RSA".equals(keyType)) {
+			RSAPublicKeySpec keySpec = new RSAPublicKeySpec(toBigInteger(jwk, "n"), toBigInteger(jwk, "e"));
+			return KeyFactory.getInstance("RSA").generatePublic(keySpec);
+		}
+
+		if ("EC".equals(keyType)) {
+			AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+			parameters.init(new ECGenParameterSpec(toCurveName(jwk.path("crv").asText())));
+			ECParameterSpec parameterSpec = parameters.getParameterSpec(ECParameterSpec.class);
+
+			ECPoint point = new ECPoint(toBigInteger(jwk, "x"), toBigInteger(jwk, "y"));
+			return KeyFactory.getInstance("EC").generatePublic(new ECPublicKeySpec(point, parameterSpec));
+		}
+
+		return null;
+	}
+
+	private String toCurveName(String curve) {
+		switch (curve) {
+		case "P-256":
+			return "secp256r1";
+		case "P-384":
+			return "secp384r1";
+		case "P-521":
+			return "secp521r1";
+		default:
+			throw new IllegalArgumentException("Unsupported curve " + curve);
+		}
+	}
+
+	private BigInteger toBigInteger(JsonNode jwk, String name) {
+		return new BigInteger(1, Base64.getUrlDecoder().decode(jwk.path(name).asText()));
+	}
+
+}
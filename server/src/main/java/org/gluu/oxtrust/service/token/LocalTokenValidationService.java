@@ -0,0 +1,466 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.service.token;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.oxauth.client.OpenIdConfigurationResponse;
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.service.OpenIdService;
+import org.gluu.util.StringHelper;
+import org.gluu.util.properties.FileConfiguration;
+import org.slf4j.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Validates JWT access tokens and RPTs without calling oxAuth. Signature is
+ * verified with oxAuth JWKS keys which are refreshed in background, expiration,
+ * issuer, audience, token type and scopes are checked in-process. Tokens which
+ * can't be validated locally (not JWT, unknown key or algorithm, issuer not
+ * loaded yet, not marked as access token) should be validated by oxAuth as
+ * before. Validation is enabled only if audience is configured, otherwise
+ * tokens issued to other clients (e.g. id_tokens) would be accepted.
+ * Revocation isn't checked, so revoked token is accepted until it expires
+ */
+@ApplicationScoped
+@Named
+public class LocalTokenValidationService {
+
+	private static final String ENABLED_PROPERTY = "localTokenValidation";
+	private static final String AUDIENCE_PROPERTY = "localTokenValidationAudience";
+	private static final String JWKS_REFRESH_INTERVAL_PROPERTY = "localTokenValidationJwksRefreshInterval";
+	private static final int DEFAULT_JWKS_REFRESH_INTERVAL = 60 * 60; // 1 hour
+
+	// Allowed clock difference between oxAuth and oxTrust in seconds
+	private static final long CLOCK_SKEW = 30;
+	// Minimal interval between JWKS reloads caused by unknown key id
+	private static final long MIN_RELOAD_INTERVAL = 60 * 1000;
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	@Inject
+	private OpenIdService openIdService;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private JwksKeyCache keyCache;
+	private ScheduledExecutorService refreshExecutor;
+	private final AtomicBoolean reloadScheduled = new AtomicBoolean();
+
+	private boolean enabled;
+	private String audience;
+	private volatile String issuer;
+
+	private final AtomicLong validCount = new AtomicLong();
+	private final AtomicLong invalidCount = new AtomicLong();
+	private final AtomicLong unsupportedCount = new AtomicLong();
+
+	@PostConstruct
+	public void init() {
+		FileConfiguration baseConfiguration = configurationFactory.getBaseConfiguration();
+		if ((baseConfiguration == null) || !baseConfiguration.getBoolean(ENABLED_PROPERTY, false)) {
+			return;
+		}
+
+		this.audience = baseConfiguration.getString(AUDIENCE_PROPERTY, null);
+		if (StringHelper.isEmpty(audience)) {
+			log.warn("Local token validation is disabled because '{}' isn't specified", AUDIENCE_PROPERTY);
+			return;
+		}
+
+		this.enabled = true;
+		this.keyCache = new JwksKeyCache(log);
+
+		this.refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "jwks-refresh");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		int refreshInterval = Math.max(60,
+				baseConfiguration.getInt(JWKS_REFRESH_INTERVAL_PROPERTY, DEFAULT_JWKS_REFRESH_INTERVAL));
+		refreshExecutor.scheduleWithFixedDelay(this::refreshKeys, 0, refreshInterval, TimeUnit.SECONDS);
+
+		log.info("Local token validation is enabled, JWKS refresh interval: {}s", refreshInterval);
+	}
+
+	@PreDestroy
+	public void destroy() {
+		if (refreshExecutor != null) {
+			refreshExecutor.shutdownNow();
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Validates access token
+	 *
+	 * @param requiredScopes
+	 *            Scopes which token should have
+	 */
+	public TokenValidationResult validate(String token, List<String> requiredScopes) {
+		return count(validate(token, requiredScopes, false));
+	}
+
+	/**
+	 * Validates RPT. RPT permissions should have all scopes, like in
+	 * introspection response check
+	 */
+	public TokenValidationResult validateRpt(String token, List<String> scopeIds) {
+		return count(validate(token, scopeIds, true));
+	}
+
+	private TokenValidationResult validate(String token, List<String> requiredScopes, boolean rpt) {
+		if (!enabled || StringHelper.isEmpty(token)) {
+			return TokenValidationResult.UNSUPPORTED;
+		}
+
+		String[] parts = token.split("\\.");
+		if ((parts.length != 3) || parts[2].isEmpty()) {
+			// Reference token
+			return TokenValidationResult.UNSUPPORTED;
+		}
+
+		JsonNode header;
+		JsonNode claims;
+		byte[] signature;
+		try {
+			header = decode(parts[0]);
+			claims = decode(parts[1]);
+			signature = Base64.getUrlDecoder().decode(parts[2]);
+		} catch (IOException | IllegalArgumentException ex) {
+			log.debug("Failed to parse JWT", ex);
+			return TokenValidationResult.UNSUPPORTED;
+		}
+
+		if (issuer == null) {
+			// Issuer isn't loaded yet, it can't be checked
+			return TokenValidationResult.UNSUPPORTED;
+		}
+
+		String algorithm = header.path("alg").asText();
+		if ("none".equalsIgnoreCase(algorithm)) {
+			return TokenValidationResult.INVALID;
+		}
+
+		SignatureAlgorithm signatureAlgorithm = SignatureAlgorithm.getByName(algorithm);
+		if (signatureAlgorithm == null) {
+			return TokenValidationResult.UNSUPPORTED;
+		}
+
+		PublicKey publicKey = keyCache.getKey(header.path("kid").asText());
+		if (publicKey == null) {
+			// Keys might be rotated, load them again for next requests
+			scheduleReload();
+			return TokenValidationResult.UNSUPPORTED;
+		}
+
+		String signingInput = parts[0] + "." + parts[1];
+		if (!verifySignature(signatureAlgorithm, publicKey, signingInput, signature)) {
+			log.debug("JWT signature is invalid");
+			return TokenValidationResult.INVALID;
+		}
+
+		if (!isValidClaims(claims)) {
+			return TokenValidationResult.INVALID;
+		}
+
+		if (!isAccessToken(header, claims)) {
+			// Might be id_token or other JWT signed by oxAuth
+			log.debug("JWT isn't marked as access token");
+			return TokenValidationResult.UNSUPPORTED;
+		}
+
+		Set<String> scopes;
+		if (rpt) {
+			if (!claims.has("permissions")) {
+				// RPT permissions are available only in introspection response
+				return TokenValidationResult.UNSUPPORTED;
+			}
+			scopes = getPermissionScopes(claims.path("permissions"));
+		} else {
+			scopes = getScopes(claims.path("scope"));
+		}
+
+		if ((requiredScopes != null) && !scopes.containsAll(requiredScopes)) {
+			log.debug("JWT doesn't contain required scopes {}", requiredScopes);
+			return TokenValidationResult.INVALID;
+		}
+
+		return TokenValidationResult.VALID;
+	}
+
+	private boolean isValidClaims(JsonNode claims) {
+		long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+
+		JsonNode expiration = claims.path("exp");
+		if (!expiration.canConvertToLong() || (expiration.asLong() + CLOCK_SKEW < now)) {
+			log.debug("JWT is expired");
+			return false;
+		}
+
+		JsonNode notBefore = claims.path("nbf");
+		if (notBefore.canConvertToLong() && (notBefore.asLong() - CLOCK_SKEW > now)) {
+			log.debug("JWT is not valid yet");
+			return false;
+		}
+
+		if (!claims.path("iss").isTextual() || !issuer.equals(claims.path("iss").asText())) {
+			log.debug("JWT issuer '{}' is invalid", claims.path("iss").asText());
+			return false;
+		}
+
+		if (!getValues(claims.path("aud")).contains(audience)) {
+			log.debug("JWT audience doesn't contain '{}'", audience);
+			return false;
+		}
+
+		return true;
+	}
+
+	/*
+	 * Access token should have access token type in header (RFC 9068) or
+	 * token_type claim
+	 */
+	private boolean isAccessToken(JsonNode header, JsonNode claims) {
+		String type = header.path("typ").asText();
+		if ("at+jwt".equalsIgnoreCase(type) || "application/at+jwt".equalsIgnoreCase(type)) {
+			return true;
+		}
+
+		String tokenType = claims.path("token_type").asText();
+		return "bearer".equalsIgnoreCase(tokenType) || "access_token".equalsIgnoreCase(tokenType);
+	}
+
+	private Set<String> getScopes(JsonNode scope) {
+		if (scope.isTextual()) {
+			return new HashSet<String>(Arrays.asList(scope.asText().trim().split("\\s+")));
+		}
+
+		return getValues(scope);
+	}
+
+	private Set<String> getPermissionScopes(JsonNode permissions) {
+		long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+
+		Set<String> scopes = new HashSet<String>();
+		for (JsonNode permission : permissions) {
+			JsonNode expiration = permission.path("exp");
+			if (expiration.canConvertToLong() && (expiration.asLong() + CLOCK_SKEW < now)) {
+				continue;
+			}
+
+			scopes.addAll(getValues(permission.path("resource_scopes")));
+		}
+
+		return scopes;
+	}
+
+	private Set<String> getValues(JsonNode node) {
+		Set<String> values = new HashSet<String>();
+		if (node.isArray()) {
+			for (JsonNode value : node) {
+				values.add(value.asText());
+			}
+		} else if (node.isTextual()) {
+			values.add(node.asText());
+		}
+
+		return values;
+	}
+
+	private boolean verifySignature(SignatureAlgorithm signatureAlgorithm, PublicKey publicKey, String signingInput,
+			byte[] signature) {
+		try {
+			byte[] signatureBytes = signature;
+			if (signatureAlgorithm.getEcSize() > 0) {
+				signatureBytes = toDerSignature(signature, signatureAlgorithm.getEcSize());
+				if (signatureBytes == null) {
+					return false;
+				}
+			}
+
+			Signature verifier = Signature.getInstance(signatureAlgorithm.getJcaName());
+			verifier.initVerify(publicKey);
+			verifier.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+
+			return verifier.verify(signatureBytes);
+		} catch (GeneralSecurityException ex) {
+			log.debug("Failed to verify JWT signature", ex);
+			return false;
+		}
+	}
+
+	/*
+	 * JWS ECDSA signature is concatenation of R and S, JCA expects ASN.1 DER
+	 * sequence of two integers
+	 */
+	private byte[] toDerSignature(byte[] signature, int size) {
+		if (signature.length != 2 * size) {
+			return null;
+		}
+
+		byte[] r = new BigInteger(1, Arrays.copyOfRange(signature, 0, size)).toByteArray();
+		byte[] s = new BigInteger(1, Arrays.copyOfRange(signature, size, 2 * size)).toByteArray();
+
+		int sequenceLength = 2 + r.length + 2 + s.length;
+		List<Byte> der = new ArrayList<Byte>(sequenceLength + 3);
+		der.add((byte) 0x30);
+		if (sequenceLength > 127) {
+			der.add((byte) 0x81);
+		}
+		der.add((byte) sequenceLength);
+		for (byte[] integer : new byte[][] { r, s }) {
+			der.add((byte) 0x02);
+			der.add((byte) integer.length);
+			for (byte value : integer) {
+				der.add(value);
+			}
+		}
+
+		byte[] result = new byte[der.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = der.get(i);
+		}
+
+		return result;
+	}
+
+	private JsonNode decode(String part) throws IOException {
+		return objectMapper.readTree(Base64.getUrlDecoder().decode(part));
+	}
+
+	private void refreshKeys() {
+		try {
+			OpenIdConfigurationResponse openIdConfiguration = openIdService.getOpenIdConfiguration();
+			if ((openIdConfiguration == null) || StringHelper.isEmpty(openIdConfiguration.getJwksUri())) {
+				log.warn("Failed to determine oxAuth JWKS URI");
+				return;
+			}
+
+			this.issuer = openIdConfiguration.getIssuer();
+			keyCache.load(openIdConfiguration.getJwksUri());
+		} catch (Exception ex) {
+			log.error("Failed to refresh JWKS keys", ex);
+		}
+	}
+
+	private void scheduleReload() {
+		if (System.currentTimeMillis() - keyCache.getLastLoadTime() < MIN_RELOAD_INTERVAL) {
+			return;
+		}
+
+		if (reloadScheduled.compareAndSet(false, true)) {
+			refreshExecutor.execute(() -> {
+				try {
+					refreshKeys();
+				} finally {
+					reloadScheduled.set(false);
+				}
+			});
+		}
+	}
+
+	private TokenValidationResult count(TokenValidationResult result) {
+		switch (result) {
+		case VALID:
+			validCount.incrementAndGet();
+			break;
+		case INVALID:
+			invalidCount.incrementAndGet();
+			break;
+		default:
+			unsupportedCount.incrementAndGet();
+		}
+
+		return result;
+	}
+
+	public long getValidCount() {
+		return validCount.get();
+	}
+
+	public long getInvalidCount() {
+		return invalidCount.get();
+	}
+
+	/**
+	 * @return Number of tokens which were passed to oxAuth for validation
+	 */
+	public long getUnsupportedCount() {
+		return unsupportedCount.get();
+	}
+
+	private enum SignatureAlgorithm {
+
+		RS256("SHA256withRSA", 0),
+		RS384("SHA384withRSA", 0),
+		RS512("SHA512withRSA", 0),
+		ES256("SHA256withECDSA", 32),
+		ES384("SHA384withECDSA", 48),
+		ES512("SHA512withECDSA", 66);
+
+		private final String jcaName;
+		private final int ecSize;
+
+		SignatureAlgorithm(String jcaName, int ecSize) {
+			this.jcaName = jcaName;
+			this.ecSize = ecSize;
+		}
+
+		public String getJcaName() {
+			return jcaName;
+		}
+
+		public int getEcSize() {
+			return ecSize;
+		}
+
+		public static SignatureAlgorithm getByName(String name) {
+			for (SignatureAlgorithm signatureAlgorithm : values()) {
+				if (signatureAlgorithm.name().equals(name)) {
+					return signatureAlgorithm;
+				}
+			}
+
+			return null;
+		}
+
+	}
+
+}
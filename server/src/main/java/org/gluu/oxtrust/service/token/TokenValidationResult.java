@@ -0,0 +1,19 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.service.token;
+
+/**
+ * Result of local token validation
+ */
+public enum TokenValidationResult {
+
+	VALID,
+	INVALID,
+	// Token can't be validated locally and should be validated by oxAuth
+	UNSUPPORTED
+
+}
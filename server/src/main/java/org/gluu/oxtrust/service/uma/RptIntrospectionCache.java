@@ -0,0 +1,254 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.service.uma;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.gluu.oxauth.model.uma.RptIntrospectionResponse;
+
+/**
+ * Bounded cache of RPT introspection results. Entries are keyed by token hash,
+ * so tokens are not kept in memory. Active results are kept until RPT expires
+ * but not longer than maximal TTL, inactive results are kept for short
+ * negative TTL. Failed introspections are not cached. Concurrent requests
+ * with the same token share one introspection call
+ */
+public class RptIntrospectionCache {
+
+	private final int maxSize;
+	private final long maxTtl;
+	private final long negativeTtl;
+
+	private final Map<String, CacheEntry> entries;
+	private final Map<String, CompletableFuture<CacheEntry>> loads = new ConcurrentHashMap<String, CompletableFuture<CacheEntry>>();
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong negativeHitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong sharedLoadCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * @param maxSize
+	 *            Maximal number of entries
+	 * @param maxTtl
+	 *            Maximal time to keep active result in milliseconds
+	 * @param negativeTtl
+	 *            Time to keep inactive result in milliseconds
+	 */
+	public RptIntrospectionCache(int maxSize, long maxTtl, long negativeTtl) {
+		this.maxSize = maxSize;
+		this.maxTtl = maxTtl;
+		this.negativeTtl = negativeTtl;
+
+		this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 2683418715263812093L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				boolean evict = size() > RptIntrospectionCache.this.maxSize;
+				if (evict) {
+					evictionCount.incrementAndGet();
+				}
+
+				return evict;
+			}
+		};
+	}
+
+	/**
+	 * Returns cached introspection result or loads it
+	 *
+	 * @param loader
+	 *            Introspects token. It should throw exception if introspection
+	 *            failed, result with active=false is cached as inactive token
+	 * @return Introspection result or null if loader returned no result
+	 */
+	public RptIntrospectionResponse get(String rptToken, Function<String, RptIntrospectionResponse> loader) {
+		String key = hash(rptToken);
+		long now = System.currentTimeMillis();
+
+		CacheEntry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+			if ((entry != null) && (entry.getExpiration() <= now)) {
+				entries.remove(key);
+				entry = null;
+			}
+		}
+
+		if (entry != null) {
+			if (!entry.getResponse().getActive()) {
+				negativeHitCount.incrementAndGet();
+			} else {
+				hitCount.incrementAndGet();
+			}
+			return entry.getResponse();
+		}
+		missCount.incrementAndGet();
+
+		CompletableFuture<CacheEntry> load = new CompletableFuture<CacheEntry>();
+		CompletableFuture<CacheEntry> sharedLoad = loads.putIfAbsent(key, load);
+		if (sharedLoad != null) {
+			sharedLoadCount.incrementAndGet();
+			return await(sharedLoad);
+		}
+
+		try {
+			RptIntrospectionResponse response = loader.apply(rptToken);
+			entry = new CacheEntry(response, getExpiration(response, System.currentTimeMillis()));
+			// Only explicit result of introspection is cached
+			if ((response != null) && (entry.getExpiration() > System.currentTimeMillis())) {
+				synchronized (entries) {
+					entries.put(key, entry);
+				}
+			}
+			load.complete(entry);
+
+			return response;
+		} catch (RuntimeException ex) {
+			load.completeExceptionally(ex);
+			throw ex;
+		} finally {
+			loads.remove(key, load);
+		}
+	}
+
+	private RptIntrospectionResponse await(CompletableFuture<CacheEntry> load) {
+		try {
+			return load.get().getResponse();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException ex) {
+			// Failure of shared introspection is reported to all waiting requests
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new IllegalStateException("Failed to introspect RPT", ex.getCause());
+		}
+	}
+
+	/*
+	 * Active result expires with RPT. Result of token issued in the future
+	 * according to local clock and missing result are not cached
+	 */
+	private long getExpiration(RptIntrospectionResponse response, long now) {
+		if (response == null) {
+			return now;
+		}
+
+		if (!response.getActive()) {
+			return now + negativeTtl;
+		}
+
+		Date issuedAt = response.getIssuedAt();
+		if ((issuedAt != null) && (issuedAt.getTime() > now)) {
+			return now;
+		}
+
+		long expiration = now + maxTtl;
+		Date expiresAt = response.getExpiresAt();
+		if (expiresAt != null) {
+			expiration = Math.min(expiration, expiresAt.getTime());
+		}
+
+		return expiration;
+	}
+
+	private String hash(String rptToken) {
+		try {
+			MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+			return Base64.getEncoder().encodeToString(messageDigest.digest(rptToken.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("Failed to create digest", ex);
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public int getSize() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return Number of requests answered with cached inactive result
+	 */
+	public long getNegativeHitCount() {
+		return negativeHitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @return Number of misses which waited for introspection started by another
+	 *         request
+	 */
+	public long getSharedLoadCount() {
+		return sharedLoadCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "RptIntrospectionCache [size=" + getSize() + ", maxSize=" + maxSize + ", hitCount=" + hitCount
+				+ ", negativeHitCount=" + negativeHitCount + ", missCount=" + missCount + ", sharedLoadCount="
+				+ sharedLoadCount + ", evictionCount=" + evictionCount + "]";
+	}
+
+	private static class CacheEntry {
+
+		private final RptIntrospectionResponse response;
+		private final long expiration;
+
+		public CacheEntry(RptIntrospectionResponse response, long expiration) {
+			this.response = response;
+			this.expiration = expiration;
+		}
+
+		public RptIntrospectionResponse getResponse() {
+			return response;
+		}
+
+		public long getExpiration() {
+			return expiration;
+		}
+
+	}
+
+}
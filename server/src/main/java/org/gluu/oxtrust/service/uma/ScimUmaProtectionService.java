@@ -7,6 +7,7 @@
 package org.gluu.oxtrust.service.uma;
 
 import java.io.Serializable;
+import java.util.Collections;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
@@ -22,6 +23,8 @@ import org.gluu.oxauth.client.ClientInfoResponse;
 import org.gluu.oxtrust.ldap.service.ConfigurationService;
 import org.gluu.oxtrust.ldap.service.JsonConfigurationService;
 import org.gluu.oxtrust.service.OpenIdService;
+import org.gluu.oxtrust.service.token.LocalTokenValidationService;
+import org.gluu.oxtrust.service.token.TokenValidationResult;
 import org.slf4j.Logger;
 
 /**
@@ -51,6 +54,9 @@ public class ScimUmaProtectionService extends BaseUmaProtectionService implement
     @Inject
     private OpenIdService openIdService;
 
+    @Inject
+    private LocalTokenValidationService localTokenValidationService;
+
 	protected String getClientId() {
 		return appConfiguration.getScimUmaClientId();
 	}
@@ -134,6 +140,16 @@ public class ScimUmaProtectionService extends BaseUmaProtectionService implement
             token=token.replaceFirst("Bearer\\s+","");
             log.debug("Validating token {}", token);
 
+            //JWT access tokens can be validated without oxAuth call
+            TokenValidationResult localValidationResult = localTokenValidationService.validate(token, Collections.<String>emptyList());
+            if (localValidationResult == TokenValidationResult.VALID) {
+                return null;
+            }
+            if (localValidationResult == TokenValidationResult.INVALID) {
+                log.debug("Access token is invalid");
+                return getErrorResponse(Response.Status.UNAUTHORIZED, "Invalid token "+ token);
+            }
+
             String clientInfoEndpoint=openIdService.getOpenIdConfiguration().getClientInfoEndpoint();
             ClientInfoClient clientInfoClient = new ClientInfoClient(clientInfoEndpoint);
             ClientInfoResponse clientInfoResponse = clientInfoClient.execClientInfo(token);
@@ -32,9 +32,13 @@ import org.gluu.oxauth.model.uma.UmaMetadata;
 import org.gluu.oxauth.model.uma.UmaPermission;
 import org.gluu.oxauth.model.uma.UmaPermissionList;
 import org.gluu.oxauth.model.uma.wrapper.Token;
+import org.gluu.oxtrust.config.ConfigurationFactory;
 import org.gluu.oxtrust.ldap.service.AppInitializer;
+import org.gluu.oxtrust.service.token.LocalTokenValidationService;
+import org.gluu.oxtrust.service.token.TokenValidationResult;
 import org.gluu.util.Pair;
 import org.gluu.util.StringHelper;
+import org.gluu.util.properties.FileConfiguration;
 import org.jboss.resteasy.client.ClientExecutor;
 import org.jboss.resteasy.client.core.executors.ApacheHttpClient4Executor;
 import org.slf4j.Logger;
@@ -50,6 +54,13 @@ public class UmaPermissionService implements Serializable {
 
 	private static final long serialVersionUID = -3347131971095468866L;
 
+	private static final String RPT_CACHE_SIZE_PROPERTY = "rptIntrospectionCacheSize";
+	private static final int DEFAULT_RPT_CACHE_SIZE = 10000;
+	private static final String RPT_CACHE_MAX_TTL_PROPERTY = "rptIntrospectionCacheMaxTtl";
+	private static final int DEFAULT_RPT_CACHE_MAX_TTL = 60; // 1 minute
+	private static final String RPT_CACHE_NEGATIVE_TTL_PROPERTY = "rptIntrospectionCacheNegativeTtl";
+	private static final int DEFAULT_RPT_CACHE_NEGATIVE_TTL = 5; // 5 seconds
+
 	@Inject
 	private Logger log;
 
@@ -62,8 +73,15 @@ public class UmaPermissionService implements Serializable {
 	@Inject
 	private AppInitializer appInitializer;
 
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	@Inject
+	private LocalTokenValidationService localTokenValidationService;
+
 	private org.gluu.oxauth.client.uma.UmaPermissionService permissionService;
 	private UmaRptIntrospectionService rptStatusService;
+	private RptIntrospectionCache rptIntrospectionCache;
 
 	private final Pair<Boolean, Response> authenticationFailure = new Pair<Boolean, Response>(false, null);
 	private final Pair<Boolean, Response> authenticationSuccess = new Pair<Boolean, Response>(true, null);
@@ -95,9 +113,39 @@ public class UmaPermissionService implements Serializable {
 				this.permissionService = UmaClientFactory.instance().createPermissionService(this.umaMetadata);
 				this.rptStatusService = UmaClientFactory.instance().createRptStatusService(this.umaMetadata);
 			}
+
+			initRptIntrospectionCache();
 		}
 	}
 
+	private void initRptIntrospectionCache() {
+		int size = DEFAULT_RPT_CACHE_SIZE;
+		int maxTtl = DEFAULT_RPT_CACHE_MAX_TTL;
+		int negativeTtl = DEFAULT_RPT_CACHE_NEGATIVE_TTL;
+
+		FileConfiguration baseConfiguration = configurationFactory.getBaseConfiguration();
+		if (baseConfiguration != null) {
+			size = baseConfiguration.getInt(RPT_CACHE_SIZE_PROPERTY, size);
+			maxTtl = baseConfiguration.getInt(RPT_CACHE_MAX_TTL_PROPERTY, maxTtl);
+			negativeTtl = Math.max(0, baseConfiguration.getInt(RPT_CACHE_NEGATIVE_TTL_PROPERTY, negativeTtl));
+		}
+
+		if ((size <= 0) || (maxTtl <= 0)) {
+			log.info("RPT introspection cache is disabled");
+			return;
+		}
+
+		this.rptIntrospectionCache = new RptIntrospectionCache(size, maxTtl * 1000L, negativeTtl * 1000L);
+		log.info("RPT introspection cache size: {}, max TTL: {}s, negative TTL: {}s", size, maxTtl, negativeTtl);
+	}
+
+	/**
+	 * @return RPT introspection cache or null if it's disabled
+	 */
+	public RptIntrospectionCache getRptIntrospectionCache() {
+		return rptIntrospectionCache;
+	}
+
 	public Pair<Boolean, Response> validateRptToken(Token patToken, String authorization, String umaResourceId, String scopeId) {
 		return validateRptToken(patToken, authorization, umaResourceId, Arrays.asList(scopeId));
 	}
@@ -111,8 +159,17 @@ public class UmaPermissionService implements Serializable {
 
 		if (StringHelper.isNotEmpty(authorization) && authorization.startsWith("Bearer ")) {
 			String rptToken = authorization.substring(7);
-	
-	        RptIntrospectionResponse rptStatusResponse = getStatusResponse(patToken, rptToken);
+
+			// Validate JWT RPT without oxAuth call if it's possible
+			TokenValidationResult localValidationResult = localTokenValidationService.validateRpt(rptToken, scopeIds);
+			if (TokenValidationResult.VALID == localValidationResult) {
+				return authenticationSuccess;
+			}
+
+	        RptIntrospectionResponse rptStatusResponse = null;
+			if (TokenValidationResult.UNSUPPORTED == localValidationResult) {
+				rptStatusResponse = getStatusResponse(patToken, rptToken);
+			}
             log.trace("RPT status response: {} ", rptStatusResponse);
 			if ((rptStatusResponse == null) || !rptStatusResponse.getActive()) {
 				log.error("Status response for RPT token: '{}' is invalid", rptToken);
@@ -151,26 +208,28 @@ public class UmaPermissionService implements Serializable {
     }
 
 	private RptIntrospectionResponse getStatusResponse(Token patToken, String rptToken) {
-		String authorization = "Bearer " + patToken.getAccessToken();
-
-		// Determine RPT token to status
-        RptIntrospectionResponse rptStatusResponse = null;
 		try {
-			log.info("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
-			log.info("++++++"+authorization);
-			log.info("++++++"+rptToken);
-			rptStatusResponse = this.rptStatusService.requestRptStatus(authorization, rptToken, "");
+			if (rptIntrospectionCache == null) {
+				return requestStatusResponse(patToken, rptToken);
+			}
+
+			// Errors are thrown by introspection call, so they are not cached as inactive token
+			return rptIntrospectionCache.get(rptToken, token -> requestStatusResponse(patToken, token));
 		} catch (Exception ex) {
 			log.error("Failed to determine RPT status", ex);
-			ex.printStackTrace();
-		}
-
-		// Validate RPT status response
-		if ((rptStatusResponse == null) || !rptStatusResponse.getActive()) {
 			return null;
 		}
+	}
+
+	private RptIntrospectionResponse requestStatusResponse(Token patToken, String rptToken) {
+		String authorization = "Bearer " + patToken.getAccessToken();
+
+		// Determine RPT token to status. Connection errors and error status codes are thrown
+		log.info("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
+		log.info("++++++"+authorization);
+		log.info("++++++"+rptToken);
 
-		return rptStatusResponse;
+		return this.rptStatusService.requestRptStatus(authorization, rptToken, "");
 	}
 
 	public String registerResourcePermission(Token patToken, String resourceId, List<String> scopes) {
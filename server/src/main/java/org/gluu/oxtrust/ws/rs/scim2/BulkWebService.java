@@ -25,8 +25,14 @@ import static org.gluu.oxtrust.ws.rs.scim2.BulkWebService.Verb.PUT;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -43,8 +49,10 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.lang.StringUtils;
+import org.gluu.oxtrust.config.ConfigurationFactory;
 import org.gluu.oxtrust.model.scim2.ErrorScimType;
 import org.gluu.oxtrust.model.scim2.bulk.BulkOperation;
 import org.gluu.oxtrust.model.scim2.bulk.BulkRequest;
@@ -54,7 +62,9 @@ import org.gluu.oxtrust.model.scim2.group.GroupResource;
 import org.gluu.oxtrust.model.scim2.patch.PatchRequest;
 import org.gluu.oxtrust.model.scim2.user.UserResource;
 import org.gluu.oxtrust.service.filter.ProtectedApi;
+import org.gluu.oxtrust.service.scim2.Scim2ExecutorService;
 import org.gluu.util.Pair;
+import org.gluu.util.properties.FileConfiguration;
 
 import com.wordnik.swagger.annotations.Api;
 import com.wordnik.swagger.annotations.ApiOperation;
@@ -75,6 +85,10 @@ public class BulkWebService extends BaseScimWebService {
 
     enum Verb {POST, PUT, PATCH, DELETE}    //HTTP methods involved in bulk requests
 
+    //Max number of bulk operations executed at the same time. A value of 1 means sequential processing
+    private static final String BULK_CONCURRENCY_PROPERTY = "scim2BulkConcurrency";
+    private static final int DEFAULT_BULK_CONCURRENCY = 1;
+
     private final Pattern bulkIdPattern= Pattern.compile("bulkId:(\\w+)");
 
     private List<Verb> availableMethods;
@@ -94,6 +108,15 @@ public class BulkWebService extends BaseScimWebService {
     @Inject
     private FidoDeviceWebService fidoDeviceWS;
 
+    @Inject
+    private UserResourceOperations userOperations;
+
+    @Inject
+    private ConfigurationFactory configurationFactory;
+
+    @Inject
+    private Scim2ExecutorService executorService;
+
     @Context
     private HttpHeaders httpHeaders;
 
@@ -109,83 +132,305 @@ public class BulkWebService extends BaseScimWebService {
         if (response==null) {
             log.debug("Executing web service method. processBulkOperations");
 
-            int i, errors=0;
             List<BulkOperation> operations=request.getOperations();
-            List<BulkOperation> responseOperations=new ArrayList<BulkOperation>();
-            Map<String, String> processedBulkIds=new HashMap<String, String>();
+            try {
+                List<BulkOperation> responseOperations;
+                int concurrency=getBulkConcurrency();
 
-            for (i=0;i<operations.size() && errors<request.getFailOnErrors();i++){
+                if (concurrency > 1 && operations.size() > 1)
+                    responseOperations=processConcurrently(operations, request.getFailOnErrors(), concurrency);
+                else
+                    responseOperations=processSequentially(operations, request.getFailOnErrors());
 
-                BulkOperation operation=operations.get(i);
-                BulkOperation operationResponse=new BulkOperation();
-                Response subResponse;
+                BulkResponse bulkResponse=new BulkResponse();
+                bulkResponse.setOperations(responseOperations);
 
-                String method=operation.getMethod();
-                String bulkId=operation.getBulkId();
-                try {
-                    String path=operation.getPath();
-                    BaseScimWebService service=getWSForPath(path);
-                    String fragment=getFragment(path, service, processedBulkIds);
-                    Verb verb = Verb.valueOf(method);
+                String json = mapper.writeValueAsString(bulkResponse);
+                response=Response.ok(json).build();
+            }
+            catch (Exception e){
+                log.error(e.getMessage(), e);
+                response=getErrorResponse(INTERNAL_SERVER_ERROR, e.getMessage());
+            }
+        }
+        return response;
 
-                    String data=operation.getDataStr();
-                    if (!verb.equals(DELETE))
-                        data = replaceBulkIds(data, processedBulkIds);
-
-                    Pair<Response, String> pair=execute(verb, service, data, fragment);
-                    String idCreated=pair.getSecond();
-                    subResponse=pair.getFirst();
-                    int status=subResponse.getStatus();
-
-                    if (familyOf(status).equals(SUCCESSFUL)) {
-                        if (!verb.equals(DELETE)) {
-                            if (verb.equals(POST)) {  //Update bulkIds
-                                processedBulkIds.put(bulkId, idCreated);
-                                fragment=idCreated;
-                            }
-                            String loc=service.getEndpointUrl() + "/" + fragment;
-                            operationResponse.setLocation(loc);
-                        }
+    }
+
+    private List<BulkOperation> processSequentially(List<BulkOperation> operations, int failOnErrors){
+
+        int i, errors=0;
+        List<BulkOperation> responseOperations=new ArrayList<BulkOperation>();
+        Map<String, String> processedBulkIds=new HashMap<String, String>();
+
+        for (i=0;i<operations.size() && errors<failOnErrors;i++){
+            BulkOperation operationResponse=processOperation(operations.get(i), processedBulkIds, false);
+            errors+= isError(operationResponse) ? 1 : 0;
+            responseOperations.add(operationResponse);
+
+            log.debug("Operation {} processed with status {}. Method {}, Accumulated errors {}", i+1, operationResponse.getStatus(), operationResponse.getMethod(), errors);
+        }
+        return responseOperations;
+
+    }
+
+    /**
+     * Runs operations in the order given by a dependency graph: an operation depends on the (latest) previous POST
+     * whose bulkId it references, and on the previous operation targeting the same path. Besides, there are implicit
+     * dependencies not visible in paths:
+     * <ul>
+     *     <li>Group operations update memberOf attribute of member users (read-modify-write), so every group operation
+     *     depends on the previous group operation and on user modifications issued since then, and user modifications
+     *     depend on the previous group operation</li>
+     *     <li>userName uniqueness is checked before writing, so user operations setting the same userName are
+     *     chained. A user PATCH which may touch userName (or a user operation whose userName can't be determined)
+     *     is ordered with respect to all of them</li>
+     * </ul>
+     * Dependencies among operations issued by other clients at the same time are not tracked, so concurrent mode is
+     * only safe when operations of a request touch independent users. User operations with no pending dependencies are
+     * executed in the SCIM worker pool with at most concurrency operations in flight. Since web services are request
+     * scoped, pooled operations go through {@link UserResourceOperations}, while group and FIDO device operations are
+     * executed by their web services in the request thread. Once failOnErrors errors are accumulated no more operations
+     * are started (those in flight are allowed to finish). Operations in the response keep the order they had in the
+     * request
+     */
+    private List<BulkOperation> processConcurrently(List<BulkOperation> operations, int failOnErrors, int concurrency) throws InterruptedException {
+
+        int size=operations.size();
+        List<List<Integer>> dependents=new ArrayList<List<Integer>>(size);
+        int[] pending=new int[size];
+
+        Map<String, Integer> lastPostForBulkId=new HashMap<String, Integer>();
+        Map<String, Integer> lastForPath=new HashMap<String, Integer>();
+
+        Integer lastGroupWrite=null;
+        List<Integer> userWritesSinceGroupWrite=new ArrayList<Integer>();
+
+        Map<String, Integer> lastForUserName=new HashMap<String, Integer>();
+        Integer lastUserNameBarrier=null;
+        List<Integer> userNameWritesSinceBarrier=new ArrayList<Integer>();
+
+        for (int i=0;i<size;i++){
+            dependents.add(new ArrayList<Integer>());
+            BulkOperation operation=operations.get(i);
+            Verb verb=Verb.valueOf(operation.getMethod());
+
+            Set<Integer> dependencies=new HashSet<Integer>();
+            Set<String> referencedBulkIds=getReferencedBulkIds(operation.getPath());
+            if (!verb.equals(DELETE))
+                referencedBulkIds.addAll(getReferencedBulkIds(operation.getDataStr()));
+
+            for (String id : referencedBulkIds){
+                //Forward references are left unresolved: they fail at execution as in sequential processing
+                Integer j=lastPostForBulkId.get(id);
+                if (j!=null)
+                    dependencies.add(j);
+            }
+            if (!verb.equals(POST)) {
+                Integer j=lastForPath.put(operation.getPath(), i);
+                if (j!=null)
+                    dependencies.add(j);
+            }
+            else
+                lastPostForBulkId.put(operation.getBulkId(), i);
+
+            String path=operation.getPath();
+            if (path.startsWith(groupsEndpoint)) {
+                if (lastGroupWrite!=null)
+                    dependencies.add(lastGroupWrite);
+                dependencies.addAll(userWritesSinceGroupWrite);
+                userWritesSinceGroupWrite.clear();
+                lastGroupWrite=i;
+            }
+            else
+            if (path.startsWith(usersEndpoint)) {
+                if (!verb.equals(POST)) {
+                    if (lastGroupWrite!=null)
+                        dependencies.add(lastGroupWrite);
+                    userWritesSinceGroupWrite.add(i);
+                }
+
+                if (!verb.equals(DELETE)) {
+                    String userName=getUserName(verb, operation.getDataStr());
+                    if (lastUserNameBarrier!=null)
+                        dependencies.add(lastUserNameBarrier);
+
+                    if (userName==null) {
+                        dependencies.addAll(userNameWritesSinceBarrier);
+                        userNameWritesSinceBarrier.clear();
+                        lastForUserName.clear();
+                        lastUserNameBarrier=i;
                     }
-                    else {
-                        operationResponse.setResponse(subResponse.getEntity());
-                        errors+= familyOf(status).equals(CLIENT_ERROR) || familyOf(status).equals(SERVER_ERROR) ? 1 : 0;
+                    else
+                    if (!userName.isEmpty()) {
+                        Integer j=lastForUserName.put(userName, i);
+                        if (j!=null)
+                            dependencies.add(j);
+                        userNameWritesSinceBarrier.add(i);
                     }
-
-                    subResponse.close();
-                    operationResponse.setStatus(Integer.toString(status));
                 }
-                catch (Exception e) {
-                    log.error(e.getMessage(), e);
-                    subResponse=getErrorResponse(BAD_REQUEST, ErrorScimType.INVALID_SYNTAX, e.getMessage());
+            }
 
-                    operationResponse.setStatus(Integer.toString(BAD_REQUEST.getStatusCode()));
-                    operationResponse.setResponse(subResponse.getEntity());
-                    errors++;
+            for (Integer j : dependencies)
+                dependents.get(j).add(i);
+            pending[i]=dependencies.size();
+        }
+
+        final BulkOperation[] results=new BulkOperation[size];
+        final Map<String, String> processedBulkIds=new ConcurrentHashMap<String, String>();
+        final BlockingQueue<Integer> completed=new LinkedBlockingQueue<Integer>();
+
+        //Operations appearing first in the request are started first
+        PriorityQueue<Integer> ready=new PriorityQueue<Integer>();
+        for (int i=0;i<size;i++)
+            if (pending[i]==0)
+                ready.add(i);
+
+        int inFlight=0, errors=0;
+        while (true){
+            while (errors<failOnErrors && inFlight<concurrency && !ready.isEmpty()){
+                final int index=ready.poll();
+                final BulkOperation operation=operations.get(index);
+                if (operation.getPath().startsWith(usersEndpoint))
+                    executorService.submit(() -> {
+                        try {
+                            results[index]=processOperation(operation, processedBulkIds, true);
+                        }
+                        finally {
+                            completed.add(index);
+                        }
+                        return null;
+                    });
+                else {
+                    results[index]=processOperation(operation, processedBulkIds, false);
+                    completed.add(index);
                 }
+                inFlight++;
+            }
+            if (inFlight==0)
+                break;
+
+            int index=completed.take();
+            inFlight--;
 
-                operationResponse.setBulkId(bulkId);
-                operationResponse.setMethod(method);
+            BulkOperation operationResponse=results[index];
+            if (operationResponse==null || isError(operationResponse))
+                errors++;
+            log.debug("Operation {} processed with status {}. Method {}, Accumulated errors {}", index+1,
+                    operationResponse==null ? null : operationResponse.getStatus(), operations.get(index).getMethod(), errors);
+
+            for (Integer j : dependents.get(index))
+                if (--pending[j]==0)
+                    ready.add(j);
+        }
 
+        List<BulkOperation> responseOperations=new ArrayList<BulkOperation>();
+        for (BulkOperation operationResponse : results)
+            if (operationResponse!=null)
                 responseOperations.add(operationResponse);
 
-                log.debug("Operation {} processed with status {}. Method {}, Accumulated errors {}", i+1, operationResponse.getStatus(), method, errors);
-            }
+        return responseOperations;
 
-            try {
-                BulkResponse bulkResponse=new BulkResponse();
-                bulkResponse.setOperations(responseOperations);
+    }
 
-                String json = mapper.writeValueAsString(bulkResponse);
-                response=Response.ok(json).build();
-            }
-            catch (Exception e){
-                log.error(e.getMessage(), e);
-                response=getErrorResponse(INTERNAL_SERVER_ERROR, e.getMessage());
+    /**
+     * @param workerThread Whether the operation is run in a worker thread. Only user operations can be run there, and
+     *                     request scoped web services are not used in that case
+     */
+    private BulkOperation processOperation(BulkOperation operation, Map<String, String> processedBulkIds, boolean workerThread){
+
+        BulkOperation operationResponse=new BulkOperation();
+        Response subResponse;
+
+        String method=operation.getMethod();
+        String bulkId=operation.getBulkId();
+        try {
+            String path=operation.getPath();
+            String endpoint=getEndpointForPath(path);
+            String fragment=getFragment(path, endpoint, processedBulkIds);
+            Verb verb = Verb.valueOf(method);
+
+            String data=operation.getDataStr();
+            if (!verb.equals(DELETE))
+                data = replaceBulkIds(data, processedBulkIds);
+
+            Pair<Response, String> pair=workerThread ? executeUserOperation(verb, data, fragment)
+                    : execute(verb, getWSForPath(path), data, fragment);
+            String idCreated=pair.getSecond();
+            subResponse=pair.getFirst();
+            int status=subResponse.getStatus();
+
+            if (familyOf(status).equals(SUCCESSFUL)) {
+                if (!verb.equals(DELETE)) {
+                    if (verb.equals(POST)) {  //Update bulkIds
+                        if (idCreated!=null)
+                            processedBulkIds.put(bulkId, idCreated);
+                        fragment=idCreated;
+                    }
+                    String loc=endpoint + "/" + fragment;
+                    operationResponse.setLocation(loc);
+                }
             }
+            else
+                operationResponse.setResponse(subResponse.getEntity());
+
+            subResponse.close();
+            operationResponse.setStatus(Integer.toString(status));
         }
-        return response;
+        catch (Exception e) {
+            log.error(e.getMessage(), e);
+            subResponse=getErrorResponse(BAD_REQUEST, ErrorScimType.INVALID_SYNTAX, e.getMessage());
+
+            operationResponse.setStatus(Integer.toString(BAD_REQUEST.getStatusCode()));
+            operationResponse.setResponse(subResponse.getEntity());
+        }
+
+        operationResponse.setBulkId(bulkId);
+        operationResponse.setMethod(method);
+
+        return operationResponse;
+
+    }
+
+    private boolean isError(BulkOperation operationResponse){
+        Response.Status.Family family=familyOf(Integer.parseInt(operationResponse.getStatus()));
+        return family.equals(CLIENT_ERROR) || family.equals(SERVER_ERROR);
+    }
+
+    private Set<String> getReferencedBulkIds(String str){
+
+        Set<String> ids=new HashSet<String>();
+        if (str!=null) {
+            Matcher m = bulkIdPattern.matcher(str);
+            while (m.find())
+                ids.add(m.group(1));
+        }
+        return ids;
+
+    }
+
+    /**
+     * Returns the (lower-cased) userName set by a user operation, an empty string if the operation doesn't set
+     * userName, or null if it can't be determined
+     */
+    private String getUserName(Verb verb, String data){
+
+        if (verb.equals(PATCH))
+            return StringUtils.containsIgnoreCase(data, "userName") ? null : "";
+
+        try {
+            JsonNode userName=mapper.readTree(data).get("userName");
+            return userName==null || !userName.isTextual() ? null : userName.asText().toLowerCase();
+        }
+        catch (Exception e){
+            return null;
+        }
+
+    }
 
+    private int getBulkConcurrency(){
+        FileConfiguration baseConfiguration=configurationFactory.getBaseConfiguration();
+        return baseConfiguration==null ? DEFAULT_BULK_CONCURRENCY : baseConfiguration.getInt(BULK_CONCURRENCY_PROPERTY, DEFAULT_BULK_CONCURRENCY);
     }
 
     private Response prepareRequest(BulkRequest request, String contentLength){
@@ -297,12 +542,25 @@ public class BulkWebService extends BaseScimWebService {
             return null;
     }
 
+    private String getEndpointForPath(String path){
+        if (path.startsWith(usersEndpoint))
+            return usersEndpoint;
+        else
+        if (path.startsWith(groupsEndpoint))
+            return groupsEndpoint;
+        else
+        if (path.startsWith(fidodevicesEndpoint))
+            return fidodevicesEndpoint;
+        else
+            return null;
+    }
+
     private String adjustPath(String path){
         return path.startsWith(commonWsEndpointPrefix) ? path : commonWsEndpointPrefix + path;
     }
 
-    private String getFragment(String path, BaseScimWebService service, Map<String, String> idsMap) throws Exception{
-        int endpointLen=service.getEndpointUrl().length()+1;
+    private String getFragment(String path, String endpoint, Map<String, String> idsMap) throws Exception{
+        int endpointLen=endpoint.length()+1;
         String frag=(path.length() > endpointLen) ? path.substring(endpointLen) : "";
         return replaceBulkIds(frag, idsMap);
     }
@@ -407,6 +665,46 @@ public class BulkWebService extends BaseScimWebService {
 
     }
 
+    /**
+     * Same as {@link #execute(Verb, BaseScimWebService, String, String)} for user operations, but it does not use
+     * request scoped beans
+     */
+    private Pair<Response, String> executeUserOperation(Verb verb, String data, String fragment) {
+
+        Response response=null;
+        String idCreated=null;
+
+        try {
+            switch (verb){
+                case PUT:
+                    UserResource user=mapper.readValue(data, UserResource.class);
+                    response=userOperations.updateUser(user, fragment);
+                    break;
+                case DELETE:
+                    response=userOperations.deleteUser(fragment);
+                    break;
+                case PATCH:
+                    PatchRequest pr=mapper.readValue(data, PatchRequest.class);
+                    response=userOperations.patchUser(pr, fragment);
+                    break;
+                case POST:
+                    user=mapper.readValue(data, UserResource.class);
+                    response=userOperations.createUser(user);
+                    if (CREATED.getStatusCode()==response.getStatus()) {
+                        user = mapper.readValue(response.getEntity().toString(), UserResource.class);
+                        idCreated = user.getId();
+                    }
+                    break;
+            }
+        }
+        catch (Exception e){
+            log.error(e.getMessage(), e);
+            response=getErrorResponse(Response.Status.INTERNAL_SERVER_ERROR, "Unexpected error: " + e.getMessage());
+        }
+        return new Pair<Response, String>(response, idCreated);
+
+    }
+
     @PostConstruct
     public void setup(){
         //Do not use getClass() here... a typical weld issue...
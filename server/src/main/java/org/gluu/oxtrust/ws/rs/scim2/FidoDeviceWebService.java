@@ -16,8 +16,6 @@ import static org.gluu.oxtrust.model.scim2.Constants.QUERY_PARAM_START_INDEX;
 import static org.gluu.oxtrust.model.scim2.Constants.UTF8_CHARSET_FRAGMENT;
 
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.List;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -43,7 +41,6 @@ import org.gluu.oxtrust.model.fido.GluuCustomFidoDevice;
 import org.gluu.oxtrust.model.scim2.BaseScimResource;
 import org.gluu.oxtrust.model.scim2.ErrorScimType;
 import org.gluu.oxtrust.model.scim2.ListResponse;
-import org.gluu.oxtrust.model.scim2.Meta;
 import org.gluu.oxtrust.model.scim2.SearchRequest;
 import org.gluu.oxtrust.model.scim2.fido.FidoDeviceResource;
 import org.gluu.oxtrust.model.scim2.patch.PatchRequest;
@@ -51,11 +48,10 @@ import org.gluu.oxtrust.model.scim2.util.DateUtil;
 import org.gluu.oxtrust.model.scim2.util.ScimResourceUtil;
 import org.gluu.oxtrust.service.antlr.scimFilter.ScimFilterParserService;
 import org.gluu.oxtrust.service.filter.ProtectedApi;
+import org.gluu.oxtrust.service.scim2.Scim2FidoDeviceService;
 import org.gluu.oxtrust.service.scim2.interceptor.RefAdjusted;
-import org.gluu.persist.PersistenceEntryManager;
 import org.gluu.persist.model.PagedResult;
 import org.gluu.persist.model.SortOrder;
-import org.gluu.search.filter.Filter;
 import org.joda.time.format.ISODateTimeFormat;
 
 import com.wordnik.swagger.annotations.ApiOperation;
@@ -79,7 +75,7 @@ public class FidoDeviceWebService extends BaseScimWebService implements IFidoDev
     private ScimFilterParserService scimFilterParserService;
 
     @Inject
-    private PersistenceEntryManager ldapEntryManager;
+    private Scim2FidoDeviceService scim2FidoDeviceService;
 
     private boolean ldapBackend;
 
@@ -115,7 +111,7 @@ public class FidoDeviceWebService extends BaseScimWebService implements IFidoDev
             if (device==null)
                 throw new SCIMException("Resource " + id + " not found");
 
-            transferAttributesToFidoResource(device, fidoResource, endpointUrl, userId);
+            scim2FidoDeviceService.transferAttributesToFidoResource(device, fidoResource, endpointUrl, userId);
 
             String json=resourceSerializer.serialize(fidoResource, attrsList, excludedAttrsList);
             response=Response.ok(new URI(fidoResource.getMeta().getLocation())).entity(json).build();
@@ -156,7 +152,7 @@ public class FidoDeviceWebService extends BaseScimWebService implements IFidoDev
                 throw new SCIMException("Resource " + id + " not found");
 
             FidoDeviceResource updatedResource=new FidoDeviceResource();
-            transferAttributesToFidoResource(device, updatedResource, endpointUrl, userId);
+            scim2FidoDeviceService.transferAttributesToFidoResource(device, updatedResource, endpointUrl, userId);
 
             long now = System.currentTimeMillis();
             updatedResource.getMeta().setLastModified(ISODateTimeFormat.dateTime().withZoneUTC().print(now));
@@ -234,7 +230,8 @@ public class FidoDeviceWebService extends BaseScimWebService implements IFidoDev
         try {
             log.debug("Executing web service method. searchDevices");
             sortBy=translateSortByAttribute(FidoDeviceResource.class, sortBy);
-            PagedResult<BaseScimResource> resources = searchDevices(userId, filter, sortBy, SortOrder.getByValue(sortOrder), startIndex, count, endpointUrl);
+            PagedResult<BaseScimResource> resources = scim2FidoDeviceService.searchDevices(userId, filter, sortBy,
+                    SortOrder.getByValue(sortOrder), startIndex, count, endpointUrl, getMaxCount());
 
             String json = getListResponseSerialized(resources.getTotalEntriesCount(), startIndex, resources.getEntries(), attrsList, excludedAttrsList, count==0);
             response=Response.ok(json).location(new URI(endpointUrl)).build();
@@ -277,44 +274,6 @@ public class FidoDeviceWebService extends BaseScimWebService implements IFidoDev
 
     }
 
-    private void transferAttributesToFidoResource(GluuCustomFidoDevice fidoDevice, FidoDeviceResource res, String url, String userId) {
-
-        res.setId(fidoDevice.getId());
-
-        Meta meta=new Meta();
-        meta.setResourceType(ScimResourceUtil.getType(res.getClass()));
-
-        String strDate = fidoDevice.getCreationDate();
-        meta.setCreated(ldapBackend ? DateUtil.generalizedToISOStringDate(strDate) : (strDate + "Z"));
-        meta.setLastModified(fidoDevice.getMetaLastModified());
-        meta.setLocation(fidoDevice.getMetaLocation());
-        if (meta.getLocation()==null)
-            meta.setLocation(url + "/" + fidoDevice.getId());
-
-        res.setMeta(meta);
-
-        //Set values in order of appearance in FidoDeviceResource class
-        res.setUserId(userId);
-        res.setCreationDate(meta.getCreated());
-        res.setApplication(fidoDevice.getApplication());
-        res.setCounter(fidoDevice.getCounter());
-
-        res.setDeviceData(fidoDevice.getDeviceData());
-        res.setDeviceHashCode(fidoDevice.getDeviceHashCode());
-        res.setDeviceKeyHandle(fidoDevice.getDeviceKeyHandle());
-        res.setDeviceRegistrationConf(fidoDevice.getDeviceRegistrationConf());
-
-        strDate = fidoDevice.getLastAccessTime();
-        if (strDate != null) {
-            res.setLastAccessTime(ldapBackend ? DateUtil.generalizedToISOStringDate(strDate) : (strDate + "Z"));
-        }
-        res.setStatus(fidoDevice.getStatus());
-        res.setDisplayName(fidoDevice.getDisplayName());
-        res.setDescription(fidoDevice.getDescription());
-        res.setNickname(fidoDevice.getNickname());
-
-    }
-
     /**
      * In practice, transference of values will not necessarily modify all original values in LDAP...
      * @param res
@@ -347,40 +306,6 @@ public class FidoDeviceWebService extends BaseScimWebService implements IFidoDev
 
     }
 
-    private PagedResult<BaseScimResource> searchDevices(String userId, String filter, String sortBy, SortOrder sortOrder, int startIndex,
-                                                    int count, String url) throws Exception {
-
-        Filter ldapFilter=scimFilterParserService.createFilter(filter, Filter.createPresenceFilter("oxId"), FidoDeviceResource.class);
-        log.info("Executing search for fido devices using: ldapfilter '{}', sortBy '{}', sortOrder '{}', startIndex '{}', count '{}'",
-                ldapFilter.toString(), sortBy, sortOrder.getValue(), startIndex, count);
-
-        PagedResult<GluuCustomFidoDevice> list;
-        try {
-            list = ldapEntryManager.findPagedEntries(fidoDeviceService.getDnForFidoDevice(userId, null),
-                    GluuCustomFidoDevice.class, ldapFilter, null, sortBy, sortOrder, startIndex - 1, count, getMaxCount());
-        } catch (Exception e) {
-            log.info("Returning an empty listViewReponse");
-            log.error(e.getMessage(), e);
-            list = new PagedResult<>();
-            list.setEntries(new ArrayList<>());
-        }
-        List<BaseScimResource> resources=new ArrayList<>();
-
-        for (GluuCustomFidoDevice device : list.getEntries()){
-            FidoDeviceResource scimDev=new FidoDeviceResource();
-            transferAttributesToFidoResource(device, scimDev, url, getUserInumFromDN(device.getDn()));
-            resources.add(scimDev);
-        }
-        log.info ("Found {} matching entries - returning {}", list.getTotalEntriesCount(), list.getEntries().size());
-
-        PagedResult<BaseScimResource> result = new PagedResult<>();
-        result.setEntries(resources);
-        result.setTotalEntriesCount(list.getTotalEntriesCount());
-        
-        return result;
-
-    }
-
     @Path("{id}")
     @PATCH
     @Consumes({MEDIA_TYPE_SCIM_JSON, MediaType.APPLICATION_JSON})
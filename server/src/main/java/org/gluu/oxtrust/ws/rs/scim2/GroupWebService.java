@@ -135,7 +135,8 @@ public class GroupWebService extends BaseScimWebService implements IGroupWebServ
                 throw new WebApplicationException("Failed to execute SCIM script successfully",
                         Response.Status.PRECONDITION_FAILED);
             }
-            scim2GroupService.transferAttributesToGroupResource(gluuGroup, group, endpointUrl, userWebService.getEndpointUrl());
+            boolean fillMembers = resourceSerializer.isReturned(GroupResource.class, attrsList, excludedAttrsList, "members");
+            scim2GroupService.transferAttributesToGroupResource(gluuGroup, group, fillMembers, endpointUrl, userWebService.getEndpointUrl());
 
             String json = resourceSerializer.serialize(group, attrsList, excludedAttrsList);
             response = Response.ok(new URI(group.getMeta().getLocation())).entity(json).build();
@@ -228,8 +229,9 @@ public class GroupWebService extends BaseScimWebService implements IGroupWebServ
         try {
             log.debug("Executing web service method. searchGroups");
             sortBy=translateSortByAttribute(GroupResource.class, sortBy);
+            boolean fillMembers=resourceSerializer.isReturned(GroupResource.class, attrsList, excludedAttrsList, "members");
             PagedResult<BaseScimResource> resources = scim2GroupService.searchGroups(filter, sortBy, SortOrder.getByValue(sortOrder),
-                    startIndex, count, endpointUrl, userWebService.getEndpointUrl(), getMaxCount());
+                    startIndex, count, endpointUrl, userWebService.getEndpointUrl(), getMaxCount(), fillMembers);
 
             String json = getListResponseSerialized(resources.getTotalEntriesCount(), startIndex, resources.getEntries(), attrsList, excludedAttrsList, count==0);
             response=Response.ok(json).location(new URI(endpointUrl)).build();
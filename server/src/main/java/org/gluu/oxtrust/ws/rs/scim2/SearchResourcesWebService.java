@@ -13,6 +13,8 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -25,11 +27,13 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.Version;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.gluu.oxtrust.model.scim2.BaseScimResource;
 import org.gluu.oxtrust.model.scim2.ListResponse;
 import org.gluu.oxtrust.model.scim2.SearchRequest;
 import org.gluu.oxtrust.model.scim2.fido.FidoDeviceResource;
@@ -37,8 +41,14 @@ import org.gluu.oxtrust.model.scim2.group.GroupResource;
 import org.gluu.oxtrust.model.scim2.user.UserResource;
 import org.gluu.oxtrust.model.scim2.util.ScimResourceUtil;
 import org.gluu.oxtrust.service.filter.ProtectedApi;
+import org.gluu.oxtrust.service.scim2.Scim2ExecutorService;
+import org.gluu.oxtrust.service.scim2.Scim2FidoDeviceService;
+import org.gluu.oxtrust.service.scim2.Scim2GroupService;
+import org.gluu.oxtrust.service.scim2.Scim2UserService;
 import org.gluu.oxtrust.service.scim2.interceptor.RefAdjusted;
 import org.gluu.oxtrust.service.scim2.serialization.ListResponseJsonSerializer;
+import org.gluu.persist.model.PagedResult;
+import org.gluu.persist.model.SortOrder;
 import org.gluu.util.Pair;
 
 import com.wordnik.swagger.annotations.ApiOperation;
@@ -62,7 +72,17 @@ public class SearchResourcesWebService extends BaseScimWebService {
     @Inject
     private FidoDeviceWebService fidoWS;
 
-    private ObjectMapper mapper=null;
+    @Inject
+    private Scim2FidoDeviceService scim2FidoDeviceService;
+
+    @Inject
+    private Scim2UserService scim2UserService;
+
+    @Inject
+    private Scim2GroupService scim2GroupService;
+
+    @Inject
+    private Scim2ExecutorService executorService;
 
     private int NUM_RESOURCE_TYPES;
 
@@ -84,23 +104,25 @@ public class SearchResourcesWebService extends BaseScimWebService {
 
         if (response == null) {
             try {
-                List<JsonNode> resources = new ArrayList<JsonNode>();
+                List<BaseScimResource> resources = new ArrayList<>();
                 Pair<Integer, Integer> totals = computeResults(searchReq, resources);
 
                 ListResponseJsonSerializer custSerializer = new ListResponseJsonSerializer(resourceSerializer, searchReq.getAttributesStr(),
                         searchReq.getExcludedAttributesStr(), searchReq.getCount() == 0);
-                if (resources.size() > 0)
-                    custSerializer.setJsonResources(resources);
 
-                ObjectMapper objmapper = new ObjectMapper();
+                final ObjectMapper objmapper = new ObjectMapper();
                 SimpleModule module = new SimpleModule("ListResponseModule", Version.unknownVersion());
                 module.addSerializer(ListResponse.class, custSerializer);
                 objmapper.registerModule(module);
+                objmapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
 
                 //Provide to constructor original start index, and totals calculated in computeResults call
-                ListResponse listResponse = new ListResponse(searchReq.getStartIndex(), totals.getFirst(), totals.getSecond());
-                String json = objmapper.writeValueAsString(listResponse);
-                response = Response.ok(json).location(new URI(endpointUrl)).build();
+                final ListResponse listResponse = new ListResponse(searchReq.getStartIndex(), totals.getFirst(), totals.getSecond());
+                listResponse.setResources(resources);
+
+                //Write the response straight to the output stream, there is no need to build the whole json string
+                StreamingOutput output = outputStream -> objmapper.writeValue(outputStream, listResponse);
+                response = Response.ok(output).location(new URI(endpointUrl)).build();
             }
             catch (Exception e){
                 log.error("Failure at search method", e);
@@ -112,133 +134,202 @@ public class SearchResourcesWebService extends BaseScimWebService {
     }
 
     /**
-     * Here we reuse every single POST search found in other web services, but handle serialization differently to a more
-     * manual approach for performance reasons. In the end, this saves us 3 deserializations and 3 serializations of
-     * multiple results packs.
+     * Searches of every resource type are issued concurrently and typed results are merged in resource type order, so
+     * there is no json serialization/deserialization of intermediate results.
+     * When startIndex is 1 one round of searches suffices. Otherwise a first round (with count=0) obtains the number of
+     * matches per resource type so that a second round requests exactly the window of every type that falls into the
+     * page requested.
      * Result set as a whole will not be sorted by sortBy param but every group of resources (by resource type) will be
      * sorted as such
      * @param searchRequest
      * @param resources
      * @return
      */
-    private Pair<Integer, Integer> computeResults(SearchRequest searchRequest, List<JsonNode> resources) throws Exception{
-
-        int i;
-        int totalInPage=0, totalResults=0, skip=0;
-        boolean resultsAvailable=false;
-
-        Integer startIndex_=searchRequest.getStartIndex();
-        JsonNode tree=null;
-
-        //THIS ALGORITHM IS CONTRIVED, IF YOU CHANGE IT ENSURE TEST CASES STILL PASS...
-
-        //Move forward to skip the searches that might have no results and find the first one starting at index = searchRequest.getStartIndex()
-        for (i=0; i< NUM_RESOURCE_TYPES && !resultsAvailable; i++) {
-            tree=getListResponseTree(i, searchRequest);
-
-            if (tree!=null) {
-                totalResults += tree.get("totalResults").asInt();
-
-                if (totalResults>0){
-
-                    if (totalResults>=startIndex_) {
-                        resultsAvailable = tree.get("itemsPerPage") != null;    //when null, it means searchRequest.getCount() was zero or empty page
+    private Pair<Integer, Integer> computeResults(SearchRequest searchRequest, List<BaseScimResource> resources) throws Exception{
+
+        SearchParams params = new SearchParams(searchRequest);
+        int startIndex = searchRequest.getStartIndex();
+        int count = searchRequest.getCount();
+
+        int[] starts = new int[NUM_RESOURCE_TYPES];
+        int[] counts = new int[NUM_RESOURCE_TYPES];
+        int[] totals = null;
+
+        if (startIndex > 1 || count == 0) {
+            //Find the number of matches per resource type
+            totals = getTotals(searchAll(params, starts, counts, true));
+            if (count == 0) {
+                int totalResults = 0;
+                for (int total : totals)
+                    totalResults += total;
+                return new Pair<Integer, Integer>(0, totalResults);
+            }
 
-                        if (searchRequest.getStartIndex()==1)
-                            skip=startIndex_ - (totalResults - tree.get("totalResults").asInt()) - 1;
-                    }
-                    searchRequest.setStartIndex(1);     //Adjust startindex of subsequent searches to 1
+            //Compute the window of every type that falls into the page requested (0-based offsets)
+            int offset = startIndex - 1, accumulated = 0;
+            for (int i = 0; i < NUM_RESOURCE_TYPES; i++) {
+                int from = Math.max(0, offset - accumulated);
+                int to = Math.min(totals[i], offset + count - accumulated);
+                if (from < to) {
+                    starts[i] = from + 1;
+                    counts[i] = to - from;
                 }
+                accumulated += totals[i];
+            }
+        } else {
+            for (int i = 0; i < NUM_RESOURCE_TYPES; i++) {
+                starts[i] = 1;
+                counts[i] = count;
             }
         }
 
-        if (resultsAvailable){
+        List<PagedResult<BaseScimResource>> results = searchAll(params, starts, counts, false);
+        if (totals == null) {
+            totals = getTotals(results);
+        }
 
-            //Accumulate till we have searchRequest.getCount() results or exhaust data
+        //Accumulate till we have searchRequest.getCount() results or exhaust data
+        int totalResults = 0;
+        for (int i = 0; i < NUM_RESOURCE_TYPES; i++) {
+            totalResults += totals[i];
 
-            Iterator<JsonNode> iterator = tree.get("Resources").elements();
-            while (iterator.hasNext() && totalInPage < searchRequest.getCount()){
-                if (skip==0) {
-                    totalInPage++;
+            PagedResult<BaseScimResource> result = results.get(i);
+            if (result != null && result.getEntries() != null) {
+                for (Iterator<BaseScimResource> iterator = result.getEntries().iterator();
+                     iterator.hasNext() && resources.size() < count;)
                     resources.add(iterator.next());
-                }
-                else{
-                    skip--;
-                    iterator.next();
-                }
             }
+        }
+        return new Pair<Integer, Integer>(resources.size(), totalResults);
 
-            while (i< NUM_RESOURCE_TYPES && totalInPage < searchRequest.getCount()){
+    }
 
-                resultsAvailable=false;
-                tree = getListResponseTree(i, searchRequest);
-                if (tree!=null) {
-                    totalResults += tree.get("totalResults").asInt();
+    /**
+     * Issues concurrently the search of every resource type whose count is positive, or of all types when only totals
+     * are needed. Searches run in worker threads, so they only use the values of params and application scoped services
+     * @param params
+     * @param starts 1-based start index to use for every resource type
+     * @param counts Number of results to request for every resource type
+     * @param totalsOnly Whether to issue searches with count=0 for all resource types
+     * @return List of results per resource type. Entries are null for types not searched
+     * @throws Exception If the search of any resource type failed, so that partial results are not returned
+     */
+    private List<PagedResult<BaseScimResource>> searchAll(SearchParams params, int[] starts, int[] counts,
+                                                          boolean totalsOnly) throws Exception {
+
+        List<Future<PagedResult<BaseScimResource>>> futures = new ArrayList<>();
+        for (int i = 0; i < NUM_RESOURCE_TYPES; i++) {
+            final int index = i;
+            if (totalsOnly || counts[i] > 0) {
+                futures.add(executorService.submit(() -> search(index, params, Math.max(1, starts[index]),
+                        totalsOnly ? 0 : counts[index])));
+            } else {
+                futures.add(null);
+            }
+        }
 
-                    if (tree.get("totalResults").asInt() > 0)
-                        resultsAvailable = tree.get("itemsPerPage")!=null;
+        List<PagedResult<BaseScimResource>> results = new ArrayList<>();
+        for (int i = 0; i < NUM_RESOURCE_TYPES; i++) {
+            PagedResult<BaseScimResource> result = null;
+            if (futures.get(i) != null) {
+                try {
+                    result = futures.get(i).get();
                 }
-
-                if (resultsAvailable) {
-                    for (iterator = tree.get("Resources").elements();
-                         iterator.hasNext() && totalInPage < searchRequest.getCount();
-                         totalInPage++)
-                        resources.add(iterator.next());
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelAll(futures);
+                    throw new Exception("Interrupted while searching " + ScimResourceUtil.getType(resourceClasses[i]), e);
+                }
+                catch (ExecutionException e) {
+                    log.error("Error searching {}: {}", ScimResourceUtil.getType(resourceClasses[i]), e.getCause().getMessage());
+                    cancelAll(futures);
+                    throw new Exception("Error searching " + ScimResourceUtil.getType(resourceClasses[i]), e.getCause());
                 }
-
-                i++;
             }
+            results.add(result);
+        }
+        return results;
 
-            //Continue the remainder of searches to just compute final value for totalResults
-            while (i< NUM_RESOURCE_TYPES){
-                tree = getListResponseTree(i, searchRequest);
-                if (tree!=null)
-                    totalResults += tree.get("totalResults").asInt();
-                i++;
+    }
+
+    private void cancelAll(List<Future<PagedResult<BaseScimResource>>> futures) {
+        for (Future<PagedResult<BaseScimResource>> future : futures) {
+            if (future != null) {
+                future.cancel(true);
             }
         }
+    }
 
-        //Revert startIndex to original
-        searchRequest.setStartIndex(startIndex_);
-        return new Pair<Integer, Integer>(totalInPage, totalResults);
+    private int[] getTotals(List<PagedResult<BaseScimResource>> results) {
+
+        int[] totals = new int[NUM_RESOURCE_TYPES];
+        for (int i = 0; i < NUM_RESOURCE_TYPES; i++) {
+            PagedResult<BaseScimResource> result = results.get(i);
+            totals[i] = result == null ? 0 : result.getTotalEntriesCount();
+        }
+        return totals;
 
     }
 
     /**
-     * Returns a JsonNode with the response obtained from sending a POST to a search method given the SearchRequest passed
+     * Executes the search of a concrete resource type
      * @param index Determines the concrete search method to be executed: (0 - user; 1 - group; 2 - fido device)
-     * @param searchRequest
+     * @param params
+     * @param startIndex
+     * @param count
      * @return
      */
-    private JsonNode getListResponseTree(int index, SearchRequest searchRequest){
-
-        try {
-            log.debug("getListResponseTree. Resource type is: {}", ScimResourceUtil.getType(resourceClasses[index]));
-
-            Response r = null;
-            switch (index) {
-                case 0:
-                    r = userWS.searchUsersPost(searchRequest);
-                    break;
-                case 1:
-                    r = groupWS.searchGroupsPost(searchRequest);
-                    break;
-                case 2:
-                    r = fidoWS.searchDevicesPost(searchRequest, null);
-                    break;
-            }
+    private PagedResult<BaseScimResource> search(int index, SearchParams params, int startIndex, int count) throws Exception {
+
+        log.debug("search. Resource type is: {}", ScimResourceUtil.getType(resourceClasses[index]));
+
+        PagedResult<BaseScimResource> result = null;
+        switch (index) {
+            case 0:
+                result = scim2UserService.searchUsers(params.filter, params.sortBys[index], params.sortOrder, startIndex, count,
+                        params.usersUrl, params.maxCount);
+                break;
+            case 1:
+                result = scim2GroupService.searchGroups(params.filter, params.sortBys[index], params.sortOrder, startIndex, count,
+                        params.groupsUrl, params.usersUrl, params.maxCount, params.fillMembers);
+                break;
+            case 2:
+                result = scim2FidoDeviceService.searchDevices(null, params.filter, params.sortBys[index], params.sortOrder,
+                        startIndex, count, params.fidoDevicesUrl, params.maxCount);
+                break;
+        }
+        return result;
 
-            if (r.getStatus()!=OK.getStatusCode())
-                throw new Exception("Intermediate POST search returned " + r.getStatus());
+    }
 
-            //readEntity does not work here since data is not backed by an input stream, so we just get the raw entity
-            String jsonStr = r.getEntity().toString();
-            return mapper.readTree(jsonStr);
-        }
-        catch (Exception e){
-            log.error("Error in getListResponseTree {}", e.getMessage());
-            log.error(e.getMessage(), e);
-            return null;
+    /**
+     * Values needed by the searches of every resource type. They are computed in the request thread since web services
+     * of every resource type are request scoped and can't be accessed from worker threads
+     */
+    private class SearchParams {
+
+        private final String filter;
+        private final SortOrder sortOrder;
+        private final String[] sortBys;
+        private final String usersUrl;
+        private final String groupsUrl;
+        private final String fidoDevicesUrl;
+        private final int maxCount;
+        private final boolean fillMembers;
+
+        SearchParams(SearchRequest searchRequest) {
+            filter = searchRequest.getFilter();
+            sortOrder = SortOrder.getByValue(searchRequest.getSortOrder());
+            sortBys = new String[NUM_RESOURCE_TYPES];
+            for (int i = 0; i < NUM_RESOURCE_TYPES; i++) {
+                sortBys[i] = translateSortByAttribute(resourceClasses[i], searchRequest.getSortBy());
+            }
+            usersUrl = userWS.getEndpointUrl();
+            groupsUrl = groupWS.getEndpointUrl();
+            fidoDevicesUrl = fidoWS.getEndpointUrl();
+            maxCount = getMaxCount();
+            fillMembers = resourceSerializer.isReturned(GroupResource.class, searchRequest.getAttributesStr(),
+                    searchRequest.getExcludedAttributesStr(), "members");
         }
 
     }
@@ -247,7 +338,6 @@ public class SearchResourcesWebService extends BaseScimWebService {
     public void setup(){
         //Do not use getClass() here... a typical weld issue...
         endpointUrl=appConfiguration.getBaseEndpoint() + SearchResourcesWebService.class.getAnnotation(Path.class).value();
-        mapper=new ObjectMapper();
 
         //Do not alter the order of appearance
         resourceClasses=new Class[]{UserResource.class, GroupResource.class, FidoDeviceResource.class};
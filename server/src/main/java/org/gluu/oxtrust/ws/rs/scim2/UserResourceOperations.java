@@ -0,0 +1,230 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+package org.gluu.oxtrust.ws.rs.scim2;
+
+import static org.gluu.oxtrust.model.scim2.patch.PatchOperationType.REMOVE;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.management.InvalidAttributeValueException;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Response;
+
+import org.apache.commons.lang.StringUtils;
+import org.gluu.oxtrust.model.GluuCustomPerson;
+import org.gluu.oxtrust.model.exception.SCIMException;
+import org.gluu.oxtrust.model.scim.ScimCustomPerson;
+import org.gluu.oxtrust.model.scim2.ErrorScimType;
+import org.gluu.oxtrust.model.scim2.patch.PatchOperation;
+import org.gluu.oxtrust.model.scim2.patch.PatchRequest;
+import org.gluu.oxtrust.model.scim2.user.UserResource;
+import org.gluu.oxtrust.model.scim2.util.ScimResourceUtil;
+import org.gluu.oxtrust.service.scim2.Scim2PatchService;
+import org.gluu.oxtrust.service.scim2.Scim2UserService;
+import org.gluu.persist.exception.operation.DuplicateEntryException;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * Operations over users which don't require the request scoped {@link UserWebService}, so they can be executed in
+ * worker threads (see bulk requests processed concurrently in {@link BulkWebService}). Validations applied are the same
+ * of UserWebServiceDecorator. Responses have the same status codes of UserWebService methods but resources in them
+ * only contain the id
+ */
+@ApplicationScoped
+@Named
+public class UserResourceOperations extends BaseScimWebService {
+
+    @Inject
+    private Scim2UserService scim2UserService;
+
+    @Inject
+    private Scim2PatchService scim2PatchService;
+
+    public Response createUser(UserResource user) {
+
+        Response response;
+        try {
+            executeDefaultValidation(user);
+            checkUidExistence(user.getUserName(), null);
+
+            assignMetaInformation(user);
+            ScimResourceUtil.adjustPrimarySubAttributes(user);
+
+            scim2UserService.createUser(user, endpointUrl);
+            String json=resourceSerializer.serialize(user, "id", null);
+            response=Response.created(new URI(user.getMeta().getLocation())).entity(json).build();
+        }
+        catch (DuplicateEntryException e){
+            log.error(e.getMessage());
+            response=getErrorResponse(Response.Status.CONFLICT, ErrorScimType.UNIQUENESS, e.getMessage());
+        }
+        catch (SCIMException e){
+            log.error("Validation check at createUser returned: {}", e.getMessage());
+            response=getErrorResponse(Response.Status.BAD_REQUEST, ErrorScimType.INVALID_VALUE, e.getMessage());
+        }
+        catch (Exception e){
+            log.error("Failure at createUser method", e);
+            response=getErrorResponse(Response.Status.INTERNAL_SERVER_ERROR, "Unexpected error: " + e.getMessage());
+        }
+        return response;
+
+    }
+
+    public Response updateUser(UserResource user, String id) {
+
+        Response response;
+        try {
+            //Check if the ids match in case the user coming has one
+            if (user.getId()!=null && !user.getId().equals(id))
+                throw new SCIMException("Parameter id does not match with id attribute of User");
+
+            response=validateExistenceOfUser(id);
+            if (response==null) {
+                executeValidation(user, true);
+                if (StringUtils.isNotEmpty(user.getUserName()))
+                    checkUidExistence(user.getUserName(), id);
+
+                ScimResourceUtil.adjustPrimarySubAttributes(user);
+
+                UserResource updatedResource=scim2UserService.updateUser(id, user, endpointUrl);
+                String json=resourceSerializer.serialize(updatedResource, "id", null);
+                response=Response.ok(new URI(updatedResource.getMeta().getLocation())).entity(json).build();
+            }
+        }
+        catch (DuplicateEntryException e){
+            log.error(e.getMessage());
+            response=getErrorResponse(Response.Status.CONFLICT, ErrorScimType.UNIQUENESS, e.getMessage());
+        }
+        catch (SCIMException e){
+            log.error("Validation check at updateUser returned: {}", e.getMessage());
+            response=getErrorResponse(Response.Status.BAD_REQUEST, ErrorScimType.INVALID_VALUE, e.getMessage());
+        }
+        catch (InvalidAttributeValueException e){
+            log.error(e.getMessage());
+            response=getErrorResponse(Response.Status.BAD_REQUEST, ErrorScimType.MUTABILITY, e.getMessage());
+        }
+        catch (Exception e){
+            log.error("Failure at updateUser method", e);
+            response=getErrorResponse(Response.Status.INTERNAL_SERVER_ERROR, "Unexpected error: " + e.getMessage());
+        }
+        return response;
+
+    }
+
+    public Response deleteUser(String id) {
+
+        Response response=validateExistenceOfUser(id);
+        if (response==null) {
+            try {
+                ScimCustomPerson person=userPersistenceHelper.getPersonByInum(id);
+                scim2UserService.deleteUser(person);
+                response=Response.noContent().build();
+            }
+            catch (Exception e){
+                log.error("Failure at deleteUser method", e);
+                response=getErrorResponse(Response.Status.INTERNAL_SERVER_ERROR, "Unexpected error: " + e.getMessage());
+            }
+        }
+        return response;
+
+    }
+
+    public Response patchUser(PatchRequest request, String id) {
+
+        Response response=inspectPatchRequest(request, UserResource.class);
+        if (response==null)
+            response=validateExistenceOfUser(id);
+
+        if (response==null) {
+            try {
+                UserResource user=applyPatch(request, id);
+                String json=resourceSerializer.serialize(user, "id", null);
+                response=Response.ok(new URI(user.getMeta().getLocation())).entity(json).build();
+            }
+            catch (InvalidAttributeValueException e){
+                log.error(e.getMessage(), e);
+                response=getErrorResponse(Response.Status.BAD_REQUEST, ErrorScimType.MUTABILITY, e.getMessage());
+            }
+            catch (SCIMException e){
+                response=getErrorResponse(Response.Status.BAD_REQUEST, ErrorScimType.INVALID_SYNTAX, e.getMessage());
+            }
+            catch (Exception e){
+                log.error("Failure at patchUser method", e);
+                response=getErrorResponse(Response.Status.INTERNAL_SERVER_ERROR, "Unexpected error: " + e.getMessage());
+            }
+        }
+        return response;
+
+    }
+
+    /**
+     * Applies the operations of a (previously inspected) patch request to an existing user and stores the result
+     * @return The user resource with all the information of the user after the patch
+     */
+    public UserResource applyPatch(PatchRequest request, String id) throws Exception {
+
+        UserResource user=new UserResource();
+        ScimCustomPerson person=userPersistenceHelper.getPersonByInum(id);  //person is not null (existence checked before)
+
+        //Fill user instance with all info from person
+        scim2UserService.transferAttributesToUserResource(person, user, endpointUrl);
+
+        //Apply patches one by one in sequence
+        for (PatchOperation po : request.getOperations()) {
+            //Handle special case: https://github.com/GluuFederation/oxTrust/issues/800
+            if (po.getType().equals(REMOVE) && po.getPath().equals("pairwiseIdentitifers")){
+                //If this block weren't here, the implementation will throw error because read-only attribute cannot be altered
+                //Note the path is intentionally mistyped, see class member in UserResource
+                person.setOxPPID(null);
+                user.setPairwiseIdentifiers(null);
+                scim2UserService.removePPIDsBranch(person.getDn());
+            }
+            else
+                user = (UserResource) scim2PatchService.applyPatchOperation(user, po);
+        }
+
+        //Throws exception if final representation does not pass overall validation
+        log.debug("applyPatch. Revising final resource representation still passes validations");
+        executeDefaultValidation(user);
+        ScimResourceUtil.adjustPrimarySubAttributes(user);
+
+        //Update timestamp
+        String now=ISODateTimeFormat.dateTime().withZoneUTC().print(System.currentTimeMillis());
+        user.getMeta().setLastModified(now);
+
+        //Replaces the information found in person with the contents of user
+        scim2UserService.replacePersonInfo(person, user, endpointUrl);
+        return user;
+
+    }
+
+    /**
+     * Checks there is no user other than the one with the id passed (if any) using the userName supplied
+     */
+    private void checkUidExistence(String uid, String id) throws Exception {
+
+        List<GluuCustomPerson> list=personService.findPersonsByUids(Collections.singletonList(uid), new String[]{"inum"});
+        if (list!=null) {
+            for (GluuCustomPerson p : list)
+                if (id==null || !p.getInum().equals(id))
+                    throw new DuplicateEntryException("Duplicate UID value: " + uid);
+        }
+
+    }
+
+    @PostConstruct
+    public void setup() {
+        //Same endpoint of UserWebService, so locations of resources are the same
+        endpointUrl=appConfiguration.getBaseEndpoint() + UserWebService.class.getAnnotation(Path.class).value();
+    }
+
+}
@@ -14,7 +14,6 @@ import static org.gluu.oxtrust.model.scim2.Constants.QUERY_PARAM_SORT_BY;
 import static org.gluu.oxtrust.model.scim2.Constants.QUERY_PARAM_SORT_ORDER;
 import static org.gluu.oxtrust.model.scim2.Constants.QUERY_PARAM_START_INDEX;
 import static org.gluu.oxtrust.model.scim2.Constants.UTF8_CHARSET_FRAGMENT;
-import static org.gluu.oxtrust.model.scim2.patch.PatchOperationType.REMOVE;
 
 import java.net.URI;
 
@@ -42,18 +41,14 @@ import org.gluu.oxtrust.model.scim2.BaseScimResource;
 import org.gluu.oxtrust.model.scim2.ErrorScimType;
 import org.gluu.oxtrust.model.scim2.ListResponse;
 import org.gluu.oxtrust.model.scim2.SearchRequest;
-import org.gluu.oxtrust.model.scim2.patch.PatchOperation;
 import org.gluu.oxtrust.model.scim2.patch.PatchRequest;
 import org.gluu.oxtrust.model.scim2.user.UserResource;
-import org.gluu.oxtrust.model.scim2.util.ScimResourceUtil;
 import org.gluu.oxtrust.service.filter.ProtectedApi;
 import org.gluu.oxtrust.model.scim.ScimCustomPerson;
-import org.gluu.oxtrust.service.scim2.Scim2PatchService;
 import org.gluu.oxtrust.service.scim2.Scim2UserService;
 import org.gluu.oxtrust.service.scim2.interceptor.RefAdjusted;
 import org.gluu.persist.model.PagedResult;
 import org.gluu.persist.model.SortOrder;
-import org.joda.time.format.ISODateTimeFormat;
 
 import com.wordnik.swagger.annotations.Api;
 import com.wordnik.swagger.annotations.ApiOperation;
@@ -78,7 +73,7 @@ public class UserWebService extends BaseScimWebService implements IUserWebServic
     private Scim2UserService scim2UserService;
 
     @Inject
-    private Scim2PatchService scim2PatchService;
+    private UserResourceOperations userOperations;
 
     /**
      *
@@ -288,37 +283,8 @@ public class UserWebService extends BaseScimWebService implements IUserWebServic
         Response response;
         try{
             log.debug("Executing web service method. patchUser");
-            UserResource user=new UserResource();
-            ScimCustomPerson person=userPersistenceHelper.getPersonByInum(id);  //person is not null (check associated decorator method)
-
-            //Fill user instance with all info from person
-            scim2UserService.transferAttributesToUserResource(person, user, endpointUrl);
-
-            //Apply patches one by one in sequence
-            for (PatchOperation po : request.getOperations()) {
-                //Handle special case: https://github.com/GluuFederation/oxTrust/issues/800
-                if (po.getType().equals(REMOVE) && po.getPath().equals("pairwiseIdentitifers")){
-                    //If this block weren't here, the implementation will throw error because read-only attribute cannot be altered
-                    //Note the path is intentionally mistyped, see class member in UserResource
-                    person.setOxPPID(null);
-                    user.setPairwiseIdentifiers(null);
-                    scim2UserService.removePPIDsBranch(person.getDn());
-                }
-                else
-                    user = (UserResource) scim2PatchService.applyPatchOperation(user, po);
-            }
-
-            //Throws exception if final representation does not pass overall validation
-            log.debug("patchUser. Revising final resource representation still passes validations");
-            executeDefaultValidation(user);
-            ScimResourceUtil.adjustPrimarySubAttributes(user);
-
-            //Update timestamp
-            String now=ISODateTimeFormat.dateTime().withZoneUTC().print(System.currentTimeMillis());
-            user.getMeta().setLastModified(now);
-
-            //Replaces the information found in person with the contents of user
-            scim2UserService.replacePersonInfo(person, user, endpointUrl);
+            //person exists (check associated decorator method)
+            UserResource user=userOperations.applyPatch(request, id);
 
             String json=resourceSerializer.serialize(user, attrsList, excludedAttrsList);
             response=Response.ok(new URI(user.getMeta().getLocation())).entity(json).build();
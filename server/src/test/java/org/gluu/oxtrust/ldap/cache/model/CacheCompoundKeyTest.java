@@ -0,0 +1,51 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.model;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test class for CacheCompoundKey sort keys
+ */
+public class CacheCompoundKeyTest {
+
+	@Test
+	public void testSortKeyIgnoresValuesOrder() {
+		CacheCompoundKey key1 = new CacheCompoundKey(new String[] { "b", "a" }, new String[] { "x" }, null);
+		CacheCompoundKey key2 = new CacheCompoundKey(new String[] { "a", "b" }, new String[] { "x" }, null);
+
+		assertEquals(key1, key2);
+		assertEquals(key1.toSortKey(), key2.toSortKey());
+	}
+
+	@Test
+	public void testSortKeySeparatesKeys() {
+		// Same values split between primary and secondary keys differently
+		CacheCompoundKey key1 = new CacheCompoundKey(new String[] { "a", "b" }, null, null);
+		CacheCompoundKey key2 = new CacheCompoundKey(new String[] { "a" }, new String[] { "b" }, null);
+		CacheCompoundKey key3 = new CacheCompoundKey(new String[] { "a" }, new String[0], null);
+		CacheCompoundKey key4 = new CacheCompoundKey(new String[] { "a" }, null, null);
+
+		assertNotEquals(key1.toSortKey(), key2.toSortKey());
+		assertNotEquals(key3.toSortKey(), key4.toSortKey());
+	}
+
+	@Test
+	public void testSortKeyOrder() {
+		CacheCompoundKey key1 = new CacheCompoundKey(new String[] { "a" }, new String[] { "z" }, null);
+		CacheCompoundKey key2 = new CacheCompoundKey(new String[] { "ab" }, null, null);
+		CacheCompoundKey key3 = new CacheCompoundKey(new String[] { "b" }, null, null);
+
+		assertTrue(key1.toSortKey().compareTo(key2.toSortKey()) < 0);
+		assertTrue(key2.toSortKey().compareTo(key3.toSortKey()) < 0);
+	}
+
+}
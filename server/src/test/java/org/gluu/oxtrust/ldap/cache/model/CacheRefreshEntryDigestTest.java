@@ -0,0 +1,116 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.model;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.gluu.oxtrust.model.GluuCustomAttribute;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for CacheRefreshEntryDigest
+ */
+public class CacheRefreshEntryDigestTest {
+
+	@Test
+	public void testAttributesOrderDoesNotChangeDigest() {
+		CacheRefreshEntryDigest digest1 = CacheRefreshEntryDigest.compute(createPerson(
+				new GluuCustomAttribute("uid", "test"), new GluuCustomAttribute("mail", "test@example.com")));
+		CacheRefreshEntryDigest digest2 = CacheRefreshEntryDigest.compute(createPerson(
+				new GluuCustomAttribute("mail", "test@example.com"), new GluuCustomAttribute("UID", "test")));
+
+		assertEquals(digest1.getDigest(), digest2.getDigest());
+		assertTrue(digest1.getChangedAttributes(digest2).isEmpty());
+	}
+
+	@Test
+	public void testValuesOrderDoesNotChangeDigest() {
+		CacheRefreshEntryDigest digest1 = CacheRefreshEntryDigest.compute(
+				createPerson(new GluuCustomAttribute("mail", new String[] { "a@example.com", "b@example.com" })));
+		CacheRefreshEntryDigest digest2 = CacheRefreshEntryDigest.compute(
+				createPerson(new GluuCustomAttribute("mail", new String[] { "b@example.com", "a@example.com" })));
+
+		assertEquals(digest1.getDigest(), digest2.getDigest());
+	}
+
+	@Test
+	public void testChangedValueDetected() {
+		CacheRefreshEntryDigest prevDigest = CacheRefreshEntryDigest.compute(
+				createPerson(new GluuCustomAttribute("uid", "test"), new GluuCustomAttribute("mail", "a@example.com")));
+		CacheRefreshEntryDigest currDigest = CacheRefreshEntryDigest.compute(
+				createPerson(new GluuCustomAttribute("uid", "test"), new GluuCustomAttribute("mail", "b@example.com")));
+
+		assertNotEquals(currDigest.getDigest(), prevDigest.getDigest());
+		assertEquals(currDigest.getChangedAttributes(prevDigest), Collections.singleton("mail"));
+	}
+
+	@Test
+	public void testRemovedAttributeDetected() {
+		CacheRefreshEntryDigest prevDigest = CacheRefreshEntryDigest.compute(createPerson(
+				new GluuCustomAttribute("uid", "test"), new GluuCustomAttribute("mail", "test@example.com"),
+				new GluuCustomAttribute("telephoneNumber", "123")));
+		CacheRefreshEntryDigest currDigest = CacheRefreshEntryDigest.compute(
+				createPerson(new GluuCustomAttribute("uid", "test"), new GluuCustomAttribute("cn", "Test")));
+
+		assertNotEquals(currDigest.getDigest(), prevDigest.getDigest());
+		assertEquals(currDigest.getChangedAttributes(prevDigest),
+				new HashSet<String>(Arrays.asList("mail", "telephonenumber", "cn")));
+	}
+
+	@Test
+	public void testValueMovedBetweenAttributesDetected() {
+		CacheRefreshEntryDigest digest1 = CacheRefreshEntryDigest
+				.compute(createPerson(new GluuCustomAttribute("mail", new String[] { "a", "b" })));
+		CacheRefreshEntryDigest digest2 = CacheRefreshEntryDigest.compute(
+				createPerson(new GluuCustomAttribute("mail", "a"), new GluuCustomAttribute("secretAnswer", "b")));
+
+		assertNotEquals(digest1.getDigest(), digest2.getDigest());
+	}
+
+	@Test
+	public void testWriteRead() throws IOException {
+		CacheRefreshEntryDigest digest = CacheRefreshEntryDigest.compute(
+				createPerson(new GluuCustomAttribute("uid", "test"), new GluuCustomAttribute("mail", "test@example.com")));
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bos);
+		digest.write(out);
+		new CacheRefreshEntryDigest(digest.getDigest(), null, null).write(out);
+		out.flush();
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+		CacheRefreshEntryDigest readDigest = CacheRefreshEntryDigest.read(in);
+		assertEquals(readDigest.getDigest(), digest.getDigest());
+		assertTrue(readDigest.getChangedAttributes(digest).isEmpty());
+
+		CacheRefreshEntryDigest legacyDigest = CacheRefreshEntryDigest.read(in);
+		assertEquals(legacyDigest.getDigest(), digest.getDigest());
+		assertNull(legacyDigest.getChangedAttributes(digest));
+	}
+
+	private GluuSimplePerson createPerson(GluuCustomAttribute... attributes) {
+		GluuSimplePerson person = new GluuSimplePerson();
+		person.setDn("uid=test,ou=people,o=gluu");
+		person.setSourceServerName("source1");
+		person.setCustomAttributes(Arrays.asList(attributes));
+
+		return person;
+	}
+
+}
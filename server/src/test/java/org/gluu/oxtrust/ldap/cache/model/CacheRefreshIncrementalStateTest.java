@@ -0,0 +1,83 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.model;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test class for CacheRefreshIncrementalState change markers
+ */
+public class CacheRefreshIncrementalStateTest {
+
+	@Test
+	public void testCompareNumericMarkers() {
+		assertTrue(CacheRefreshIncrementalState.compareChangeMarkers("9", "10") < 0);
+		assertTrue(CacheRefreshIncrementalState.compareChangeMarkers("100", "99") > 0);
+		assertTrue(CacheRefreshIncrementalState.compareChangeMarkers("12345678901234567890", "12345678901234567891") < 0);
+		assertEquals(CacheRefreshIncrementalState.compareChangeMarkers("42", "42"), 0);
+	}
+
+	@Test
+	public void testCompareNumericMarkersWithLeadingZeros() {
+		assertEquals(CacheRefreshIncrementalState.compareChangeMarkers("0042", "42"), 0);
+		assertTrue(CacheRefreshIncrementalState.compareChangeMarkers("0099", "100") < 0);
+		assertEquals(CacheRefreshIncrementalState.compareChangeMarkers("000", "0"), 0);
+	}
+
+	@Test
+	public void testCompareTimestampMarkers() {
+		assertTrue(CacheRefreshIncrementalState.compareChangeMarkers("20190101000000Z", "20190101000001Z") < 0);
+		assertTrue(CacheRefreshIncrementalState.compareChangeMarkers("20191231235959.0Z", "20190101000000.0Z") > 0);
+		assertEquals(CacheRefreshIncrementalState.compareChangeMarkers("20190101000000Z", "20190101000000Z"), 0);
+	}
+
+	@Test
+	public void testCompareMixedMarkers() {
+		// Non numeric markers are compared as strings
+		assertTrue(CacheRefreshIncrementalState.compareChangeMarkers("", "1") < 0);
+		assertTrue(CacheRefreshIncrementalState.compareChangeMarkers("9", "10Z") > 0);
+	}
+
+	@Test
+	public void testUpdateChangeMarkerKeepsMaximum() {
+		CacheRefreshIncrementalState state = new CacheRefreshIncrementalState("uSNChanged");
+		state.updateChangeMarker("source1", "99");
+		state.updateChangeMarker("source1", "100");
+		state.updateChangeMarker("source1", "98");
+		state.updateChangeMarker("source2", "5");
+		state.updateChangeMarker("source2", null);
+		state.updateChangeMarker(null, "7");
+
+		assertEquals(state.getChangeMarker("source1"), "100");
+		assertEquals(state.getChangeMarker("source2"), "5");
+		assertNull(state.getChangeMarker("source3"));
+		assertEquals(state.getChangeMarkers().size(), 2);
+	}
+
+	@Test
+	public void testUpdateChangeMarkersMergesStates() {
+		CacheRefreshIncrementalState state1 = new CacheRefreshIncrementalState("modifyTimestamp");
+		state1.updateChangeMarker("source1", "20190102000000Z");
+		state1.updateChangeMarker("source2", "20190101000000Z");
+
+		CacheRefreshIncrementalState state2 = new CacheRefreshIncrementalState("modifyTimestamp");
+		state2.updateChangeMarker("source1", "20190101000000Z");
+		state2.updateChangeMarker("source2", "20190103000000Z");
+		state2.updateChangeMarker("source3", "20190104000000Z");
+
+		state1.updateChangeMarkers(state2);
+
+		assertEquals(state1.getChangeMarker("source1"), "20190102000000Z");
+		assertEquals(state1.getChangeMarker("source2"), "20190103000000Z");
+		assertEquals(state1.getChangeMarker("source3"), "20190104000000Z");
+	}
+
+}
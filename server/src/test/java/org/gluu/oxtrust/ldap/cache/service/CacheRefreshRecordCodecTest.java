@@ -0,0 +1,75 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.gluu.oxtrust.ldap.cache.model.GluuSimplePerson;
+import org.gluu.oxtrust.model.GluuCustomAttribute;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for CacheRefreshRecordCodec
+ */
+public class CacheRefreshRecordCodecTest {
+
+	@Test
+	public void testStringRoundTrip() throws IOException {
+		assertEquals(CacheRefreshRecordCodec.decodeString(CacheRefreshRecordCodec.encodeString("")), "");
+		assertEquals(CacheRefreshRecordCodec.decodeString(CacheRefreshRecordCodec.encodeString("uid=\u00e9l\u00e8ve")),
+				"uid=\u00e9l\u00e8ve");
+		assertNull(CacheRefreshRecordCodec.decodeString(CacheRefreshRecordCodec.encodeString(null)));
+		assertEquals(CacheRefreshRecordCodec.decodeInt(CacheRefreshRecordCodec.encodeInt(-42)), -42);
+	}
+
+	@Test
+	public void testStringsRoundTrip() throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream out = CacheRefreshRecordCodec.createOutput(bos);
+		CacheRefreshRecordCodec.writeStrings(out, new String[] { "a", null, "" });
+		CacheRefreshRecordCodec.writeStrings(out, new String[0]);
+		CacheRefreshRecordCodec.writeStrings(out, null);
+
+		DataInputStream in = CacheRefreshRecordCodec.createInput(bos.toByteArray());
+		assertEquals(CacheRefreshRecordCodec.readStrings(in), new String[] { "a", null, "" });
+		assertEquals(CacheRefreshRecordCodec.readStrings(in), new String[0]);
+		assertNull(CacheRefreshRecordCodec.readStrings(in));
+	}
+
+	@Test
+	public void testPersonRoundTrip() throws IOException {
+		GluuSimplePerson person = new GluuSimplePerson();
+		person.setDn("uid=test,ou=people,o=gluu");
+		person.setSourceServerName("source1");
+		person.setCustomObjectClasses(new String[] { "gluuPerson", "eduPerson" });
+		person.setCustomAttributes(Arrays.asList(new GluuCustomAttribute("uid", new String[] { "test" }),
+				new GluuCustomAttribute("mail", new String[] { "a@example.com", "b@example.com" })));
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		CacheRefreshRecordCodec.writePerson(CacheRefreshRecordCodec.createOutput(bos), person);
+		GluuSimplePerson result = CacheRefreshRecordCodec
+				.readPerson(CacheRefreshRecordCodec.createInput(bos.toByteArray()));
+
+		assertEquals(result.getDn(), person.getDn());
+		assertEquals(result.getSourceServerName(), person.getSourceServerName());
+		assertEquals(result.getCustomObjectClasses(), person.getCustomObjectClasses());
+		assertEquals(result.getCustomAttributes().size(), 2);
+		for (int i = 0; i < 2; i++) {
+			assertEquals(result.getCustomAttributes().get(i).getName(), person.getCustomAttributes().get(i).getName());
+			assertEquals(result.getCustomAttributes().get(i).getValues(),
+					person.getCustomAttributes().get(i).getValues());
+		}
+	}
+
+}
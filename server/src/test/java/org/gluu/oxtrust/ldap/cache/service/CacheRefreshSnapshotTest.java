@@ -0,0 +1,142 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshEntryDigest;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for CacheRefreshSnapshotWriter and CacheRefreshSnapshotReader
+ */
+public class CacheRefreshSnapshotTest {
+
+	private File folder;
+
+	@BeforeMethod
+	public void createFolder() throws IOException {
+		this.folder = Files.createTempDirectory("cr-snapshot").toFile();
+	}
+
+	@AfterMethod
+	public void deleteFolder() {
+		File[] files = folder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		folder.delete();
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		// Enough entries to fill several compressed blocks
+		int count = 20000;
+		File file = new File(folder, "snapshot");
+		try (CacheRefreshSnapshotWriter writer = new CacheRefreshSnapshotWriter(file)) {
+			for (int i = 0; i < count; i++) {
+				writer.write(getInum(i), getEntryDigest(i));
+			}
+			writer.commit();
+			assertEquals(writer.getCount(), count);
+		}
+		assertFalse(new File(folder, "snapshot.tmp").exists());
+
+		try (CacheRefreshSnapshotReader reader = CacheRefreshSnapshotReader.open(file)) {
+			for (int i = 0; i < count; i++) {
+				assertTrue(reader.next());
+				assertEquals(reader.getInum(), getInum(i));
+
+				CacheRefreshEntryDigest entryDigest = reader.getEntryDigest();
+				assertEquals(entryDigest.getDigest(), getEntryDigest(i).getDigest());
+				assertTrue(entryDigest.getChangedAttributes(getEntryDigest(i)).isEmpty());
+			}
+			assertFalse(reader.next());
+			assertFalse(reader.next());
+		}
+	}
+
+	@Test
+	public void testEmptySnapshot() throws IOException {
+		File file = new File(folder, "snapshot");
+		try (CacheRefreshSnapshotWriter writer = new CacheRefreshSnapshotWriter(file)) {
+			writer.commit();
+		}
+
+		try (CacheRefreshSnapshotReader reader = CacheRefreshSnapshotReader.open(file)) {
+			assertFalse(reader.next());
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testUnsortedInums() throws IOException {
+		try (CacheRefreshSnapshotWriter writer = new CacheRefreshSnapshotWriter(new File(folder, "snapshot"))) {
+			writer.write("b", getEntryDigest(1));
+			writer.write("a", getEntryDigest(2));
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testDuplicateInums() throws IOException {
+		try (CacheRefreshSnapshotWriter writer = new CacheRefreshSnapshotWriter(new File(folder, "snapshot"))) {
+			writer.write("a", getEntryDigest(1));
+			writer.write("a", getEntryDigest(2));
+		}
+	}
+
+	@Test
+	public void testCloseWithoutCommit() throws IOException {
+		File file = new File(folder, "snapshot");
+		try (CacheRefreshSnapshotWriter writer = new CacheRefreshSnapshotWriter(file)) {
+			writer.write("a", getEntryDigest(1));
+		}
+
+		assertFalse(file.exists());
+		assertEquals(folder.listFiles().length, 0);
+	}
+
+	@Test
+	public void testTextSnapshot() throws IOException {
+		File file = new File(folder, "snapshot.txt");
+		try (FileWriter writer = new FileWriter(file)) {
+			writer.write("inum2:-5\ninum1:7\n");
+		}
+
+		try (CacheRefreshSnapshotReader reader = CacheRefreshSnapshotReader.open(file)) {
+			assertTrue(reader.next());
+			assertEquals(reader.getInum(), "inum1");
+			assertEquals(reader.getEntryDigest().getDigest(), 7);
+			assertFalse(reader.getEntryDigest().hasAttributeDigests());
+
+			assertTrue(reader.next());
+			assertEquals(reader.getInum(), "inum2");
+			assertEquals(reader.getEntryDigest().getDigest(), -5);
+
+			assertFalse(reader.next());
+		}
+	}
+
+	private String getInum(int i) {
+		return String.format("inum-%08d", i);
+	}
+
+	private CacheRefreshEntryDigest getEntryDigest(int i) {
+		return new CacheRefreshEntryDigest(i * 31L, new String[] { "mail", "uid" }, new long[] { i, -i });
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.gluu.oxtrust.ldap.cache.service.CacheRefreshSortedIndex.IndexRecord;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for CacheRefreshSortedIndex
+ */
+public class CacheRefreshSortedIndexTest {
+
+	private File folder;
+
+	@BeforeMethod
+	public void createFolder() throws IOException {
+		this.folder = Files.createTempDirectory("cr-index").toFile();
+	}
+
+	@AfterMethod
+	public void deleteFolder() {
+		File[] files = folder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		folder.delete();
+	}
+
+	@Test
+	public void testOrderAcrossRunFiles() throws IOException {
+		List<String> keys = Arrays.asList("k", "c", "x", "a", "m", "b", "z", "d", "y", "e");
+		try (CacheRefreshSortedIndex index = new CacheRefreshSortedIndex(folder, "test", 3)) {
+			for (String key : keys) {
+				index.add(key, CacheRefreshRecordCodec.encodeString("value-" + key));
+			}
+			assertEquals(index.size(), keys.size());
+
+			List<String> result = new ArrayList<String>();
+			try (CacheRefreshSortedIndex.Reader reader = index.reader()) {
+				while (reader.hasNext()) {
+					IndexRecord record = reader.next();
+					assertEquals(CacheRefreshRecordCodec.decodeString(record.getValue()), "value-" + record.getKey());
+					result.add(record.getKey());
+				}
+			}
+
+			List<String> expected = new ArrayList<String>(keys);
+			expected.sort(null);
+			assertEquals(result, expected);
+			// 10 records with buffer of 3 records are stored in 4 run files
+			assertEquals(folder.listFiles().length, 4);
+		}
+	}
+
+	@Test
+	public void testDuplicateKeysKeepAdditionOrder() throws IOException {
+		try (CacheRefreshSortedIndex index = new CacheRefreshSortedIndex(folder, "test", 2)) {
+			index.add("b", CacheRefreshRecordCodec.encodeInt(1));
+			index.add("a", CacheRefreshRecordCodec.encodeInt(2));
+			index.add("b", CacheRefreshRecordCodec.encodeInt(3));
+			index.add("a", CacheRefreshRecordCodec.encodeInt(4));
+			index.add("b", CacheRefreshRecordCodec.encodeInt(5));
+
+			List<String> result = new ArrayList<String>();
+			try (CacheRefreshSortedIndex.Reader reader = index.reader()) {
+				while (reader.hasNext()) {
+					IndexRecord record = reader.next();
+					result.add(record.getKey() + CacheRefreshRecordCodec.decodeInt(record.getValue()));
+				}
+			}
+
+			assertEquals(result, Arrays.asList("a2", "a4", "b1", "b3", "b5"));
+		}
+	}
+
+	@Test
+	public void testNullValueAndClear() throws IOException {
+		try (CacheRefreshSortedIndex index = new CacheRefreshSortedIndex(folder, "test", 10)) {
+			index.add("a", null);
+
+			try (CacheRefreshSortedIndex.Reader reader = index.reader()) {
+				assertEquals(reader.peek().getKey(), "a");
+				assertNull(reader.next().getValue());
+				assertFalse(reader.hasNext());
+			}
+
+			index.clear();
+			assertEquals(index.size(), 0);
+			assertEquals(folder.listFiles().length, 0);
+			try (CacheRefreshSortedIndex.Reader reader = index.reader()) {
+				assertFalse(reader.hasNext());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+package org.gluu.oxtrust.service.antlr.scimFilter;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.gluu.oxtrust.model.scim2.user.UserResource;
+import org.gluu.oxtrust.service.antlr.scimFilter.util.FilterUtil;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for FilterTemplate. Filters built from templates should be the same as filters computed by
+ * FilterListener
+ */
+public class FilterTemplateTest {
+
+    private final ScimFilterParserService parserService = new ScimFilterParserService();
+
+    @Test
+    public void testStringsWithEscapes() throws Exception {
+        assertSameFilter("userName eq \"jo\\\"hn\"");
+        assertSameFilter("displayName co \"back\\\\slash\"");
+        assertSameFilter("name.givenName sw \"\\u00e9l\\u00e8ve\"");
+        assertSameFilter("displayName eq \"two  spaces and (parens) or \\\"and\\\"\"");
+        assertSameFilter("userName eq \"who?\"");
+    }
+
+    @Test
+    public void testBooleans() throws Exception {
+        assertSameFilter("active eq true");
+        assertSameFilter("active ne false and userName pr");
+    }
+
+    @Test
+    public void testPresentAndNull() throws Exception {
+        assertSameFilter("title pr");
+        assertSameFilter("title eq null or displayName ne null");
+    }
+
+    @Test
+    public void testNestedNot() throws Exception {
+        assertSameFilter("not(userName eq \"a\" and not(title pr))");
+        assertSameFilter("not(not(active eq true) or (displayName co \"x\" and not(title eq null)))");
+    }
+
+    @Test
+    public void testComplexAttributeFilter() throws Exception {
+        assertSameFilter("emails[type eq \"work\" and value co \"@example.com\"] or userName sw \"adm\"");
+    }
+
+    @Test
+    public void testTemplateReusedWithOtherLiterals() throws Exception {
+        assertTemplateReused("userName eq \"john\" and active eq true", "userName eq \"jo\\\"e\" and  active eq false");
+        assertTemplateReused("not(displayName co \"a\") or title pr", "not(displayName co \"\\u0041\")  or title pr");
+    }
+
+    @Test
+    public void testNumbersShape() {
+        FilterTemplate.Shape shape = FilterTemplate.getShape("urn:ext:age gt 30 and urn:ext:score le -1.5");
+        assertEquals(shape.getText(), "urn:ext:age gt ?n and urn:ext:score le ?n");
+        assertEquals(shape.getLiterals(), Arrays.asList("30", "-1.5"));
+
+        //Numbers which are not comparison values are kept
+        shape = FilterTemplate.getShape("x509Certificates.value pr and title eq 30abc");
+        assertEquals(shape.getText(), "x509Certificates.value pr and title eq 30abc");
+        assertEquals(shape.getLiterals(), Collections.emptyList());
+    }
+
+    @Test
+    public void testShapeNormalizesWhitespace() {
+        FilterTemplate.Shape shape1 = FilterTemplate.getShape("userName  eq \"a b\"   and\tactive eq true");
+        FilterTemplate.Shape shape2 = FilterTemplate.getShape("userName eq \"c\" and active eq false");
+
+        assertEquals(shape1.getText(), shape2.getText());
+        assertEquals(shape1.getLiterals(), Arrays.asList("\"a b\"", "true"));
+    }
+
+    @Test
+    public void testShapeRejectsInvalidFilters() {
+        assertNull(FilterTemplate.getShape("userName eq \"unterminated"));
+        assertNull(FilterTemplate.getShape("userName eq ?s"));
+    }
+
+    private void assertSameFilter(String filter) throws Exception {
+        for (boolean ldapBackend : new boolean[] { true, false }) {
+            String preprocessed = FilterUtil.preprocess(filter, UserResource.class);
+            FilterTemplate.Shape shape = FilterTemplate.getShape(preprocessed);
+            assertNotNull(shape, filter);
+
+            FilterListener listener = parse(preprocessed, ldapBackend);
+            assertNull(listener.getError(), filter);
+            assertEquals(shape.getLiterals(), listener.getLiterals(), filter);
+
+            FilterTemplate template = listener.getTemplate();
+            assertNotNull(template, filter);
+            assertEquals(template.instantiate(shape.getLiterals(), ldapBackend).toString(),
+                    listener.getFilter().toString(), filter);
+        }
+    }
+
+    private void assertTemplateReused(String filter, String otherFilter) throws Exception {
+        FilterTemplate.Shape shape = FilterTemplate.getShape(filter);
+        FilterTemplate.Shape otherShape = FilterTemplate.getShape(otherFilter);
+        assertEquals(otherShape.getText(), shape.getText());
+
+        FilterTemplate template = parse(filter, true).getTemplate();
+        FilterListener otherListener = parse(otherFilter, true);
+        assertEquals(otherShape.getLiterals(), otherListener.getLiterals());
+        assertEquals(template.instantiate(otherShape.getLiterals(), true).toString(),
+                otherListener.getFilter().toString());
+    }
+
+    private FilterListener parse(String preprocessed, boolean ldapBackend) throws Exception {
+        FilterListener listener = new FilterListener(UserResource.class, ldapBackend);
+        ParseTreeWalker.DEFAULT.walk(listener, parserService.getParseTree(preprocessed));
+
+        return listener;
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+package org.gluu.oxtrust.service.antlr.scimFilter;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.gluu.oxtrust.model.scim2.user.UserResource;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for MatchFilterCompiler. Predicates compiled should give the same results as MatchFilterVisitor
+ */
+public class MatchFilterCompilerTest {
+
+    private final ScimFilterParserService parserService = new ScimFilterParserService();
+
+    @Test
+    public void testStringOperators() throws Exception {
+        List<Map<String, Object>> emails = getEmails();
+
+        assertSameResults("emails", "type eq \"work\"", emails);
+        assertSameResults("emails", "type ne \"work\"", emails);
+        assertSameResults("emails", "value co \"@example\"", emails);
+        assertSameResults("emails", "value sw \"john\"", emails);
+        assertSameResults("emails", "value ew \".org\"", emails);
+        assertSameResults("emails", "display gt \"b\"", emails);
+        assertSameResults("emails", "display ge \"Bob\"", emails);
+        assertSameResults("emails", "display lt \"b\"", emails);
+        assertSameResults("emails", "display le \"bob\"", emails);
+    }
+
+    @Test
+    public void testCaseInsensitiveStrings() throws Exception {
+        List<Map<String, Object>> emails = getEmails();
+
+        assertSameResults("emails", "type eq \"WORK\"", emails);
+        assertSameResults("emails", "value sw \"JOHN@\"", emails);
+        assertSameResults("emails", "display co \"OB\"", emails);
+    }
+
+    @Test
+    public void testBooleans() throws Exception {
+        List<Map<String, Object>> emails = getEmails();
+
+        assertSameResults("emails", "primary eq true", emails);
+        assertSameResults("emails", "primary ne true", emails);
+        assertSameResults("emails", "primary eq false", emails);
+    }
+
+    @Test
+    public void testPresentAndNull() throws Exception {
+        List<Map<String, Object>> emails = getEmails();
+
+        assertSameResults("emails", "display pr", emails);
+        assertSameResults("emails", "display eq null", emails);
+        assertSameResults("emails", "primary ne null", emails);
+    }
+
+    @Test
+    public void testLogicalOperators() throws Exception {
+        List<Map<String, Object>> emails = getEmails();
+
+        assertSameResults("emails", "type eq \"work\" and primary eq true", emails);
+        assertSameResults("emails", "type eq \"home\" or display pr", emails);
+        assertSameResults("emails", "not(type eq \"work\")", emails);
+        assertSameResults("emails", "not(value ew \".org\" or primary eq true) and display pr", emails);
+        assertSameResults("emails", "(type eq \"work\" or type eq \"other\") and not(display eq null)", emails);
+    }
+
+    @Test
+    public void testDates() throws Exception {
+        List<Map<String, Object>> metas = new ArrayList<>();
+        metas.add(createItem("created", "2017-12-10T10:00:00Z", "lastModified", "2018-01-01T00:00:00.000Z"));
+        metas.add(createItem("created", "2019-05-20T08:30:00-05:00"));
+        metas.add(createItem("lastModified", "2017-12-10T10:00:00Z"));
+
+        assertSameResults("meta", "created eq \"2017-12-10T10:00:00Z\"", metas);
+        assertSameResults("meta", "created ne \"2017-12-10T10:00:00.000Z\"", metas);
+        assertSameResults("meta", "created gt \"2018-01-01T00:00:00Z\"", metas);
+        assertSameResults("meta", "created ge \"2017-12-10T10:00:00Z\"", metas);
+        assertSameResults("meta", "lastModified lt \"2018-01-01T00:00:00Z\"", metas);
+        assertSameResults("meta", "lastModified le \"2018-01-01T00:00:00Z\"", metas);
+    }
+
+    @Test
+    public void testExpressionsWhichCannotBeEvaluated() throws Exception {
+        List<Map<String, Object>> emails = getEmails();
+
+        //Unknown attribute
+        assertSameResults("emails", "unknown eq \"work\"", emails);
+        //Compare value of another type
+        assertSameResults("emails", "type eq true", emails);
+        //Only tested if the first part doesn't decide the result
+        assertSameResults("emails", "type eq \"work\" or unknown pr", emails);
+
+        //Operator not applicable to attribute type. Visitor only finds out when the attribute is present in the item
+        List<Map<String, Object>> withPrimary = new ArrayList<>();
+        for (Map<String, Object> email : emails) {
+            if (email.containsKey("primary")) {
+                withPrimary.add(email);
+            }
+        }
+        assertSameResults("emails", "primary gt true", withPrimary);
+        assertSameResults("emails", "type eq \"home\" and primary co \"x\"", withPrimary);
+
+        List<Map<String, Object>> metas = new ArrayList<>();
+        metas.add(createItem("created", "not a date"));
+        assertSameResults("meta", "created gt \"2017-12-10T10:00:00Z\"", metas);
+    }
+
+    private void assertSameResults(String parent, String filter, List<Map<String, Object>> items) throws Exception {
+
+        ParseTree parseTree = parserService.getParseTree(filter);
+        Predicate<Map<String, Object>> predicate = new MatchFilterCompiler(parent, UserResource.class).visit(parseTree);
+        assertNotNull(predicate, filter);
+
+        for (Map<String, Object> item : items) {
+            Boolean expected;
+            try {
+                expected = new MatchFilterVisitor(item, parent, UserResource.class).visit(parseTree);
+            } catch (NullPointerException e) {
+                //Visitor can't apply logical operators to expressions which couldn't be evaluated
+                expected = null;
+            }
+
+            if (expected == null) {
+                try {
+                    predicate.test(item);
+                    fail(String.format("Filter '%s' should fail for item %s", filter, item));
+                } catch (IllegalArgumentException e) {
+                    //expected
+                }
+            } else {
+                assertEquals(Boolean.valueOf(predicate.test(item)), expected, String.format("Filter '%s', item %s", filter, item));
+            }
+        }
+
+    }
+
+    private List<Map<String, Object>> getEmails() {
+        List<Map<String, Object>> emails = new ArrayList<>();
+        emails.add(createItem("type", "work", "value", "john@example.com", "primary", true, "display", "Bob"));
+        emails.add(createItem("type", "Home", "value", "JOHN@mail.example.org", "primary", false));
+        emails.add(createItem("type", "other", "value", "jdoe@example.org", "display", "alice"));
+        emails.add(createItem("value", "john@gluu.org", "primary", "true"));
+        emails.add(new HashMap<>());
+
+        return emails;
+    }
+
+    private Map<String, Object> createItem(Object... keysAndValues) {
+        Map<String, Object> item = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            item.put(keysAndValues[i].toString(), keysAndValues[i + 1]);
+        }
+
+        return item;
+    }
+
+}
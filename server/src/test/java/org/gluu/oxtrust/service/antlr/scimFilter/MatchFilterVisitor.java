@@ -19,6 +19,7 @@ import org.gluu.oxtrust.service.antlr.scimFilter.util.SimpleExpression;
 
 /**
  * Created by jgomer on 2017-12-10.
+ * Evaluates a filter against a single item. Used as reference implementation in MatchFilterCompilerTest
  */
 public class MatchFilterVisitor extends ScimFilterBaseVisitor<Boolean> {
 
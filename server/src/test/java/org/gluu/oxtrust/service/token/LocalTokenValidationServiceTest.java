@@ -0,0 +1,254 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.service.token;
+
+import static org.testng.Assert.assertEquals;
+
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Test class for LocalTokenValidationService
+ */
+public class LocalTokenValidationServiceTest {
+
+	private static final String ISSUER = "https://idp.example.com";
+	private static final String AUDIENCE = "scim-client";
+	private static final String KEY_ID = "key1";
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private KeyPair keyPair;
+	private KeyPair otherKeyPair;
+	private LocalTokenValidationService service;
+
+	@BeforeClass
+	public void generateKeys() throws Exception {
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+		keyPairGenerator.initialize(2048);
+		this.keyPair = keyPairGenerator.generateKeyPair();
+		this.otherKeyPair = keyPairGenerator.generateKeyPair();
+	}
+
+	@BeforeMethod
+	public void createService() throws Exception {
+		JwksKeyCache keyCache = new JwksKeyCache(LoggerFactory.getLogger(JwksKeyCache.class));
+		setField(keyCache, "keys", Collections.<String, PublicKey>singletonMap(KEY_ID, keyPair.getPublic()));
+		// Don't schedule JWKS reload for unknown keys
+		setField(keyCache, "lastLoadTime", Long.MAX_VALUE / 2);
+
+		this.service = new LocalTokenValidationService();
+		setField(service, "log", LoggerFactory.getLogger(LocalTokenValidationService.class));
+		setField(service, "keyCache", keyCache);
+		setField(service, "enabled", true);
+		setField(service, "audience", AUDIENCE);
+		setField(service, "issuer", ISSUER);
+	}
+
+	@Test
+	public void testValidToken() throws Exception {
+		String token = sign(createHeader(), createClaims("scope1 scope2"));
+
+		assertEquals(service.validate(token, Arrays.asList("scope1", "scope2")), TokenValidationResult.VALID);
+		assertEquals(service.validate(token, Collections.<String>emptyList()), TokenValidationResult.VALID);
+	}
+
+	@Test
+	public void testAlgorithmNoneIsInvalid() throws Exception {
+		ObjectNode header = createHeader();
+		header.put("alg", "none");
+		String token = encode(header) + "." + encode(createClaims("scope1")) + ".c2lnbmF0dXJl";
+
+		assertEquals(service.validate(token, null), TokenValidationResult.INVALID);
+	}
+
+	@Test
+	public void testUnknownKeyIsUnsupported() throws Exception {
+		ObjectNode header = createHeader();
+		header.put("kid", "key2");
+
+		assertEquals(service.validate(sign(header, createClaims("scope1")), null), TokenValidationResult.UNSUPPORTED);
+	}
+
+	@Test
+	public void testBadSignatureIsInvalid() throws Exception {
+		String token = sign(createHeader(), createClaims("scope1"), otherKeyPair.getPrivate());
+		assertEquals(service.validate(token, null), TokenValidationResult.INVALID);
+
+		// Claims changed after signing
+		String[] parts = sign(createHeader(), createClaims("scope1")).split("\\.");
+		token = parts[0] + "." + encode(createClaims("scope1 scope2")) + "." + parts[2];
+		assertEquals(service.validate(token, null), TokenValidationResult.INVALID);
+	}
+
+	@Test
+	public void testExpiredTokenIsInvalid() throws Exception {
+		ObjectNode claims = createClaims("scope1");
+		claims.put("exp", now() - 3600);
+		assertEquals(service.validate(sign(createHeader(), claims), null), TokenValidationResult.INVALID);
+
+		claims.remove("exp");
+		assertEquals(service.validate(sign(createHeader(), claims), null), TokenValidationResult.INVALID);
+	}
+
+	@Test
+	public void testWrongIssuerIsInvalid() throws Exception {
+		ObjectNode claims = createClaims("scope1");
+		claims.put("iss", "https://other.example.com");
+
+		assertEquals(service.validate(sign(createHeader(), claims), null), TokenValidationResult.INVALID);
+	}
+
+	@Test
+	public void testMissingIssuerIsInvalid() throws Exception {
+		ObjectNode claims = createClaims("scope1");
+		claims.remove("iss");
+
+		assertEquals(service.validate(sign(createHeader(), claims), null), TokenValidationResult.INVALID);
+	}
+
+	@Test
+	public void testUnknownIssuerIsUnsupported() throws Exception {
+		setField(service, "issuer", null);
+
+		assertEquals(service.validate(sign(createHeader(), createClaims("scope1")), null),
+				TokenValidationResult.UNSUPPORTED);
+	}
+
+	@Test
+	public void testWrongAudienceIsInvalid() throws Exception {
+		ObjectNode claims = createClaims("scope1");
+		claims.put("aud", "other-client");
+		assertEquals(service.validate(sign(createHeader(), claims), null), TokenValidationResult.INVALID);
+
+		claims.remove("aud");
+		assertEquals(service.validate(sign(createHeader(), claims), null), TokenValidationResult.INVALID);
+
+		claims.putArray("aud").add("other-client").add(AUDIENCE);
+		assertEquals(service.validate(sign(createHeader(), claims), null), TokenValidationResult.VALID);
+	}
+
+	@Test
+	public void testIdTokenIsUnsupported() throws Exception {
+		ObjectNode header = createHeader();
+		header.put("typ", "JWT");
+		ObjectNode claims = createClaims("scope1");
+		claims.put("nonce", "nonce1");
+
+		assertEquals(service.validate(sign(header, claims), null), TokenValidationResult.UNSUPPORTED);
+
+		claims.put("token_type", "bearer");
+		assertEquals(service.validate(sign(header, claims), null), TokenValidationResult.VALID);
+	}
+
+	@Test
+	public void testMissingScopesIsInvalid() throws Exception {
+		String token = sign(createHeader(), createClaims("scope1"));
+
+		assertEquals(service.validate(token, Arrays.asList("scope1", "scope2")), TokenValidationResult.INVALID);
+	}
+
+	@Test
+	public void testRptPermissions() throws Exception {
+		ObjectNode claims = createClaims(null);
+		ArrayNode permissions = claims.putArray("permissions");
+		ObjectNode permission1 = permissions.addObject();
+		permission1.put("resource_id", "resource1");
+		permission1.putArray("resource_scopes").add("scope1").add("scope2");
+		ObjectNode permission2 = permissions.addObject();
+		permission2.put("resource_id", "resource2");
+		permission2.putArray("resource_scopes").add("scope3");
+		permission2.put("exp", now() - 3600);
+
+		String token = sign(createHeader(), claims);
+		assertEquals(service.validateRpt(token, Arrays.asList("scope1", "scope2")), TokenValidationResult.VALID);
+		// Scopes of expired permission are ignored
+		assertEquals(service.validateRpt(token, Arrays.asList("scope1", "scope3")), TokenValidationResult.INVALID);
+	}
+
+	@Test
+	public void testRptWithoutPermissionsIsUnsupported() throws Exception {
+		String token = sign(createHeader(), createClaims("scope1"));
+
+		assertEquals(service.validateRpt(token, Arrays.asList("scope1")), TokenValidationResult.UNSUPPORTED);
+	}
+
+	@Test
+	public void testReferenceTokenIsUnsupported() {
+		assertEquals(service.validate("9a0c5e7b-6c3e-4d55-9a8b-3b1d2b0d6a11", null),
+				TokenValidationResult.UNSUPPORTED);
+	}
+
+	private ObjectNode createHeader() {
+		ObjectNode header = objectMapper.createObjectNode();
+		header.put("alg", "RS256");
+		header.put("typ", "at+jwt");
+		header.put("kid", KEY_ID);
+
+		return header;
+	}
+
+	private ObjectNode createClaims(String scope) {
+		ObjectNode claims = objectMapper.createObjectNode();
+		claims.put("iss", ISSUER);
+		claims.put("aud", AUDIENCE);
+		claims.put("sub", "user1");
+		claims.put("iat", now());
+		claims.put("exp", now() + 3600);
+		if (scope != null) {
+			claims.put("scope", scope);
+		}
+
+		return claims;
+	}
+
+	private String sign(ObjectNode header, ObjectNode claims) throws Exception {
+		return sign(header, claims, keyPair.getPrivate());
+	}
+
+	private String sign(ObjectNode header, ObjectNode claims, PrivateKey privateKey) throws Exception {
+		String signingInput = encode(header) + "." + encode(claims);
+
+		Signature signer = Signature.getInstance("SHA256withRSA");
+		signer.initSign(privateKey);
+		signer.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+
+		return signingInput + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(signer.sign());
+	}
+
+	private String encode(ObjectNode node) throws Exception {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(node));
+	}
+
+	private long now() {
+		return System.currentTimeMillis() / 1000;
+	}
+
+	private void setField(Object object, String name, Object value) throws Exception {
+		Field field = object.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(object, value);
+	}
+
+}
@@ -0,0 +1,241 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.service.uma;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.gluu.oxauth.model.uma.RptIntrospectionResponse;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for RptIntrospectionCache
+ */
+public class RptIntrospectionCacheTest {
+
+	@Test
+	public void testActiveResultIsCached() {
+		RptIntrospectionCache cache = new RptIntrospectionCache(10, 60000, 60000);
+		RptIntrospectionResponse response = createResponse(true, null);
+		CountingLoader loader = new CountingLoader(response);
+
+		assertSame(cache.get("token1", loader), response);
+		assertSame(cache.get("token1", loader), response);
+
+		assertEquals(loader.getCount(), 1);
+		assertEquals(cache.getHitCount(), 1);
+		assertEquals(cache.getMissCount(), 1);
+	}
+
+	@Test
+	public void testActiveResultExpiresAfterTtl() throws InterruptedException {
+		RptIntrospectionCache cache = new RptIntrospectionCache(10, 50, 60000);
+		CountingLoader loader = new CountingLoader(createResponse(true, null));
+
+		cache.get("token1", loader);
+		Thread.sleep(100);
+		cache.get("token1", loader);
+
+		assertEquals(loader.getCount(), 2);
+	}
+
+	@Test
+	public void testTtlIsCappedByTokenExpiration() throws InterruptedException {
+		RptIntrospectionCache cache = new RptIntrospectionCache(10, 60000, 60000);
+		CountingLoader loader = new CountingLoader(createResponse(true, new Date(System.currentTimeMillis() + 200)));
+
+		cache.get("token1", loader);
+		cache.get("token1", loader);
+		assertEquals(loader.getCount(), 1);
+
+		Thread.sleep(300);
+		cache.get("token1", loader);
+		assertEquals(loader.getCount(), 2);
+	}
+
+	@Test
+	public void testExpiredTokenIsNotCached() {
+		RptIntrospectionCache cache = new RptIntrospectionCache(10, 60000, 60000);
+		CountingLoader loader = new CountingLoader(createResponse(true, new Date(System.currentTimeMillis() - 1000)));
+
+		cache.get("token1", loader);
+		cache.get("token1", loader);
+
+		assertEquals(loader.getCount(), 2);
+		assertEquals(cache.getSize(), 0);
+	}
+
+	@Test
+	public void testInactiveResultUsesNegativeTtl() throws InterruptedException {
+		RptIntrospectionCache cache = new RptIntrospectionCache(10, 60000, 200);
+		RptIntrospectionResponse response = createResponse(false, null);
+		CountingLoader loader = new CountingLoader(response);
+
+		assertSame(cache.get("token1", loader), response);
+		assertSame(cache.get("token1", loader), response);
+		assertEquals(loader.getCount(), 1);
+		assertEquals(cache.getNegativeHitCount(), 1);
+
+		Thread.sleep(300);
+		cache.get("token1", loader);
+		assertEquals(loader.getCount(), 2);
+	}
+
+	@Test
+	public void testFailedIntrospectionIsNotCached() {
+		RptIntrospectionCache cache = new RptIntrospectionCache(10, 60000, 60000);
+		AtomicInteger loadCount = new AtomicInteger();
+		Function<String, RptIntrospectionResponse> loader = token -> {
+			loadCount.incrementAndGet();
+			throw new IllegalStateException("oxAuth returned HTTP 503");
+		};
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				cache.get("token1", loader);
+				fail("Introspection failure should be thrown");
+			} catch (IllegalStateException ex) {
+				// expected
+			}
+		}
+
+		assertEquals(loadCount.get(), 2);
+		assertEquals(cache.getSize(), 0);
+		assertEquals(cache.getNegativeHitCount(), 0);
+
+		// Token is introspected again once oxAuth is available
+		RptIntrospectionResponse response = createResponse(true, null);
+		assertSame(cache.get("token1", new CountingLoader(response)), response);
+		assertEquals(cache.getSize(), 1);
+	}
+
+	@Test
+	public void testMissingResultIsNotCached() {
+		RptIntrospectionCache cache = new RptIntrospectionCache(10, 60000, 60000);
+		CountingLoader loader = new CountingLoader(null);
+
+		assertNull(cache.get("token1", loader));
+		assertNull(cache.get("token1", loader));
+
+		assertEquals(loader.getCount(), 2);
+		assertEquals(cache.getSize(), 0);
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEntryIsEvicted() {
+		RptIntrospectionCache cache = new RptIntrospectionCache(2, 60000, 60000);
+		CountingLoader loader = new CountingLoader(createResponse(true, null));
+
+		cache.get("token1", loader);
+		cache.get("token2", loader);
+		// token1 becomes most recently used, so token2 is evicted
+		cache.get("token1", loader);
+		cache.get("token3", loader);
+		assertEquals(loader.getCount(), 3);
+		assertEquals(cache.getSize(), 2);
+		assertEquals(cache.getEvictionCount(), 1);
+
+		cache.get("token1", loader);
+		assertEquals(loader.getCount(), 3);
+
+		cache.get("token2", loader);
+		assertEquals(loader.getCount(), 4);
+	}
+
+	@Test
+	public void testConcurrentRequestsShareOneLoad() throws Exception {
+		final int threads = 8;
+		RptIntrospectionCache cache = new RptIntrospectionCache(10, 60000, 60000);
+		RptIntrospectionResponse response = createResponse(true, null);
+
+		CountDownLatch loadStarted = new CountDownLatch(1);
+		CountDownLatch loadReleased = new CountDownLatch(1);
+		AtomicInteger loadCount = new AtomicInteger();
+		Function<String, RptIntrospectionResponse> loader = token -> {
+			loadCount.incrementAndGet();
+			loadStarted.countDown();
+			try {
+				loadReleased.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			return response;
+		};
+
+		ExecutorService executorService = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<RptIntrospectionResponse>> results = new ArrayList<Future<RptIntrospectionResponse>>();
+			results.add(executorService.submit(() -> cache.get("token1", loader)));
+			assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+
+			for (int i = 1; i < threads; i++) {
+				results.add(executorService.submit(() -> cache.get("token1", loader)));
+			}
+
+			// Wait until other requests join running load
+			long deadline = System.currentTimeMillis() + 10000;
+			while ((cache.getSharedLoadCount() < threads - 1) && (System.currentTimeMillis() < deadline)) {
+				Thread.sleep(10);
+			}
+			loadReleased.countDown();
+
+			for (Future<RptIntrospectionResponse> result : results) {
+				assertSame(result.get(10, TimeUnit.SECONDS), response);
+			}
+		} finally {
+			executorService.shutdownNow();
+		}
+
+		assertEquals(loadCount.get(), 1);
+		assertEquals(cache.getSharedLoadCount(), threads - 1);
+		assertEquals(cache.getMissCount(), threads);
+	}
+
+	private RptIntrospectionResponse createResponse(boolean active, Date expiresAt) {
+		RptIntrospectionResponse response = new RptIntrospectionResponse();
+		response.setActive(active);
+		response.setIssuedAt(new Date(System.currentTimeMillis() - 1000));
+		response.setExpiresAt(expiresAt);
+
+		return response;
+	}
+
+	private static class CountingLoader implements Function<String, RptIntrospectionResponse> {
+
+		private final RptIntrospectionResponse response;
+		private final AtomicInteger count = new AtomicInteger();
+
+		public CountingLoader(RptIntrospectionResponse response) {
+			this.response = response;
+		}
+
+		public RptIntrospectionResponse apply(String token) {
+			count.incrementAndGet();
+			return response;
+		}
+
+		public int getCount() {
+			return count.get();
+		}
+
+	}
+
+}
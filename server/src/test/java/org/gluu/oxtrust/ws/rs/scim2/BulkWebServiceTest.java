@@ -0,0 +1,290 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+package org.gluu.oxtrust.ws.rs.scim2;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.ws.rs.core.Response;
+
+import org.gluu.oxtrust.model.scim2.bulk.BulkOperation;
+import org.gluu.oxtrust.model.scim2.group.GroupResource;
+import org.gluu.oxtrust.model.scim2.group.Member;
+import org.gluu.oxtrust.model.scim2.patch.PatchRequest;
+import org.gluu.oxtrust.model.scim2.user.UserResource;
+import org.gluu.oxtrust.service.scim2.Scim2ExecutorService;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for concurrent processing of BulkWebService. Web services are request scoped, so like in the container
+ * they fail when used outside the request thread
+ */
+public class BulkWebServiceTest {
+
+    private static final String PREFIX = "https://idp.example.com/identity/restv1/scim/v2";
+    private static final String USERS = PREFIX + "/Users";
+    private static final String GROUPS = PREFIX + "/Groups";
+    private static final String FIDO_DEVICES = PREFIX + "/FidoDevices";
+
+    private Thread requestThread;
+    private List<String> offThreadCalls;
+    private List<String> userOperationThreads;
+    private List<GroupResource> createdGroups;
+
+    private Scim2ExecutorService executorService;
+    private BulkWebService bulkWS;
+
+    @BeforeMethod
+    public void createService() throws Exception {
+        requestThread = Thread.currentThread();
+        offThreadCalls = new CopyOnWriteArrayList<>();
+        userOperationThreads = new CopyOnWriteArrayList<>();
+        createdGroups = new CopyOnWriteArrayList<>();
+
+        executorService = new Scim2ExecutorService();
+        setField(executorService, "log", LoggerFactory.getLogger(Scim2ExecutorService.class));
+        executorService.init();
+
+        bulkWS = new BulkWebService();
+        setField(bulkWS, "log", LoggerFactory.getLogger(BulkWebService.class));
+        setField(bulkWS, "userWS", new RequestScopedUserWebService());
+        setField(bulkWS, "groupWS", new RequestScopedGroupWebService());
+        setField(bulkWS, "fidoDeviceWS", new RequestScopedFidoDeviceWebService());
+        setField(bulkWS, "userOperations", new TestUserResourceOperations());
+        setField(bulkWS, "executorService", executorService);
+        setField(bulkWS, "usersEndpoint", USERS);
+        setField(bulkWS, "groupsEndpoint", GROUPS);
+        setField(bulkWS, "fidodevicesEndpoint", FIDO_DEVICES);
+        setField(bulkWS, "commonWsEndpointPrefix", PREFIX);
+    }
+
+    @AfterMethod
+    public void destroyService() {
+        executorService.destroy();
+    }
+
+    @Test
+    public void testRequestScopedBeansAreOnlyUsedInRequestThread() throws Exception {
+        List<BulkOperation> operations = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            operations.add(createOperation("POST", USERS, "u" + i, createUserData("user" + i)));
+        }
+        operations.add(createOperation("POST", GROUPS, "g1", createGroupData("group1", "bulkId:u1", "bulkId:u2")));
+        operations.add(createOperation("PATCH", USERS + "/bulkId:u3", null, createPatchData()));
+        operations.add(createOperation("PUT", USERS + "/bulkId:u4", null, createUserData("user4")));
+        operations.add(createOperation("DELETE", USERS + "/existing", null, null));
+
+        List<BulkOperation> responses = processConcurrently(operations, 4);
+
+        assertEquals(offThreadCalls, Collections.emptyList());
+        assertEquals(responses.size(), operations.size());
+        List<String> statuses = new ArrayList<>();
+        for (BulkOperation response : responses) {
+            statuses.add(response.getStatus());
+        }
+        assertEquals(statuses, Arrays.asList("201", "201", "201", "201", "201", "200", "200", "204"));
+
+        // All user operations ran in worker threads
+        assertEquals(userOperationThreads.size(), 7);
+        for (String threadName : userOperationThreads) {
+            assertTrue(threadName.startsWith("scim2-worker-"), threadName);
+        }
+
+        // Group was created in the request thread with ids of users created before
+        assertEquals(createdGroups.size(), 1);
+        List<String> members = new ArrayList<>();
+        for (Member member : createdGroups.get(0).getMembers()) {
+            members.add(member.getValue());
+        }
+        assertEquals(members, Arrays.asList("user1-id", "user2-id"));
+
+        assertEquals(responses.get(0).getLocation(), USERS + "/user1-id");
+        assertEquals(responses.get(4).getLocation(), GROUPS + "/group1-id");
+        assertEquals(responses.get(5).getLocation(), USERS + "/user3-id");
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<BulkOperation> processConcurrently(List<BulkOperation> operations, int concurrency) throws Exception {
+        Method method = BulkWebService.class.getDeclaredMethod("processConcurrently", List.class, int.class, int.class);
+        method.setAccessible(true);
+
+        return (List<BulkOperation>) method.invoke(bulkWS, operations, operations.size(), concurrency);
+    }
+
+    private BulkOperation createOperation(String method, String path, String bulkId, Map<String, Object> data) {
+        BulkOperation operation = new BulkOperation();
+        operation.setMethod(method);
+        operation.setPath(path);
+        operation.setBulkId(bulkId);
+        if (data != null) {
+            operation.setData(data);
+        }
+
+        return operation;
+    }
+
+    private Map<String, Object> createUserData(String userName) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("schemas", Collections.singletonList("urn:ietf:params:scim:schemas:core:2.0:User"));
+        data.put("userName", userName);
+
+        return data;
+    }
+
+    private Map<String, Object> createGroupData(String displayName, String... memberIds) {
+        List<Map<String, Object>> members = new ArrayList<>();
+        for (String memberId : memberIds) {
+            members.add(Collections.<String, Object>singletonMap("value", memberId));
+        }
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("schemas", Collections.singletonList("urn:ietf:params:scim:schemas:core:2.0:Group"));
+        data.put("displayName", displayName);
+        data.put("members", members);
+
+        return data;
+    }
+
+    private Map<String, Object> createPatchData() {
+        Map<String, Object> operation = new HashMap<>();
+        operation.put("op", "replace");
+        operation.put("path", "displayName");
+        operation.put("value", "Display name");
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("schemas", Collections.singletonList("urn:ietf:params:scim:api:messages:2.0:PatchOp"));
+        data.put("Operations", Collections.singletonList(operation));
+
+        return data;
+    }
+
+    private Response requestScopedCall(String name) {
+        if (Thread.currentThread() != requestThread) {
+            offThreadCalls.add(name);
+            throw new IllegalStateException("WELD-001303: No active contexts for scope type javax.enterprise.context.RequestScoped");
+        }
+
+        return null;
+    }
+
+    private void setField(Object object, String name, Object value) throws Exception {
+        for (Class<?> cls = object.getClass(); cls != null; cls = cls.getSuperclass()) {
+            try {
+                Field field = cls.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(object, value);
+                return;
+            } catch (NoSuchFieldException ex) {
+                // Look in superclass
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+
+    private class RequestScopedUserWebService extends UserWebService {
+
+        @Override
+        public String getEndpointUrl() {
+            requestScopedCall("UserWebService.getEndpointUrl");
+            return USERS;
+        }
+
+        @Override
+        public Response createUser(UserResource user, String attrsList, String excludedAttrsList) {
+            return requestScopedCall("UserWebService.createUser");
+        }
+
+        @Override
+        public Response updateUser(UserResource user, String id, String attrsList, String excludedAttrsList) {
+            return requestScopedCall("UserWebService.updateUser");
+        }
+
+        @Override
+        public Response deleteUser(String id) {
+            return requestScopedCall("UserWebService.deleteUser");
+        }
+
+        @Override
+        public Response patchUser(PatchRequest request, String id, String attrsList, String excludedAttrsList) {
+            return requestScopedCall("UserWebService.patchUser");
+        }
+
+    }
+
+    private class RequestScopedGroupWebService extends GroupWebService {
+
+        @Override
+        public String getEndpointUrl() {
+            requestScopedCall("GroupWebService.getEndpointUrl");
+            return GROUPS;
+        }
+
+        @Override
+        public Response createGroup(GroupResource group, String attrsList, String excludedAttrsList) {
+            requestScopedCall("GroupWebService.createGroup");
+            createdGroups.add(group);
+
+            String id = group.getDisplayName() + "-id";
+            return Response.created(URI.create(GROUPS + "/" + id)).entity("{\"id\":\"" + id + "\"}").build();
+        }
+
+    }
+
+    private class RequestScopedFidoDeviceWebService extends FidoDeviceWebService {
+
+        @Override
+        public String getEndpointUrl() {
+            requestScopedCall("FidoDeviceWebService.getEndpointUrl");
+            return FIDO_DEVICES;
+        }
+
+    }
+
+    private class TestUserResourceOperations extends UserResourceOperations {
+
+        @Override
+        public Response createUser(UserResource user) {
+            userOperationThreads.add(Thread.currentThread().getName());
+
+            String id = user.getUserName() + "-id";
+            return Response.created(URI.create(USERS + "/" + id)).entity("{\"id\":\"" + id + "\"}").build();
+        }
+
+        @Override
+        public Response updateUser(UserResource user, String id) {
+            userOperationThreads.add(Thread.currentThread().getName());
+            return Response.ok().build();
+        }
+
+        @Override
+        public Response deleteUser(String id) {
+            userOperationThreads.add(Thread.currentThread().getName());
+            return Response.noContent().build();
+        }
+
+        @Override
+        public Response patchUser(PatchRequest request, String id) {
+            userOperationThreads.add(Thread.currentThread().getName());
+            return Response.ok().build();
+        }
+
+    }
+
+}